@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import org.jboss.ws.tools.ExitHandler;
+import org.jboss.ws.tools.ExitHandlerFactory;
+
+/**
+ * Keeps the tools from terminating the benchmark JVM; a failed invocation aborts the benchmark instead.
+ */
+public class BenchmarkExitHandlerFactory implements ExitHandlerFactory
+{
+   private static final ExitHandler HANDLER = new ExitHandler()
+   {
+      public void exit(int status)
+      {
+         if (status != 0)
+            throw new IllegalStateException("Tool invocation failed with status " + status);
+      }
+   };
+
+   public ExitHandler get()
+   {
+      return HANDLER;
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.jboss.ws.tools.ant.InstallModulesTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the installmodules task over large synthetic module trees. The task progress messages
+ * are discarded, so that console output does not dominate the figures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstallModulesTaskBenchmark
+{
+   @Param({"100", "1000"})
+   public int modules;
+
+   private File dir;
+   private PrintStream out;
+   private InstallModulesTask task;
+
+   @Setup
+   public void setup() throws IOException
+   {
+      dir = Synthetic.createTempDir("install-modules-benchmark");
+      File source = new File(dir, "source");
+      File target = new File(dir, "target");
+      Synthetic.createModules(source, target, modules, 5);
+
+      Project project = new Project();
+      project.init();
+      task = new InstallModulesTask();
+      task.setProject(project);
+      task.setTaskName("installmodules");
+      task.setTargetDir(target.getPath());
+      FileSet fileset = task.createFileset();
+      fileset.setDir(source);
+      fileset.setIncludes("**/module.xml");
+
+      out = System.out;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      System.setOut(out);
+      Synthetic.delete(dir);
+   }
+
+   @Benchmark
+   public void execute()
+   {
+      task.execute();
+   }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.List;
+
+import org.jboss.ws.api.tools.WSContractConsumer;
+
+/**
+ * A consumer doing nothing, so that benchmarks only measure the tool layer around it.
+ */
+public class NoopConsumer extends WSContractConsumer
+{
+   @Override
+   public void setBindingFiles(List<File> bindingFiles)
+   {
+   }
+
+   @Override
+   public void setCatalog(File catalog)
+   {
+   }
+
+   @Override
+   public void setOutputDirectory(File directory)
+   {
+   }
+
+   @Override
+   public void setSourceDirectory(File directory)
+   {
+   }
+
+   @Override
+   public void setGenerateSource(boolean generateSource)
+   {
+   }
+
+   @Override
+   public void setTargetPackage(String targetPackage)
+   {
+   }
+
+   @Override
+   public void setWsdlLocation(String wsdlLocation)
+   {
+   }
+
+   @Override
+   public void setEncoding(String encoding)
+   {
+   }
+
+   @Override
+   public void setMessageStream(PrintStream messageStream)
+   {
+   }
+
+   @Override
+   public void setAdditionalCompilerClassPath(List<String> classPath)
+   {
+   }
+
+   @Override
+   public void setAdditionalHeaders(boolean additionalHeaders)
+   {
+   }
+
+   @Override
+   public void setTarget(String target)
+   {
+   }
+
+   @Override
+   public void consume(URL wsdl)
+   {
+   }
+
+   @Override
+   public void setExtension(boolean extension)
+   {
+   }
+
+   @Override
+   public void setNoCompile(boolean nocompile)
+   {
+   }
+
+   @Override
+   public void setClientJar(File clientJar)
+   {
+   }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import org.jboss.ws.api.tools.WSContractProvider;
+
+/**
+ * A provider doing nothing, so that benchmarks only measure the tool layer around it.
+ */
+public class NoopProvider extends WSContractProvider
+{
+   @Override
+   public void setGenerateWsdl(boolean generateWsdl)
+   {
+   }
+
+   @Override
+   public void setExtension(boolean extension)
+   {
+   }
+
+   @Override
+   public void setGenerateSource(boolean generateSource)
+   {
+   }
+
+   @Override
+   public void setOutputDirectory(File directory)
+   {
+   }
+
+   @Override
+   public void setResourceDirectory(File directory)
+   {
+   }
+
+   @Override
+   public void setSourceDirectory(File directory)
+   {
+   }
+
+   @Override
+   public void setClassLoader(ClassLoader loader)
+   {
+   }
+
+   @Override
+   public void provide(String endpointClass)
+   {
+   }
+
+   @Override
+   public void provide(Class<?> endpointClass)
+   {
+   }
+
+   @Override
+   public void setMessageStream(PrintStream messageStream)
+   {
+   }
+
+   @Override
+   public void setPortSoapAddress(String address)
+   {
+   }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the synthetic inputs (classpaths, module trees, WSDL documents) the benchmarks run against.
+ */
+final class Synthetic
+{
+   private Synthetic()
+   {
+   }
+
+   static File createTempDir(String prefix) throws IOException
+   {
+      return Files.createTempDirectory(prefix).toFile();
+   }
+
+   /**
+    * Creates the given number of jars, each holding the given number of (dummy) class entries.
+    *
+    * @return the jar files
+    */
+   static File[] createJars(File dir, int jars, int entries) throws IOException
+   {
+      File[] files = new File[jars];
+      byte[] content = new byte[512];
+      for (int i = 0; i < jars; i++)
+      {
+         files[i] = new File(dir, "lib-" + i + ".jar");
+         try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(files[i])))
+         {
+            for (int j = 0; j < entries; j++)
+            {
+               zos.putNextEntry(new ZipEntry("org/example/lib" + i + "/Type" + j + ".class"));
+               zos.write(content);
+               zos.closeEntry();
+            }
+         }
+      }
+      return files;
+   }
+
+   /**
+    * Creates a module tree as processed by InstallModulesTask: <code>source</code> holds the module.xml
+    * descriptors and <code>target</code> the resource jars of each module.
+    */
+   static void createModules(File source, File target, int modules, int resources) throws IOException
+   {
+      for (int i = 0; i < modules; i++)
+      {
+         String path = "org/example/module" + i + "/main";
+         File descriptor = new File(source, path + "/module.xml");
+         descriptor.getParentFile().mkdirs();
+         write(descriptor, "<module xmlns=\"urn:jboss:module:1.1\" name=\"org.example.module" + i + "\">\n"
+               + "    <resources>\n"
+               + "        <!-- Insert resources here -->\n"
+               + "    </resources>\n"
+               + "</module>\n");
+         File libDir = new File(target, path);
+         libDir.mkdirs();
+         for (int j = 0; j < resources; j++)
+         {
+            new File(libDir, "resource-" + j + ".jar").createNewFile();
+         }
+      }
+   }
+
+   /**
+    * Creates a minimal WSDL document.
+    */
+   static File createWsdl(File dir) throws IOException
+   {
+      File wsdl = new File(dir, "Echo.wsdl");
+      write(wsdl, "<definitions xmlns=\"http://schemas.xmlsoap.org/wsdl/\" name=\"EchoService\" targetNamespace=\"http://example.org/echo\"/>\n");
+      return wsdl;
+   }
+
+   static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+
+   private static void write(File file, String content) throws IOException
+   {
+      Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+   }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ws.api.tools.WSContractConsumer;
+import org.jboss.ws.api.tools.WSContractProvider;
+import org.jboss.ws.tools.cmd.WSConsume;
+import org.jboss.ws.tools.cmd.WSProvide;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the WSConsume and WSProvide command line tools around the actual code generation:
+ * tool discovery on its own, then whole invocations (argument parsing, discovery, class loading, configuration)
+ * against consumer and provider implementations doing nothing.
+ * <p>
+ * The state is per thread as the tools' exit handler is.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToolBenchmark
+{
+   private File dir;
+   private String[] consumeArgs;
+   private String[] provideArgs;
+
+   @Setup
+   public void setup() throws IOException
+   {
+      System.setProperty("org.jboss.ws.api.tools.ConsumerFactory", NoopConsumerFactory.class.getName());
+      System.setProperty("org.jboss.ws.api.tools.ProviderFactory", NoopProviderFactory.class.getName());
+      WSConsume.setExitHandlerFactory(new BenchmarkExitHandlerFactory());
+      WSProvide.setExitHandlerFactory(new BenchmarkExitHandlerFactory());
+
+      dir = Synthetic.createTempDir("tool-benchmark");
+      File wsdl = Synthetic.createWsdl(dir);
+      File output = new File(dir, "output");
+      consumeArgs = new String[] {"-q", "-k", "-o", output.getPath(), "-s", new File(dir, "source").getPath(),
+            "-p", "org.example.echo", wsdl.getPath()};
+      provideArgs = new String[] {"-q", "-w", "-o", output.getPath(), "-r", new File(dir, "resource").getPath(),
+            SampleEndpoint.class.getName()};
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      WSConsume.resetExitHandlerFactory();
+      WSProvide.resetExitHandlerFactory();
+      System.clearProperty("org.jboss.ws.api.tools.ConsumerFactory");
+      System.clearProperty("org.jboss.ws.api.tools.ProviderFactory");
+      Synthetic.delete(dir);
+   }
+
+   @Benchmark
+   public WSContractConsumer consumerDiscovery()
+   {
+      return WSContractConsumer.newInstance();
+   }
+
+   @Benchmark
+   public WSContractProvider providerDiscovery()
+   {
+      return WSContractProvider.newInstance(Thread.currentThread().getContextClassLoader());
+   }
+
+   @Benchmark
+   public void consume()
+   {
+      WSConsume.main(consumeArgs);
+   }
+
+   @Benchmark
+   public void provide()
+   {
+      WSProvide.main(provideArgs);
+   }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+import org.jboss.ws.tools.ant.WSProvideTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a non forked wsprovide task run over large synthetic classpaths. A cold run, the first of a
+ * build, is dominated by setting up the classpath loader the provider is given; the warm runs of the same
+ * build reuse the loader cached for the project until the build finishes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WSProvideTaskBenchmark
+{
+   @Param({"10", "100", "1000"})
+   public int jars;
+
+   @Param({"1", "10"})
+   public int endpoints;
+
+   private File dir;
+   private WSProvideTask task;
+
+   @Setup
+   public void setup() throws IOException
+   {
+      System.setProperty("org.jboss.ws.api.tools.ProviderFactory", NoopProviderFactory.class.getName());
+      dir = Synthetic.createTempDir("provide-task-benchmark");
+
+      Project project = new Project();
+      project.init();
+      Path classpath = new Path(project);
+      for (File jar : Synthetic.createJars(dir, jars, 50))
+      {
+         classpath.createPathElement().setLocation(jar);
+      }
+
+      task = new WSProvideTask();
+      task.setProject(project);
+      task.setTaskName("wsprovide");
+      task.setClasspath(classpath);
+      task.setDestdir(new File(dir, "output"));
+      task.setThreads(1);
+      for (int i = 0; i < endpoints; i++)
+      {
+         task.createEndpoint().setSei(SampleEndpoint.class.getName());
+      }
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      task.getProject().fireBuildFinished(null);
+      System.clearProperty("org.jboss.ws.api.tools.ProviderFactory");
+      Synthetic.delete(dir);
+   }
+
+   /**
+    * Finishes the build after each invocation, so that every run sets the classpath loader up again.
+    */
+   @State(Scope.Thread)
+   public static class ColdBuild
+   {
+      @TearDown(Level.Invocation)
+      public void finishBuild(WSProvideTaskBenchmark benchmark)
+      {
+         benchmark.task.getProject().fireBuildFinished(null);
+      }
+   }
+
+   @Benchmark
+   public void executeCold(ColdBuild build)
+   {
+      task.executeNonForked();
+   }
+
+   @Benchmark
+   public void executeWarm()
+   {
+      task.executeNonForked();
+   }
+}
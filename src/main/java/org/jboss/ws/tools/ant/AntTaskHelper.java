@@ -18,8 +18,21 @@
  */
 package org.jboss.ws.tools.ant;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.LogOutputStream;
+import org.apache.tools.ant.types.CommandlineJava;
 import org.apache.tools.ant.types.CommandlineJava.SysProperties;
 import org.apache.tools.ant.types.Environment.Variable;
+import org.jboss.ws.tools.util.ScopedSystemProperties;
+import org.jboss.ws.tools.util.Timings;
 
 /**
  * Helper class for ANT tasks.
@@ -61,6 +74,138 @@ final class AntTaskHelper
       return retVal;
    }
 
+   /**
+    * Collects the system properties set by the <code>-D</code> JVM arguments of a task.
+    *
+    * @param command the task command line, holding the JVM arguments
+    * @return the system properties, by name
+    */
+   static Map<String, String> getSystemProperties(final CommandlineJava command)
+   {
+      Map<String, String> properties = new LinkedHashMap<String, String>();
+      for (Variable variable : toSystemProperties(command.getVmCommand().getArguments()).getVariablesVector())
+      {
+         // -Dkey sets an empty value, like the java launcher does
+         properties.put(variable.getKey(), variable.getValue() != null ? variable.getValue() : "");
+      }
+      return properties;
+   }
+
+   /**
+    * Returns the <code>-D</code> JVM arguments of a task as system properties for a run on the WSToolsDaemon,
+    * warning about the other JVM arguments, which the daemon cannot honour.
+    *
+    * @param task    the task
+    * @param command the task command line, holding the JVM arguments
+    * @return the system properties, by name
+    */
+   static Map<String, String> getDaemonSystemProperties(final Task task, final CommandlineJava command)
+   {
+      for (String arg : command.getVmCommand().getArguments())
+      {
+         if (!arg.startsWith("-D"))
+            task.log("JVM argument " + arg + " is ignored by the WSToolsDaemon", Project.MSG_WARN);
+      }
+      return getSystemProperties(command);
+   }
+
+   /**
+    * Applies the <code>-D</code> JVM arguments of a task as system properties for an in-process run.
+    *
+    * @param task    the task
+    * @param command the task command line, holding the JVM arguments
+    * @return the applied properties, to be restored once the run is done
+    */
+   static ScopedSystemProperties applySystemProperties(final Task task, final CommandlineJava command)
+   {
+      try
+      {
+         return ScopedSystemProperties.apply(getSystemProperties(command));
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new BuildException("Interrupted", task.getLocation());
+      }
+   }
+
+   /**
+    * Logs the recorded timings and/or writes them to a JSON file.
+    *
+    * @param task    the task the timings were recorded by
+    * @param timings the recorded timings
+    * @param log     whether to log a summary
+    * @param file    the JSON file to write, or null
+    */
+   static void reportTimings(final Task task, final Timings timings, final boolean log, final File file)
+   {
+      if (log)
+      {
+         try (PrintStream ps = new PrintStream(new LogOutputStream(task, Project.MSG_INFO), true))
+         {
+            timings.print(ps);
+         }
+      }
+      if (file != null)
+      {
+         try
+         {
+            timings.write(file);
+         }
+         catch (IOException e)
+         {
+            task.log("Could not write " + file + ": " + e.getMessage(), Project.MSG_WARN);
+         }
+      }
+   }
+
+   /**
+    * Creates the file a forked or daemon tool run writes its timings to.
+    *
+    * @param task the task starting the run
+    * @param tool the tool name
+    * @return the timings file, or null if it could not be created
+    */
+   static File createTimingsFile(final Task task, final String tool)
+   {
+      try
+      {
+         return File.createTempFile(tool + "-timings", ".json");
+      }
+      catch (IOException e)
+      {
+         task.log("Could not create timings file: " + e.getMessage(), Project.MSG_WARN);
+         return null;
+      }
+   }
+
+   /**
+    * Adds the timings written by a forked or daemon tool run, then removes its timings file.
+    *
+    * @param task    the task which started the run
+    * @param timings the timings of the task
+    * @param file    the file created by {@link #createTimingsFile(Task, String)}, or null
+    */
+   static void collectTimings(final Task task, final Timings timings, final File file)
+   {
+      if (file == null)
+         return;
+      try
+      {
+         // left empty when the run failed before writing it
+         if (file.length() > 0)
+            timings.addAll(Timings.read(file));
+      }
+      catch (IOException e)
+      {
+         task.log("Could not read timings: " + e.getMessage(), Project.MSG_WARN);
+      }
+      finally
+      {
+         file.delete();
+      }
+   }
+
    /**
     * Converts JVM property of format -Dkey=value to ANT Variable object.
     *
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.tools.ant.AntClassLoader;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.apache.tools.ant.types.Path;
+import org.jboss.ws.tools.util.Fingerprint;
+
+/**
+ * Per-JVM cache of the class loaders endpoints, or the isolated tool stack (see {@link IsolatedTools}), are loaded
+ * from, so that repeated tasks over the same classpath within a build do not open the same jars and define the
+ * same classes again.
+ * <p>
+ * Entries are keyed by the project, the parent loader, the normalized classpath entries and their fingerprint
+ * (path, size and modification time of every file), hence a rebuilt jar or class directory yields a new loader.
+ * They are reference counted: a loader is closed once the build (or the sub build of an <code>antcall</code>)
+ * of its project is finished and the last task using it released it.
+ * </p>
+ */
+final class ClassLoaderCache
+{
+   private static final Map<Key, Entry> ENTRIES = new HashMap<Key, Entry>();
+   private static final Set<Project> LISTENED = Collections.newSetFromMap(new WeakHashMap<Project, Boolean>());
+
+   private ClassLoaderCache()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * A class loader in use by a task.
+    */
+   interface Lease extends AutoCloseable
+   {
+      ClassLoader getLoader();
+
+      /**
+       * @return whether the loader was reused from a previous task
+       */
+      boolean isReused();
+
+      void close();
+   }
+
+   /**
+    * A factory of the loaders to cache.
+    */
+   interface LoaderFactory
+   {
+      /**
+       * @return the loader the endpoints are loaded from, which should be a child of the given Ant loader
+       */
+      ClassLoader create(AntClassLoader antLoader);
+   }
+
+   /**
+    * Acquires a loader over the given classpath, creating it if needed.
+    *
+    * @param project   the project of the task
+    * @param parent    the parent loader
+    * @param classpath the classpath
+    * @param factory   wraps the Ant loader of new entries into the loader handed to tasks
+    * @return the lease, to close once the loader is no longer used
+    */
+   static Lease acquire(Project project, ClassLoader parent, Path classpath, LoaderFactory factory)
+   {
+      final Key key = new Key(project, parent, classpath);
+      final Entry entry;
+      final boolean reused;
+      synchronized (ClassLoaderCache.class)
+      {
+         listen(project);
+         Entry cached = ENTRIES.get(key);
+         reused = cached != null;
+         if (cached == null)
+         {
+            AntClassLoader antLoader = new AntClassLoader(parent, project, classpath, false);
+            cached = new Entry(antLoader, factory.create(antLoader));
+            ENTRIES.put(key, cached);
+         }
+         cached.references++;
+         entry = cached;
+      }
+      return new Lease()
+      {
+         private boolean closed;
+
+         public ClassLoader getLoader()
+         {
+            return entry.loader;
+         }
+
+         public boolean isReused()
+         {
+            return reused;
+         }
+
+         public void close()
+         {
+            synchronized (ClassLoaderCache.class)
+            {
+               if (closed)
+                  return;
+               closed = true;
+               entry.references--;
+               if (entry.evicted && entry.references == 0)
+                  entry.close();
+            }
+         }
+      };
+   }
+
+   private static void listen(final Project project)
+   {
+      if (!LISTENED.add(project))
+         return;
+      project.addBuildListener(new SubBuildListener()
+      {
+         public void buildFinished(BuildEvent event)
+         {
+            evict(project);
+         }
+
+         public void subBuildFinished(BuildEvent event)
+         {
+            if (event.getProject() == project)
+               evict(project);
+         }
+
+         public void subBuildStarted(BuildEvent event)
+         {
+         }
+
+         public void buildStarted(BuildEvent event)
+         {
+         }
+
+         public void targetStarted(BuildEvent event)
+         {
+         }
+
+         public void targetFinished(BuildEvent event)
+         {
+         }
+
+         public void taskStarted(BuildEvent event)
+         {
+         }
+
+         public void taskFinished(BuildEvent event)
+         {
+         }
+
+         public void messageLogged(BuildEvent event)
+         {
+         }
+      });
+   }
+
+   private static synchronized void evict(Project project)
+   {
+      List<Key> keys = new ArrayList<Key>();
+      for (Key key : ENTRIES.keySet())
+      {
+         if (key.project == project)
+            keys.add(key);
+      }
+      for (Key key : keys)
+      {
+         Entry entry = ENTRIES.remove(key);
+         entry.evicted = true;
+         if (entry.references == 0)
+            entry.close();
+      }
+      LISTENED.remove(project);
+   }
+
+   private static final class Key
+   {
+      final Project project;
+      final ClassLoader parent;
+      final String fingerprint;
+
+      Key(Project project, ClassLoader parent, Path classpath)
+      {
+         this.project = project;
+         this.parent = parent;
+         Fingerprint fp = new Fingerprint();
+         for (String element : classpath.list())
+         {
+            fp.addMetadata(new File(element).getAbsoluteFile());
+         }
+         this.fingerprint = fp.getValue();
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Key))
+            return false;
+         Key other = (Key)obj;
+         return project == other.project && parent == other.parent && fingerprint.equals(other.fingerprint);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return fingerprint.hashCode();
+      }
+   }
+
+   private static final class Entry
+   {
+      final AntClassLoader antLoader;
+      final ClassLoader loader;
+      int references;
+      boolean evicted;
+
+      Entry(AntClassLoader antLoader, ClassLoader loader)
+      {
+         this.antLoader = antLoader;
+         this.loader = loader;
+      }
+
+      void close()
+      {
+         if (loader instanceof URLClassLoader)
+         {
+            try
+            {
+               ((URLClassLoader)loader).close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+         }
+         antLoader.cleanup();
+      }
+   }
+}
@@ -30,6 +30,7 @@ import org.apache.tools.ant.taskdefs.condition.Os;
 import org.apache.tools.ant.types.CommandlineJava;
 import org.apache.tools.ant.util.TimeoutObserver;
 import org.apache.tools.ant.util.Watchdog;
+import org.jboss.ws.tools.jfr.ForkedJvmEvent;
 
 public class CustomExecuteJava implements TimeoutObserver
 {
@@ -79,14 +80,25 @@ public class CustomExecuteJava implements TimeoutObserver
        } else {
            exe.setCommandline(cl);
        }
+       ForkedJvmEvent event = new ForkedJvmEvent();
+       event.begin();
+       int rc = -1;
        try {
-           int rc = exe.execute();
+           rc = exe.execute();
            redirector.complete();
            return rc;
        } catch (IOException e) {
            throw new BuildException(e);
        } finally {
            timedOut = exe.killedProcess();
+           event.end();
+           if (event.shouldCommit()) {
+               event.mainClass = command.getClassname();
+               event.commandLine = String.join(" ", cl);
+               event.exitCode = rc;
+               event.timedOut = timedOut;
+               event.commit();
+           }
        }
    }
 
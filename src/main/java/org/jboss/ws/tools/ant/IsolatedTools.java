@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.ant;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.tools.ant.AntClassLoader;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.LogOutputStream;
+import org.apache.tools.ant.types.Path;
+import org.jboss.ws.tools.util.Timings;
+
+/**
+ * Runs the command line tools within the Ant JVM, but isolated from the task class loader: the tools and the
+ * JAX-WS implementation are loaded by a dedicated child-first loader over the task classpath, whose parent is
+ * the Ant core loader. This gives most of the isolation of a forked JVM without starting one.
+ * <p>
+ * The isolated loaders are cached by {@link ClassLoaderCache}, hence later runs over the same, unchanged task
+ * classpath reuse the already loaded (and JIT-compiled) tool stack until the build finishes. Each run gets
+ * its own context class loader and output streams.
+ * </p>
+ */
+final class IsolatedTools
+{
+   private static final ClassLoaderCache.LoaderFactory FACTORY = new ClassLoaderCache.LoaderFactory()
+   {
+      public ClassLoader create(AntClassLoader antLoader)
+      {
+         // the Ant API must be shared with the Ant JVM, should the task classpath contain it
+         antLoader.addSystemPackageRoot("org.apache.tools.ant");
+         return antLoader;
+      }
+   };
+
+   private IsolatedTools()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * @return whether the task was defined with its own classpath, which the isolated loader can be built from
+    */
+   static boolean isSupported(Task task)
+   {
+      ClassLoader taskLoader = SecurityActions.getClassLoader(task.getClass());
+      return taskLoader instanceof AntClassLoader && taskLoader != SecurityActions.getClassLoader(Project.class);
+   }
+
+   /**
+    * Runs a command line tool within the isolated loader of the task classpath.
+    *
+    * @param task     the task
+    * @param tool     the tool class name, having a static <code>run(String[], File, PrintStream, PrintStream)</code> method
+    * @param args     the tool arguments
+    * @param timings  the timings to record the loader setup time into
+    * @param subject  the subject of the recorded timings
+    * @return the tool exit status
+    */
+   static int run(Task task, String tool, String[] args, Timings timings, String subject)
+   {
+      AntClassLoader taskLoader = (AntClassLoader)SecurityActions.getClassLoader(task.getClass());
+      long start = System.nanoTime();
+      ClassLoaderCache.Lease lease = ClassLoaderCache.acquire(task.getProject(), SecurityActions.getClassLoader(Project.class),
+            new Path(task.getProject(), taskLoader.getClasspath()), FACTORY);
+      ClassLoader prevCL = SecurityActions.getContextClassLoader();
+      try (PrintStream out = new PrintStream(new LogOutputStream(task, Project.MSG_INFO), true);
+           PrintStream err = new PrintStream(new LogOutputStream(task, Project.MSG_WARN), true))
+      {
+         ClassLoader loader = lease.getLoader();
+         Method run = Class.forName(tool, true, loader).getMethod("run", String[].class, File.class, PrintStream.class, PrintStream.class);
+         timings.recordSince(subject, Timings.CLASS_LOADING, start);
+         SecurityActions.setContextClassLoader(loader);
+         return (Integer)run.invoke(null, args, null, out, err);
+      }
+      catch (InvocationTargetException e)
+      {
+         throw new BuildException(e.getCause(), task.getLocation());
+      }
+      catch (ReflectiveOperationException e)
+      {
+         throw new BuildException("Could not load " + tool + " from the task classpath", e, task.getLocation());
+      }
+      finally
+      {
+         SecurityActions.setContextClassLoader(prevCL);
+         lease.close();
+      }
+   }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.ant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Runs the jobs of a multi-contract task on a bounded pool of worker threads, collecting the failures
+ * of all the jobs instead of stopping at the first one.
+ * Worker threads are registered with the owning task, so that their output is attributed to it.
+ */
+final class ParallelJobs
+{
+   /**
+    * A single generation run.
+    */
+   interface Job
+   {
+      /**
+       * @return the name the job is reported with, e.g. the WSDL or endpoint
+       */
+      String getName();
+
+      void execute() throws BuildException;
+   }
+
+   private ParallelJobs()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * Executes the provided jobs and waits for all of them to complete.
+    * A single job (or a single thread) is run directly on the calling thread.
+    *
+    * @param task    the task owning the jobs
+    * @param jobs    the jobs to run
+    * @param threads the maximum number of jobs to run concurrently
+    * @return the failure report of each failed job, in the order the jobs were provided
+    */
+   static List<String> execute(final Task task, List<? extends Job> jobs, int threads)
+   {
+      List<String> failures = new ArrayList<String>();
+      if (threads <= 1 || jobs.size() <= 1)
+      {
+         for (Job job : jobs)
+         {
+            String failure = run(job);
+            if (failure != null)
+               failures.add(failure);
+         }
+         return failures;
+      }
+
+      final ClassLoader loader = SecurityActions.getContextClassLoader();
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()), new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, task.getTaskName() + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setContextClassLoader(loader);
+            return t;
+         }
+      });
+      try
+      {
+         List<Future<String>> futures = new ArrayList<Future<String>>(jobs.size());
+         for (final Job job : jobs)
+         {
+            futures.add(executor.submit(new Callable<String>()
+            {
+               public String call()
+               {
+                  task.getProject().registerThreadTask(Thread.currentThread(), task);
+                  try
+                  {
+                     return run(job);
+                  }
+                  finally
+                  {
+                     task.getProject().registerThreadTask(Thread.currentThread(), null);
+                  }
+               }
+            }));
+         }
+         for (int i = 0; i < futures.size(); i++)
+         {
+            try
+            {
+               String failure = futures.get(i).get();
+               if (failure != null)
+                  failures.add(failure);
+            }
+            catch (ExecutionException e)
+            {
+               failures.add(jobs.get(i).getName() + ": " + e.getCause());
+            }
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new BuildException("Interrupted", task.getLocation());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+      return failures;
+   }
+
+   /**
+    * Builds the exception reporting all the failed jobs.
+    */
+   static BuildException toBuildException(Task task, String message, List<String> failures, int total)
+   {
+      StringBuilder sb = new StringBuilder(message).append(" (").append(failures.size()).append(" of ").append(total).append(" failed):");
+      for (String failure : failures)
+      {
+         sb.append(System.lineSeparator()).append("  ").append(failure);
+      }
+      return new BuildException(sb.toString(), task.getLocation());
+   }
+
+   private static String run(Job job)
+   {
+      try
+      {
+         job.execute();
+         return null;
+      }
+      catch (RuntimeException e)
+      {
+         Throwable cause = e instanceof BuildException && e.getCause() != null ? e.getCause() : e;
+         String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+         return job.getName() + ": " + message;
+      }
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.ant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.CommandlineJava;
+
+/**
+ * Profiling of a tool run, as enabled by the debug attribute of the tasks. Each run gets its own directory:
+ * forked JVMs are started with a flight recording, GC logging and class loading logging written there,
+ * while in-process runs are wrapped by a flight recording and a summary of the class loading and GC activity
+ * of the Ant JVM during the run.
+ */
+final class Profiling
+{
+   private static final AtomicInteger COUNTER = new AtomicInteger();
+
+   private final Task task;
+   private final File dir;
+   private Recording recording;
+   private long startNanos;
+   private long loadedBefore;
+   private long unloadedBefore;
+   private long gcCountBefore;
+   private long gcTimeBefore;
+
+   private Profiling(Task task, File dir)
+   {
+      this.task = task;
+      this.dir = dir;
+   }
+
+   /**
+    * Creates the profiling directory of a run.
+    *
+    * @param task    the task performing the run
+    * @param baseDir the directory holding the profiling directories
+    * @param tool    the tool name, used as directory name prefix
+    */
+   static Profiling create(Task task, File baseDir, String tool)
+   {
+      String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+      File dir = new File(baseDir, tool + "-" + timestamp + "-" + COUNTER.incrementAndGet());
+      if (!dir.mkdirs())
+         throw new BuildException("Could not create profiling directory " + dir, task.getLocation());
+      task.log("Writing profiling data to " + dir, Project.MSG_INFO);
+      return new Profiling(task, dir);
+   }
+
+   /**
+    * Adds the JVM options profiling a forked run.
+    */
+   void configure(CommandlineJava command)
+   {
+      command.createVmArgument().setValue("-XX:StartFlightRecording=filename=" + new File(dir, "recording.jfr").getAbsolutePath() + ",settings=profile,dumponexit=true");
+      command.createVmArgument().setValue("-Xlog:gc*:file=\"" + new File(dir, "gc.log").getAbsolutePath() + "\"");
+      command.createVmArgument().setValue("-Xlog:class+load=info,class+unload=info:file=\"" + new File(dir, "classloading.log").getAbsolutePath() + "\"");
+   }
+
+   /**
+    * Starts profiling an in-process run; failures are logged and leave the run unprofiled.
+    */
+   void start()
+   {
+      ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+      loadedBefore = classLoading.getTotalLoadedClassCount();
+      unloadedBefore = classLoading.getUnloadedClassCount();
+      gcCountBefore = getGcCount();
+      gcTimeBefore = getGcTime();
+      try
+      {
+         recording = new Recording(Configuration.getConfiguration("profile"));
+         recording.setName(dir.getName());
+         recording.setToDisk(true);
+         recording.setDestination(new File(dir, "recording.jfr").toPath());
+         recording.start();
+      }
+      catch (IOException | ParseException | IllegalStateException | SecurityException e)
+      {
+         task.log("Could not start flight recording: " + e.getMessage(), Project.MSG_WARN);
+         if (recording != null)
+            recording.close();
+         recording = null;
+      }
+      startNanos = System.nanoTime();
+   }
+
+   /**
+    * Stops profiling an in-process run, writing the recording and the activity summary.
+    */
+   void stop()
+   {
+      long elapsed = System.nanoTime() - startNanos;
+      if (recording != null)
+      {
+         try
+         {
+            recording.stop();
+         }
+         catch (IllegalStateException e)
+         {
+            task.log("Could not write flight recording: " + e.getMessage(), Project.MSG_WARN);
+         }
+         finally
+         {
+            recording.close();
+         }
+      }
+      ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      Properties summary = new Properties();
+      summary.setProperty("elapsedMillis", String.valueOf(elapsed / 1000000));
+      summary.setProperty("loadedClasses", String.valueOf(classLoading.getTotalLoadedClassCount() - loadedBefore));
+      summary.setProperty("unloadedClasses", String.valueOf(classLoading.getUnloadedClassCount() - unloadedBefore));
+      summary.setProperty("gcCount", String.valueOf(getGcCount() - gcCountBefore));
+      summary.setProperty("gcTimeMillis", String.valueOf(getGcTime() - gcTimeBefore));
+      summary.setProperty("heapUsedBytes", String.valueOf(memory.getHeapMemoryUsage().getUsed()));
+      try (OutputStream os = new FileOutputStream(new File(dir, "summary.properties")))
+      {
+         summary.store(os, "Activity of the Ant JVM during the run; other tasks running in parallel are included");
+      }
+      catch (IOException e)
+      {
+         task.log("Could not write profiling summary: " + e.getMessage(), Project.MSG_WARN);
+      }
+   }
+
+   private static long getGcCount()
+   {
+      long count = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      {
+         count += Math.max(0, gc.getCollectionCount());
+      }
+      return count;
+   }
+
+   private static long getGcTime()
+   {
+      long time = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      {
+         time += Math.max(0, gc.getCollectionTime());
+      }
+      return time;
+   }
+}
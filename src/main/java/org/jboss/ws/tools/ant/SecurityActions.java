@@ -79,4 +79,39 @@ final class SecurityActions
          return SecurityManagerUtils.doPrivilegedGetContextClassLoader(clazz);
       }
    }
+
+   /**
+    * Get a system property.
+    *
+    * @param name the property name
+    * @return the property value, or null if not set
+    */
+   static String getSystemProperty(final String name)
+   {
+      if (!SecurityManagerUtils.isSecurityManagerAvailable())
+      {
+         return System.getProperty(name);
+      }
+      else
+      {
+         return doPrivilegedGetSystemProperty(name);
+      }
+   }
+
+   /**
+    * Separate helper method to execute privileged action for getting system property, using FQN for
+    * deprecated/removed APIs, and avoid class loading issues on JDK 23+
+    */
+   @SuppressWarnings("removal")
+   private static String doPrivilegedGetSystemProperty(final String name)
+   {
+      java.security.PrivilegedAction<String> action =
+              new java.security.PrivilegedAction<String>() {
+                 public String run()
+                 {
+                    return System.getProperty(name);
+                 }
+              };
+      return java.security.AccessController.doPrivileged(action);
+   }
 }
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.ant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.jboss.ws.tools.util.Fingerprint;
+
+/**
+ * Stamp file recording the fingerprint of the inputs of a successful generation run, together with
+ * the size and modification time of the files that run wrote. A later run with the same fingerprint
+ * can be skipped as long as those files are still in place and untouched.
+ * <p>
+ * Output directories are often shared by several tasks, hence the written files are detected by
+ * comparing a snapshot of the output locations taken before and after the run, completed by the files
+ * the run reports to have produced without touching them (write-if-changed or hard linked cache entries). The stamp itself is kept
+ * in a metadata directory, keyed by generation run and output directory, and never among the outputs.
+ * </p>
+ */
+final class UpToDateStamp
+{
+   private static final String FINGERPRINT = "fingerprint";
+   private static final String OUTPUT_PREFIX = "output:";
+
+   private final File metadataDir;
+   private final File stampFile;
+
+   /**
+    * @param metadataDir the directory the stamp file is stored in
+    * @param tool        the tool name, used as file name prefix
+    * @param key         identifies the generation run among the others sharing the same output directory
+    * @param outputDir   the output directory
+    */
+   UpToDateStamp(File metadataDir, String tool, String key, File outputDir)
+   {
+      String id = new Fingerprint().add(key).add(outputDir.getAbsolutePath()).getValue().substring(0, 16);
+      this.metadataDir = metadataDir.getAbsoluteFile();
+      this.stampFile = new File(this.metadataDir, tool + "-" + id + ".stamp");
+   }
+
+   File getFile()
+   {
+      return stampFile;
+   }
+
+   /**
+    * @return true if the recorded fingerprint matches and all recorded outputs are unchanged
+    */
+   boolean isUpToDate(String fingerprint)
+   {
+      Properties props = load();
+      if (props == null || !fingerprint.equals(props.getProperty(FINGERPRINT)))
+         return false;
+
+      for (String key : props.stringPropertyNames())
+      {
+         if (key.startsWith(OUTPUT_PREFIX))
+         {
+            File file = new File(key.substring(OUTPUT_PREFIX.length()));
+            if (!props.getProperty(key).equals(describe(file)))
+               return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Removes the stamp, so that a failed run is never considered up to date.
+    */
+   void invalidate()
+   {
+      stampFile.delete();
+   }
+
+   /**
+    * Takes a snapshot of the given output locations (files or directories).
+    */
+   Map<String, String> snapshot(List<File> outputs)
+   {
+      Map<String, String> snapshot = new HashMap<String, String>();
+      for (File output : outputs)
+      {
+         scan(output.getAbsoluteFile(), snapshot);
+      }
+      return snapshot;
+   }
+
+   /**
+    * Records a successful run.
+    *
+    * @param fingerprint the fingerprint of the run inputs
+    * @param before      the output snapshot taken before the run
+    * @param previous    the outputs recorded by the previous run, which might have been left untouched
+    * @param produced    the files the run reports to have produced, which might have been left untouched
+    * @param outputs     the output locations
+    */
+   void write(String fingerprint, Map<String, String> before, Map<String, String> previous, List<File> produced,
+         List<File> outputs) throws IOException
+   {
+      Set<String> producedPaths = new HashSet<String>();
+      for (File file : produced)
+      {
+         producedPaths.add(file.getAbsoluteFile().getPath());
+      }
+      Properties props = new Properties();
+      props.setProperty(FINGERPRINT, fingerprint);
+      for (Map.Entry<String, String> entry : snapshot(outputs).entrySet())
+      {
+         String path = entry.getKey();
+         if (!entry.getValue().equals(before.get(path)) || previous.containsKey(path) || producedPaths.contains(path))
+            props.setProperty(OUTPUT_PREFIX + path, entry.getValue());
+      }
+      File dir = stampFile.getParentFile();
+      if (dir != null)
+         dir.mkdirs();
+      try (OutputStream os = new FileOutputStream(stampFile))
+      {
+         props.store(os, null);
+      }
+   }
+
+   /**
+    * @return the outputs recorded by the previous run, if any
+    */
+   Map<String, String> getRecordedOutputs()
+   {
+      Map<String, String> outputs = new HashMap<String, String>();
+      Properties props = load();
+      if (props != null)
+      {
+         for (String key : props.stringPropertyNames())
+         {
+            if (key.startsWith(OUTPUT_PREFIX))
+               outputs.put(key.substring(OUTPUT_PREFIX.length()), props.getProperty(key));
+         }
+      }
+      return outputs;
+   }
+
+   private Properties load()
+   {
+      if (!stampFile.isFile())
+         return null;
+
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(stampFile))
+      {
+         props.load(is);
+         return props;
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   private void scan(File file, Map<String, String> snapshot)
+   {
+      // an output directory may well hold the metadata directory, e.g. destdir="${basedir}"
+      if (file.equals(metadataDir))
+         return;
+      if (file.isDirectory())
+      {
+         File[] children = file.listFiles();
+         if (children != null)
+         {
+            for (File child : children)
+            {
+               scan(child, snapshot);
+            }
+         }
+      }
+      else if (file.isFile())
+      {
+         snapshot.put(file.getPath(), describe(file));
+      }
+   }
+
+   private static String describe(File file)
+   {
+      return file.isFile() ? file.length() + "," + file.lastModified() : "missing";
+   }
+}
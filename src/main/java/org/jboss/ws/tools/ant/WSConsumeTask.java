@@ -19,9 +19,20 @@
 package org.jboss.ws.tools.ant;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.tools.ant.AntClassLoader;
 import org.apache.tools.ant.BuildException;
@@ -34,6 +45,23 @@ import org.apache.tools.ant.types.CommandlineJava;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.jboss.ws.api.tools.WSContractConsumer;
+import org.jboss.ws.tools.cache.ArtifactCache;
+import org.jboss.ws.tools.cache.CacheLookup;
+import org.jboss.ws.tools.cache.HttpRemoteCache;
+import org.jboss.ws.tools.cache.RemoteCache;
+import org.jboss.ws.tools.cmd.ToolUnavailableException;
+import org.jboss.ws.tools.cmd.WSToolsClient;
+import org.jboss.ws.tools.cmd.WSToolsWorker;
+import org.jboss.ws.tools.cmd.WSToolsWorkerClient;
+import org.jboss.ws.tools.jfr.ConsumeEvent;
+import org.jboss.ws.tools.util.ClientJar;
+import org.jboss.ws.tools.util.Fingerprint;
+import org.jboss.ws.tools.util.JarPackager;
+import org.jboss.ws.tools.util.OutputSync;
+import org.jboss.ws.tools.util.ScopedSystemProperties;
+import org.jboss.ws.tools.util.SharedCompiler;
+import org.jboss.ws.tools.util.Timings;
+import org.jboss.ws.tools.util.ToolDiscovery;
 
 /**
  * Ant task which consumes a Web Service contract.
@@ -43,7 +71,7 @@ import org.jboss.ws.api.tools.WSContractConsumer;
  *   <tr><td>fork</td><td>Whether or not to run the generation task in a separate VM.</td><td>true</td></tr>
  *   <tr><td>keep</td><td>Keep/Enable Java source code generation.</td><td>false</td></tr>
  *   <tr><td>catalog</td><td> Oasis XML Catalog file for entity resolution</td><td>none</td></tr>
- *   <tr><td>clientjar</td><td>Gnerate the client jar of generated artifacts for calling a webservice</td><td>none</td></tr>
+ *   <tr><td>clientjar</td><td>Generate a reproducible client jar of the generated artifacts and WSDL documents for calling a webservice</td><td>none</td></tr>
  *   <tr><td>package</td><td> The target Java package for generated code.</td><td>generated</td></tr>
  *   <tr><td>binding</td><td>A JAX-WS or JAXB binding file</td><td>none</td></tr>
  *   <tr><td>wsdlLocation</td><td>Value to use for @@WebService.wsdlLocation</td><td>generated</td></tr>
@@ -51,9 +79,50 @@ import org.jboss.ws.api.tools.WSContractConsumer;
  *   <tr><td>sourcedestdir</td><td>The output directory for Java source.</td><td>value of destdir</td></tr>
  *   <tr><td>extension</td><td>Enable SOAP 1.2 binding extension.</td><td>false</td></tr>
  *   <tr><td>verbose</td><td>Enables more informational output about cmd progress.</td><td>false</td><tr>
+ *   <tr><td>debug</td><td>Profile the generation: forked JVMs are started with a flight recording, GC logging and class loading logging, in-process runs are wrapped by a flight recording and a class loading and GC summary, written to a new directory below profiledir for each run.</td><td>false</td></tr>
+ *   <tr><td>profiledir</td><td>The directory profiling data is written to.</td><td>${basedir}/jbossws-profile</td></tr>
+ *   <tr><td>workers</td><td>When forking, run the generation on a pool of this many pre-started worker JVMs, shared by the tasks with the same JVM arguments and reused until the build finishes, instead of starting a JVM per task; 0 to start a JVM per task.</td><td>0</td></tr>
+ *   <tr><td>workerjobs</td><td>The number of generations a pooled worker JVM runs before being replaced by a fresh one; 0 for no limit.</td><td>100</td></tr>
+ *   <tr><td>workerheap</td><td>The heap occupancy after garbage collection, in MB, above which a pooled worker JVM is replaced by a fresh one; 0 for no limit.</td><td>0</td></tr>
+ *   <tr><td>isolated</td><td>When not forking, run the generation within the Ant JVM but in a dedicated child-first class loader over the taskdef classpath, which is reused by later tasks until the build finishes.</td><td>false</td></tr>
+ *   <tr><td>daemon</td><td>Submit the generation to a running WSToolsDaemon, falling back to the fork setting if none is reachable.</td><td>false</td></tr>
+ *   <tr><td>incremental</td><td>Skip the generation when the WSDL (with its imports), binding files, catalog and options did not change since the last run.</td><td>false</td></tr>
+ *   <tr><td>cachedir</td><td>The artifact cache directory to reuse previously generated artifacts from.</td><td>none, or ${user.home}/.jbossws/artifact-cache with remotecache</td></tr>
+ *   <tr><td>remotecache</td><td>The url of an HTTP artifact cache shared with other machines.</td><td>none</td></tr>
+ *   <tr><td>daemonfile</td><td>The file published by the WSToolsDaemon.</td><td>${user.home}/.jbossws/tools-daemon.properties</td></tr>
+ *   <tr><td>threads</td><td>The maximum number of WSDLs to consume concurrently.</td><td>1</td></tr>
+ *   <tr><td>timings</td><td>Log how long each phase (consumer discovery, artifact cache, generation, forking) took.</td><td>false</td></tr>
+ *   <tr><td>timingsfile</td><td>The JSON file to write how long each phase took to.</td><td>none</td></tr>
+ *   <tr><td>sourcejar</td><td>Package the generated Java source of all the WSDLs into a single srcjar instead of sourcedestdir; implies keep.</td><td>none</td></tr>
+ *   <tr><td>destjar</td><td>Package the other generated artifacts of all the WSDLs into a single jar instead of destdir.</td><td>none</td></tr>
+ *   <tr><td>stagingdir</td><td>Generate below this directory, preferably a memory backed one such as /dev/shm, and then write the results to the output directories (or jars) in a single parallel pass; artifact cache runs stage in the cache directory.</td><td>none</td></tr>
+ *   <tr><td>writeifchanged</td><td>Generate into a staging directory and only write the files whose content changed, so that unchanged files keep their timestamp; files no longer generated for the WSDL are removed.</td><td>false</td></tr>
+ *   <tr><td>metadatadir</td><td>The directory the incremental and writeifchanged bookkeeping is kept in, out of the output directories.</td><td>${basedir}/.jbossws</td></tr>
  *   <tr><td>wsdl*</td><td>The WSDL file or URL</td><td>n/a</td><tr>
  * </table>
- * <b>* = required.</b>
+ * <b>* = required, unless nested wsdlset elements are specified.</b>
+ *
+ * <p>Several WSDLs can be consumed by a single task through nested <code>&lt;wsdlset&gt;</code> file sets;
+ * the <code>package</code>, <code>destdir</code> and <code>sourcedestdir</code> attributes of a set override
+ * the task ones for the WSDLs it includes. WSDLs are consumed concurrently up to the <code>threads</code> limit,
+ * within the Ant JVM or in as many forked JVMs, and the task fails once all of them have been processed,
+ * reporting every WSDL that could not be consumed. WSDLs consumed within the Ant JVM share their compilation:
+ * the consumer only generates the sources, which are queued and compiled together against the task classpath
+ * while the next WSDLs are being generated, provided Ant runs on a JDK and <code>nocompile</code> is not set.</p>
+ *
+ * <p>With <code>sourcejar</code> or <code>destjar</code>, all the WSDLs are generated into staging directories
+ * below the local temporary directory, which are packaged once all of them are done; the corresponding set
+ * overrides and the <code>incremental</code> check do not apply then.</p>
+ *
+ * <p>Within the Ant JVM, the system properties given by nested <code>&lt;jvmarg value=&quot;-Dkey=value&quot;/&gt;</code>
+ * elements are set for the duration of the run and restored afterwards. Concurrent runs, for instance within
+ * <code>&lt;parallel&gt;</code>, share properties set to the same value and wait for each other on conflicting values.
+ * Other JVM arguments only apply to forked JVMs.</p>
+ *
+ * <p>With <code>fork</code> and <code>workers</code>, the generation is submitted to a pool of pre-started
+ * <code>WSToolsWorker</code> JVMs over their standard input and output, instead of starting a JVM per task.
+ * The pool is shared by the tasks with the same JVM arguments and taskdef classpath. If a worker fails, the task
+ * falls back to starting a JVM of its own.</p>
  *
  * <p>Example:
  *
@@ -68,12 +137,17 @@ import org.jboss.ws.api.tools.WSContractConsumer;
  *   wsdl=&quot;foo.wsdl&quot;&gt;
  *   &lt;binding dir=&quot;binding-files&quot; includes=&quot;*.xml&quot; excludes=&quot;bad.xml&quot;/&gt;
  * &lt;/wsimport&gt;
+ *
+ * &lt;WSConsumeTask destdir=&quot;output&quot; threads=&quot;4&quot;&gt;
+ *   &lt;wsdlset dir=&quot;wsdl/billing&quot; includes=&quot;*.wsdl&quot; package=&quot;org.example.billing&quot;/&gt;
+ *   &lt;wsdlset dir=&quot;wsdl/shipping&quot; includes=&quot;*.wsdl&quot; package=&quot;org.example.shipping&quot;/&gt;
+ * &lt;/WSConsumeTask&gt;
  * </pre>
  *
  * @author <a href="mailto:jason.greene@jboss.com">Jason T. Greene</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  */
-public class WSConsumeTask extends Task
+public class WSConsumeTask extends Task implements ParallelJobs.Job
 {
    private CommandlineJava command = new CommandlineJava();
    private String wsdl;
@@ -90,15 +164,132 @@ public class WSConsumeTask extends Task
    private boolean verbose;
    private boolean fork;
    private boolean debug;
+   private File profiledir;
    private boolean nocompile;
    private boolean additionalHeaders;
+   private boolean isolated;
+   private int workers;
+   private int workerjobs = 100;
+   private int workerheap;
+   private boolean daemon;
+   private File daemonFile;
+   private boolean incremental;
+   private File cachedir;
+   private String remotecache;
+   private List<WsdlSet> wsdlSets = new ArrayList<WsdlSet>();
+   private int threads = 1;
+   private boolean timings;
+   private File timingsfile;
+   private Timings phaseTimings = new Timings("wsconsume");
+   private boolean reportTimings = true;
+   private RemoteCache remoteCacheClient;
+   private boolean writeifchanged;
+   private File sourcejar;
+   private File destjar;
+   private File stagingdir;
+   private File metadatadir;
+   private SharedCompiler compiler;
 
-   // Not actually used right now
    public void setDebug(boolean debug)
    {
       this.debug = debug;
    }
 
+   public void setProfiledir(File profiledir)
+   {
+      this.profiledir = profiledir;
+   }
+
+   public void setWorkers(int workers)
+   {
+      this.workers = workers;
+   }
+
+   public void setWorkerjobs(int workerjobs)
+   {
+      this.workerjobs = workerjobs;
+   }
+
+   public void setWorkerheap(int workerheap)
+   {
+      this.workerheap = workerheap;
+   }
+
+   public void setIsolated(boolean isolated)
+   {
+      this.isolated = isolated;
+   }
+
+   public void setDaemon(boolean daemon)
+   {
+      this.daemon = daemon;
+   }
+
+   public void setDaemonFile(File daemonFile)
+   {
+      this.daemonFile = daemonFile;
+   }
+
+   public void setIncremental(boolean incremental)
+   {
+      this.incremental = incremental;
+   }
+
+   public void setCachedir(File cachedir)
+   {
+      this.cachedir = cachedir;
+   }
+
+   public void setRemotecache(String remotecache)
+   {
+      this.remotecache = remotecache;
+   }
+
+   public void setThreads(int threads)
+   {
+      this.threads = threads;
+   }
+
+   public void setTimings(boolean timings)
+   {
+      this.timings = timings;
+   }
+
+   public void setTimingsfile(File timingsfile)
+   {
+      this.timingsfile = timingsfile;
+   }
+
+   public void setWriteifchanged(boolean writeifchanged)
+   {
+      this.writeifchanged = writeifchanged;
+   }
+
+   public void setSourcejar(File sourcejar)
+   {
+      this.sourcejar = sourcejar;
+   }
+
+   public void setDestjar(File destjar)
+   {
+      this.destjar = destjar;
+   }
+
+   public void setStagingdir(File stagingdir)
+   {
+      this.stagingdir = stagingdir;
+   }
+
+   public void setMetadatadir(File metadatadir)
+   {
+      this.metadatadir = metadatadir;
+   }
+
+   public void addConfiguredWsdlset(WsdlSet wsdlSet)
+   {
+      wsdlSets.add(wsdlSet);
+   }
+
    public Commandline.Argument createJvmarg()
    {
       return command.createVmArgument();
@@ -190,14 +381,64 @@ public class WSConsumeTask extends Task
    }
 
    public void executeNonForked()
+   {
+      ConsumeEvent event = new ConsumeEvent();
+      ScopedSystemProperties properties = AntTaskHelper.applySystemProperties(this, command);
+      Profiling profiling = debug ? createProfiling() : null;
+      if (profiling != null)
+         profiling.start();
+      event.begin();
+      try
+      {
+         executeNonForked(event);
+         event.success = true;
+      }
+      finally
+      {
+         properties.restore();
+         if (profiling != null)
+            profiling.stop();
+         event.end();
+         if (event.shouldCommit())
+         {
+            event.wsdl = wsdl;
+            event.options = describeOptions();
+            event.commit();
+         }
+      }
+   }
+
+   private void executeNonForked(ConsumeEvent event)
    {
       ClassLoader prevCL = SecurityActions.getContextClassLoader();
       ClassLoader antLoader = SecurityActions.getClassLoader(this.getClass());
       SecurityActions.setContextClassLoader(antLoader);
       PrintStream ps = null;
+      PrintStream warn = null;
+      CacheLookup lookup = null;
+      OutputSync outputSync = null;
+      File staging = null;
+      File sourceStaging = null;
+      // the sources are compiled together with the ones of the other WSDLs of the task
+      boolean sharedCompile = compiler != null && !nocompile;
+      if (sharedCompile)
+      {
+         try
+         {
+            compiler.register();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            SecurityActions.setContextClassLoader(prevCL);
+            throw new BuildException("Interrupted", getLocation());
+         }
+      }
       try
       {
-         WSContractConsumer consumer = WSContractConsumer.newInstance();
+         long start = System.nanoTime();
+         WSContractConsumer consumer = ToolDiscovery.newConsumer(antLoader);
+         phaseTimings.recordSince(wsdl, Timings.DISCOVERY, start);
          consumer.setGenerateSource(keep);
          consumer.setExtension(extension);
          consumer.setAdditionalHeaders(additionalHeaders);
@@ -206,12 +447,12 @@ public class WSConsumeTask extends Task
             consumer.setOutputDirectory(destdir);
          if (sourcedestdir != null)
             consumer.setSourceDirectory(sourcedestdir);
+         if (clientjar != null)
+            consumer.setClientJar(clientjar);
          if (targetPackage != null)
             consumer.setTargetPackage(targetPackage);
          if (wsdlLocation != null)
             consumer.setWsdlLocation(wsdlLocation);
-         if (clientjar != null)
-            consumer.setClientJar(clientjar);
          if (encoding != null)
             consumer.setEncoding(encoding);
          if (catalog != null)
@@ -227,6 +468,50 @@ public class WSConsumeTask extends Task
          }
          if (bindingFiles != null && bindingFiles.size() > 0)
             consumer.setBindingFiles(bindingFiles);
+         if (sharedCompile)
+         {
+            consumer.setNoCompile(true);
+            consumer.setGenerateSource(true);
+         }
+
+         if (writeifchanged || incremental)
+            outputSync = new OutputSync("wsconsume", getOutputId(), getMetadataDir(), writeifchanged);
+         File generatedOutput = getOutputTargets().get("output");
+         File generatedSource = sourcedestdir;
+         if (cachedir != null || remotecache != null)
+         {
+            warn = new PrintStream(new LogOutputStream(this, Project.MSG_WARN), true);
+            start = System.nanoTime();
+            try
+            {
+               ArtifactCache cache = ArtifactCache.getInstance(cachedir != null ? cachedir : ArtifactCache.DEFAULT_DIRECTORY);
+               lookup = new CacheLookup(cache, remoteCacheClient, getCacheKey(cache, consumer), getOutputTargets(), warn);
+               lookup.setOutputSync(outputSync);
+               if (lookup.restore())
+               {
+                  event.cacheHit = true;
+                  log("Restored artifacts for wsdl: " + wsdl + " from cache", Project.MSG_INFO);
+                  return;
+               }
+               File cacheStaging = lookup.begin();
+               generatedOutput = new File(cacheStaging, "output");
+               consumer.setOutputDirectory(generatedOutput);
+               if (sourcedestdir != null)
+               {
+                  generatedSource = new File(cacheStaging, "source");
+                  consumer.setSourceDirectory(generatedSource);
+               }
+            }
+            catch (IOException e)
+            {
+               log("Artifact cache not available: " + e.getMessage(), Project.MSG_WARN);
+               lookup = null;
+            }
+            finally
+            {
+               phaseTimings.recordSince(wsdl, Timings.CACHE_LOOKUP, start);
+            }
+         }
 
          log("Consuming wsdl: " + wsdl, Project.MSG_INFO);
 
@@ -238,8 +523,78 @@ public class WSConsumeTask extends Task
 
          try
          {
+            if (lookup == null && (writeifchanged || stagingdir != null))
+            {
+               if (outputSync == null)
+                  outputSync = new OutputSync();
+               staging = OutputSync.createStaging(generatedOutput, stagingdir);
+               generatedOutput = new File(staging, "output");
+               consumer.setOutputDirectory(generatedOutput);
+               if (sourcedestdir != null)
+               {
+                  generatedSource = new File(staging, "source");
+                  consumer.setSourceDirectory(generatedSource);
+               }
+            }
+            else if (lookup == null && sharedCompile)
+            {
+               // the classes are compiled straight into destdir, only the sources are kept apart so that the
+               // shared compiler never sees (nor deletes) the ones of the other WSDLs
+               sourceStaging = OutputSync.createStaging(generatedOutput, null);
+               generatedSource = new File(sourceStaging, "source");
+               consumer.setSourceDirectory(generatedSource);
+            }
             consumer.setAdditionalCompilerClassPath(getTaskClassPathStrings());
-            consumer.consume(wsdl);
+            start = System.nanoTime();
+            try
+            {
+               consumer.consume(wsdl);
+            }
+            finally
+            {
+               phaseTimings.recordSince(wsdl, Timings.GENERATION, start);
+            }
+            if (sharedCompile)
+            {
+               start = System.nanoTime();
+               try
+               {
+                  compiler.compile(generatedSource != null ? generatedSource : generatedOutput, generatedOutput, encoding);
+               }
+               finally
+               {
+                  phaseTimings.recordSince(wsdl, Timings.COMPILATION, start);
+               }
+               if (sourceStaging != null)
+               {
+                  if (keep)
+                     new OutputSync().sync(sourceStaging, Collections.singletonMap("source", sourcedestdir != null ? sourcedestdir : generatedOutput));
+               }
+               else if (!keep)
+               {
+                  SharedCompiler.deleteSources(generatedOutput);
+                  if (generatedSource != null)
+                     SharedCompiler.deleteSources(generatedSource);
+               }
+            }
+            if (clientjar != null)
+            {
+               start = System.nanoTime();
+               ClientJar.repack(new File(generatedOutput, clientjar.getName()));
+               phaseTimings.recordSince(wsdl, Timings.PACKAGING, start);
+            }
+            if (lookup != null)
+            {
+               start = System.nanoTime();
+               lookup.commit();
+               phaseTimings.recordSince(wsdl, Timings.CACHE_STORE, start);
+            }
+            else if (staging != null)
+            {
+               start = System.nanoTime();
+               outputSync.sync(staging, getOutputTargets());
+               phaseTimings.recordSince(wsdl, Timings.OUTPUT_SYNC, start);
+            }
          }
          catch (Throwable e)
          {
@@ -248,23 +603,484 @@ public class WSConsumeTask extends Task
       }
       finally
       {
+         if (sharedCompile)
+            compiler.deregister();
+         event.recordOutputs(outputSync);
+         if (lookup != null)
+            lookup.close();
+         OutputSync.delete(staging);
+         OutputSync.delete(sourceStaging);
          if (ps != null) {
             ps.close();
          }
+         if (warn != null)
+            warn.close();
          SecurityActions.setContextClassLoader(prevCL);
       }
    }
 
    public void execute() throws BuildException
    {
-      if (wsdl == null)
-         throw new BuildException("The wsdl attribute must be specified!", getLocation());
+      if (wsdl == null && wsdlSets.isEmpty())
+         throw new BuildException("The wsdl attribute or a nested wsdlset must be specified!", getLocation());
+
+      // one client per execution, so that the WSDLs after an outage do not wait for the server again
+      if (reportTimings)
+         remoteCacheClient = createRemoteCache();
+      try
+      {
+         if (sourcejar != null || destjar != null)
+            executePackaged();
+         else if (wsdlSets.isEmpty())
+            executeSingle();
+         else
+            executeSets();
+      }
+      finally
+      {
+         if (reportTimings)
+         {
+            AntTaskHelper.reportTimings(this, phaseTimings, timings, timingsfile);
+            phaseTimings = new Timings("wsconsume");
+            remoteCacheClient = null;
+         }
+      }
+   }
+
+   /**
+    * Generates into staging directories, which forked and daemon runs simply see as output directories,
+    * then packages them into the requested jars.
+    */
+   private void executePackaged() throws BuildException
+   {
+      if (incremental)
+         log("Ignoring incremental, the jars are packaged from all the WSDLs", Project.MSG_VERBOSE);
+      File prevDestdir = destdir;
+      File prevSourcedestdir = sourcedestdir;
+      boolean prevKeep = keep;
+      boolean prevIncremental = incremental;
+      boolean prevWriteifchanged = writeifchanged;
+      JarPackager packager = null;
+      try
+      {
+         packager = new JarPackager(sourcejar, destjar, writeifchanged, stagingdir);
+         if (destjar != null)
+            destdir = packager.getOutputDirectory();
+         if (sourcejar != null)
+         {
+            sourcedestdir = packager.getSourceDirectory();
+            keep = true;
+         }
+         incremental = false;
+         // the staging directories start empty, only the jars are written if changed
+         writeifchanged = false;
+         if (wsdlSets.isEmpty())
+            executeSingle();
+         else
+            executeSets();
+
+         long start = System.nanoTime();
+         packager.pack();
+         phaseTimings.recordSince("", Timings.PACKAGING, start);
+      }
+      catch (IOException e)
+      {
+         throw new BuildException("Could not package generated artifacts: " + e.getMessage(), e, getLocation());
+      }
+      finally
+      {
+         destdir = prevDestdir;
+         sourcedestdir = prevSourcedestdir;
+         keep = prevKeep;
+         incremental = prevIncremental;
+         writeifchanged = prevWriteifchanged;
+         if (packager != null)
+            packager.close();
+      }
+   }
+
+   private void executeSets() throws BuildException
+   {
+      List<WSConsumeTask> jobs = new ArrayList<WSConsumeTask>();
+      if (wsdl != null)
+         jobs.add(copyFor(wsdl, null));
+      for (WsdlSet set : wsdlSets)
+      {
+         DirectoryScanner ds = set.getDirectoryScanner(getProject());
+         for (String file : ds.getIncludedFiles())
+         {
+            jobs.add(copyFor(new File(ds.getBasedir(), file).getAbsolutePath(), set));
+         }
+      }
+      List<String> failures;
+      SharedCompiler compiler = createCompiler(jobs.size());
+      try
+      {
+         for (WSConsumeTask job : jobs)
+         {
+            job.compiler = compiler;
+         }
+         // jobs waiting for their sources to be compiled do not count against the generation threads
+         failures = ParallelJobs.execute(this, jobs, compiler != null ? threads + compiler.getQueueCapacity() : threads);
+      }
+      finally
+      {
+         if (compiler != null)
+         {
+            try
+            {
+               compiler.close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+         }
+      }
+      if (!failures.isEmpty())
+         throw ParallelJobs.toBuildException(this, "Could not consume all WSDLs", failures, jobs.size());
+   }
+
+   /**
+    * Creates the compiler shared by the WSDLs consumed within the Ant JVM, if it is worth it.
+    */
+   private SharedCompiler createCompiler(int wsdls)
+   {
+      // the consumers compile on their own when building a client jar, which needs the classes
+      if (wsdls < 2 || nocompile || clientjar != null || fork || isolated || daemon || !SharedCompiler.isAvailable())
+         return null;
+      // the consumers compile on their own when the classpath they are loaded from is unknown
+      List<String> classpath = getCompilerClassPath();
+      return classpath != null ? new SharedCompiler(classpath, threads) : null;
+   }
 
-      if (fork)
+   /**
+    * Determines the classpath the consumer would have compiled the generated sources against: the entries of the
+    * loader the task (hence the JAX-WS API and the consumer) is loaded from, plus the JAX-WS API code sources.
+    *
+    * @return the classpath, or null if the task loader entries can not be determined
+    */
+   private List<String> getCompilerClassPath()
+   {
+      Set<String> classpath = new LinkedHashSet<String>(getTaskClassPathStrings());
+      ClassLoader cl = SecurityActions.getClassLoader(this.getClass());
+      if (classpath.isEmpty())
+      {
+         // jars in ANT_HOME/lib or given with -lib, or the application class path
+         for (ClassLoader loader = cl; loader != null; loader = loader.getParent())
+         {
+            if (loader instanceof URLClassLoader)
+            {
+               for (URL url : ((URLClassLoader)loader).getURLs())
+                  addFile(url, classpath);
+            }
+            else if (loader == ClassLoader.getSystemClassLoader())
+            {
+               for (String entry : SecurityActions.getSystemProperty("java.class.path").split(File.pathSeparator))
+               {
+                  if (!entry.isEmpty())
+                     classpath.add(new File(entry).getAbsolutePath());
+               }
+            }
+         }
+         if (classpath.isEmpty())
+            return null;
+      }
+      addCodeSource(WSContractConsumer.class, classpath);
+      try
+      {
+         addCodeSource(Class.forName("jakarta.xml.ws.Service", false, cl), classpath);
+      }
+      catch (ClassNotFoundException | LinkageError e)
+      {
+         // left to the consumer implementation dependencies
+      }
+      return new ArrayList<String>(classpath);
+   }
+
+   private static void addCodeSource(Class<?> clazz, Set<String> classpath)
+   {
+      CodeSource cs = clazz.getProtectionDomain().getCodeSource();
+      if (cs != null && cs.getLocation() != null)
+         addFile(cs.getLocation(), classpath);
+   }
+
+   private static void addFile(URL url, Set<String> classpath)
+   {
+      if (!"file".equals(url.getProtocol()))
+         return;
+      try
+      {
+         classpath.add(new File(url.toURI()).getAbsolutePath());
+      }
+      catch (URISyntaxException | IllegalArgumentException e)
+      {
+         // not a plain file
+      }
+   }
+
+   /**
+    * Creates a copy of this task consuming a single WSDL, with the overrides of the given set.
+    */
+   private WSConsumeTask copyFor(String wsdl, WsdlSet set)
+   {
+      WSConsumeTask copy = new WSConsumeTask();
+      copy.bindToOwner(this);
+      try
+      {
+         copy.command = (CommandlineJava)command.clone();
+      }
+      catch (CloneNotSupportedException e)
+      {
+         throw new BuildException(e, getLocation());
+      }
+      copy.wsdl = wsdl;
+      copy.destdir = destjar == null && set != null && set.destdir != null ? set.destdir : destdir;
+      copy.sourcedestdir = sourcejar == null && set != null && set.sourcedestdir != null ? set.sourcedestdir : sourcedestdir;
+      copy.targetPackage = set != null && set.targetPackage != null ? set.targetPackage : targetPackage;
+      copy.bindingFiles = bindingFiles;
+      copy.catalog = catalog;
+      copy.clientjar = clientjar;
+      copy.wsdlLocation = wsdlLocation;
+      copy.encoding = encoding;
+      copy.keep = keep;
+      copy.extension = extension;
+      copy.verbose = verbose;
+      copy.fork = fork;
+      copy.debug = debug;
+      copy.profiledir = profiledir;
+      copy.nocompile = nocompile;
+      copy.additionalHeaders = additionalHeaders;
+      copy.isolated = isolated;
+      copy.workers = workers;
+      copy.workerjobs = workerjobs;
+      copy.workerheap = workerheap;
+      copy.daemon = daemon;
+      copy.daemonFile = daemonFile;
+      copy.incremental = incremental;
+      copy.cachedir = cachedir;
+      copy.remotecache = remotecache;
+      copy.timings = timings;
+      copy.timingsfile = timingsfile;
+      // the copies record into the timings of this task, which reports them all at once
+      copy.phaseTimings = phaseTimings;
+      copy.reportTimings = false;
+      copy.remoteCacheClient = remoteCacheClient;
+      copy.writeifchanged = writeifchanged;
+      copy.stagingdir = stagingdir;
+      copy.metadatadir = metadatadir;
+      return copy;
+   }
+
+   private void executeSingle() throws BuildException
+   {
+      if (!incremental)
+      {
+         executeGeneration();
+         return;
+      }
+
+      File outputDir = destdir != null ? destdir : new File("output").getAbsoluteFile();
+      UpToDateStamp stamp = new UpToDateStamp(getMetadataDir(), "wsconsume", wsdl, outputDir);
+      String fingerprint = getFingerprint();
+      if (fingerprint != null && stamp.isUpToDate(fingerprint))
+      {
+         log("Skipping wsdl: " + wsdl + " (generated artifacts are up to date)", Project.MSG_INFO);
+         return;
+      }
+
+      Map<String, String> previous = stamp.getRecordedOutputs();
+      stamp.invalidate();
+      // the files installed from a staging directory or cache entry, changed or not, as recorded by the run
+      OutputSync record = new OutputSync("wsconsume", getOutputId(), getMetadataDir(), writeifchanged);
+      if (!writeifchanged)
+         record.forget(getOutputTargets());
+      List<File> outputs = getOutputs(outputDir);
+      Map<String, String> before = stamp.snapshot(outputs);
+      executeGeneration();
+      if (fingerprint != null)
+      {
+         try
+         {
+            stamp.write(fingerprint, before, previous, record.getRecordedFiles(getOutputTargets()), outputs);
+         }
+         catch (IOException e)
+         {
+            log("Could not write " + stamp.getFile() + ": " + e.getMessage(), Project.MSG_WARN);
+         }
+      }
+   }
+
+   public String getName()
+   {
+      return wsdl;
+   }
+
+   private void executeGeneration()
+   {
+      if (daemon)
+         executeOnDaemon();
+      else if (fork && workers > 0)
+         executeOnWorker();
+      else if (fork)
          executeForked();
+      else if (isolated)
+         executeIsolated();
       else executeNonForked();
    }
 
+   private Profiling createProfiling()
+   {
+      return Profiling.create(this, profiledir != null ? profiledir : new File(getProject().getBaseDir(), "jbossws-profile"), "wsconsume");
+   }
+
+   private File createForkTimingsFile()
+   {
+      return timings || timingsfile != null ? AntTaskHelper.createTimingsFile(this, "wsconsume") : null;
+   }
+
+   /**
+    * @return the id the generated files of the WSDL are recorded under, the same as the command line tool's
+    */
+   private String getOutputId()
+   {
+      try
+      {
+         return new URL(wsdl).toExternalForm();
+      }
+      catch (MalformedURLException e)
+      {
+         File file = new File(wsdl);
+         if (!file.isAbsolute())
+            file = new File(getProject().getBaseDir(), wsdl);
+         return file.toURI().toString();
+      }
+   }
+
+   private File getMetadataDir()
+   {
+      return metadatadir != null ? metadatadir : new File(getProject().getBaseDir(), OutputSync.METADATA_DIRECTORY);
+   }
+
+   private List<File> getOutputs(File outputDir)
+   {
+      List<File> outputs = new ArrayList<File>();
+      outputs.add(outputDir);
+      if (sourcedestdir != null)
+         outputs.add(sourcedestdir);
+      // the consumer writes the client jar to the output directory, whatever the directory of the attribute
+      if (clientjar != null)
+         outputs.add(new File(outputDir, clientjar.getName()));
+      return outputs;
+   }
+
+   /**
+    * Computes the fingerprint of everything feeding the consumer.
+    *
+    * @return the fingerprint, or null if it could not be computed
+    */
+   private String getFingerprint()
+   {
+      try
+      {
+         Fingerprint fp = new Fingerprint();
+         // remote imports which can not be fetched must not prevent offline builds from being up-to-date
+         fp.add(wsdl).addAvailableWsdl(getWsdlURL(), catalog);
+         for (File file : bindingFiles)
+            fp.add(file.getAbsolutePath()).addContent(file);
+         if (catalog != null)
+            fp.add(catalog.getAbsolutePath()).addContent(catalog);
+         fp.add(targetPackage).add(wsdlLocation).add(encoding);
+         fp.add(keep).add(extension).add(additionalHeaders).add(nocompile);
+         fp.add(destdir != null ? destdir.getAbsolutePath() : null);
+         fp.add(sourcedestdir != null ? sourcedestdir.getAbsolutePath() : null);
+         fp.add(clientjar != null ? clientjar.getAbsolutePath() : null);
+         for (String arg : command.getVmCommand().getArguments())
+            fp.add(arg);
+         // the tools and the consumer implementation
+         for (String entry : getTaskClassPathStrings())
+            fp.addMetadata(new File(entry));
+         return fp.getValue();
+      }
+      catch (IOException e)
+      {
+         log("Could not compute the fingerprint of " + wsdl + ", regenerating: " + e.getMessage(), Project.MSG_VERBOSE);
+         return null;
+      }
+   }
+
+   /**
+    * Computes the artifact cache key; unlike the incremental fingerprint, it must not depend on the
+    * output locations, so that entries are shared across workspaces.
+    */
+   private String getCacheKey(ArtifactCache cache, WSContractConsumer consumer) throws IOException
+   {
+      URL url = getWsdlURL();
+      Fingerprint fp = new Fingerprint().add("wsconsume");
+      cache.addImplementation(fp, WSContractConsumer.class);
+      cache.addImplementation(fp, consumer.getClass());
+      fp.addWsdl(url, catalog);
+      // the wsdl url ends up in the generated code unless a wsdlLocation is specified
+      fp.add(wsdlLocation != null ? wsdlLocation : url.toExternalForm());
+      fp.add(bindingFiles.size());
+      for (File bindingFile : bindingFiles)
+      {
+         fp.addContent(bindingFile);
+      }
+      fp.add(catalog != null);
+      if (catalog != null)
+         fp.addContent(catalog);
+      fp.add(targetPackage).add(encoding).add(clientjar != null ? clientjar.getName() : null);
+      fp.add(keep).add(extension).add(additionalHeaders).add(nocompile).add(sourcedestdir != null);
+      return fp.getValue();
+   }
+
+   /**
+    * @return a description of the generation options, for diagnostics
+    */
+   private String describeOptions()
+   {
+      return "package=" + targetPackage + ", wsdlLocation=" + wsdlLocation + ", encoding=" + encoding
+            + ", bindings=" + bindingFiles.size() + ", catalog=" + (catalog != null) + ", keep=" + keep
+            + ", extension=" + extension + ", additionalHeaders=" + additionalHeaders + ", nocompile=" + nocompile
+            + ", clientjar=" + (clientjar != null ? clientjar.getName() : null);
+   }
+
+   private Map<String, File> getOutputTargets()
+   {
+      Map<String, File> targets = new LinkedHashMap<String, File>();
+      targets.put("output", destdir != null ? destdir : new File("output").getAbsoluteFile());
+      if (sourcedestdir != null)
+         targets.put("source", sourcedestdir);
+      return targets;
+   }
+
+   private RemoteCache createRemoteCache()
+   {
+      if (remotecache == null)
+         return null;
+      try
+      {
+         return new HttpRemoteCache(remotecache);
+      }
+      catch (MalformedURLException e)
+      {
+         throw new BuildException("Invalid remote cache url: " + remotecache, getLocation());
+      }
+   }
+
+   private URL getWsdlURL() throws MalformedURLException
+   {
+      try
+      {
+         return new URL(wsdl);
+      }
+      catch (MalformedURLException e)
+      {
+         return new File(wsdl).toURI().toURL();
+      }
+   }
+
    private Path getTaskClassPath()
    {
       // Why is everything in the Ant API a big hack???
@@ -291,74 +1107,265 @@ public class WSConsumeTask extends Task
       return strings;
    }
 
-   private void executeForked() throws BuildException
+   private List<String> getToolArguments(File forkTimingsFile)
    {
-      command.setClassname(org.jboss.ws.tools.cmd.WSConsume.class.getName());
-
-      Path path = command.createClasspath(getProject());
-      path.append(getTaskClassPath());
-
+      List<String> args = new ArrayList<String>();
       if (keep)
-         command.createArgument().setValue("-k");
+         args.add("-k");
       
       if (extension)
-         command.createArgument().setValue("-e");
+         args.add("-e");
       
       if (additionalHeaders)
-         command.createArgument().setValue("-a");
+         args.add("-a");
+
+      if (nocompile)
+         args.add("-n");
 
       for (File file : bindingFiles)
       {
-         command.createArgument().setValue("-b");
-         command.createArgument().setFile(file);
+         args.add("-b");
+         args.add(file.getAbsolutePath());
       }
 
       if (catalog != null)
       {
-         command.createArgument().setValue("-c");
-         command.createArgument().setFile(catalog);
+         args.add("-c");
+         args.add(catalog.getAbsolutePath());
       }
       
       if (clientjar != null)
       {
-         command.createArgument().setValue("-j");
-         command.createArgument().setFile(clientjar);
+         args.add("-j");
+         args.add(clientjar.getAbsolutePath());
       }
 
       if (targetPackage != null)
       {
-         command.createArgument().setValue("-p");
-         command.createArgument().setValue(targetPackage);
+         args.add("-p");
+         args.add(targetPackage);
       }
 
       if (wsdlLocation != null)
       {
-         command.createArgument().setValue("-w");
-         command.createArgument().setValue(wsdlLocation);
+         args.add("-w");
+         args.add(wsdlLocation);
       }
       
       if (encoding != null)
       {
-         command.createArgument().setValue("--encoding");
-         command.createArgument().setValue(encoding);
+         args.add("--encoding");
+         args.add(encoding);
       }
 
       if (destdir != null)
       {
-         command.createArgument().setValue("-o");
-         command.createArgument().setFile(destdir);
+         args.add("-o");
+         args.add(destdir.getAbsolutePath());
       }
 
       if (sourcedestdir != null)
       {
-         command.createArgument().setValue("-s");
-         command.createArgument().setFile(sourcedestdir);
+         args.add("-s");
+         args.add(sourcedestdir.getAbsolutePath());
+      }
+
+      if (cachedir != null)
+      {
+         args.add("-C");
+         args.add(cachedir.getAbsolutePath());
+      }
+
+      if (remotecache != null)
+      {
+         args.add("-R");
+         args.add(remotecache);
       }
 
       if (verbose)
-         command.createArgument().setValue("-v");
+         args.add("-v");
+
+      if (forkTimingsFile != null)
+      {
+         args.add("--timings-file");
+         args.add(forkTimingsFile.getAbsolutePath());
+      }
+
+      if (writeifchanged)
+         args.add("--write-if-changed");
+
+      if (writeifchanged || incremental)
+      {
+         args.add("--metadata-dir");
+         args.add(getMetadataDir().getAbsolutePath());
+      }
+
+      if (stagingdir != null)
+      {
+         args.add("--staging-dir");
+         args.add(stagingdir.getAbsolutePath());
+      }
 
-      command.createArgument().setValue(wsdl);
+      args.add(wsdl);
+      return args;
+   }
+
+   private void executeOnDaemon() throws BuildException
+   {
+      // the daemon JVM does not have the task classpath the generated sources may need, hence pass it along
+      File forkTimingsFile = createForkTimingsFile();
+      List<String> args = getToolArguments(forkTimingsFile);
+      List<String> classpath = getTaskClassPathStrings();
+      if (!classpath.isEmpty())
+      {
+         args.add(0, "--compile-classpath");
+         args.add(1, String.join(File.pathSeparator, classpath));
+      }
+      int status;
+      try
+      {
+         WSToolsClient client = new WSToolsClient(daemonFile != null ? daemonFile : WSToolsClient.DEFAULT_DAEMON_FILE);
+         Map<String, String> systemProperties = AntTaskHelper.getDaemonSystemProperties(this, command);
+         if (debug)
+            log("Runs on the WSToolsDaemon are not profiled", Project.MSG_WARN);
+         log("Consuming wsdl: " + wsdl, Project.MSG_INFO);
+         long start = System.nanoTime();
+         try (LogOutputStream out = new LogOutputStream(this, Project.MSG_INFO);
+              LogOutputStream err = new LogOutputStream(this, Project.MSG_WARN))
+         {
+            status = client.consume(getProject().getBaseDir(), systemProperties, args.toArray(new String[0]), out, err);
+         }
+         phaseTimings.recordSince(wsdl, Timings.FORK, start);
+         AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+      }
+      catch (ToolUnavailableException e)
+      {
+         if (forkTimingsFile != null)
+            forkTimingsFile.delete();
+         log("WSToolsDaemon not available (" + e.getMessage() + "), falling back to " + (fork ? "forked" : isolated ? "isolated" : "in-process") + " execution", Project.MSG_WARN);
+         if (fork && workers > 0)
+            executeOnWorker();
+         else if (fork)
+            executeForked();
+         else if (isolated)
+            executeIsolated();
+         else
+            executeNonForked();
+         return;
+      }
+      catch (IOException e)
+      {
+         // the daemon may have run part of the generation already
+         throw new BuildException("Lost connection to the WSToolsDaemon during the run", e, getLocation());
+      }
+      if (status != 0)
+         throw new BuildException("Could not invoke WSConsumeTask", getLocation());
+   }
+
+   private void executeOnWorker() throws BuildException
+   {
+      File forkTimingsFile = createForkTimingsFile();
+      int status;
+      try
+      {
+         WorkerPool pool = WorkerPool.get(getProject(), createWorkerCommand(), workers, workerjobs, workerheap * 1024L * 1024L);
+         if (debug)
+            log("Runs on pooled worker JVMs are not profiled", Project.MSG_WARN);
+         log("Consuming wsdl: " + wsdl, Project.MSG_INFO);
+         long start = System.nanoTime();
+         try (LogOutputStream out = new LogOutputStream(this, Project.MSG_INFO);
+              LogOutputStream err = new LogOutputStream(this, Project.MSG_WARN))
+         {
+            status = pool.execute(WSToolsWorkerClient.WSCONSUME, getProject().getBaseDir(), getToolArguments(forkTimingsFile).toArray(new String[0]), out, err);
+         }
+         phaseTimings.recordSince(wsdl, Timings.FORK, start);
+         AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new BuildException("Interrupted", getLocation());
+      }
+      catch (ToolUnavailableException e)
+      {
+         if (forkTimingsFile != null)
+            forkTimingsFile.delete();
+         log("Pooled worker JVM not available (" + e.getMessage() + "), falling back to a new forked JVM", Project.MSG_WARN);
+         executeForked();
+         return;
+      }
+      catch (IOException e)
+      {
+         // the worker may have run part of the generation already
+         throw new BuildException("Pooled worker JVM failed during the run", e, getLocation());
+      }
+      if (status != 0)
+         throw new BuildException("Could not invoke WSConsumeTask", getLocation());
+   }
+
+   /**
+    * @return the command line starting a pooled worker JVM, with the JVM arguments of this task
+    */
+   private CommandlineJava createWorkerCommand()
+   {
+      CommandlineJava workerCommand;
+      try
+      {
+         workerCommand = (CommandlineJava)command.clone();
+      }
+      catch (CloneNotSupportedException e)
+      {
+         throw new BuildException(e, getLocation());
+      }
+      workerCommand.setClassname(WSToolsWorker.class.getName());
+      workerCommand.createClasspath(getProject()).append(getTaskClassPath());
+      return workerCommand;
+   }
+
+   private void executeIsolated() throws BuildException
+   {
+      if (!IsolatedTools.isSupported(this))
+      {
+         log("Isolated execution requires the task to be defined with its own classpath, running in-process", Project.MSG_WARN);
+         executeNonForked();
+         return;
+      }
+      ScopedSystemProperties properties = AntTaskHelper.applySystemProperties(this, command);
+      Profiling profiling = debug ? createProfiling() : null;
+      if (profiling != null)
+         profiling.start();
+      File forkTimingsFile = createForkTimingsFile();
+      int status;
+      try
+      {
+         log("Consuming wsdl: " + wsdl, Project.MSG_INFO);
+         status = IsolatedTools.run(this, org.jboss.ws.tools.cmd.WSConsume.class.getName(),
+               getToolArguments(forkTimingsFile).toArray(new String[0]), phaseTimings, wsdl);
+      }
+      finally
+      {
+         AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+         if (profiling != null)
+            profiling.stop();
+         properties.restore();
+      }
+      if (status != 0)
+         throw new BuildException("Could not invoke WSConsumeTask", getLocation());
+   }
+
+   private void executeForked() throws BuildException
+   {
+      command.setClassname(org.jboss.ws.tools.cmd.WSConsume.class.getName());
+
+      Path path = command.createClasspath(getProject());
+      path.append(getTaskClassPath());
+
+      if (debug)
+         createProfiling().configure(command);
+
+      File forkTimingsFile = createForkTimingsFile();
+      for (String arg : getToolArguments(forkTimingsFile))
+         command.createArgument().setValue(arg);
 
       log("Consuming wsdl: " + wsdl, Project.MSG_INFO);
       
@@ -367,8 +1374,36 @@ public class WSConsumeTask extends Task
 
       CustomExecuteJava execute = new CustomExecuteJava();
       execute.setCommandlineJava(command);
-      if (execute.fork(this) != 0)
+      long start = System.nanoTime();
+      int status = execute.fork(this);
+      phaseTimings.recordSince(wsdl, Timings.FORK, start);
+      AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+      if (status != 0)
          throw new BuildException("Could not invoke WSConsumeTask", getLocation());
    }
-   
+
+   /**
+    * A set of WSDL files, optionally overriding the target package and output directories of the task.
+    */
+   public static class WsdlSet extends FileSet
+   {
+      private String targetPackage;
+      private File destdir;
+      private File sourcedestdir;
+
+      public void setPackage(String targetPackage)
+      {
+         this.targetPackage = targetPackage;
+      }
+
+      public void setDestdir(File destdir)
+      {
+         this.destdir = destdir;
+      }
+
+      public void setSourcedestdir(File sourcedestdir)
+      {
+         this.sourcedestdir = sourcedestdir;
+      }
+   }
 }
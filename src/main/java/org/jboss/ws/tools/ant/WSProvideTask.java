@@ -30,8 +30,27 @@ import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 import org.apache.tools.ant.types.CommandlineJava.SysProperties;
 import org.jboss.ws.api.tools.WSContractProvider;
+import org.jboss.ws.tools.cache.ArtifactCache;
+import org.jboss.ws.tools.cache.CacheLookup;
+import org.jboss.ws.tools.cache.HttpRemoteCache;
+import org.jboss.ws.tools.cache.RemoteCache;
+import org.jboss.ws.tools.cmd.ToolUnavailableException;
+import org.jboss.ws.tools.cmd.WSToolsClient;
+import org.jboss.ws.tools.cmd.WSToolsWorker;
+import org.jboss.ws.tools.cmd.WSToolsWorkerClient;
+import org.jboss.ws.tools.scan.EndpointScanner;
+import org.jboss.ws.tools.jfr.ClassLoaderSetupEvent;
+import org.jboss.ws.tools.jfr.ProvideEvent;
+import org.jboss.ws.tools.util.Fingerprint;
+import org.jboss.ws.tools.util.JarPackager;
+import org.jboss.ws.tools.util.OutputSync;
+import org.jboss.ws.tools.util.ScopedSystemProperties;
+import org.jboss.ws.tools.util.Timings;
+import org.jboss.ws.tools.util.ToolDiscovery;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.URLClassLoader;
 import java.net.URL;
@@ -39,6 +58,8 @@ import java.net.MalformedURLException;
 import java.util.StringTokenizer;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Ant task which invokes provides a Web Service contract and portable JAX-WS wrapper classes.
@@ -54,11 +75,50 @@ import java.util.ArrayList;
  *   <tr><td>address</td><td>The generated port soap:address in wsdl.</td><td></td><tr>
  *   <tr><td>extension</td><td>Enable SOAP 1.2 binding extension.</td><td>false</td></tr>
  *   <tr><td>verbose</td><td>Enables more informational output about cmd progress.</td><td>false</td><tr>
+ *   <tr><td>debug</td><td>Profile the generation: forked JVMs are started with a flight recording, GC logging and class loading logging, in-process runs are wrapped by a flight recording and a class loading and GC summary, written to a new directory below profiledir for each run.</td><td>false</td></tr>
+ *   <tr><td>profiledir</td><td>The directory profiling data is written to.</td><td>${basedir}/jbossws-profile</td></tr>
+ *   <tr><td>incremental</td><td>Skip the generation when the endpoint class, the classpath and the options did not change since the last run.</td><td>false</td></tr>
+ *   <tr><td>workers</td><td>When forking, run the generation on a pool of this many pre-started worker JVMs, shared by the tasks with the same JVM arguments and reused until the build finishes, instead of starting a JVM per task; 0 to start a JVM per task.</td><td>0</td></tr>
+ *   <tr><td>workerjobs</td><td>The number of generations a pooled worker JVM runs before being replaced by a fresh one; 0 for no limit.</td><td>100</td></tr>
+ *   <tr><td>workerheap</td><td>The heap occupancy after garbage collection, in MB, above which a pooled worker JVM is replaced by a fresh one; 0 for no limit.</td><td>0</td></tr>
+ *   <tr><td>isolated</td><td>When not forking, run the generation within the Ant JVM but in a dedicated child-first class loader over the taskdef classpath, which is reused by later tasks until the build finishes.</td><td>false</td></tr>
+ *   <tr><td>daemon</td><td>Submit the generation to a running WSToolsDaemon, falling back to the fork setting if none is reachable.</td><td>false</td></tr>
+ *   <tr><td>cachedir</td><td>The artifact cache directory to reuse previously generated artifacts from.</td><td>none, or ${user.home}/.jbossws/artifact-cache with remotecache</td></tr>
+ *   <tr><td>remotecache</td><td>The url of an HTTP artifact cache shared with other machines.</td><td>none</td></tr>
+ *   <tr><td>daemonfile</td><td>The file published by the WSToolsDaemon.</td><td>${user.home}/.jbossws/tools-daemon.properties</td></tr>
+ *   <tr><td>discover</td><td>Process every @WebService implementation found in the classpath, which is scanned without loading any class.</td><td>false</td></tr>
+ *   <tr><td>threads</td><td>The maximum number of endpoints to process concurrently.</td><td>1</td></tr>
+ *   <tr><td>timings</td><td>Log how long each phase (endpoint discovery, class loading, provider discovery, artifact cache, generation, forking) took.</td><td>false</td></tr>
+ *   <tr><td>timingsfile</td><td>The JSON file to write how long each phase took to.</td><td>none</td></tr>
+ *   <tr><td>sourcejar</td><td>Package the generated Java source of all the endpoints into a single srcjar instead of sourcedestdir; implies keep.</td><td>none</td></tr>
+ *   <tr><td>destjar</td><td>Package the other generated artifacts of all the endpoints into a single jar instead of destdir.</td><td>none</td></tr>
+ *   <tr><td>stagingdir</td><td>Generate below this directory, preferably a memory backed one such as /dev/shm, and then write the results to the output directories (or jars) in a single parallel pass; artifact cache runs stage in the cache directory.</td><td>none</td></tr>
+ *   <tr><td>writeifchanged</td><td>Generate into a staging directory and only write the files whose content changed, so that unchanged files keep their timestamp; files no longer generated for the endpoint are removed.</td><td>false</td></tr>
+ *   <tr><td>metadatadir</td><td>The directory the incremental and writeifchanged bookkeeping is kept in, out of the output directories.</td><td>${basedir}/.jbossws</td></tr>
  *   <tr><td>sei</td><td>Service Endpoint Implementation.</td><td></td><tr>
  *   <tr><td>classpath</td><td>The classpath that contains the service endpoint implementation.</td><td>""</tr>
  * </table>
  * <b>* = required.</b>
+ *
+ * <p>Several endpoints can be processed by a single task through nested <code>&lt;endpoint sei=&quot;...&quot;/&gt;</code>
+ * elements. All of them are loaded through a single class loader over the task classpath, within the Ant JVM
+ * or a single forked JVM, and processed concurrently up to the <code>threads</code> limit. Within the Ant JVM, that
+ * class loader is cached and reused by later tasks over the same, unchanged classpath until the build finishes.</p>
+ *
+ * <p>With <code>sourcejar</code> or <code>destjar</code>, all the endpoints are generated into staging directories
+ * below the local temporary directory, which are packaged once all of them are done; the <code>incremental</code>
+ * check does not apply then.</p>
  * 
+ * <p>Within the Ant JVM, the system properties given by nested <code>&lt;jvmarg value=&quot;-Dkey=value&quot;/&gt;</code>
+ * elements are set for the duration of the run and restored afterwards. Concurrent runs, for instance within
+ * <code>&lt;parallel&gt;</code>, share properties set to the same value and wait for each other on conflicting values.
+ * Other JVM arguments only apply to forked JVMs.</p>
+ *
+ * <p>With <code>fork</code> and <code>workers</code>, the generation is submitted to a pool of pre-started
+ * <code>WSToolsWorker</code> JVMs over their standard input and output, instead of starting a JVM per task.
+ * The pool is shared by the tasks with the same JVM arguments and taskdef classpath. If a worker fails, the task
+ * falls back to starting a JVM of its own.</p>
+ *
  * <p>Example:
  * 
  * <pre>
@@ -101,14 +161,137 @@ public class WSProvideTask extends Task
    private boolean verbose;
    private boolean fork;
    private boolean debug;
+   private File profiledir;
    private String address;
+   private boolean isolated;
+   private int workers;
+   private int workerjobs = 100;
+   private int workerheap;
+   private boolean daemon;
+   private File daemonFile;
+   private boolean incremental;
+   private File cachedir;
+   private String remotecache;
+   private List<Endpoint> endpoints = new ArrayList<Endpoint>();
+   private int threads = 1;
+   private boolean discover;
+   private boolean timings;
+   private File timingsfile;
+   private Timings phaseTimings = new Timings("wsprovide");
+   private RemoteCache remoteCacheClient;
+   private boolean writeifchanged;
+   private File sourcejar;
+   private File destjar;
+   private File stagingdir;
+   private File metadatadir;
    
-   // Not actually used right now
    public void setDebug(boolean debug)
    {
       this.debug = debug;
    }
+
+   public void setProfiledir(File profiledir)
+   {
+      this.profiledir = profiledir;
+   }
    
+   public void setWorkers(int workers)
+   {
+      this.workers = workers;
+   }
+
+   public void setWorkerjobs(int workerjobs)
+   {
+      this.workerjobs = workerjobs;
+   }
+
+   public void setWorkerheap(int workerheap)
+   {
+      this.workerheap = workerheap;
+   }
+
+   public void setIsolated(boolean isolated)
+   {
+      this.isolated = isolated;
+   }
+
+   public void setDaemon(boolean daemon)
+   {
+      this.daemon = daemon;
+   }
+
+   public void setDaemonFile(File daemonFile)
+   {
+      this.daemonFile = daemonFile;
+   }
+
+   public void setIncremental(boolean incremental)
+   {
+      this.incremental = incremental;
+   }
+
+   public void setCachedir(File cachedir)
+   {
+      this.cachedir = cachedir;
+   }
+
+   public void setRemotecache(String remotecache)
+   {
+      this.remotecache = remotecache;
+   }
+
+   public void setThreads(int threads)
+   {
+      this.threads = threads;
+   }
+
+   public void setDiscover(boolean discover)
+   {
+      this.discover = discover;
+   }
+
+   public void setTimings(boolean timings)
+   {
+      this.timings = timings;
+   }
+
+   public void setTimingsfile(File timingsfile)
+   {
+      this.timingsfile = timingsfile;
+   }
+
+   public void setWriteifchanged(boolean writeifchanged)
+   {
+      this.writeifchanged = writeifchanged;
+   }
+
+   public void setSourcejar(File sourcejar)
+   {
+      this.sourcejar = sourcejar;
+   }
+
+   public void setDestjar(File destjar)
+   {
+      this.destjar = destjar;
+   }
+
+   public void setStagingdir(File stagingdir)
+   {
+      this.stagingdir = stagingdir;
+   }
+
+   public void setMetadatadir(File metadatadir)
+   {
+      this.metadatadir = metadatadir;
+   }
+
+   public Endpoint createEndpoint()
+   {
+      Endpoint endpoint = new Endpoint();
+      endpoints.add(endpoint);
+      return endpoint;
+   }
+
    public Commandline.Argument createJvmarg() 
    {
       return command.createVmArgument();
@@ -187,24 +370,43 @@ public class WSProvideTask extends Task
       this.address = address;
    }
    
-   private ClassLoader getClasspathLoader(ClassLoader parent)
+   /**
+    * Acquires the class loader over the task classpath from the per-JVM cache, creating it if needed.
+    */
+   private ClassLoaderCache.Lease getClasspathLoader(ClassLoader parent)
    {
-		AntClassLoader antLoader = new AntClassLoader(parent, getProject(), classpath, false);
+      ClassLoaderSetupEvent event = new ClassLoaderSetupEvent();
+      event.begin();
+      ClassLoaderCache.Lease lease = ClassLoaderCache.acquire(getProject(), parent, classpath, new ClassLoaderCache.LoaderFactory()
+      {
+         public ClassLoader create(AntClassLoader antLoader)
+         {
+            return wrap(antLoader);
+         }
+      });
+      event.end();
+      if (event.shouldCommit())
+      {
+         event.classpath = classpath.toString();
+         event.entries = classpath.size();
+         event.reused = lease.isReused();
+         event.commit();
+      }
+      return lease;
+   }
 
+   private static ClassLoader wrap(AntClassLoader antLoader)
+   {
 		// It's necessary to wrap it into an URLLoader in order to extract that information
 		// within the actual provider impl.
 		// See SunRIProviderImpl for instance
 		List<URL> urls = new ArrayList<URL>();
-		StringTokenizer tok = new StringTokenizer(antLoader.getClasspath(), File.separator);
+		StringTokenizer tok = new StringTokenizer(antLoader.getClasspath(), File.pathSeparator);
 		while(tok.hasMoreTokens())
 		{
 			try
 			{
-            String path = tok.nextToken();
-            if(!path.startsWith("file://"))
-               path = "file://"+path;
-
-            urls.add(new URL(path));
+            urls.add(new File(tok.nextToken()).toURI().toURL());
 			}
 			catch (MalformedURLException e)
 			{
@@ -213,21 +415,101 @@ public class WSProvideTask extends Task
 
 		}
 
-		ClassLoader wrapper = new URLClassLoader(urls.toArray(new URL[0]), antLoader);
-		return wrapper;
+		return new URLClassLoader(urls.toArray(new URL[0]), antLoader);
    }
    
    public void executeNonForked()
+   {
+      executeNonForked(getSeis());
+   }
+
+   private void executeNonForked(List<String> seis)
    {
       ClassLoader prevCL = SecurityActions.getContextClassLoader();
       ClassLoader antLoader = SecurityActions.getClassLoader(this.getClass());
+      ScopedSystemProperties properties = AntTaskHelper.applySystemProperties(this, command);
       SecurityActions.setContextClassLoader(antLoader);
+      Profiling profiling = debug ? createProfiling() : null;
+      if (profiling != null)
+         profiling.start();
+      ClassLoaderCache.Lease lease = null;
+      try
+      {
+         // a single loader for all the endpoints, as they usually share most of their classpath
+         long start = System.nanoTime();
+         lease = getClasspathLoader(antLoader);
+         final ClassLoader loader = lease.getLoader();
+         phaseTimings.recordSince("", Timings.CLASS_LOADING, start);
+         if (seis.size() == 1)
+         {
+            generate(seis.get(0), loader);
+            return;
+         }
+
+         List<ParallelJobs.Job> jobs = new ArrayList<ParallelJobs.Job>(seis.size());
+         for (final String sei : seis)
+         {
+            jobs.add(new ParallelJobs.Job()
+            {
+               public String getName()
+               {
+                  return sei;
+               }
+
+               public void execute()
+               {
+                  generate(sei, loader);
+               }
+            });
+         }
+         List<String> failures = ParallelJobs.execute(this, jobs, threads);
+         if (!failures.isEmpty())
+            throw ParallelJobs.toBuildException(this, "Could not process all endpoints", failures, jobs.size());
+      }
+      finally
+      {
+         if (lease != null)
+            lease.close();
+         if (profiling != null)
+            profiling.stop();
+         SecurityActions.setContextClassLoader(prevCL);
+         properties.restore();
+      }
+   }
+
+   private void generate(String sei, ClassLoader loader)
+   {
+      ProvideEvent event = new ProvideEvent();
+      event.begin();
+      try
+      {
+         generate(sei, loader, event);
+         event.success = true;
+      }
+      finally
+      {
+         event.end();
+         if (event.shouldCommit())
+         {
+            event.endpoint = sei;
+            event.options = "genwsdl=" + genwsdl + ", keep=" + keep + ", extension=" + extension + ", address=" + address;
+            event.commit();
+         }
+      }
+   }
+
+   private void generate(String sei, ClassLoader loader, ProvideEvent event)
+   {
       PrintStream ps = null;
+      PrintStream warn = null;
+      CacheLookup lookup = null;
+      OutputSync outputSync = null;
+      File staging = null;
       try
       {
-         WSContractProvider gen = WSContractProvider.newInstance(
-					getClasspathLoader(antLoader)
-			);
+         long start = System.nanoTime();
+         WSContractProvider gen = ToolDiscovery.newProvider(loader);
+         phaseTimings.recordSince(sei, Timings.DISCOVERY, start);
          if (verbose) {
             ps = new PrintStream(new LogOutputStream(this, Project.MSG_INFO));
             gen.setMessageStream(ps);
@@ -244,9 +526,76 @@ public class WSProvideTask extends Task
          if (sourcedestdir != null)
             gen.setSourceDirectory(sourcedestdir);
 
+         if (writeifchanged || incremental)
+            outputSync = new OutputSync("wsprovide", sei, getMetadataDir(), writeifchanged);
+         if (cachedir != null || remotecache != null)
+         {
+            warn = new PrintStream(new LogOutputStream(this, Project.MSG_WARN), true);
+            start = System.nanoTime();
+            try
+            {
+               ArtifactCache cache = ArtifactCache.getInstance(cachedir != null ? cachedir : ArtifactCache.DEFAULT_DIRECTORY);
+               lookup = new CacheLookup(cache, remoteCacheClient, getCacheKey(cache, gen, loader, sei), getOutputTargets(), warn);
+               lookup.setOutputSync(outputSync);
+               if (lookup.restore())
+               {
+                  event.cacheHit = true;
+                  log("Restored artifacts for endpoint: " + sei + " from cache", Project.MSG_INFO);
+                  return;
+               }
+               File cacheStaging = lookup.begin();
+               gen.setOutputDirectory(new File(cacheStaging, "output"));
+               if (resourcedestdir != null)
+                  gen.setResourceDirectory(new File(cacheStaging, "resource"));
+               if (sourcedestdir != null)
+                  gen.setSourceDirectory(new File(cacheStaging, "source"));
+            }
+            catch (IOException e)
+            {
+               log("Artifact cache not available: " + e.getMessage(), Project.MSG_WARN);
+               lookup = null;
+            }
+            finally
+            {
+               phaseTimings.recordSince(sei, Timings.CACHE_LOOKUP, start);
+            }
+         }
+
+         if (lookup == null && (writeifchanged || stagingdir != null))
+         {
+            if (outputSync == null)
+               outputSync = new OutputSync();
+            staging = OutputSync.createStaging(getOutputTargets().get("output"), stagingdir);
+            gen.setOutputDirectory(new File(staging, "output"));
+            if (resourcedestdir != null)
+               gen.setResourceDirectory(new File(staging, "resource"));
+            if (sourcedestdir != null)
+               gen.setSourceDirectory(new File(staging, "source"));
+         }
+
          log("Generating from endpoint: " + sei, Project.MSG_INFO);
          
-         gen.provide(sei);
+         start = System.nanoTime();
+         try
+         {
+            gen.provide(sei);
+         }
+         finally
+         {
+            phaseTimings.recordSince(sei, Timings.GENERATION, start);
+         }
+         if (lookup != null)
+         {
+            start = System.nanoTime();
+            lookup.commit();
+            phaseTimings.recordSince(sei, Timings.CACHE_STORE, start);
+         }
+         else if (staging != null)
+         {
+            start = System.nanoTime();
+            outputSync.sync(staging, getOutputTargets());
+            phaseTimings.recordSince(sei, Timings.OUTPUT_SYNC, start);
+         }
       }
       catch(Throwable t)
       {
@@ -254,24 +603,323 @@ public class WSProvideTask extends Task
       }
       finally
       {
+         event.recordOutputs(outputSync);
+         if (lookup != null)
+            lookup.close();
+         OutputSync.delete(staging);
          if (ps != null) {
             ps.close();
          }
-         SecurityActions.setContextClassLoader(prevCL);
+         if (warn != null)
+            warn.close();
       }
    }
    
    public void execute() throws BuildException
    {
-      if (sei == null)
-         throw new BuildException("The sei attribute must be specified!", getLocation());
+      // one client per execution, so that the endpoints after an outage do not wait for the server again
+      remoteCacheClient = createRemoteCache();
+      try
+      {
+         if (sourcejar != null || destjar != null)
+            executePackaged(getSeis());
+         else
+            execute(getSeis());
+      }
+      finally
+      {
+         AntTaskHelper.reportTimings(this, phaseTimings, timings, timingsfile);
+         phaseTimings = new Timings("wsprovide");
+         remoteCacheClient = null;
+      }
+   }
+
+   /**
+    * Generates into staging directories, which forked and daemon runs simply see as output directories,
+    * then packages them into the requested jars.
+    */
+   private void executePackaged(List<String> seis)
+   {
+      if (incremental)
+         log("Ignoring incremental, the jars are packaged from all the endpoints", Project.MSG_VERBOSE);
+      File prevDestdir = destdir;
+      File prevSourcedestdir = sourcedestdir;
+      boolean prevKeep = keep;
+      boolean prevIncremental = incremental;
+      boolean prevWriteifchanged = writeifchanged;
+      JarPackager packager = null;
+      try
+      {
+         packager = new JarPackager(sourcejar, destjar, writeifchanged, stagingdir);
+         if (destjar != null)
+            destdir = packager.getOutputDirectory();
+         if (sourcejar != null)
+         {
+            sourcedestdir = packager.getSourceDirectory();
+            keep = true;
+         }
+         incremental = false;
+         // the staging directories start empty, only the jars are written if changed
+         writeifchanged = false;
+         execute(seis);
+
+         long start = System.nanoTime();
+         packager.pack();
+         phaseTimings.recordSince("", Timings.PACKAGING, start);
+      }
+      catch (IOException e)
+      {
+         throw new BuildException("Could not package generated artifacts: " + e.getMessage(), e, getLocation());
+      }
+      finally
+      {
+         destdir = prevDestdir;
+         sourcedestdir = prevSourcedestdir;
+         keep = prevKeep;
+         incremental = prevIncremental;
+         writeifchanged = prevWriteifchanged;
+         if (packager != null)
+            packager.close();
+      }
+   }
+
+   private void execute(List<String> seis)
+   {
+      if (seis.isEmpty())
+         throw new BuildException(discover ? "No endpoint implementation found in the classpath!" : "The sei attribute or a nested endpoint must be specified!", getLocation());
       
-      if (fork)
-         executeForked();
+      if (!incremental)
+      {
+         executeGeneration(seis);
+         return;
+      }
+
+      File outputDir = destdir != null ? destdir : new File("output").getAbsoluteFile();
+      List<String> stale = new ArrayList<String>();
+      Map<String, UpToDateStamp> stamps = new LinkedHashMap<String, UpToDateStamp>();
+      Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+      String environment = getEnvironmentFingerprint();
+      AntClassLoader loader = new AntClassLoader(SecurityActions.getClassLoader(this.getClass()), getProject(), classpath, true);
+      try
+      {
+         for (String sei : seis)
+         {
+            UpToDateStamp stamp = new UpToDateStamp(getMetadataDir(), "wsprovide", sei, outputDir);
+            String fingerprint = getFingerprint(sei, loader, environment);
+            if (fingerprint != null && stamp.isUpToDate(fingerprint))
+            {
+               log("Skipping endpoint: " + sei + " (generated artifacts are up to date)", Project.MSG_INFO);
+               continue;
+            }
+            stale.add(sei);
+            stamps.put(sei, stamp);
+            fingerprints.put(sei, fingerprint);
+         }
+      }
+      finally
+      {
+         loader.cleanup();
+      }
+      if (stale.isEmpty())
+         return;
+
+      Map<String, Map<String, String>> previous = new LinkedHashMap<String, Map<String, String>>();
+      // the files installed from a staging directory or cache entry, changed or not, as recorded by the run
+      Map<String, OutputSync> records = new LinkedHashMap<String, OutputSync>();
+      for (Map.Entry<String, UpToDateStamp> entry : stamps.entrySet())
+      {
+         previous.put(entry.getKey(), entry.getValue().getRecordedOutputs());
+         entry.getValue().invalidate();
+         OutputSync record = new OutputSync("wsprovide", entry.getKey(), getMetadataDir(), writeifchanged);
+         if (!writeifchanged)
+            record.forget(getOutputTargets());
+         records.put(entry.getKey(), record);
+      }
+      List<File> outputs = getOutputs(outputDir);
+      Map<String, String> before = stamps.get(stale.get(0)).snapshot(outputs);
+      executeGeneration(stale);
+      for (String sei : stale)
+      {
+         UpToDateStamp stamp = stamps.get(sei);
+         if (fingerprints.get(sei) == null)
+            continue;
+         try
+         {
+            stamp.write(fingerprints.get(sei), before, previous.get(sei), records.get(sei).getRecordedFiles(getOutputTargets()), outputs);
+         }
+         catch (IOException e)
+         {
+            log("Could not write " + stamp.getFile() + ": " + e.getMessage(), Project.MSG_WARN);
+         }
+      }
+   }
+
+   private List<String> getSeis()
+   {
+      List<String> seis = new ArrayList<String>();
+      if (sei != null)
+         seis.add(sei);
+      for (Endpoint endpoint : endpoints)
+      {
+         if (endpoint.sei == null)
+            throw new BuildException("The sei attribute of nested endpoints must be specified!", getLocation());
+         seis.add(endpoint.sei);
+      }
+      if (discover)
+      {
+         List<File> entries = new ArrayList<File>();
+         for (String entry : classpath.list())
+            entries.add(new File(entry));
+         long start = System.nanoTime();
+         try
+         {
+            for (String endpoint : new EndpointScanner(EndpointScanner.DEFAULT_INDEX).scan(entries, Runtime.getRuntime().availableProcessors()))
+            {
+               if (!seis.contains(endpoint))
+               {
+                  log("Discovered endpoint: " + endpoint, Project.MSG_VERBOSE);
+                  seis.add(endpoint);
+               }
+            }
+         }
+         catch (IOException e)
+         {
+            throw new BuildException("Could not scan the classpath: " + e.getMessage(), e, getLocation());
+         }
+         finally
+         {
+            phaseTimings.recordSince("", Timings.ENDPOINT_SCAN, start);
+         }
+      }
+      return seis;
+   }
+
+   private void executeGeneration(List<String> seis)
+   {
+      if (daemon)
+         executeOnDaemon(seis);
+      else if (fork && workers > 0)
+         executeOnWorker(seis);
+      else if (fork)
+         executeForked(seis);
+      else if (isolated)
+         executeIsolated(seis);
       else
-         executeNonForked();
+         executeNonForked(seis);
    }
-   
+
+   private File getMetadataDir()
+   {
+      return metadatadir != null ? metadatadir : new File(getProject().getBaseDir(), OutputSync.METADATA_DIRECTORY);
+   }
+
+   private List<File> getOutputs(File outputDir)
+   {
+      List<File> outputs = new ArrayList<File>();
+      outputs.add(outputDir);
+      if (resourcedestdir != null)
+         outputs.add(resourcedestdir);
+      if (sourcedestdir != null)
+         outputs.add(sourcedestdir);
+      return outputs;
+   }
+
+   /**
+    * Computes the fingerprint of what is common to all the endpoints: the classpath their referenced
+    * types are resolved from and the generation options.
+    */
+   private String getEnvironmentFingerprint()
+   {
+      Fingerprint fp = new Fingerprint();
+      for (String entry : classpath.list())
+         fp.addMetadata(new File(entry));
+      // the tools and the provider implementation
+      for (String entry : getTaskClassPath().list())
+         fp.addMetadata(new File(entry));
+      fp.add(keep).add(genwsdl).add(extension).add(address);
+      fp.add(destdir != null ? destdir.getAbsolutePath() : null);
+      fp.add(resourcedestdir != null ? resourcedestdir.getAbsolutePath() : null);
+      fp.add(sourcedestdir != null ? sourcedestdir.getAbsolutePath() : null);
+      for (String arg : command.getVmCommand().getArguments())
+         fp.add(arg);
+      return fp.getValue();
+   }
+
+   /**
+    * Computes the fingerprint of an endpoint class bytecode, on top of the environment fingerprint.
+    *
+    * @return the fingerprint, or null if it could not be computed
+    */
+   private String getFingerprint(String sei, ClassLoader loader, String environment)
+   {
+      Fingerprint fp = new Fingerprint().add(environment);
+      try (InputStream is = loader.getResourceAsStream(sei.replace('.', '/') + ".class"))
+      {
+         if (is == null)
+         {
+            log("Could not find the bytecode of " + sei + ", regenerating", Project.MSG_VERBOSE);
+            return null;
+         }
+         fp.add(sei).add(is.readAllBytes());
+      }
+      catch (IOException e)
+      {
+         log("Could not compute the fingerprint of " + sei + ", regenerating: " + e.getMessage(), Project.MSG_VERBOSE);
+         return null;
+      }
+      return fp.getValue();
+   }
+
+   /**
+    * Computes the artifact cache key; unlike the incremental fingerprint, it hashes the classpath contents
+    * and leaves the output locations out, so that entries are shared across workspaces.
+    */
+   private String getCacheKey(ArtifactCache cache, WSContractProvider gen, ClassLoader loader, String sei) throws IOException
+   {
+      Fingerprint fp = new Fingerprint().add("wsprovide");
+      cache.addImplementation(fp, WSContractProvider.class);
+      cache.addImplementation(fp, gen.getClass());
+      fp.add(sei);
+      try (InputStream is = loader.getResourceAsStream(sei.replace('.', '/') + ".class"))
+      {
+         if (is == null)
+            throw new IOException("Could not read class file of " + sei);
+         fp.add(is.readAllBytes());
+      }
+      for (String entry : classpath.list())
+         fp.add(cache.hash(new File(entry)));
+      for (String entry : getTaskClassPath().list())
+         fp.add(cache.hash(new File(entry)));
+      fp.add(address).add(keep).add(genwsdl).add(extension);
+      fp.add(resourcedestdir != null).add(sourcedestdir != null);
+      return fp.getValue();
+   }
+
+   private Map<String, File> getOutputTargets()
+   {
+      Map<String, File> targets = new LinkedHashMap<String, File>();
+      targets.put("output", destdir != null ? destdir : new File("output").getAbsoluteFile());
+      if (resourcedestdir != null)
+         targets.put("resource", resourcedestdir);
+      if (sourcedestdir != null)
+         targets.put("source", sourcedestdir);
+      return targets;
+   }
+
+   private RemoteCache createRemoteCache()
+   {
+      if (remotecache == null)
+         return null;
+      try
+      {
+         return new HttpRemoteCache(remotecache);
+      }
+      catch (MalformedURLException e)
+      {
+         throw new BuildException("Invalid remote cache url: " + remotecache, getLocation());
+      }
+   }
+
    private Path getTaskClassPath()
    {
       // Why is everything in the Ant API a big hack???
@@ -284,57 +932,296 @@ public class WSProvideTask extends Task
       return new Path(getProject());
    }
 
-   private void executeForked() throws BuildException
+   private List<String> getToolArguments(List<String> seis, File forkTimingsFile)
    {
-      command.setClassname(org.jboss.ws.tools.cmd.WSProvide.class.getName());
-      
-      Path path = command.createClasspath(getProject());
-      path.append(getTaskClassPath());
-      path.append(classpath);
-     
+      List<String> args = new ArrayList<String>();
       if (keep)
-         command.createArgument().setValue("-k");
+         args.add("-k");
       
       if (genwsdl)
-         command.createArgument().setValue("-w");
+         args.add("-w");
       
       if (address != null) {
-         command.createArgument().setValue("-a");
-         command.createArgument().setValue(address);
+         args.add("-a");
+         args.add(address);
       }
       
       if (extension)
-         command.createArgument().setValue("-e");
+         args.add("-e");
       
       if (destdir != null)
       {
-         command.createArgument().setValue("-o");
-         command.createArgument().setFile(destdir);
+         args.add("-o");
+         args.add(destdir.getAbsolutePath());
       }
       if (resourcedestdir != null)
       {
-         command.createArgument().setValue("-r");
-         command.createArgument().setFile(resourcedestdir);
+         args.add("-r");
+         args.add(resourcedestdir.getAbsolutePath());
       }
       if (sourcedestdir != null)
       {
-         command.createArgument().setValue("-s");
-         command.createArgument().setFile(sourcedestdir);
+         args.add("-s");
+         args.add(sourcedestdir.getAbsolutePath());
       }
       
+      if (cachedir != null)
+      {
+         args.add("-C");
+         args.add(cachedir.getAbsolutePath());
+      }
+
+      if (remotecache != null)
+      {
+         args.add("-R");
+         args.add(remotecache);
+      }
+
       if (!verbose)
-         command.createArgument().setValue("-q");
+         args.add("-q");
       
+      if (threads > 1)
+      {
+         args.add("-T");
+         args.add(String.valueOf(threads));
+      }
+
+      if (forkTimingsFile != null)
+      {
+         args.add("--timings-file");
+         args.add(forkTimingsFile.getAbsolutePath());
+      }
+
+      if (writeifchanged)
+         args.add("--write-if-changed");
+
+      if (writeifchanged || incremental)
+      {
+         args.add("--metadata-dir");
+         args.add(getMetadataDir().getAbsolutePath());
+      }
+
+      if (stagingdir != null)
+      {
+         args.add("--staging-dir");
+         args.add(stagingdir.getAbsolutePath());
+      }
+
       // Always dump traces
-      command.createArgument().setValue("-t");
-      command.createArgument().setValue(sei);
+      args.add("-t");
+      args.addAll(seis);
+      return args;
+   }
+
+   private void executeOnDaemon(List<String> seis) throws BuildException
+   {
+      // the daemon JVM does not have the endpoint classpath, hence pass it along
+      File forkTimingsFile = createForkTimingsFile();
+      List<String> args = getToolArguments(seis, forkTimingsFile);
+      if (classpath.size() > 0)
+      {
+         args.add(0, "-c");
+         args.add(1, classpath.toString());
+      }
+      int status;
+      try
+      {
+         WSToolsClient client = new WSToolsClient(daemonFile != null ? daemonFile : WSToolsClient.DEFAULT_DAEMON_FILE);
+         Map<String, String> systemProperties = AntTaskHelper.getDaemonSystemProperties(this, command);
+         if (debug)
+            log("Runs on the WSToolsDaemon are not profiled", Project.MSG_WARN);
+         for (String sei : seis)
+            log("Generating from endpoint: " + sei, Project.MSG_INFO);
+         long start = System.nanoTime();
+         try (LogOutputStream out = new LogOutputStream(this, Project.MSG_INFO);
+              LogOutputStream err = new LogOutputStream(this, Project.MSG_WARN))
+         {
+            status = client.provide(getProject().getBaseDir(), systemProperties, args.toArray(new String[0]), out, err);
+         }
+         phaseTimings.recordSince("", Timings.FORK, start);
+         AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+      }
+      catch (ToolUnavailableException e)
+      {
+         if (forkTimingsFile != null)
+            forkTimingsFile.delete();
+         log("WSToolsDaemon not available (" + e.getMessage() + "), falling back to " + (fork ? "forked" : isolated ? "isolated" : "in-process") + " execution", Project.MSG_WARN);
+         if (fork && workers > 0)
+            executeOnWorker(seis);
+         else if (fork)
+            executeForked(seis);
+         else if (isolated)
+            executeIsolated(seis);
+         else
+            executeNonForked(seis);
+         return;
+      }
+      catch (IOException e)
+      {
+         // the daemon may have run part of the generation already
+         throw new BuildException("Lost connection to the WSToolsDaemon during the run", e, getLocation());
+      }
+      if (status != 0)
+         throw new BuildException("Could not invoke WSProvideTask", getLocation());
+   }
+
+   private void executeOnWorker(List<String> seis) throws BuildException
+   {
+      // workers are shared by tasks with different endpoint classpaths, hence pass it along
+      File forkTimingsFile = createForkTimingsFile();
+      List<String> args = getToolArguments(seis, forkTimingsFile);
+      if (classpath.size() > 0)
+      {
+         args.add(0, "-c");
+         args.add(1, classpath.toString());
+      }
+      int status;
+      try
+      {
+         WorkerPool pool = WorkerPool.get(getProject(), createWorkerCommand(), workers, workerjobs, workerheap * 1024L * 1024L);
+         if (debug)
+            log("Runs on pooled worker JVMs are not profiled", Project.MSG_WARN);
+         for (String sei : seis)
+            log("Generating from endpoint: " + sei, Project.MSG_INFO);
+         long start = System.nanoTime();
+         try (LogOutputStream out = new LogOutputStream(this, Project.MSG_INFO);
+              LogOutputStream err = new LogOutputStream(this, Project.MSG_WARN))
+         {
+            status = pool.execute(WSToolsWorkerClient.WSPROVIDE, getProject().getBaseDir(), args.toArray(new String[0]), out, err);
+         }
+         phaseTimings.recordSince("", Timings.FORK, start);
+         AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new BuildException("Interrupted", getLocation());
+      }
+      catch (ToolUnavailableException e)
+      {
+         if (forkTimingsFile != null)
+            forkTimingsFile.delete();
+         log("Pooled worker JVM not available (" + e.getMessage() + "), falling back to a new forked JVM", Project.MSG_WARN);
+         executeForked(seis);
+         return;
+      }
+      catch (IOException e)
+      {
+         // the worker may have run part of the generation already
+         throw new BuildException("Pooled worker JVM failed during the run", e, getLocation());
+      }
+      if (status != 0)
+         throw new BuildException("Could not invoke WSProvideTask", getLocation());
+   }
+
+   /**
+    * @return the command line starting a pooled worker JVM, with the JVM arguments of this task
+    */
+   private CommandlineJava createWorkerCommand()
+   {
+      CommandlineJava workerCommand;
+      try
+      {
+         workerCommand = (CommandlineJava)command.clone();
+      }
+      catch (CloneNotSupportedException e)
+      {
+         throw new BuildException(e, getLocation());
+      }
+      workerCommand.setClassname(WSToolsWorker.class.getName());
+      workerCommand.createClasspath(getProject()).append(getTaskClassPath());
+      return workerCommand;
+   }
+
+   private void executeIsolated(List<String> seis) throws BuildException
+   {
+      if (!IsolatedTools.isSupported(this))
+      {
+         log("Isolated execution requires the task to be defined with its own classpath, running in-process", Project.MSG_WARN);
+         executeNonForked(seis);
+         return;
+      }
+      // the endpoint classpath is loaded by the tool, below the isolated loader
+      File forkTimingsFile = createForkTimingsFile();
+      List<String> args = getToolArguments(seis, forkTimingsFile);
+      if (classpath.size() > 0)
+      {
+         args.add(0, "-c");
+         args.add(1, classpath.toString());
+      }
+      ScopedSystemProperties properties = AntTaskHelper.applySystemProperties(this, command);
+      Profiling profiling = debug ? createProfiling() : null;
+      if (profiling != null)
+         profiling.start();
+      int status;
+      try
+      {
+         for (String sei : seis)
+            log("Generating from endpoint: " + sei, Project.MSG_INFO);
+         status = IsolatedTools.run(this, org.jboss.ws.tools.cmd.WSProvide.class.getName(), args.toArray(new String[0]), phaseTimings, "");
+      }
+      finally
+      {
+         AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+         if (profiling != null)
+            profiling.stop();
+         properties.restore();
+      }
+      if (status != 0)
+         throw new BuildException("Could not invoke WSProvideTask", getLocation());
+   }
+
+   private void executeForked(List<String> seis) throws BuildException
+   {
+      command.setClassname(org.jboss.ws.tools.cmd.WSProvide.class.getName());
+      
+      Path path = command.createClasspath(getProject());
+      path.append(getTaskClassPath());
+      path.append(classpath);
+
+      if (debug)
+         createProfiling().configure(command);
+     
+      File forkTimingsFile = createForkTimingsFile();
+      for (String arg : getToolArguments(seis, forkTimingsFile))
+         command.createArgument().setValue(arg);
+
+      for (String sei : seis)
+         log("Generating from endpoint: " + sei, Project.MSG_INFO);
       
       if (verbose)
          log("Command invoked: " + command.getJavaCommand().toString());
       
       CustomExecuteJava execute = new CustomExecuteJava();
       execute.setCommandlineJava(command);
-      if (execute.fork(this) != 0)
+      long start = System.nanoTime();
+      int status = execute.fork(this);
+      phaseTimings.recordSince("", Timings.FORK, start);
+      AntTaskHelper.collectTimings(this, phaseTimings, forkTimingsFile);
+      if (status != 0)
          throw new BuildException("Could not invoke WSProvideTask", getLocation());
    }
+
+   private Profiling createProfiling()
+   {
+      return Profiling.create(this, profiledir != null ? profiledir : new File(getProject().getBaseDir(), "jbossws-profile"), "wsprovide");
+   }
+
+   private File createForkTimingsFile()
+   {
+      return timings || timingsfile != null ? AntTaskHelper.createTimingsFile(this, "wsprovide") : null;
+   }
+
+   /**
+    * A nested endpoint to process besides the one of the sei attribute.
+    */
+   public static class Endpoint
+   {
+      private String sei;
+
+      public void setSei(String sei)
+      {
+         this.sei = sei;
+      }
+   }
 }
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.apache.tools.ant.types.CommandlineJava;
+import org.jboss.ws.tools.cmd.ToolUnavailableException;
+import org.jboss.ws.tools.cmd.WSToolsWorker;
+import org.jboss.ws.tools.cmd.WSToolsWorkerClient;
+
+/**
+ * Per-JVM pools of pre-started {@link WSToolsWorker} JVMs serving the forked executions of the tasks, so that
+ * a forked execution keeps its own process but no longer pays for the JVM startup and the tool stack loading.
+ * <p>
+ * Pools are keyed by the worker command line (java executable, JVM arguments and classpath), hence tasks with
+ * different JVM arguments never share workers. A pool starts all of its workers on first use, and replaces
+ * a worker as soon as it is recycled, either after the configured number of invocations or once its heap
+ * occupancy after garbage collection exceeds the configured limit. A worker which failed is never reused.
+ * All the workers are shut down once the builds using them finish, that is once the last project (or sub
+ * project run by <code>&lt;ant&gt;</code> and the like) which used a pool is done, or at the latest when
+ * the Ant JVM exits.
+ * </p>
+ */
+final class WorkerPool
+{
+   private static final Map<String, WorkerPool> POOLS = new HashMap<String, WorkerPool>();
+   // the projects which used the pools and are not finished yet
+   private static final Set<Project> LISTENED = Collections.newSetFromMap(new WeakHashMap<Project, Boolean>());
+   private static boolean hooked;
+
+   private final List<String> commandLine;
+   private final int size;
+   private final int maxJobs;
+   private final long maxHeap;
+   private final Deque<WSToolsWorkerClient> idle = new ArrayDeque<WSToolsWorkerClient>();
+   private int live;
+   private boolean closed;
+
+   private WorkerPool(List<String> commandLine, int size, int maxJobs, long maxHeap)
+   {
+      this.commandLine = commandLine;
+      this.size = size;
+      this.maxJobs = maxJobs;
+      this.maxHeap = maxHeap;
+   }
+
+   /**
+    * Gets the pool of workers started with the given command line, creating it if needed. The pool settings
+    * are the ones of the task creating the pool.
+    *
+    * @param project the project of the task
+    * @param command the command line running {@link WSToolsWorker}
+    * @param size    the number of workers
+    * @param maxJobs the number of invocations a worker serves before being recycled, 0 for no limit
+    * @param maxHeap the heap occupancy after garbage collection, in bytes, above which a worker is recycled,
+    *                0 for no limit
+    * @return the pool
+    */
+   static WorkerPool get(Project project, CommandlineJava command, int size, int maxJobs, long maxHeap)
+   {
+      List<String> commandLine = Arrays.asList(command.getCommandline());
+      String key = String.join("\u0000", commandLine);
+      synchronized (WorkerPool.class)
+      {
+         listen(project);
+         WorkerPool pool = POOLS.get(key);
+         if (pool == null)
+         {
+            pool = new WorkerPool(commandLine, Math.max(1, size), maxJobs, maxHeap);
+            POOLS.put(key, pool);
+         }
+         return pool;
+      }
+   }
+
+   /**
+    * Runs a tool invocation on a worker of the pool, waiting for one to be available.
+    *
+    * @param tool       the tool name, either <code>wsconsume</code> or <code>wsprovide</code>
+    * @param workingDir the directory relative paths in the arguments are resolved against
+    * @param args       the tool arguments
+    * @param out        the stream receiving the tool standard output
+    * @param err        the stream receiving the tool error output
+    * @return the tool exit status
+    * @throws ToolUnavailableException if no worker could be started or the pool has been closed
+    * @throws IOException              if the worker died once the invocation had been submitted
+    * @throws InterruptedException     if interrupted while waiting for a worker
+    */
+   int execute(String tool, File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException, InterruptedException
+   {
+      WSToolsWorkerClient worker;
+      try
+      {
+         worker = borrow();
+      }
+      catch (IOException e)
+      {
+         throw new ToolUnavailableException(e.getMessage(), e);
+      }
+      boolean reusable = false;
+      try
+      {
+         int status = worker.execute(tool, workingDir, args, out, err);
+         reusable = isReusable(worker);
+         return status;
+      }
+      finally
+      {
+         release(worker, reusable);
+      }
+   }
+
+   private boolean isReusable(WSToolsWorkerClient worker)
+   {
+      if (maxJobs > 0 && worker.getJobs() >= maxJobs)
+         return false;
+      try
+      {
+         return maxHeap <= 0 || worker.getHeapHighWater() < maxHeap;
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+   }
+
+   // processes are started and closed out of the pool monitor, which only guards the counters and the idle deque;
+   // live counts the started workers and the slots reserved for the ones being started
+   private WSToolsWorkerClient borrow() throws IOException, InterruptedException
+   {
+      while (true)
+      {
+         WSToolsWorkerClient worker;
+         int starts = 0;
+         synchronized (this)
+         {
+            if (closed)
+               throw new IOException("Worker pool closed");
+            worker = idle.pollFirst();
+            if (worker == null)
+            {
+               if (live >= size)
+               {
+                  wait();
+                  continue;
+               }
+               // the first borrower starts the whole pool
+               starts = live == 0 ? size : 1;
+               live += starts;
+            }
+         }
+         if (worker == null)
+         {
+            try
+            {
+               worker = WSToolsWorkerClient.start(commandLine);
+            }
+            catch (IOException e)
+            {
+               discard(starts);
+               throw e;
+            }
+            prestart(starts - 1);
+            return worker;
+         }
+         if (worker.isAlive())
+            return worker;
+         discard(1);
+         worker.close();
+      }
+   }
+
+   private void release(WSToolsWorkerClient worker, boolean reusable)
+   {
+      boolean replace;
+      synchronized (this)
+      {
+         if (reusable && !closed)
+         {
+            // the most recently used workers are the warmest ones
+            idle.addFirst(worker);
+            notifyAll();
+            return;
+         }
+         replace = !closed;
+         if (!replace)
+         {
+            live--;
+            notifyAll();
+         }
+      }
+      // the slot of the worker goes to its replacement, which boots while the worker shuts down
+      if (replace)
+         prestart(1);
+      worker.close();
+   }
+
+   /**
+    * Starts workers into slots reserved by the caller, so that their JVMs boot while the tasks prepare their
+    * invocations.
+    */
+   private void prestart(int count)
+   {
+      for (int i = 0; i < count; i++)
+      {
+         WSToolsWorkerClient worker;
+         try
+         {
+            worker = WSToolsWorkerClient.start(commandLine);
+         }
+         catch (IOException e)
+         {
+            // reported by the next borrower starting one
+            discard(count - i);
+            return;
+         }
+         boolean added;
+         synchronized (this)
+         {
+            added = !closed;
+            if (added)
+               idle.addLast(worker);
+            else
+               live--;
+            notifyAll();
+         }
+         if (!added)
+            worker.close();
+      }
+   }
+
+   private synchronized void discard(int slots)
+   {
+      live -= slots;
+      notifyAll();
+   }
+
+   private void close()
+   {
+      List<WSToolsWorkerClient> workers;
+      synchronized (this)
+      {
+         closed = true;
+         workers = new ArrayList<WSToolsWorkerClient>(idle);
+         live -= idle.size();
+         idle.clear();
+         notifyAll();
+      }
+      for (WSToolsWorkerClient worker : workers)
+         worker.close();
+   }
+
+   private static void finished(Project project)
+   {
+      List<WorkerPool> pools;
+      synchronized (WorkerPool.class)
+      {
+         LISTENED.remove(project);
+         if (!LISTENED.isEmpty())
+            return;
+         pools = new ArrayList<WorkerPool>(POOLS.values());
+         POOLS.clear();
+      }
+      for (WorkerPool pool : pools)
+         pool.close();
+   }
+
+   private static void closeAll()
+   {
+      List<WorkerPool> pools;
+      synchronized (WorkerPool.class)
+      {
+         pools = new ArrayList<WorkerPool>(POOLS.values());
+         POOLS.clear();
+      }
+      for (WorkerPool pool : pools)
+         pool.close();
+   }
+
+   private static void listen(final Project project)
+   {
+      if (!hooked)
+      {
+         hooked = true;
+         Runtime.getRuntime().addShutdownHook(new Thread("wstools-worker-pool-shutdown")
+         {
+            public void run()
+            {
+               closeAll();
+            }
+         });
+      }
+      if (!LISTENED.add(project))
+         return;
+      // a sub project never fires buildFinished, only subBuildFinished; the sub projects created later on
+      // inherit the listener, hence the check of the finished project
+      project.addBuildListener(new SubBuildListener()
+      {
+         public void buildFinished(BuildEvent event)
+         {
+            finished(project);
+         }
+
+         public void subBuildFinished(BuildEvent event)
+         {
+            if (event.getProject() == project)
+               finished(project);
+         }
+
+         public void subBuildStarted(BuildEvent event)
+         {
+         }
+
+         public void buildStarted(BuildEvent event)
+         {
+         }
+
+         public void targetStarted(BuildEvent event)
+         {
+         }
+
+         public void targetFinished(BuildEvent event)
+         {
+         }
+
+         public void taskStarted(BuildEvent event)
+         {
+         }
+
+         public void taskFinished(BuildEvent event)
+         {
+         }
+
+         public void messageLogged(BuildEvent event)
+         {
+         }
+      });
+   }
+}
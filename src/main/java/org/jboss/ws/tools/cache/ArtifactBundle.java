@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs artifact cache entries into compressed bundles (zip archives) for transfer to and from remote caches.
+ */
+public final class ArtifactBundle
+{
+   private ArtifactBundle()
+   {
+   }
+
+   /**
+    * Writes the files below the given directory as a bundle; the stream is not closed.
+    */
+   public static void write(File dir, OutputStream os) throws IOException
+   {
+      ZipOutputStream zos = new ZipOutputStream(os);
+      addEntries(dir, "", zos);
+      zos.finish();
+   }
+
+   /**
+    * Extracts a bundle into the given directory; the stream is not closed.
+    *
+    * @throws IOException if the bundle is malformed or holds entries pointing outside of the directory
+    */
+   public static void read(InputStream is, File dir) throws IOException
+   {
+      String root = dir.getCanonicalPath() + File.separator;
+      ZipInputStream zis = new ZipInputStream(is);
+      ZipEntry entry;
+      while ((entry = zis.getNextEntry()) != null)
+      {
+         File file = new File(dir, entry.getName());
+         if (!file.getCanonicalPath().startsWith(root))
+            throw new IOException("Invalid bundle entry: " + entry.getName());
+         if (entry.isDirectory())
+         {
+            Files.createDirectories(file.toPath());
+            continue;
+         }
+         Files.createDirectories(file.getParentFile().toPath());
+         try (OutputStream os = new FileOutputStream(file))
+         {
+            zis.transferTo(os);
+         }
+      }
+   }
+
+   private static void addEntries(File dir, String path, ZipOutputStream zos) throws IOException
+   {
+      String[] names = dir.list();
+      if (names == null)
+         return;
+      Arrays.sort(names);
+      for (String name : names)
+      {
+         File file = new File(dir, name);
+         if (file.isDirectory())
+         {
+            addEntries(file, path + name + "/", zos);
+         }
+         else
+         {
+            zos.putNextEntry(new ZipEntry(path + name));
+            Files.copy(file.toPath(), zos);
+            zos.closeEntry();
+         }
+      }
+   }
+}
@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import org.jboss.ws.tools.util.Fingerprint;
+
+/**
+ * A local, content-addressed cache of generated artifacts, shared by every build using the same cache directory.
+ * <p>
+ * Entries are keyed by a fingerprint of all the generation inputs and hold one directory per output root
+ * (for instance <code>output</code>, <code>source</code>, <code>resource</code>) plus a manifest with the
+ * digest of each file. Entries are written to a staging directory first and atomically renamed once complete,
+ * so concurrent builds never see partial entries. Restored files are hard linked into the target directories
+ * when the file system allows it, copied otherwise; since a hard linked file might be modified in place later on,
+ * the manifest digests are verified on every restore and a corrupted entry is simply dropped.
+ * </p>
+ * <p>
+ * Entries can additionally be shared across machines through a {@link RemoteCache}, see {@link CacheLookup}.
+ * </p>
+ */
+public final class ArtifactCache
+{
+   /**
+    * The cache directory used when only a remote cache is specified: <code>${user.home}/.jbossws/artifact-cache</code>
+    */
+   public static final File DEFAULT_DIRECTORY = new File(new File(SecurityActions.getSystemProperty("user.home", "."), ".jbossws"), "artifact-cache");
+
+   private static final ConcurrentMap<File, ArtifactCache> INSTANCES = new ConcurrentHashMap<File, ArtifactCache>();
+
+   private static final String MANIFEST = "manifest.properties";
+   private static final String HASHES = "hashes.properties";
+
+   private final File dir;
+   private final ConcurrentMap<String, String> hashes = new ConcurrentHashMap<String, String>();
+   private volatile boolean hashesDirty;
+
+   private ArtifactCache(File dir)
+   {
+      this.dir = dir;
+      loadHashes();
+   }
+
+   /**
+    * Gets the cache stored in the given directory; instances are shared within the JVM.
+    *
+    * @param dir the cache directory
+    * @return the cache
+    */
+   public static ArtifactCache getInstance(File dir)
+   {
+      File key = dir.getAbsoluteFile();
+      ArtifactCache cache = INSTANCES.get(key);
+      if (cache == null)
+      {
+         INSTANCES.putIfAbsent(key, new ArtifactCache(key));
+         cache = INSTANCES.get(key);
+      }
+      return cache;
+   }
+
+   public File getDirectory()
+   {
+      return dir;
+   }
+
+   /**
+    * Creates an empty staging directory to generate artifacts into, on the same file system as the cache.
+    */
+   public File createStaging() throws IOException
+   {
+      File staging = new File(dir, "tmp-" + UUID.randomUUID());
+      if (!staging.mkdirs())
+         throw new IOException("Could not create " + staging);
+      return staging;
+   }
+
+   /**
+    * Removes a staging directory, if it still exists.
+    */
+   public void discard(File staging)
+   {
+      if (staging != null)
+         delete(staging);
+   }
+
+   /**
+    * Moves a staging directory into the cache.
+    *
+    * @param key     the entry key
+    * @param staging the staging directory, with one sub directory per output root
+    * @return the entry directory
+    */
+   public File store(String key, File staging) throws IOException
+   {
+      writeManifest(key, staging);
+      return moveIntoPlace(key, staging);
+   }
+
+   /**
+    * Moves a complete entry, as fetched from a remote cache, into the cache.
+    *
+    * @param key     the entry key
+    * @param staging the staging directory holding the entry files, manifest included
+    * @return the entry directory, or null if the manifest is missing or does not match the files
+    */
+   public File importEntry(String key, File staging) throws IOException
+   {
+      if (!verify(staging))
+         return null;
+      return moveIntoPlace(key, staging);
+   }
+
+   private static void writeManifest(String key, File staging) throws IOException
+   {
+      Properties manifest = new Properties();
+      String[] roots = staging.list();
+      if (roots != null)
+      {
+         for (String root : roots)
+         {
+            addToManifest(new File(staging, root), root, manifest);
+         }
+      }
+      try (OutputStream os = new FileOutputStream(new File(staging, MANIFEST)))
+      {
+         manifest.store(os, key);
+      }
+   }
+
+   private File moveIntoPlace(String key, File staging) throws IOException
+   {
+      File entry = getEntry(key);
+      entry.getParentFile().mkdirs();
+      try
+      {
+         Files.move(staging.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e)
+      {
+         // stored concurrently by another build
+         delete(staging);
+      }
+      catch (IOException e)
+      {
+         if (!entry.isDirectory())
+            throw e;
+         // stored concurrently by another build
+         delete(staging);
+      }
+      saveHashes();
+      return entry;
+   }
+
+   /**
+    * Restores the entry with the given key, if any.
+    *
+    * @param key     the entry key
+    * @param targets the target directory of each output root
+    * @return true on cache hit
+    */
+   public boolean restore(String key, Map<String, File> targets) throws IOException
+   {
+      File entry = lookup(key);
+      if (entry == null)
+         return false;
+      install(entry, targets);
+      return true;
+   }
+
+   /**
+    * Looks up the entry with the given key, if any.
+    *
+    * @param key the entry key
+    * @return the verified entry directory, or null on cache miss
+    */
+   public File lookup(String key) throws IOException
+   {
+      File entry = getEntry(key);
+      if (!entry.isDirectory())
+         return null;
+
+      if (!verify(entry))
+      {
+         // modified through a hard link or partially deleted: drop the entry
+         File trash = new File(dir, "tmp-" + UUID.randomUUID());
+         if (entry.renameTo(trash))
+            delete(trash);
+         return null;
+      }
+      return entry;
+   }
+
+   private static boolean verify(File entry) throws IOException
+   {
+      Properties manifest = loadManifest(entry);
+      if (manifest == null)
+         return false;
+
+      for (String path : manifest.stringPropertyNames())
+      {
+         File file = new File(entry, path);
+         if (!file.isFile() || !manifest.getProperty(path).equals(digest(file)))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Copies (hard linking where possible) the output roots of an entry or of a staging directory to their targets.
+    */
+   public static void install(File entry, Map<String, File> targets) throws IOException
+   {
+      for (Map.Entry<String, File> target : targets.entrySet())
+      {
+         File root = new File(entry, target.getKey());
+         if (root.isDirectory())
+            installTree(root.toPath(), target.getValue().toPath());
+      }
+   }
+
+   /**
+    * Computes the digest of a jar, file or class directory, memoizing it by path, size and modification time
+    * so that large unchanged classpath entries are not read again on later builds.
+    *
+    * @param file the file or directory
+    * @return the hex encoded digest
+    */
+   public String hash(File file) throws IOException
+   {
+      if (file.isDirectory())
+      {
+         Fingerprint fp = new Fingerprint();
+         hashTree(file, "", fp);
+         return fp.getValue();
+      }
+      if (!file.isFile())
+         return "missing";
+
+      String memoKey = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+      String hash = hashes.get(memoKey);
+      if (hash == null)
+      {
+         hash = digest(file);
+         hashes.put(memoKey, hash);
+         hashesDirty = true;
+      }
+      return hash;
+   }
+
+   /**
+    * Adds the identity of a tool implementation (class name, version and the digest of the archive
+    * it is loaded from) to a cache key.
+    */
+   public void addImplementation(Fingerprint fp, Class<?> clazz) throws IOException
+   {
+      fp.add(clazz.getName());
+      Package pkg = clazz.getPackage();
+      fp.add(pkg != null ? pkg.getImplementationVersion() : null);
+      CodeSource cs = clazz.getProtectionDomain().getCodeSource();
+      URL location = cs != null ? cs.getLocation() : null;
+      if (location != null && "file".equals(location.getProtocol()))
+      {
+         try
+         {
+            fp.add(hash(new File(location.toURI())));
+         }
+         catch (URISyntaxException e)
+         {
+            fp.add(location.toExternalForm());
+         }
+      }
+   }
+
+   private File getEntry(String key)
+   {
+      return new File(new File(dir, key.substring(0, 2)), key);
+   }
+
+   private void hashTree(File file, String path, Fingerprint fp) throws IOException
+   {
+      String[] names = file.list();
+      if (names == null)
+         return;
+      Arrays.sort(names);
+      for (String name : names)
+      {
+         File child = new File(file, name);
+         fp.add(path + name);
+         if (child.isDirectory())
+            hashTree(child, path + name + "/", fp);
+         else
+            fp.add(hash(child));
+      }
+   }
+
+   private static void addToManifest(File file, String path, Properties manifest) throws IOException
+   {
+      if (file.isDirectory())
+      {
+         String[] names = file.list();
+         if (names != null)
+         {
+            for (String name : names)
+            {
+               addToManifest(new File(file, name), path + "/" + name, manifest);
+            }
+         }
+      }
+      else
+      {
+         manifest.setProperty(path, digest(file));
+      }
+   }
+
+   private static Properties loadManifest(File entry)
+   {
+      File file = new File(entry, MANIFEST);
+      if (!file.isFile())
+         return null;
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(file))
+      {
+         props.load(is);
+         return props;
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   private static void installTree(Path source, Path target) throws IOException
+   {
+      Files.createDirectories(target);
+      try (Stream<Path> children = Files.list(source))
+      {
+         for (Path child : (Iterable<Path>)children::iterator)
+         {
+            Path dest = target.resolve(child.getFileName().toString());
+            if (Files.isDirectory(child))
+            {
+               installTree(child, dest);
+            }
+            else
+            {
+               Files.deleteIfExists(dest);
+               try
+               {
+                  Files.createLink(dest, child);
+               }
+               catch (IOException | UnsupportedOperationException e)
+               {
+                  Files.copy(child, dest, StandardCopyOption.COPY_ATTRIBUTES);
+               }
+            }
+         }
+      }
+   }
+
+   private static String digest(File file) throws IOException
+   {
+      Fingerprint fp = new Fingerprint();
+      fp.addContent(file);
+      return fp.getValue();
+   }
+
+   private void loadHashes()
+   {
+      File file = new File(dir, HASHES);
+      if (!file.isFile())
+         return;
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(file))
+      {
+         props.load(is);
+      }
+      catch (IOException e)
+      {
+         return;
+      }
+      for (String key : props.stringPropertyNames())
+      {
+         hashes.put(key, props.getProperty(key));
+      }
+   }
+
+   private synchronized void saveHashes() throws IOException
+   {
+      if (!hashesDirty)
+         return;
+      hashesDirty = false;
+      Properties props = new Properties();
+      props.putAll(hashes);
+      File tmp = new File(dir, HASHES + "." + UUID.randomUUID());
+      try (OutputStream os = new FileOutputStream(tmp))
+      {
+         props.store(os, null);
+      }
+      Files.move(tmp.toPath(), new File(dir, HASHES).toPath(), StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
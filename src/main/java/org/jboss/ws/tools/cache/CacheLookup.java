@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+
+import org.jboss.ws.tools.util.OutputSync;
+
+/**
+ * A single generation run going through the artifact cache: looks the entry up in the local cache, then in the
+ * remote one if any; on a miss, provides the staging directory to generate into and finally stores the generated
+ * artifacts in both caches before installing them in their target directories.
+ * <p>
+ * Cache failures are logged as warnings and never fail the generation.
+ * </p>
+ */
+public final class CacheLookup implements Closeable
+{
+   private final ArtifactCache cache;
+   private final RemoteCache remote;
+   private final String key;
+   private final Map<String, File> targets;
+   private final PrintStream log;
+   private OutputSync outputSync;
+   private File staging;
+
+   /**
+    * @param cache   the local cache
+    * @param remote  the remote cache, or null
+    * @param key     the entry key
+    * @param targets the target directory of each output root
+    * @param log     the stream warnings are printed to
+    */
+   public CacheLookup(ArtifactCache cache, RemoteCache remote, String key, Map<String, File> targets, PrintStream log)
+   {
+      this.cache = cache;
+      this.remote = remote;
+      this.key = key;
+      this.targets = targets;
+      this.log = log;
+   }
+
+   /**
+    * Installs artifacts through the given {@link OutputSync} in write-if-changed mode, so that only changed files
+    * are written, instead of linking all of them into place; otherwise the linked files are recorded through it.
+    */
+   public void setOutputSync(OutputSync outputSync)
+   {
+      this.outputSync = outputSync;
+   }
+
+   /**
+    * Installs the cached artifacts in their target directories, if any.
+    *
+    * @return true on cache hit
+    */
+   public boolean restore()
+   {
+      try
+      {
+         File entry = cache.lookup(key);
+         if (entry != null)
+         {
+            install(entry);
+            return true;
+         }
+      }
+      catch (IOException e)
+      {
+         log.println("Warning: Could not restore artifacts from cache: " + e.getMessage());
+         return false;
+      }
+      if (remote == null)
+         return false;
+
+      File download = null;
+      try
+      {
+         download = cache.createStaging();
+         if (!remote.fetch(key, download))
+            return false;
+         File entry = cache.importEntry(key, download);
+         if (entry == null)
+         {
+            log.println("Warning: Ignoring corrupted artifacts from remote cache " + remote);
+            return false;
+         }
+         install(entry);
+         return true;
+      }
+      catch (IOException e)
+      {
+         log.println("Warning: Could not fetch artifacts from remote cache " + remote + ": " + e.getMessage());
+         return false;
+      }
+      finally
+      {
+         cache.discard(download);
+      }
+   }
+
+   /**
+    * Creates the staging directory to generate into on a cache miss; output roots are sub directories of it.
+    */
+   public File begin() throws IOException
+   {
+      staging = cache.createStaging();
+      return staging;
+   }
+
+   /**
+    * Stores the artifacts generated into the staging directory and installs them in their target directories.
+    */
+   public void commit() throws IOException
+   {
+      File entry;
+      try
+      {
+         entry = cache.store(key, staging);
+      }
+      catch (IOException e)
+      {
+         log.println("Warning: Could not store artifacts in cache: " + e.getMessage());
+         install(staging);
+         return;
+      }
+      if (remote != null)
+      {
+         try
+         {
+            remote.publish(key, entry);
+         }
+         catch (IOException e)
+         {
+            log.println("Warning: Could not publish artifacts to remote cache " + remote + ": " + e.getMessage());
+         }
+      }
+      install(entry);
+   }
+
+   private void install(File entry) throws IOException
+   {
+      if (outputSync != null && outputSync.isWriteIfChanged())
+      {
+         outputSync.sync(entry, targets);
+         return;
+      }
+      ArtifactCache.install(entry, targets);
+      if (outputSync != null)
+         outputSync.record(entry, targets);
+   }
+
+   /**
+    * Removes the staging directory, if still there.
+    */
+   public void close()
+   {
+      cache.discard(staging);
+   }
+}
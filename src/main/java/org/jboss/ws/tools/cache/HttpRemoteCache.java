@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+
+/**
+ * A {@link RemoteCache} backed by a plain HTTP key/value store: entries are retrieved with
+ * <code>GET &lt;url&gt;/&lt;key&gt;</code> and stored with <code>PUT &lt;url&gt;/&lt;key&gt;</code>,
+ * as compressed {@link ArtifactBundle}s. A 404 response is a cache miss.
+ * <p>
+ * Once the server turns out to be unreachable, every further request is skipped, so that an outage
+ * costs a single connection timeout per run instead of one per generated contract.
+ * </p>
+ */
+public final class HttpRemoteCache implements RemoteCache
+{
+   private static final int CONNECT_TIMEOUT = 2000;
+   private static final int READ_TIMEOUT = 30000;
+
+   private final String baseUrl;
+   private volatile boolean unreachable;
+
+   /**
+    * @param url the base url of the cache
+    */
+   public HttpRemoteCache(String url) throws MalformedURLException
+   {
+      URL parsed = new URL(url);
+      if (!"http".equals(parsed.getProtocol()) && !"https".equals(parsed.getProtocol()))
+         throw new MalformedURLException("Not an http url: " + url);
+      this.baseUrl = url.endsWith("/") ? url : url + "/";
+   }
+
+   public boolean fetch(String key, File dir) throws IOException
+   {
+      if (unreachable)
+         return false;
+
+      HttpURLConnection conn = open(key);
+      try
+      {
+         int status = getResponseCode(conn);
+         if (status == HttpURLConnection.HTTP_NOT_FOUND)
+            return false;
+         if (status != HttpURLConnection.HTTP_OK)
+            throw new IOException("Unexpected response from " + conn.getURL() + ": " + status);
+         try (InputStream is = conn.getInputStream())
+         {
+            ArtifactBundle.read(is, dir);
+         }
+         return true;
+      }
+      finally
+      {
+         conn.disconnect();
+      }
+   }
+
+   public void publish(String key, File dir) throws IOException
+   {
+      if (unreachable)
+         return;
+
+      HttpURLConnection conn = open(key);
+      try
+      {
+         conn.setRequestMethod("PUT");
+         conn.setDoOutput(true);
+         conn.setChunkedStreamingMode(0);
+         conn.setRequestProperty("Content-Type", "application/zip");
+         try (OutputStream os = getOutputStream(conn))
+         {
+            ArtifactBundle.write(dir, os);
+         }
+         int status = getResponseCode(conn);
+         if (status / 100 != 2)
+            throw new IOException("Unexpected response from " + conn.getURL() + ": " + status);
+      }
+      finally
+      {
+         conn.disconnect();
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return baseUrl;
+   }
+
+   private HttpURLConnection open(String key) throws IOException
+   {
+      HttpURLConnection conn = (HttpURLConnection)new URL(baseUrl + key).openConnection();
+      conn.setConnectTimeout(CONNECT_TIMEOUT);
+      conn.setReadTimeout(READ_TIMEOUT);
+      conn.setUseCaches(false);
+      return conn;
+   }
+
+   private int getResponseCode(HttpURLConnection conn) throws IOException
+   {
+      try
+      {
+         return conn.getResponseCode();
+      }
+      catch (ConnectException | UnknownHostException | SocketTimeoutException e)
+      {
+         unreachable = true;
+         throw e;
+      }
+   }
+
+   private OutputStream getOutputStream(HttpURLConnection conn) throws IOException
+   {
+      try
+      {
+         return conn.getOutputStream();
+      }
+      catch (ConnectException | UnknownHostException | SocketTimeoutException e)
+      {
+         unreachable = true;
+         throw e;
+      }
+   }
+}
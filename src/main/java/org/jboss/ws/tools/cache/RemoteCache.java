@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A remote store of artifact cache entries, shared by several machines.
+ * <p>
+ * Implementations must be thread safe. Failures are reported as {@link IOException} and are never fatal to
+ * the generation: the caller logs them and goes on generating the artifacts locally.
+ * </p>
+ *
+ * @see HttpRemoteCache
+ */
+public interface RemoteCache
+{
+   /**
+    * Downloads an entry.
+    *
+    * @param key the entry key
+    * @param dir the empty directory to download the entry files into
+    * @return false if there is no such entry
+    */
+   boolean fetch(String key, File dir) throws IOException;
+
+   /**
+    * Uploads an entry.
+    *
+    * @param key the entry key
+    * @param dir the directory holding the entry files
+    */
+   void publish(String key, File dir) throws IOException;
+}
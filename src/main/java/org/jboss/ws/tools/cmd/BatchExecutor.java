@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of tool jobs on a bounded pool of worker threads.
+ * Each job returns the exit status of a single tool invocation.
+ */
+final class BatchExecutor
+{
+   private BatchExecutor()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * Computes the default parallelism for a batch of the given size.
+    *
+    * @param jobs the number of jobs in the batch
+    * @return the number of worker threads to use
+    */
+   static int defaultThreads(int jobs)
+   {
+      return Math.max(1, Math.min(jobs, Runtime.getRuntime().availableProcessors()));
+   }
+
+   /**
+    * Executes the provided jobs and waits for all of them to complete.
+    * A single job (or a single thread) is run directly on the calling thread.
+    *
+    * @param name     the name used for the worker threads
+    * @param jobs     the jobs to run
+    * @param threads  the maximum number of jobs to run concurrently
+    * @param err      the stream to report the jobs failing with an exception to
+    * @return the exit status of each job, in the order the jobs were provided
+    */
+   static int[] execute(final String name, final List<? extends Callable<Integer>> jobs, final int threads, final PrintStream err)
+   {
+      final int[] statuses = new int[jobs.size()];
+      if (threads <= 1 || jobs.size() <= 1)
+      {
+         for (int i = 0; i < statuses.length; i++)
+         {
+            statuses[i] = call(jobs.get(i), err);
+         }
+         return statuses;
+      }
+
+      final ClassLoader loader = SecurityActions.getContextClassLoader();
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()), new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setContextClassLoader(loader);
+            return t;
+         }
+      });
+      try
+      {
+         List<Future<Integer>> futures = new ArrayList<Future<Integer>>(jobs.size());
+         for (final Callable<Integer> job : jobs)
+         {
+            futures.add(executor.submit(new Callable<Integer>()
+            {
+               public Integer call()
+               {
+                  return BatchExecutor.call(job, err);
+               }
+            }));
+         }
+         for (int i = 0; i < statuses.length; i++)
+         {
+            try
+            {
+               statuses[i] = futures.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+               statuses[i] = 1;
+            }
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         for (int i = 0; i < statuses.length; i++)
+         {
+            statuses[i] = 1;
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+      return statuses;
+   }
+
+   private static int call(Callable<Integer> job, PrintStream err)
+   {
+      try
+      {
+         return job.call();
+      }
+      catch (Exception e)
+      {
+         err.println("Error: " + e.getMessage());
+         return 1;
+      }
+   }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import org.jboss.ws.tools.ExitHandler;
+
+/**
+ * ExitHandler used when the tools are run within a long-lived JVM: instead of terminating the process,
+ * it unwinds the tool invocation with an {@link ExitException} carrying the exit status.
+ * Thread-safe singleton.
+ */
+final class ThrowingExitHandler implements ExitHandler
+{
+   private static final ThrowingExitHandler INSTANCE = new ThrowingExitHandler();
+
+   private ThrowingExitHandler() {}
+
+   static ThrowingExitHandler getInstance()
+   {
+      return INSTANCE;
+   }
+
+   public void exit(int status)
+   {
+      throw new ExitException(status);
+   }
+
+   /**
+    * Thrown in place of {@code System.exit()}.
+    */
+   static final class ExitException extends RuntimeException
+   {
+      private static final long serialVersionUID = 1L;
+      private final int status;
+
+      ExitException(int status)
+      {
+         super("Tool exited with status " + status, null, false, false);
+         this.status = status;
+      }
+
+      int getStatus()
+      {
+         return status;
+      }
+   }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.ws.tools.util.ScopedSystemProperties;
+
+/**
+ * Wire format used to submit tool invocations to a running JVM and to stream their output back.
+ * <p>
+ * A request is made of a header (magic number and version), an authentication token, the tool name,
+ * the working directory of the caller, the system properties to run the tool with and the tool arguments. The response is a sequence of frames,
+ * each one either a chunk of standard/error output or the final exit status.
+ * </p>
+ * <p>
+ * The header and the token are read and bounded first, so that the rest of a request is only read once the
+ * caller has been authenticated; the sizes in the remaining fields are checked before anything is allocated.
+ * </p>
+ */
+final class ToolProtocol
+{
+   static final String WSCONSUME = "wsconsume";
+   static final String WSPROVIDE = "wsprovide";
+   static final String SHUTDOWN = "shutdown";
+   static final String HEAP = "heap";
+
+   private static final int MAGIC = 0x4A425753;
+   private static final int VERSION = 2;
+
+   private static final int MAX_TOKEN_LENGTH = 256;
+   private static final int MAX_ARGS = 65536;
+   private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+   private static final byte FRAME_OUT = 1;
+   private static final byte FRAME_ERR = 2;
+   private static final byte FRAME_EXIT = 3;
+
+   private ToolProtocol()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * A tool invocation request.
+    */
+   static final class Request
+   {
+      final String token;
+      final String tool;
+      final File workingDir;
+      final Map<String, String> systemProperties;
+      final String[] args;
+
+      Request(String token, String tool, File workingDir, String[] args)
+      {
+         this(token, tool, workingDir, Collections.<String, String>emptyMap(), args);
+      }
+
+      Request(String token, String tool, File workingDir, Map<String, String> systemProperties, String[] args)
+      {
+         this.token = token;
+         this.tool = tool;
+         this.workingDir = workingDir;
+         this.systemProperties = systemProperties;
+         this.args = args;
+      }
+   }
+
+   static void writeRequest(DataOutputStream out, Request request) throws IOException
+   {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, request.token != null ? request.token : "");
+      writeString(out, request.tool);
+      writeString(out, request.workingDir != null ? request.workingDir.getAbsolutePath() : "");
+      out.writeInt(request.systemProperties.size());
+      for (Map.Entry<String, String> property : request.systemProperties.entrySet())
+      {
+         writeString(out, property.getKey());
+         writeString(out, property.getValue());
+      }
+      out.writeInt(request.args.length);
+      for (String arg : request.args)
+      {
+         writeString(out, arg);
+      }
+      out.flush();
+   }
+
+   /**
+    * Reads the header and the authentication token of a request; the token is to be checked before
+    * the rest of the request is read with {@link #readRequest(DataInputStream, String)}.
+    *
+    * @return the token, or null if the stream has been closed
+    */
+   static String readToken(DataInputStream in) throws IOException
+   {
+      int magic;
+      try
+      {
+         magic = in.readInt();
+      }
+      catch (EOFException e)
+      {
+         return null;
+      }
+      if (magic != MAGIC || in.readInt() != VERSION)
+         throw new IOException("Unsupported request format");
+      return readString(in, MAX_TOKEN_LENGTH);
+   }
+
+   /**
+    * Reads the rest of a request whose token has been read with {@link #readToken(DataInputStream)}.
+    */
+   static Request readRequest(DataInputStream in, String token) throws IOException
+   {
+      String tool = readString(in, MAX_STRING_LENGTH);
+      String workingDir = readString(in, MAX_STRING_LENGTH);
+      Map<String, String> systemProperties = new LinkedHashMap<String, String>();
+      for (int i = readLength(in, MAX_ARGS); i > 0; i--)
+      {
+         String key = readString(in, MAX_STRING_LENGTH);
+         if (key.isEmpty())
+            throw new IOException("Invalid system property name");
+         systemProperties.put(key, readString(in, MAX_STRING_LENGTH));
+      }
+      String[] args = new String[readLength(in, MAX_ARGS)];
+      for (int i = 0; i < args.length; i++)
+      {
+         args[i] = readString(in, MAX_STRING_LENGTH);
+      }
+      return new Request(token, tool, workingDir.isEmpty() ? null : new File(workingDir), systemProperties, args);
+   }
+
+   // not using writeUTF, as classpath arguments can easily exceed its 64k limit
+   private static void writeString(DataOutputStream out, String s) throws IOException
+   {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(DataInputStream in, int maxLength) throws IOException
+   {
+      byte[] bytes = new byte[readLength(in, maxLength)];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static int readLength(DataInputStream in, int max) throws IOException
+   {
+      int length = in.readInt();
+      if (length < 0 || length > max)
+         throw new IOException("Invalid request field length: " + length);
+      return length;
+   }
+
+   static void writeExit(DataOutputStream out, int status) throws IOException
+   {
+      synchronized (out)
+      {
+         out.writeByte(FRAME_EXIT);
+         out.writeInt(status);
+         out.flush();
+      }
+   }
+
+   /**
+    * Reads the response frames of a request, copying the output to the given streams.
+    *
+    * @return the exit status of the invocation
+    */
+   static int readResponse(DataInputStream in, OutputStream out, OutputStream err) throws IOException
+   {
+      byte[] buffer = new byte[8192];
+      while (true)
+      {
+         byte type = in.readByte();
+         if (type == FRAME_EXIT)
+         {
+            out.flush();
+            err.flush();
+            return in.readInt();
+         }
+         int len = in.readInt();
+         OutputStream target = type == FRAME_ERR ? err : out;
+         while (len > 0)
+         {
+            int n = in.read(buffer, 0, Math.min(len, buffer.length));
+            if (n < 0)
+               throw new EOFException();
+            target.write(buffer, 0, n);
+            len -= n;
+         }
+      }
+   }
+
+   static PrintStream newOutStream(DataOutputStream out)
+   {
+      return new PrintStream(new FrameOutputStream(out, FRAME_OUT), true);
+   }
+
+   static PrintStream newErrStream(DataOutputStream out)
+   {
+      return new PrintStream(new FrameOutputStream(out, FRAME_ERR), true);
+   }
+
+   /**
+    * Runs the requested tool in the current JVM, with the requested system properties applied for the duration
+    * of the run.
+    *
+    * @return the exit status
+    */
+   static int execute(Request request, PrintStream out, PrintStream err)
+   {
+      if (!WSCONSUME.equals(request.tool) && !WSPROVIDE.equals(request.tool))
+      {
+         err.println("Error: Unknown tool: " + request.tool);
+         return 1;
+      }
+
+      ScopedSystemProperties properties;
+      try
+      {
+         properties = ScopedSystemProperties.apply(request.systemProperties);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         err.println("Error: Interrupted");
+         return 1;
+      }
+      try
+      {
+         if (WSCONSUME.equals(request.tool))
+            return WSConsume.run(request.args, request.workingDir, out, err);
+         return WSProvide.run(request.args, request.workingDir, out, err);
+      }
+      finally
+      {
+         properties.restore();
+      }
+   }
+
+   /**
+    * Sends whatever is written to it as output frames of the given type.
+    */
+   private static final class FrameOutputStream extends OutputStream
+   {
+      private final DataOutputStream out;
+      private final byte type;
+
+      FrameOutputStream(DataOutputStream out, byte type)
+      {
+         this.out = out;
+         this.type = type;
+      }
+
+      @Override
+      public void write(int b) throws IOException
+      {
+         write(new byte[] {(byte)b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         if (len == 0)
+            return;
+         synchronized (out)
+         {
+            out.writeByte(type);
+            out.writeInt(len);
+            out.write(b, off, len);
+         }
+      }
+
+      @Override
+      public void flush() throws IOException
+      {
+         synchronized (out)
+         {
+            out.flush();
+         }
+      }
+   }
+}
@@ -26,20 +26,41 @@ import org.jboss.ws.tools.ExitHandler;
 import org.jboss.ws.tools.ExitHandlerFactory;
 import org.jboss.ws.tools.SystemExitHandler;
 import org.jboss.ws.tools.SystemExitHandlerFactory;
+import org.jboss.ws.tools.cache.ArtifactCache;
+import org.jboss.ws.tools.cache.CacheLookup;
+import org.jboss.ws.tools.cache.HttpRemoteCache;
+import org.jboss.ws.tools.cache.RemoteCache;
+import org.jboss.ws.tools.jfr.ConsumeEvent;
+import org.jboss.ws.tools.util.ClientJar;
+import org.jboss.ws.tools.util.Fingerprint;
+import org.jboss.ws.tools.util.JarPackager;
+import org.jboss.ws.tools.util.OutputSync;
+import org.jboss.ws.tools.util.SharedCompiler;
+import org.jboss.ws.tools.util.Timings;
+import org.jboss.ws.tools.util.ToolDiscovery;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * WSConsumeTask is a cmd line tool that generates portable JAX-WS artifacts
- * from a WSDL file.
+ * from one or more WSDL files.
  *
  * <pre>
- *  usage: WSConsumeTask [options] &lt;wsdl-url&gt;
+ *  usage: WSConsumeTask [options] &lt;wsdl-url&gt; [&lt;wsdl-url&gt; ...]
  *  options:
  *  <table>
  *  <tr><td>-h, --help                      </td><td>Show this help message</td></tr>
@@ -58,15 +79,79 @@ import java.util.List;
  *  <tr><td>-e, --extension                 </td><td>Enable SOAP 1.2 binding extension</td></tr>
  *  <tr><td>-a, --additionalHeaders         </td><td>Enable processing of implicit SOAP headers</td></tr>
  *  <tr><td>-d, --encoding=&lt;charset&gt;  </td><td>The charset encoding to use for generated sources</td></tr>
+ *  <tr><td>-B, --batch=&lt;file&gt;        </td><td>File listing additional WSDLs, one per line, with per-WSDL options</td></tr>
+ *  <tr><td>-T, --threads=&lt;n&gt;         </td><td>The maximum number of WSDLs to consume concurrently</td></tr>
+ *  <tr><td>-C, --cache=&lt;directory&gt;   </td><td>The artifact cache directory to reuse previously generated artifacts from</td></tr>
+ *  <tr><td>-R, --remote-cache=&lt;url&gt;  </td><td>The url of an HTTP artifact cache shared with other machines</td></tr>
+ *  <tr><td>    --timings                   </td><td>Print how long each phase of the run took</td></tr>
+ *  <tr><td>    --timings-file=&lt;file&gt;  </td><td>Write how long each phase of the run took to a JSON file</td></tr>
+ *  <tr><td>    --write-if-changed          </td><td>Only write generated files whose content changed, prune stale ones</td></tr>
+ *  <tr><td>    --source-jar=&lt;file&gt;    </td><td>Package generated Java source into a single srcjar, implies --keep</td></tr>
+ *  <tr><td>    --output-jar=&lt;file&gt;    </td><td>Package generated artifacts into a single jar instead of the output directory</td></tr>
+ *  <tr><td>    --staging-dir=&lt;dir&gt;    </td><td>Generate into this (preferably memory backed) directory, then write the results in one pass</td></tr>
+ *  <tr><td>    --compile-classpath=&lt;path&gt;</td><td>Additional classpath to compile the generated sources against</td></tr>
+ *  <tr><td>    --metadata-dir=&lt;dir&gt;   </td><td>The directory the lists of generated files are kept in (default .jbossws)</td></tr>
  *  </table>
  * </pre>
  *
+ * Each line of a batch file has the form <code>[options] &lt;wsdl-url&gt;</code>; the options on the
+ * line (binding, catalog, package, wsdlLocation, output, source, clientjar, keep, nocompile, extension,
+ * additionalHeaders and encoding) override the ones given on the command line for that WSDL only.
+ * Options and values are separated by whitespace; values containing whitespace, such as paths with spaces, are
+ * enclosed in double or single quotes, e.g. <code>-b "my bindings/binding.xml" "my wsdls/Service.wsdl"</code>.
+ * Blank lines and lines starting with <code>#</code> are ignored.
+ * <p>
+ * When an artifact cache is specified, the generated artifacts are stored there keyed by a fingerprint of the
+ * WSDL documents, binding and catalog files, options and consumer implementation, and restored on later runs
+ * with the same inputs, possibly from other builds or workspaces sharing the cache. Since the generated code
+ * refers to the WSDL location, specify a relative --wsdlLocation for runs in different workspaces to share entries.
+ * A remote cache is looked up on local cache misses and receives the newly generated entries; when no local cache
+ * directory is specified, <code>${user.home}/.jbossws/artifact-cache</code> is used.
+ * </p>
+ * <p>
+ * With --timings, the time taken by the consumer discovery, the artifact cache and the consumer run itself
+ * (generation and compilation) and the client jar packaging is printed for each WSDL once done; --timings-file
+ * writes the same figures as JSON.
+ * </p>
+ * <p>
+ * The --clientjar written by the consumer, which packages the WSDL documents and points the generated
+ * <code>wsdlLocation</code> to them, is repacked by the tools: entries are compressed on all cores and written
+ * in a fixed order with a fixed timestamp, so that the same WSDL always yields a byte-identical jar. The consumer
+ * compiles the sources of a WSDL packaged into a client jar on its own, as the jar needs the compiled classes.
+ * </p>
+ * <p>
+ * With --write-if-changed, artifacts are generated into a staging directory and only the files whose content
+ * differs from the ones already in place are moved to the output directories; unchanged files keep their
+ * modification time, so that incremental builds consuming them have nothing to redo. Files generated for the
+ * same WSDL by a previous run but not by the current one are removed. The files generated for each WSDL are
+ * recorded below --metadata-dir, <code>.jbossws</code> in the working directory by default, rather than in the
+ * output directories; when --metadata-dir is given, they are recorded even without --write-if-changed.
+ * </p>
+ * <p>
+ * With --source-jar, the Java sources generated for all the WSDLs are packaged into a single srcjar instead of
+ * being written as many small files, which IDEs and javac read directly; likewise --output-jar packages the
+ * other generated artifacts into a single jar. The per-WSDL source and output options are then ignored.
+ * </p>
+ * <p>
+ * When several WSDLs are consumed, the consumer only generates the Java sources, which are queued and compiled
+ * in shared javac invocations while the next WSDLs are being generated, so that the compiler and the classpath
+ * symbols are loaded once per batch rather than once per WSDL and generation and compilation keep separate cores
+ * busy. --threads then limits the number of WSDLs generated concurrently. This requires a JDK; on a plain JRE,
+ * or with --nocompile, each consumer run is left to itself.
+ * </p>
+ * <p>
+ * With --staging-dir, artifacts are generated below the given directory, ideally a memory backed file system
+ * such as <code>/dev/shm</code>, and then written to the output directories in a single parallel pass, so that
+ * slow or network file systems only see the final files rather than the generator's many small writes and
+ * intermediate files. Runs going through the artifact cache stage in the cache directory instead.
+ * </p>
+ *
  * @author <a href="mailto:jason.greene@jboss.com">Jason T. Greene</a>
  */
 public class WSConsume
 {
    private List<File> bindingFiles = new ArrayList<File>();
-   private File outputDir = new File("output");
+   private File outputDir;
    private boolean generateSource;
    private File catalog;
    private String targetPackage;
@@ -80,8 +165,23 @@ public class WSConsume
    private boolean noCompile;
    private File sourceDir;
    private File clientJar;
+   private int threads;
+   private File cacheDir;
+   private RemoteCache remoteCache;
+   private boolean printTimings;
+   private File timingsFile;
+   private boolean writeIfChanged;
+   private File sourceJar;
+   private File outputJar;
+   private File stagingDir;
+   private File metadataDir;
+   private List<String> compileClassPath = new ArrayList<String>();
 
    private final ExitHandler exitHandler;
+   private final File baseDir;
+   private final PrintStream out;
+   private final PrintStream err;
+   private final Timings timings;
    
    public static final String PROGRAM_NAME = SecurityActions.getSystemProperty("program.name", WSConsume.class.getName());
 
@@ -141,18 +241,102 @@ public class WSConsume
 
       // Gets the concrete exit handler using the factory (also singleton instance)
       WSConsume importer = new WSConsume(factory.get());
-      URL wsdl = importer.parseArguments(args);
-      importer.exitHandler.exit(importer.importServices(wsdl));
+      List<ConsumeJob> jobs = importer.parseArguments(args);
+      int status = importer.importServices(jobs);
+      importer.reportTimings();
+      importer.exitHandler.exit(status);
+   }
+
+   /**
+    * Runs the tool within the current JVM, returning the exit status instead of terminating it.
+    *
+    * @param args    the command line arguments
+    * @param baseDir the directory relative paths are resolved against, or null for the current directory
+    * @param out     the stream for standard output
+    * @param err     the stream for error output
+    * @return the exit status
+    */
+   public static int run(String[] args, File baseDir, PrintStream out, PrintStream err)
+   {
+      final ClassLoader origLoader = SecurityActions.getContextClassLoader();
+      try
+      {
+         SecurityActions.setContextClassLoader(WSConsume.class.getClassLoader());
+         WSConsume importer = new WSConsume(ThrowingExitHandler.getInstance(), baseDir, out, err);
+         List<ConsumeJob> jobs = importer.parseArguments(args);
+         int status = importer.importServices(jobs);
+         importer.reportTimings();
+         return status;
+      }
+      catch (ThrowingExitHandler.ExitException e)
+      {
+         return e.getStatus();
+      }
+      finally
+      {
+         SecurityActions.setContextClassLoader(origLoader);
+      }
    }
 
    WSConsume(ExitHandler exitHandler) {
+      this(exitHandler, null, System.out, System.err);
+   }
+
+   private WSConsume(ExitHandler exitHandler, File baseDir, PrintStream out, PrintStream err)
+   {
       this.exitHandler = exitHandler;
+      this.baseDir = baseDir;
+      this.out = out;
+      this.err = err;
+      this.timings = new Timings("wsconsume");
+      this.outputDir = toFile("output");
+   }
+
+   /**
+    * Creates a copy of the given importer, used as the starting point for per-WSDL batch options.
+    */
+   private WSConsume(WSConsume defaults)
+   {
+      this.exitHandler = defaults.exitHandler;
+      this.baseDir = defaults.baseDir;
+      this.out = defaults.out;
+      this.err = defaults.err;
+      this.timings = defaults.timings;
+      this.bindingFiles = new ArrayList<File>(defaults.bindingFiles);
+      this.outputDir = defaults.outputDir;
+      this.generateSource = defaults.generateSource;
+      this.catalog = defaults.catalog;
+      this.targetPackage = defaults.targetPackage;
+      this.wsdlLocation = defaults.wsdlLocation;
+      this.encoding = defaults.encoding;
+      this.quiet = defaults.quiet;
+      this.verbose = defaults.verbose;
+      this.extension = defaults.extension;
+      this.additionalHeaders = defaults.additionalHeaders;
+      this.noCompile = defaults.noCompile;
+      this.sourceDir = defaults.sourceDir;
+      this.clientJar = defaults.clientJar;
+      this.cacheDir = defaults.cacheDir;
+      this.remoteCache = defaults.remoteCache;
+      this.writeIfChanged = defaults.writeIfChanged;
+      this.stagingDir = defaults.stagingDir;
+      this.metadataDir = defaults.metadataDir;
+      this.compileClassPath = defaults.compileClassPath;
    }
 
-   private URL parseArguments(String[] args)
+   private static final String SHORT_OPTS = "b:c:p:w:d:o:s:j:khqvlneaB:T:C:R:";
+   private static final int TIMINGS = 0x100;
+   private static final int TIMINGS_FILE = 0x101;
+   private static final int WRITE_IF_CHANGED = 0x102;
+   private static final int SOURCE_JAR = 0x103;
+   private static final int OUTPUT_JAR = 0x104;
+   private static final int STAGING_DIR = 0x105;
+   private static final int COMPILE_CLASSPATH = 0x106;
+   private static final int METADATA_DIR = 0x107;
+
+   private static LongOpt[] longOpts()
    {
-      String shortOpts = "b:c:p:w:d:o:s:j:khqvlnea";
-      LongOpt[] longOpts =
+      return new LongOpt[]
       {
          new LongOpt("binding", LongOpt.REQUIRED_ARGUMENT, null, 'b'),
          new LongOpt("catalog", LongOpt.REQUIRED_ARGUMENT, null, 'c'),
@@ -170,40 +354,73 @@ public class WSConsume
          new LongOpt("load-consumer", LongOpt.NO_ARGUMENT, null, 'l'),
          new LongOpt("clientjar", LongOpt.REQUIRED_ARGUMENT, null, 'j'),
          new LongOpt("encoding", LongOpt.REQUIRED_ARGUMENT, null, 'd'),
+         new LongOpt("batch", LongOpt.REQUIRED_ARGUMENT, null, 'B'),
+         new LongOpt("threads", LongOpt.REQUIRED_ARGUMENT, null, 'T'),
+         new LongOpt("cache", LongOpt.REQUIRED_ARGUMENT, null, 'C'),
+         new LongOpt("remote-cache", LongOpt.REQUIRED_ARGUMENT, null, 'R'),
+         new LongOpt("timings", LongOpt.NO_ARGUMENT, null, TIMINGS),
+         new LongOpt("timings-file", LongOpt.REQUIRED_ARGUMENT, null, TIMINGS_FILE),
+         new LongOpt("write-if-changed", LongOpt.NO_ARGUMENT, null, WRITE_IF_CHANGED),
+         new LongOpt("source-jar", LongOpt.REQUIRED_ARGUMENT, null, SOURCE_JAR),
+         new LongOpt("output-jar", LongOpt.REQUIRED_ARGUMENT, null, OUTPUT_JAR),
+         new LongOpt("staging-dir", LongOpt.REQUIRED_ARGUMENT, null, STAGING_DIR),
+         new LongOpt("compile-classpath", LongOpt.REQUIRED_ARGUMENT, null, COMPILE_CLASSPATH),
+         new LongOpt("metadata-dir", LongOpt.REQUIRED_ARGUMENT, null, METADATA_DIR),
       };
+   }
 
-      Getopt getopt = new Getopt(PROGRAM_NAME, args, shortOpts, longOpts);
+   private List<ConsumeJob> parseArguments(String[] args)
+   {
+      List<File> batchFiles = new ArrayList<File>();
+      Getopt getopt = new Getopt(PROGRAM_NAME, args, SHORT_OPTS, longOpts());
       int c;
       while ((c = getopt.getopt()) != -1)
       {
+         if (parseJobOption(c, getopt.getOptarg()))
+            continue;
+
          switch (c)
          {
-            case 'b':
-               bindingFiles.add(new File(getopt.getOptarg()));
+            case 'B':
+               batchFiles.add(toFile(getopt.getOptarg()));
                break;
-            case 'k':
-               generateSource = true;
+            case 'T':
+               threads = parseThreads(getopt.getOptarg());
                break;
-            case 'c':
-               catalog = new File(getopt.getOptarg());
+            case 'C':
+               cacheDir = toFile(getopt.getOptarg());
                break;
-            case 'p':
-               targetPackage = getopt.getOptarg();
+            case 'R':
+               remoteCache = parseRemoteCache(getopt.getOptarg());
                break;
-            case 'w':
-               wsdlLocation = getopt.getOptarg();
+            case TIMINGS:
+               printTimings = true;
                break;
-            case 'd':
-               encoding = getopt.getOptarg();
+            case TIMINGS_FILE:
+               timingsFile = toFile(getopt.getOptarg());
+               break;
+            case WRITE_IF_CHANGED:
+               writeIfChanged = true;
+               break;
+            case SOURCE_JAR:
+               sourceJar = toFile(getopt.getOptarg());
+               generateSource = true;
                break;
-            case 'o':
-               outputDir = new File(getopt.getOptarg());
+            case OUTPUT_JAR:
+               outputJar = toFile(getopt.getOptarg());
                break;
-            case 's':
-               sourceDir = new File(getopt.getOptarg());
+            case STAGING_DIR:
+               stagingDir = toFile(getopt.getOptarg());
                break;
-            case 'j':
-               clientJar = new File(getopt.getOptarg());
+            case METADATA_DIR:
+               metadataDir = toFile(getopt.getOptarg());
+               break;
+            case COMPILE_CLASSPATH:
+               for (String entry : getopt.getOptarg().split(File.pathSeparator))
+               {
+                  if (!entry.isEmpty())
+                     compileClassPath.add(toFile(entry).getAbsolutePath());
+               }
                break;
             case 'q':
                quiet = true;
@@ -214,15 +431,6 @@ public class WSConsume
             case 'l':
                loadConsumer = true;
                break;
-            case 'e':
-               extension = true;
-               break;
-            case 'a':
-               additionalHeaders = true;
-               break;
-            case 'n':
-               noCompile = true;
-               break;
             case 'h':
                printHelp();
                exitHandler.exit(0);
@@ -234,57 +442,407 @@ public class WSConsume
       // debug output
       if(loadConsumer)
       {
-         WSContractConsumer importer = WSContractConsumer.newInstance();
-         System.out.println("WSContractConsumer instance: " + importer.getClass().getCanonicalName());
+         WSContractConsumer importer = ToolDiscovery.newConsumer(SecurityActions.getContextClassLoader());
+         out.println("WSContractConsumer instance: " + importer.getClass().getCanonicalName());
          exitHandler.exit(0);
       }
 
-      int wsdlPos = getopt.getOptind();
-      if (wsdlPos >= args.length)
+      List<ConsumeJob> jobs = new ArrayList<ConsumeJob>();
+      for (int wsdlPos = getopt.getOptind(); wsdlPos < args.length; wsdlPos++)
       {
-         System.err.println("Error: WSDL URL was not specified!");
+         jobs.add(new ConsumeJob(this, toURL(args[wsdlPos])));
+      }
+      for (File batchFile : batchFiles)
+      {
+         jobs.addAll(parseBatchFile(batchFile));
+      }
+
+      if (jobs.isEmpty())
+      {
+         err.println("Error: WSDL URL was not specified!");
          printHelp();
          exitHandler.exit(1);
       }
 
+      return jobs;
+   }
+
+   /**
+    * Handles the options that can be specified for each single WSDL.
+    *
+    * @return true if the option has been handled
+    */
+   private boolean parseJobOption(int c, String arg)
+   {
+      switch (c)
+      {
+         case 'b':
+            bindingFiles.add(toFile(arg));
+            return true;
+         case 'k':
+            generateSource = true;
+            return true;
+         case 'c':
+            catalog = toFile(arg);
+            return true;
+         case 'p':
+            targetPackage = arg;
+            return true;
+         case 'w':
+            wsdlLocation = arg;
+            return true;
+         case 'd':
+            encoding = arg;
+            return true;
+         case 'o':
+            outputDir = toFile(arg);
+            return true;
+         case 's':
+            sourceDir = toFile(arg);
+            return true;
+         case 'j':
+            clientJar = toFile(arg);
+            return true;
+         case 'e':
+            extension = true;
+            return true;
+         case 'a':
+            additionalHeaders = true;
+            return true;
+         case 'n':
+            noCompile = true;
+            return true;
+         default:
+            return false;
+      }
+   }
+
+   private int parseThreads(String value)
+   {
+      try
+      {
+         int n = Integer.parseInt(value);
+         if (n > 0)
+            return n;
+      }
+      catch (NumberFormatException e)
+      {
+         // reported below
+      }
+      err.println("Error: Invalid number of threads: " + value);
+      exitHandler.exit(1);
+      return 1;
+   }
+
+   private RemoteCache parseRemoteCache(String url)
+   {
+      try
+      {
+         return new HttpRemoteCache(url);
+      }
+      catch (MalformedURLException e)
+      {
+         err.println("Error: Invalid remote cache url: " + url);
+         exitHandler.exit(1);
+         return null;
+      }
+   }
+
+   private List<ConsumeJob> parseBatchFile(File batchFile)
+   {
+      List<ConsumeJob> jobs = new ArrayList<ConsumeJob>();
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(batchFile), StandardCharsets.UTF_8)))
+      {
+         String line;
+         int lineNumber = 0;
+         while ((line = reader.readLine()) != null)
+         {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+               continue;
+
+            String[] tokens = tokenize(line);
+            if (tokens == null)
+            {
+               err.println("Error: Unterminated quote at " + batchFile + ":" + lineNumber);
+               exitHandler.exit(1);
+            }
+            WSConsume entry = new WSConsume(this);
+            Getopt getopt = new Getopt(PROGRAM_NAME, tokens, SHORT_OPTS, longOpts());
+            int c;
+            while ((c = getopt.getopt()) != -1)
+            {
+               if (!entry.parseJobOption(c, getopt.getOptarg()))
+               {
+                  err.println("Error: Invalid option at " + batchFile + ":" + lineNumber);
+                  exitHandler.exit(1);
+               }
+            }
+            if (getopt.getOptind() != tokens.length - 1)
+            {
+               err.println("Error: Expected exactly one WSDL URL at " + batchFile + ":" + lineNumber);
+               exitHandler.exit(1);
+            }
+            jobs.add(new ConsumeJob(entry, toURL(tokens[tokens.length - 1])));
+         }
+      }
+      catch (IOException e)
+      {
+         err.println("Error: Could not read batch file: " + batchFile);
+         exitHandler.exit(1);
+      }
+      return jobs;
+   }
+
+   /**
+    * Splits a batch file line at whitespace, keeping the text enclosed in double or single quotes together.
+    * Backslashes are not special, as they are the separator of Windows paths.
+    *
+    * @return the tokens, or null if a quote is not terminated
+    */
+   private static String[] tokenize(String line)
+   {
+      List<String> tokens = new ArrayList<String>();
+      StringBuilder token = null;
+      char quote = 0;
+      for (int i = 0; i < line.length(); i++)
+      {
+         char ch = line.charAt(i);
+         if (quote != 0)
+         {
+            if (ch == quote)
+               quote = 0;
+            else
+               token.append(ch);
+         }
+         else if (ch == '"' || ch == '\'')
+         {
+            quote = ch;
+            if (token == null)
+               token = new StringBuilder();
+         }
+         else if (Character.isWhitespace(ch))
+         {
+            if (token != null)
+               tokens.add(token.toString());
+            token = null;
+         }
+         else
+         {
+            if (token == null)
+               token = new StringBuilder();
+            token.append(ch);
+         }
+      }
+      if (quote != 0)
+         return null;
+      if (token != null)
+         tokens.add(token.toString());
+      return tokens.toArray(new String[0]);
+   }
+
+   private File getMetadataDir()
+   {
+      return metadataDir != null ? metadataDir : toFile(OutputSync.METADATA_DIRECTORY);
+   }
+
+   private File toFile(String path)
+   {
+      File file = new File(path);
+      if (baseDir != null && !file.isAbsolute())
+         file = new File(baseDir, path);
+      return file;
+   }
+
+   private URL toURL(String wsdl)
+   {
       URL url = null;
       try
       {
          try
          {
-            url = new URL(args[wsdlPos]);
+            url = new URL(wsdl);
          }
          catch (MalformedURLException e)
          {
-            File file = new File(args[wsdlPos]);
+            File file = toFile(wsdl);
             url = file.toURI().toURL();
          }
       }
       catch (MalformedURLException e)
       {
-         System.err.println("Error: Invalid URI: " + args[wsdlPos]);
+         err.println("Error: Invalid URI: " + wsdl);
          exitHandler.exit(1);
       }
 
       return url;
    }
 
+   private int importServices(List<ConsumeJob> jobs)
+   {
+      if (sourceJar == null && outputJar == null)
+         return runJobs(jobs);
+
+      try (JarPackager packager = new JarPackager(sourceJar, outputJar, writeIfChanged, stagingDir))
+      {
+         for (ConsumeJob job : jobs)
+         {
+            // the staging directories start empty, only the jars are written if changed
+            job.options.writeIfChanged = false;
+            job.options.metadataDir = null;
+            if (outputJar != null)
+               job.options.outputDir = packager.getOutputDirectory();
+            if (sourceJar != null)
+               job.options.sourceDir = packager.getSourceDirectory();
+         }
+         int status = runJobs(jobs);
+         if (status == 0)
+         {
+            long start = System.nanoTime();
+            packager.pack();
+            timings.recordSince("", Timings.PACKAGING, start);
+         }
+         return status;
+      }
+      catch (IOException e)
+      {
+         err.println("Error: Could not package generated artifacts: " + e.getMessage());
+         return 1;
+      }
+   }
 
-   private int importServices(URL wsdl)
+   private int runJobs(List<ConsumeJob> jobs)
    {
-      WSContractConsumer consumer = WSContractConsumer.newInstance();
+      if (jobs.size() == 1)
+         return jobs.get(0).call();
+
+      int[] statuses;
+      int generators = threads > 0 ? threads : BatchExecutor.defaultThreads(jobs.size());
+      SharedCompiler compiler = createCompiler(jobs, generators);
+      try
+      {
+         for (ConsumeJob job : jobs)
+         {
+            job.compiler = compiler;
+         }
+         // jobs waiting for their sources to be compiled do not count against the generation threads
+         int poolSize = compiler != null ? generators + compiler.getQueueCapacity() : generators;
+         statuses = BatchExecutor.execute("wsconsume", jobs, poolSize, err);
+      }
+      finally
+      {
+         if (compiler != null)
+         {
+            try
+            {
+               compiler.close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+         }
+      }
+      int failures = 0;
+      for (int i = 0; i < statuses.length; i++)
+      {
+         if (statuses[i] != 0)
+         {
+            failures++;
+            err.println("Error: Could not import " + jobs.get(i).wsdl);
+         }
+      }
+      if (failures > 0)
+      {
+         err.println("Error: " + failures + " of " + jobs.size() + " WSDLs could not be imported");
+         return 1;
+      }
+      return 0;
+   }
+
+   /**
+    * Creates the compiler shared by the jobs of a batch, unless none of them compiles (or all of them build a client
+    * jar) or no compiler is available.
+    */
+   private static SharedCompiler createCompiler(List<ConsumeJob> jobs, int generators)
+   {
+      for (ConsumeJob job : jobs)
+      {
+         if (!job.options.noCompile && job.options.clientJar == null)
+            return SharedCompiler.isAvailable() ? new SharedCompiler(getCompilerClassPath(job.options.compileClassPath), generators) : null;
+      }
+      return null;
+   }
+
+   /**
+    * @return the classpath of this JVM followed by the additional entries, or null when there are none
+    */
+   private static List<String> getCompilerClassPath(List<String> additional)
+   {
+      if (additional.isEmpty())
+         return null;
+      List<String> classpath = new ArrayList<String>();
+      for (String entry : SecurityActions.getSystemProperty("java.class.path", "").split(File.pathSeparator))
+      {
+         if (!entry.isEmpty())
+            classpath.add(entry);
+      }
+      classpath.addAll(additional);
+      return classpath;
+   }
+
+   private void reportTimings()
+   {
+      if (printTimings)
+         timings.print(out);
+      if (timingsFile != null)
+      {
+         try
+         {
+            timings.write(timingsFile);
+         }
+         catch (IOException e)
+         {
+            err.println("Warning: Could not write timings file: " + e.getMessage());
+         }
+      }
+   }
+
+   private int importServices(URL wsdl, SharedCompiler compiler)
+   {
+      ConsumeEvent event = new ConsumeEvent();
+      event.begin();
+      int status = importServices(wsdl, compiler, event);
+      event.end();
+      if (event.shouldCommit())
+      {
+         event.wsdl = wsdl.toExternalForm();
+         event.options = describeOptions();
+         event.success = status == 0;
+         event.commit();
+      }
+      return status;
+   }
+
+   private int importServices(URL wsdl, SharedCompiler compiler, ConsumeEvent event)
+   {
+      String subject = wsdl.toExternalForm();
+      long start = System.nanoTime();
+      WSContractConsumer consumer = ToolDiscovery.newConsumer(SecurityActions.getContextClassLoader());
+      timings.recordSince(subject, Timings.DISCOVERY, start);
 
       consumer.setGenerateSource(generateSource);
       consumer.setOutputDirectory(outputDir);
       consumer.setExtension(extension);
+      if (!compileClassPath.isEmpty())
+         consumer.setAdditionalCompilerClassPath(compileClassPath);
       consumer.setAdditionalHeaders(additionalHeaders);
       if (sourceDir != null)
          consumer.setSourceDirectory(sourceDir);
-      if (clientJar != null) {
+      if (clientJar != null)
          consumer.setClientJar(clientJar);
-      }
-
-      PrintStream ps = System.out;
+      PrintStream ps = out;
       if (! quiet)
       {
          consumer.setMessageStream(ps);
@@ -298,7 +856,7 @@ public class WSConsume
          }
          else
          {
-            System.err.println("Warning: catalog file not found: " + catalog);
+            err.println("Warning: catalog file not found: " + catalog);
          }
       }
 
@@ -317,35 +875,204 @@ public class WSConsume
       if (noCompile)
          consumer.setNoCompile(noCompile);
 
+      // the sources are compiled together with the ones of the other WSDLs of the batch, unless the consumer
+      // needs the classes for the client jar
+      boolean sharedCompile = compiler != null && !noCompile && clientJar == null;
+      if (sharedCompile)
+      {
+         consumer.setNoCompile(true);
+         consumer.setGenerateSource(true);
+      }
+
+      Map<String, File> targets = new LinkedHashMap<String, File>();
+      targets.put("output", outputDir);
+      if (sourceDir != null)
+         targets.put("source", sourceDir);
+      // with an explicit metadata directory, the generated files are recorded for the incremental ant tasks
+      OutputSync outputSync = writeIfChanged || metadataDir != null ? new OutputSync("wsconsume", subject, getMetadataDir(), writeIfChanged) : null;
+      File generatedOutput = outputDir;
+      File generatedSource = sourceDir;
+
+      CacheLookup lookup = null;
+      if (cacheDir != null || remoteCache != null)
+      {
+         start = System.nanoTime();
+         try
+         {
+            ArtifactCache cache = ArtifactCache.getInstance(cacheDir != null ? cacheDir : ArtifactCache.DEFAULT_DIRECTORY);
+            lookup = new CacheLookup(cache, remoteCache, getCacheKey(cache, consumer, wsdl), targets, err);
+            lookup.setOutputSync(outputSync);
+            if (lookup.restore())
+            {
+               event.cacheHit = true;
+               event.recordOutputs(outputSync);
+               if (!quiet)
+                  out.println("Restored artifacts for " + wsdl + " from cache");
+               return 0;
+            }
+            File staging = lookup.begin();
+            generatedOutput = new File(staging, "output");
+            consumer.setOutputDirectory(generatedOutput);
+            if (sourceDir != null)
+            {
+               generatedSource = new File(staging, "source");
+               consumer.setSourceDirectory(generatedSource);
+            }
+         }
+         catch (IOException e)
+         {
+            err.println("Warning: artifact cache not available: " + e.getMessage());
+            lookup = null;
+         }
+         finally
+         {
+            timings.recordSince(subject, Timings.CACHE_LOOKUP, start);
+         }
+      }
+
+      File staging = null;
+      File sourceStaging = null;
       try
       {
-         consumer.consume(wsdl);
+         if (lookup == null && (writeIfChanged || stagingDir != null))
+         {
+            if (outputSync == null)
+               outputSync = new OutputSync();
+            staging = OutputSync.createStaging(outputDir, stagingDir);
+            generatedOutput = new File(staging, "output");
+            consumer.setOutputDirectory(generatedOutput);
+            if (sourceDir != null)
+            {
+               generatedSource = new File(staging, "source");
+               consumer.setSourceDirectory(generatedSource);
+            }
+         }
+         else if (lookup == null && sharedCompile)
+         {
+            // the classes are compiled straight into the output directory, only the sources are kept apart so
+            // that the shared compiler never sees (nor deletes) the ones of the other jobs
+            sourceStaging = OutputSync.createStaging(outputDir, null);
+            generatedSource = new File(sourceStaging, "source");
+            consumer.setSourceDirectory(generatedSource);
+         }
+         start = System.nanoTime();
+         try
+         {
+            consumer.consume(wsdl);
+         }
+         finally
+         {
+            timings.recordSince(subject, Timings.GENERATION, start);
+         }
+         if (sharedCompile)
+         {
+            start = System.nanoTime();
+            try
+            {
+               compiler.compile(generatedSource != null ? generatedSource : generatedOutput, generatedOutput, encoding);
+            }
+            finally
+            {
+               timings.recordSince(subject, Timings.COMPILATION, start);
+            }
+            if (sourceStaging != null)
+            {
+               if (generateSource)
+                  new OutputSync().sync(sourceStaging, Collections.singletonMap("source", sourceDir != null ? sourceDir : outputDir));
+            }
+            else if (!generateSource)
+            {
+               SharedCompiler.deleteSources(generatedOutput);
+               if (generatedSource != null)
+                  SharedCompiler.deleteSources(generatedSource);
+            }
+         }
+         if (clientJar != null)
+         {
+            start = System.nanoTime();
+            ClientJar.repack(new File(generatedOutput, clientJar.getName()));
+            timings.recordSince(subject, Timings.PACKAGING, start);
+         }
+         if (lookup != null)
+         {
+            start = System.nanoTime();
+            lookup.commit();
+            timings.recordSince(subject, Timings.CACHE_STORE, start);
+         }
+         else if (staging != null)
+         {
+            start = System.nanoTime();
+            outputSync.sync(staging, targets);
+            timings.recordSince(subject, Timings.OUTPUT_SYNC, start);
+         }
          return 0;
       }
       catch (Throwable t)
       {
-         System.err.println("Error: Could not import. (use --verbose to see full traces)");
+         err.println("Error: Could not import. (use --verbose to see full traces)");
          if (!verbose)
          {
             String message = t.getMessage();
             if (message == null)
                message = t.getClass().getSimpleName();
-            System.err.println("Error: " + message);
+            err.println("Error: " + message);
          }
          else
          {
-            t.printStackTrace(System.err);
+            t.printStackTrace(err);
          }
       }
+      finally
+      {
+         event.recordOutputs(outputSync);
+         if (lookup != null)
+            lookup.close();
+         OutputSync.delete(staging);
+         OutputSync.delete(sourceStaging);
+      }
 
       return 1;
    }
 
-   private static void printHelp()
+   /**
+    * Computes the artifact cache key, covering everything the generated artifacts depend on.
+    */
+   private String getCacheKey(ArtifactCache cache, WSContractConsumer consumer, URL wsdl) throws IOException
+   {
+      Fingerprint fp = new Fingerprint().add("wsconsume");
+      cache.addImplementation(fp, WSContractConsumer.class);
+      cache.addImplementation(fp, consumer.getClass());
+      fp.addWsdl(wsdl, catalog);
+      // the wsdl url ends up in the generated code unless a wsdlLocation is specified
+      fp.add(wsdlLocation != null ? wsdlLocation : wsdl.toExternalForm());
+      fp.add(bindingFiles.size());
+      for (File bindingFile : bindingFiles)
+      {
+         fp.addContent(bindingFile);
+      }
+      fp.add(catalog != null);
+      if (catalog != null)
+         fp.addContent(catalog);
+      fp.add(targetPackage).add(encoding).add(clientJar != null ? clientJar.getName() : null);
+      fp.add(generateSource).add(extension).add(additionalHeaders).add(noCompile).add(sourceDir != null);
+      return fp.getValue();
+   }
+
+   /**
+    * @return a description of the generation options, for diagnostics
+    */
+   private String describeOptions()
+   {
+      return "package=" + targetPackage + ", wsdlLocation=" + wsdlLocation + ", encoding=" + encoding
+            + ", bindings=" + bindingFiles.size() + ", catalog=" + (catalog != null) + ", keep=" + generateSource
+            + ", extension=" + extension + ", additionalHeaders=" + additionalHeaders + ", nocompile=" + noCompile
+            + ", clientjar=" + (clientJar != null ? clientJar.getName() : null);
+   }
+
+   private void printHelp()
    {
-      PrintStream out = System.out;
       out.println("WSConsumeTask is a cmd line tool that generates portable JAX-WS artifacts from a WSDL file.\n");
-      out.println("usage: " + PROGRAM_NAME + " [options] <wsdl-url>\n");
+      out.println("usage: " + PROGRAM_NAME + " [options] <wsdl-url> [<wsdl-url> ...]\n");
       out.println("options: ");
       out.println("    -h, --help                  Show this help message");
       out.println("    -b, --binding=<file>        One or more JAX-WS or JAXB binding files ");
@@ -363,6 +1090,59 @@ public class WSConsume
       out.println("    -a, --additionalHeaders     Enable processing of implicit SOAP headers");
       out.println("    -d  --encoding=<charset>    The charset encoding to use for generated sources");
       out.println("    -n, --nocompile             Do not compile generated sources");
+      out.println("    -B, --batch=<file>          File listing additional WSDLs, one per line, with per-WSDL options;");
+      out.println("                                quote the values containing spaces, e.g. -b \"my bindings/b.xml\" \"my dir/Service.wsdl\"");
+      out.println("    -T, --threads=<n>           The maximum number of WSDLs to consume concurrently");
+      out.println("    -C, --cache=<directory>     The artifact cache directory to reuse previously generated artifacts from");
+      out.println("    -R, --remote-cache=<url>    The url of an HTTP artifact cache shared with other machines");
+      out.println("        --timings               Print how long each phase of the run took");
+      out.println("        --timings-file=<file>   Write how long each phase of the run took to a JSON file");
+      out.println("        --write-if-changed      Only write generated files whose content changed, prune stale ones");
+      out.println("        --source-jar=<file>     Package generated Java source into a single srcjar, implies --keep");
+      out.println("        --output-jar=<file>     Package generated artifacts into a single jar instead of the output directory");
+      out.println("        --staging-dir=<dir>     Generate into this (preferably memory backed) directory, then write the results in one pass");
+      out.println("        --compile-classpath=<path>  Additional classpath to compile the generated sources against");
+      out.println("        --metadata-dir=<dir>    The directory the lists of generated files are kept in (default .jbossws)");
       out.flush();
    }
+
+   /**
+    * A single WSDL to be consumed, together with the options to use for it.
+    */
+   private static final class ConsumeJob implements Callable<Integer>
+   {
+      private final WSConsume options;
+      private final URL wsdl;
+      private SharedCompiler compiler;
+
+      ConsumeJob(WSConsume options, URL wsdl)
+      {
+         this.options = options;
+         this.wsdl = wsdl;
+      }
+
+      public Integer call()
+      {
+         if (compiler == null)
+            return options.importServices(wsdl, null);
+
+         try
+         {
+            compiler.register();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            return 1;
+         }
+         try
+         {
+            return options.importServices(wsdl, compiler);
+         }
+         finally
+         {
+            compiler.deregister();
+         }
+      }
+   }
 }
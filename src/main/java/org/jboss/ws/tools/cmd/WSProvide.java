@@ -22,25 +22,42 @@ import gnu.getopt.Getopt;
 import gnu.getopt.LongOpt;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.jboss.ws.api.tools.WSContractProvider;
 import org.jboss.ws.tools.ExitHandler;
 import org.jboss.ws.tools.ExitHandlerFactory;
 import org.jboss.ws.tools.SystemExitHandler;
 import org.jboss.ws.tools.SystemExitHandlerFactory;
+import org.jboss.ws.tools.cache.ArtifactCache;
+import org.jboss.ws.tools.cache.CacheLookup;
+import org.jboss.ws.tools.cache.HttpRemoteCache;
+import org.jboss.ws.tools.cache.RemoteCache;
+import org.jboss.ws.tools.scan.EndpointScanner;
+import org.jboss.ws.tools.scan.IndexedClassLoader;
+import org.jboss.ws.tools.jfr.ClassLoaderSetupEvent;
+import org.jboss.ws.tools.jfr.ProvideEvent;
+import org.jboss.ws.tools.util.Fingerprint;
+import org.jboss.ws.tools.util.JarPackager;
+import org.jboss.ws.tools.util.OutputSync;
+import org.jboss.ws.tools.util.Timings;
+import org.jboss.ws.tools.util.ToolDiscovery;
 
 /**
  * WSProvideTask is a cmd line tool that generates portable JAX-WS artifacts
- * for a service endpoint implementation.
+ * for one or more service endpoint implementations.
  * 
  * <pre>
- *  usage: WSProvideTask [options] &lt;endpoint class name&gt;
+ *  usage: WSProvideTask [options] [&lt;endpoint class name&gt; ...]
  *  options: 
  *  <table>
  *  <tr><td>-h, --help                      </td><td>Show this help message</td></tr>
@@ -56,7 +73,51 @@ import org.jboss.ws.tools.SystemExitHandlerFactory;
  *  <tr><td>-v, --verbose                   </td><td>Show full exception stack traces</td></tr>
  *  <tr><td>-l, --load-provider             </td><td>Load the provider and exit (debug utility)</td></tr>
  *  <tr><td>-e, --extension                 </td><td>Enable SOAP 1.2 binding extension</td></tr>
+ *  <tr><td>-C, --cache=&lt;directory&gt;   </td><td>The artifact cache directory to reuse previously generated artifacts from</td></tr>
+ *  <tr><td>-R, --remote-cache=&lt;url&gt;  </td><td>The url of an HTTP artifact cache shared with other machines</td></tr>
+ *  <tr><td>-T, --threads=&lt;n&gt;         </td><td>The maximum number of endpoints to process concurrently</td></tr>
+ *  <tr><td>-d, --discover                  </td><td>Process every @WebService implementation found in the classpath</td></tr>
+ *  <tr><td>-i, --index=&lt;file&gt;        </td><td>The jar index file used by --discover</td></tr>
+ *  <tr><td>    --timings                   </td><td>Print how long each phase of the run took</td></tr>
+ *  <tr><td>    --timings-file=&lt;file&gt;  </td><td>Write how long each phase of the run took to a JSON file</td></tr>
+ *  <tr><td>    --write-if-changed          </td><td>Only write generated files whose content changed, prune stale ones</td></tr>
+ *  <tr><td>    --source-jar=&lt;file&gt;    </td><td>Package generated Java source into a single srcjar, implies --keep</td></tr>
+ *  <tr><td>    --output-jar=&lt;file&gt;    </td><td>Package generated artifacts into a single jar instead of the output directory</td></tr>
+ *  <tr><td>    --staging-dir=&lt;dir&gt;    </td><td>Generate into this (preferably memory backed) directory, then write the results in one pass</td></tr>
+ *  <tr><td>    --classpath-index=&lt;file&gt;</td><td>Record the packages of the classpath jars in this file for later runs</td></tr>
+ *  <tr><td>    --metadata-dir=&lt;dir&gt;   </td><td>The directory the lists of generated files are kept in (default .jbossws)</td></tr>
  * </pre>
+ *
+ * Endpoint discovery reads the class files of the --classpath entries without loading them, so no static
+ * initializer runs; the endpoints found in each jar are indexed by jar size and modification time in
+ * <code>${user.home}/.jbossws/endpoint-index.properties</code> unless another index file is specified.
+ *
+ * All the endpoints are loaded through a single class loader built from the classpath, which indexes the packages
+ * of each jar up front so that lookups go straight to the owning jar; with --classpath-index, the jar packages
+ * are recorded by jar size and modification time in the given file, so that later runs do not read the
+ * unchanged jars again.
+ *
+ * When an artifact cache is specified, the generated artifacts are stored there keyed by a fingerprint of the
+ * endpoint classpath, options and provider implementation, and restored on later runs with the same inputs.
+ * A remote cache is looked up on local cache misses and receives the newly generated entries.
+ *
+ * With --timings, the time taken by the endpoint discovery, class loading, provider discovery, artifact cache
+ * and provider run is printed once done; --timings-file writes the same figures as JSON.
+ *
+ * With --write-if-changed, artifacts are generated into a staging directory and only the files whose content
+ * changed are moved to the output directories, so that unchanged files keep their modification time; files
+ * generated for the same endpoint by a previous run but not by the current one are removed. The files generated
+ * for each endpoint are recorded below --metadata-dir, <code>.jbossws</code> in the working directory by default,
+ * rather than in the output directories; when --metadata-dir is given, they are recorded even without
+ * --write-if-changed.
+ *
+ * With --source-jar, the Java sources generated for all the endpoints are packaged into a single srcjar instead
+ * of being written as many small files; likewise --output-jar packages the other generated artifacts into
+ * a single jar.
+ *
+ * With --staging-dir, artifacts are generated below the given directory, ideally a memory backed file system
+ * such as <code>/dev/shm</code>, and then written to the output directories in a single parallel pass. Runs
+ * going through the artifact cache stage in the cache directory instead.
  * 
  * @author <a href="mailto:jason.greene@jboss.com">Jason T. Greene</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
@@ -65,7 +126,7 @@ import org.jboss.ws.tools.SystemExitHandlerFactory;
 public class WSProvide
 {
    private ClassLoader loader = WSProvide.class.getClassLoader();
-   private File outputDir = new File("output");
+   private File outputDir;
    private boolean generateSource;
    private boolean generateWsdl;
    private boolean extension;
@@ -76,8 +137,26 @@ public class WSProvide
    private File resourceDir;
    private File sourceDir;
    private String portSoapAddress;
+   private File cacheDir;
+   private RemoteCache remoteCache;
+   private int threads;
+   private boolean discover;
+   private File indexFile = EndpointScanner.DEFAULT_INDEX;
+   private List<File> classPathEntries = new ArrayList<File>();
+   private boolean printTimings;
+   private File timingsFile;
+   private boolean writeIfChanged;
+   private File sourceJar;
+   private File outputJar;
+   private File stagingDir;
+   private File classPathIndex;
+   private File metadataDir;
+   private final Timings timings = new Timings("wsprovide");
 
    private final ExitHandler exitHandler;
+   private final File baseDir;
+   private final PrintStream out;
+   private final PrintStream err;
 
    public static final String PROGRAM_NAME = SecurityActions.getSystemProperty("program.name", WSProvide.class.getSimpleName());
 
@@ -123,17 +202,67 @@ public class WSProvide
 
       // Gets the concrete exit handler using the factory (also singleton instance)
       WSProvide generate = new WSProvide(factory.get());
-      String endpoint = generate.parseArguments(args);
-      generate.exitHandler.exit(generate.generate(endpoint));
+      List<String> endpoints = generate.parseArguments(args);
+      int status = generate.generate(endpoints);
+      generate.reportTimings();
+      generate.exitHandler.exit(status);
+   }
+
+   /**
+    * Runs the tool within the current JVM, returning the exit status instead of terminating it.
+    *
+    * @param args    the command line arguments
+    * @param baseDir the directory relative paths are resolved against, or null for the current directory
+    * @param out     the stream for standard output
+    * @param err     the stream for error output
+    * @return the exit status
+    */
+   public static int run(String[] args, File baseDir, PrintStream out, PrintStream err)
+   {
+      WSProvide generate = new WSProvide(ThrowingExitHandler.getInstance(), baseDir, out, err);
+      try
+      {
+         List<String> endpoints = generate.parseArguments(args);
+         int status = generate.generate(endpoints);
+         generate.reportTimings();
+         return status;
+      }
+      catch (ThrowingExitHandler.ExitException e)
+      {
+         return e.getStatus();
+      }
+      finally
+      {
+         // the daemon outlives the run, do not leak the open jars
+         generate.closeClassLoader();
+      }
    }
 
    WSProvide(ExitHandler exitHandler) {
+      this(exitHandler, null, System.out, System.err);
+   }
+
+   private WSProvide(ExitHandler exitHandler, File baseDir, PrintStream out, PrintStream err)
+   {
       this.exitHandler = exitHandler;
+      this.baseDir = baseDir;
+      this.out = out;
+      this.err = err;
+      this.outputDir = toFile("output");
    }
 
-   private String parseArguments(String[] args)
+   private static final int TIMINGS = 0x100;
+   private static final int TIMINGS_FILE = 0x101;
+   private static final int WRITE_IF_CHANGED = 0x102;
+   private static final int SOURCE_JAR = 0x103;
+   private static final int OUTPUT_JAR = 0x104;
+   private static final int STAGING_DIR = 0x105;
+   private static final int CLASSPATH_INDEX = 0x106;
+   private static final int METADATA_DIR = 0x107;
+
+   private List<String> parseArguments(String[] args)
    {
-      String shortOpts = "hwko:r:s:a:c:qtle";
+      String shortOpts = "hwko:r:s:a:c:qtleC:R:T:di:";
       LongOpt[] longOpts = 
       {
          new LongOpt("help", LongOpt.NO_ARGUMENT, null, 'h'),
@@ -149,6 +278,19 @@ public class WSProvide
          new LongOpt("verbose", LongOpt.NO_ARGUMENT, null, 'v'),
          new LongOpt("load-provider", LongOpt.NO_ARGUMENT, null, 'l'),
          new LongOpt("extension", LongOpt.NO_ARGUMENT, null, 'e'),
+         new LongOpt("cache", LongOpt.REQUIRED_ARGUMENT, null, 'C'),
+         new LongOpt("remote-cache", LongOpt.REQUIRED_ARGUMENT, null, 'R'),
+         new LongOpt("threads", LongOpt.REQUIRED_ARGUMENT, null, 'T'),
+         new LongOpt("discover", LongOpt.NO_ARGUMENT, null, 'd'),
+         new LongOpt("index", LongOpt.REQUIRED_ARGUMENT, null, 'i'),
+         new LongOpt("timings", LongOpt.NO_ARGUMENT, null, TIMINGS),
+         new LongOpt("timings-file", LongOpt.REQUIRED_ARGUMENT, null, TIMINGS_FILE),
+         new LongOpt("write-if-changed", LongOpt.NO_ARGUMENT, null, WRITE_IF_CHANGED),
+         new LongOpt("source-jar", LongOpt.REQUIRED_ARGUMENT, null, SOURCE_JAR),
+         new LongOpt("output-jar", LongOpt.REQUIRED_ARGUMENT, null, OUTPUT_JAR),
+         new LongOpt("staging-dir", LongOpt.REQUIRED_ARGUMENT, null, STAGING_DIR),
+         new LongOpt("classpath-index", LongOpt.REQUIRED_ARGUMENT, null, CLASSPATH_INDEX),
+         new LongOpt("metadata-dir", LongOpt.REQUIRED_ARGUMENT, null, METADATA_DIR),
       };
       
       Getopt getopt = new Getopt(PROGRAM_NAME, args, shortOpts, longOpts);
@@ -161,10 +303,10 @@ public class WSProvide
                generateSource = true;
                break;
             case 's':
-               sourceDir = new File(getopt.getOptarg());
+               sourceDir = toFile(getopt.getOptarg());
                break;
             case 'r':
-               resourceDir = new File(getopt.getOptarg());
+               resourceDir = toFile(getopt.getOptarg());
                break;
             case 'w':
                generateWsdl = true;
@@ -176,7 +318,7 @@ public class WSProvide
                verbose = true;
                break;
             case 'o':
-               outputDir = new File(getopt.getOptarg());
+               outputDir = toFile(getopt.getOptarg());
                break;
             case 'q':
                quiet = true;
@@ -193,6 +335,54 @@ public class WSProvide
             case 'e':
                extension = true;
                break;
+            case 'C':
+               cacheDir = toFile(getopt.getOptarg());
+               break;
+            case 'R':
+               try
+               {
+                  remoteCache = new HttpRemoteCache(getopt.getOptarg());
+               }
+               catch (MalformedURLException e)
+               {
+                  err.println("Error: Invalid remote cache url: " + getopt.getOptarg());
+                  exitHandler.exit(1);
+               }
+               break;
+            case 'T':
+               threads = parseThreads(getopt.getOptarg());
+               break;
+            case 'd':
+               discover = true;
+               break;
+            case 'i':
+               indexFile = toFile(getopt.getOptarg());
+               break;
+            case TIMINGS:
+               printTimings = true;
+               break;
+            case TIMINGS_FILE:
+               timingsFile = toFile(getopt.getOptarg());
+               break;
+            case WRITE_IF_CHANGED:
+               writeIfChanged = true;
+               break;
+            case SOURCE_JAR:
+               sourceJar = toFile(getopt.getOptarg());
+               generateSource = true;
+               break;
+            case OUTPUT_JAR:
+               outputJar = toFile(getopt.getOptarg());
+               break;
+            case STAGING_DIR:
+               stagingDir = toFile(getopt.getOptarg());
+               break;
+            case METADATA_DIR:
+               metadataDir = toFile(getopt.getOptarg());
+               break;
+            case CLASSPATH_INDEX:
+               classPathIndex = toFile(getopt.getOptarg());
+               break;
             case 'h':
                printHelp();
                exitHandler.exit(0);
@@ -201,39 +391,199 @@ public class WSProvide
          }
       }
 
+      createClassLoader();
+
       // debug output
       if(loadProvider)
       {
-         WSContractProvider gen = WSContractProvider.newInstance(loader);
-         System.out.println("WSContractProvider instance: " + gen.getClass().getCanonicalName());
+         WSContractProvider gen = ToolDiscovery.newProvider(loader);
+         out.println("WSContractProvider instance: " + gen.getClass().getCanonicalName());
          exitHandler.exit(0);
       }
 
-      int endpointPos = getopt.getOptind();
-      if (endpointPos >= args.length)
+      List<String> endpoints = new ArrayList<String>(Arrays.asList(args).subList(getopt.getOptind(), args.length));
+      if (discover)
       {
-         System.err.println("Error: endpoint implementation was not specified!");
+         for (String endpoint : discoverEndpoints())
+         {
+            if (!endpoints.contains(endpoint))
+               endpoints.add(endpoint);
+         }
+      }
+      if (endpoints.isEmpty())
+      {
+         err.println(discover ? "Error: no endpoint implementation found in the classpath!" : "Error: endpoint implementation was not specified!");
          printHelp();
          exitHandler.exit(1);
       }
       
-      return args[endpointPos];
+      return endpoints;
    }
-   
-   
+
+   private List<String> discoverEndpoints()
+   {
+      if (classPathEntries.isEmpty())
+      {
+         err.println("Error: --discover requires a --classpath to scan");
+         exitHandler.exit(1);
+      }
+      long start = System.nanoTime();
+      try
+      {
+         List<String> endpoints = new EndpointScanner(indexFile).scan(classPathEntries, threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+         if (!quiet)
+         {
+            for (String endpoint : endpoints)
+               out.println("Discovered endpoint: " + endpoint);
+         }
+         return endpoints;
+      }
+      catch (IOException e)
+      {
+         err.println("Error: Could not scan the classpath: " + e.getMessage());
+         exitHandler.exit(1);
+         return null;
+      }
+      finally
+      {
+         timings.recordSince("", Timings.ENDPOINT_SCAN, start);
+      }
+   }
+
+   private int parseThreads(String value)
+   {
+      try
+      {
+         int n = Integer.parseInt(value);
+         if (n > 0)
+            return n;
+      }
+      catch (NumberFormatException e)
+      {
+         // reported below
+      }
+      err.println("Error: Invalid number of threads: " + value);
+      exitHandler.exit(1);
+      return 1;
+   }
+
+   private int generate(List<String> endpoints)
+   {
+      if (sourceJar == null && outputJar == null)
+         return generateAll(endpoints);
+
+      try (JarPackager packager = new JarPackager(sourceJar, outputJar, writeIfChanged, stagingDir))
+      {
+         // the staging directories start empty, only the jars are written if changed
+         writeIfChanged = false;
+         metadataDir = null;
+         if (outputJar != null)
+            outputDir = packager.getOutputDirectory();
+         if (sourceJar != null)
+            sourceDir = packager.getSourceDirectory();
+         int status = generateAll(endpoints);
+         if (status == 0)
+         {
+            long start = System.nanoTime();
+            packager.pack();
+            timings.recordSince("", Timings.PACKAGING, start);
+         }
+         return status;
+      }
+      catch (IOException e)
+      {
+         err.println("Error: Could not package generated artifacts: " + e.getMessage());
+         return 1;
+      }
+   }
+
+   private int generateAll(List<String> endpoints)
+   {
+      if (endpoints.size() == 1)
+         return generate(endpoints.get(0));
+
+      List<Callable<Integer>> jobs = new ArrayList<Callable<Integer>>(endpoints.size());
+      for (final String endpoint : endpoints)
+      {
+         jobs.add(new Callable<Integer>()
+         {
+            public Integer call()
+            {
+               return generate(endpoint);
+            }
+         });
+      }
+      int[] statuses = BatchExecutor.execute("wsprovide", jobs, threads > 0 ? threads : BatchExecutor.defaultThreads(jobs.size()), err);
+      int failures = 0;
+      for (int i = 0; i < statuses.length; i++)
+      {
+         if (statuses[i] != 0)
+         {
+            failures++;
+            err.println("Error: Could not generate " + endpoints.get(i));
+         }
+      }
+      if (failures > 0)
+      {
+         err.println("Error: " + failures + " of " + endpoints.size() + " endpoints could not be processed");
+         return 1;
+      }
+      return 0;
+   }
+
+   private void reportTimings()
+   {
+      if (printTimings)
+         timings.print(out);
+      if (timingsFile != null)
+      {
+         try
+         {
+            timings.write(timingsFile);
+         }
+         catch (IOException e)
+         {
+            err.println("Warning: Could not write timings file: " + e.getMessage());
+         }
+      }
+   }
+
    private int generate(String endpoint)
    {
+      ProvideEvent event = new ProvideEvent();
+      event.begin();
+      int status = generate(endpoint, event);
+      event.end();
+      if (event.shouldCommit())
+      {
+         event.endpoint = endpoint;
+         event.options = describeOptions();
+         event.success = status == 0;
+         event.commit();
+      }
+      return status;
+   }
+
+   private int generate(String endpoint, ProvideEvent event)
+   {
+      long start = System.nanoTime();
       try
       {
          SecurityActions.loadClass(loader, endpoint);
       }
       catch (Exception e)
       {
-         System.err.println("Error: Could not load class [" + endpoint + "]. Did you specify a valid --classpath?");
+         err.println("Error: Could not load class [" + endpoint + "]. Did you specify a valid --classpath?");
          return 1;
       }
+      finally
+      {
+         timings.recordSince(endpoint, Timings.CLASS_LOADING, start);
+      }
       
-      WSContractProvider gen = WSContractProvider.newInstance(loader);
+      start = System.nanoTime();
+      WSContractProvider gen = ToolDiscovery.newProvider(loader);
+      timings.recordSince(endpoint, Timings.DISCOVERY, start);
       gen.setGenerateWsdl(generateWsdl);
       gen.setGenerateSource(generateSource);
       gen.setOutputDirectory(outputDir);
@@ -244,59 +594,236 @@ public class WSProvide
       if (sourceDir != null)
          gen.setSourceDirectory(sourceDir);
 
-      PrintStream ps = System.out;
+      PrintStream ps = out;
       if (! quiet)
       {
          gen.setMessageStream(ps);
       }
       
+      Map<String, File> targets = new LinkedHashMap<String, File>();
+      targets.put("output", outputDir);
+      if (resourceDir != null)
+         targets.put("resource", resourceDir);
+      if (sourceDir != null)
+         targets.put("source", sourceDir);
+      // with an explicit metadata directory, the generated files are recorded for the incremental ant tasks
+      OutputSync outputSync = writeIfChanged || metadataDir != null ? new OutputSync("wsprovide", endpoint, getMetadataDir(), writeIfChanged) : null;
+
+      CacheLookup lookup = null;
+      if (cacheDir != null || remoteCache != null)
+      {
+         start = System.nanoTime();
+         try
+         {
+            ArtifactCache cache = ArtifactCache.getInstance(cacheDir != null ? cacheDir : ArtifactCache.DEFAULT_DIRECTORY);
+            lookup = new CacheLookup(cache, remoteCache, getCacheKey(cache, gen, endpoint), targets, err);
+            lookup.setOutputSync(outputSync);
+            if (lookup.restore())
+            {
+               event.cacheHit = true;
+               event.recordOutputs(outputSync);
+               if (!quiet)
+                  out.println("Restored artifacts for " + endpoint + " from cache");
+               return 0;
+            }
+            File staging = lookup.begin();
+            gen.setOutputDirectory(new File(staging, "output"));
+            if (resourceDir != null)
+               gen.setResourceDirectory(new File(staging, "resource"));
+            if (sourceDir != null)
+               gen.setSourceDirectory(new File(staging, "source"));
+         }
+         catch (IOException e)
+         {
+            err.println("Warning: artifact cache not available: " + e.getMessage());
+            lookup = null;
+         }
+         finally
+         {
+            timings.recordSince(endpoint, Timings.CACHE_LOOKUP, start);
+         }
+      }
+
+      File staging = null;
       try
       {
-         gen.provide(endpoint);
+         if (lookup == null && (writeIfChanged || stagingDir != null))
+         {
+            if (outputSync == null)
+               outputSync = new OutputSync();
+            staging = OutputSync.createStaging(outputDir, stagingDir);
+            gen.setOutputDirectory(new File(staging, "output"));
+            if (resourceDir != null)
+               gen.setResourceDirectory(new File(staging, "resource"));
+            if (sourceDir != null)
+               gen.setSourceDirectory(new File(staging, "source"));
+         }
+         start = System.nanoTime();
+         try
+         {
+            gen.provide(endpoint);
+         }
+         finally
+         {
+            timings.recordSince(endpoint, Timings.GENERATION, start);
+         }
+         if (lookup != null)
+         {
+            start = System.nanoTime();
+            lookup.commit();
+            timings.recordSince(endpoint, Timings.CACHE_STORE, start);
+         }
+         else if (staging != null)
+         {
+            start = System.nanoTime();
+            outputSync.sync(staging, targets);
+            timings.recordSince(endpoint, Timings.OUTPUT_SYNC, start);
+         }
          return 0;
       }
       catch (Throwable t)
       {
-         System.err.println("Error: Could not generate. (use --show-traces or --verbose to see full traces)");
+         err.println("Error: Could not generate. (use --show-traces or --verbose to see full traces)");
          if (!showTraces && !verbose)
          {
             String message = t.getMessage();
             if (message == null)
                message = t.getClass().getSimpleName();
-            System.err.println("Error: " + message);
+            err.println("Error: " + message);
          }
          else
          {
-            t.printStackTrace(System.err);
+            t.printStackTrace(err);
          }
       }
+      finally
+      {
+         event.recordOutputs(outputSync);
+         if (lookup != null)
+            lookup.close();
+         OutputSync.delete(staging);
+      }
       
       return 1;
    }
 
+   /**
+    * Computes the artifact cache key. The generated artifacts depend on the endpoint and on every type
+    * it refers to, hence the whole endpoint classpath is part of the key.
+    */
+   private String getCacheKey(ArtifactCache cache, WSContractProvider gen, String endpoint) throws IOException
+   {
+      Fingerprint fp = new Fingerprint().add("wsprovide");
+      cache.addImplementation(fp, WSContractProvider.class);
+      cache.addImplementation(fp, gen.getClass());
+      fp.add(endpoint);
+      try (InputStream is = loader.getResourceAsStream(endpoint.replace('.', '/') + ".class"))
+      {
+         if (is == null)
+            throw new IOException("Could not read class file of " + endpoint);
+         fp.add(is.readAllBytes());
+      }
+      for (File entry : classPathEntries)
+      {
+         fp.add(cache.hash(entry));
+      }
+      for (String entry : SecurityActions.getSystemProperty("java.class.path", "").split(File.pathSeparator))
+      {
+         if (!entry.isEmpty())
+            fp.add(cache.hash(new File(entry)));
+      }
+      fp.add(portSoapAddress).add(generateSource).add(generateWsdl).add(extension);
+      fp.add(resourceDir != null).add(sourceDir != null);
+      return fp.getValue();
+   }
+
+   /**
+    * @return a description of the generation options, for diagnostics
+    */
+   private String describeOptions()
+   {
+      return "wsdl=" + generateWsdl + ", keep=" + generateSource + ", extension=" + extension
+            + ", address=" + portSoapAddress + ", classpathEntries=" + classPathEntries.size();
+   }
+
    private void processClassPath(String classPath)
    {
-      String[] entries =  classPath.split(File.pathSeparator);
-      List<URL> urls= new ArrayList<URL>(entries.length);
-      for (String entry : entries)
+      for (String entry : classPath.split(File.pathSeparator))
+      {
+         if (!entry.isEmpty())
+            classPathEntries.add(toFile(entry));
+      }
+   }
+
+   /**
+    * Creates the endpoint class loader once all the --classpath options are known.
+    */
+   private void createClassLoader()
+   {
+      if (classPathEntries.isEmpty())
+         return;
+
+      ClassLoaderSetupEvent event = new ClassLoaderSetupEvent();
+      event.begin();
+      long start = System.nanoTime();
+      try
+      {
+         loader = IndexedClassLoader.create(classPathEntries, loader, classPathIndex, threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+      }
+      catch (IOException e)
+      {
+         err.println("Error: Could not index the classpath: " + e.getMessage());
+         exitHandler.exit(1);
+      }
+      timings.recordSince("", Timings.CLASS_LOADING, start);
+      event.end();
+      if (event.shouldCommit())
+      {
+         StringBuilder classPath = new StringBuilder();
+         for (File entry : classPathEntries)
+         {
+            if (classPath.length() > 0)
+               classPath.append(File.pathSeparator);
+            classPath.append(entry.getPath());
+         }
+         event.classpath = classPath.toString();
+         event.entries = classPathEntries.size();
+         event.commit();
+      }
+   }
+
+   private void closeClassLoader()
+   {
+      if (loader instanceof IndexedClassLoader)
       {
-         try 
+         try
          {
-            urls.add(new File(entry).toURI().toURL());
+            ((IndexedClassLoader)loader).close();
          }
-         catch (MalformedURLException e)
+         catch (IOException e)
          {
-            System.err.println("Error: a classpath entry was malformed: " + entry);
+            // ignore
          }
       }
-      loader = new URLClassLoader(urls.toArray(new URL[0]), loader);
    }
 
-   private static void printHelp()
+   private File getMetadataDir()
+   {
+      return metadataDir != null ? metadataDir : toFile(OutputSync.METADATA_DIRECTORY);
+   }
+
+   private File toFile(String path)
+   {
+      File file = new File(path);
+      if (baseDir != null && !file.isAbsolute())
+         file = new File(baseDir, path);
+      return file;
+   }
+
+   private void printHelp()
    {
-      PrintStream out = System.out;
       out.println("WSProvideTask generates portable JAX-WS artifacts for an endpoint implementation.\n");
-      out.println("usage: " + PROGRAM_NAME + " [options] <endpoint class name>\n");
+      out.println("usage: " + PROGRAM_NAME + " [options] [<endpoint class name> ...]\n");
       out.println("options: ");
       out.println("    -h, --help                  Show this help message");
       out.println("    -k, --keep                  Keep/Generate Java source");
@@ -311,6 +838,19 @@ public class WSProvide
       out.println("    -t, --show-traces           Show full exception stack traces");
       out.println("    -v, --verbose               Show full exception stack traces");
       out.println("    -l, --load-provider         Load the provider and exit (debug utility)");
+      out.println("    -C, --cache=<directory>     The artifact cache directory to reuse previously generated artifacts from");
+      out.println("    -R, --remote-cache=<url>    The url of an HTTP artifact cache shared with other machines");
+      out.println("    -T, --threads=<n>           The maximum number of endpoints to process concurrently");
+      out.println("    -d, --discover              Process every @WebService implementation found in the classpath");
+      out.println("    -i, --index=<file>          The jar index file used by --discover");
+      out.println("        --timings               Print how long each phase of the run took");
+      out.println("        --timings-file=<file>   Write how long each phase of the run took to a JSON file");
+      out.println("        --write-if-changed      Only write generated files whose content changed, prune stale ones");
+      out.println("        --source-jar=<file>     Package generated Java source into a single srcjar, implies --keep");
+      out.println("        --output-jar=<file>     Package generated artifacts into a single jar instead of the output directory");
+      out.println("        --staging-dir=<dir>     Generate into this (preferably memory backed) directory, then write the results in one pass");
+      out.println("        --classpath-index=<file> Record the packages of the classpath jars in this file for later runs");
+      out.println("        --metadata-dir=<dir>    The directory the lists of generated files are kept in (default .jbossws)");
       out.flush();
    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.ws.tools.SystemExitHandlerFactory;
+
+/**
+ * Thin client submitting WSConsume and WSProvide invocations to a running {@link WSToolsDaemon}.
+ *
+ * <pre>
+ *  usage: WSToolsClient [-f &lt;daemon-file&gt;] wsconsume|wsprovide|shutdown [tool options]
+ * </pre>
+ */
+public class WSToolsClient
+{
+   /**
+    * The daemon file used when none is specified: <code>${user.home}/.jbossws/tools-daemon.properties</code>
+    */
+   public static final File DEFAULT_DAEMON_FILE = new File(new File(SecurityActions.getSystemProperty("user.home", "."), ".jbossws"), "tools-daemon.properties");
+
+   static final String PORT = "port";
+   static final String TOKEN = "token";
+
+   private static final int CONNECT_TIMEOUT = 2000;
+
+   private final int port;
+   private final String token;
+
+   /**
+    * Creates a client for the daemon published in the given file.
+    *
+    * @param daemonFile the daemon file
+    * @throws ToolUnavailableException if the daemon file can not be read, usually because no daemon is running
+    */
+   public WSToolsClient(File daemonFile) throws ToolUnavailableException
+   {
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(daemonFile))
+      {
+         props.load(is);
+      }
+      catch (IOException e)
+      {
+         throw new ToolUnavailableException(e.getMessage(), e);
+      }
+      try
+      {
+         this.port = Integer.parseInt(props.getProperty(PORT));
+      }
+      catch (NumberFormatException e)
+      {
+         throw new ToolUnavailableException("Invalid daemon file: " + daemonFile, e);
+      }
+      this.token = props.getProperty(TOKEN, "");
+   }
+
+   /**
+    * Invokes WSConsume on the daemon.
+    *
+    * @see #execute(String, File, String[], OutputStream, OutputStream)
+    */
+   public int consume(File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(ToolProtocol.WSCONSUME, workingDir, args, out, err);
+   }
+
+   /**
+    * Invokes WSConsume on the daemon, with the given system properties.
+    *
+    * @see #execute(String, File, Map, String[], OutputStream, OutputStream)
+    */
+   public int consume(File workingDir, Map<String, String> systemProperties, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(ToolProtocol.WSCONSUME, workingDir, systemProperties, args, out, err);
+   }
+
+   /**
+    * Invokes WSProvide on the daemon.
+    *
+    * @see #execute(String, File, String[], OutputStream, OutputStream)
+    */
+   public int provide(File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(ToolProtocol.WSPROVIDE, workingDir, args, out, err);
+   }
+
+   /**
+    * Invokes WSProvide on the daemon, with the given system properties.
+    *
+    * @see #execute(String, File, Map, String[], OutputStream, OutputStream)
+    */
+   public int provide(File workingDir, Map<String, String> systemProperties, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(ToolProtocol.WSPROVIDE, workingDir, systemProperties, args, out, err);
+   }
+
+   /**
+    * Asks the daemon to shut down.
+    */
+   public void shutdown() throws IOException
+   {
+      OutputStream nul = OutputStream.nullOutputStream();
+      execute(ToolProtocol.SHUTDOWN, null, new String[0], nul, nul);
+   }
+
+   /**
+    * Submits a tool invocation to the daemon and waits for its completion.
+    *
+    * @param tool       the tool name, either <code>wsconsume</code> or <code>wsprovide</code>
+    * @param workingDir the directory relative paths in the arguments are resolved against
+    * @param args       the tool arguments, as accepted by the command line tool
+    * @param out        the stream receiving the tool standard output
+    * @param err        the stream receiving the tool error output
+    * @return the tool exit status
+    * @throws ToolUnavailableException if the daemon could not be reached or the request could not be sent
+    * @throws IOException if the connection was lost once the request had been sent
+    */
+   public int execute(String tool, File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(tool, workingDir, Collections.<String, String>emptyMap(), args, out, err);
+   }
+
+   /**
+    * Submits a tool invocation to the daemon and waits for its completion.
+    *
+    * @param tool             the tool name, either <code>wsconsume</code> or <code>wsprovide</code>
+    * @param workingDir       the directory relative paths in the arguments are resolved against
+    * @param systemProperties the system properties the daemon applies for the duration of the run, like
+    *                         <code>-D</code> JVM arguments would
+    * @param args             the tool arguments, as accepted by the command line tool
+    * @param out              the stream receiving the tool standard output
+    * @param err              the stream receiving the tool error output
+    * @return the tool exit status
+    * @throws ToolUnavailableException if the daemon could not be reached or the request could not be sent
+    * @throws IOException if the connection was lost once the request had been sent
+    */
+   public int execute(String tool, File workingDir, Map<String, String> systemProperties, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      try (Socket socket = new Socket())
+      {
+         try
+         {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ToolProtocol.writeRequest(dos, new ToolProtocol.Request(token, tool, workingDir, systemProperties, args));
+         }
+         catch (IOException e)
+         {
+            throw new ToolUnavailableException(e.getMessage(), e);
+         }
+         DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         return ToolProtocol.readResponse(dis, out, err);
+      }
+   }
+
+   public static void main(String[] args)
+   {
+      File daemonFile = DEFAULT_DAEMON_FILE;
+      int pos = 0;
+      if (args.length > 1 && ("-f".equals(args[0]) || "--file".equals(args[0])))
+      {
+         daemonFile = new File(args[1]);
+         pos = 2;
+      }
+      if (pos >= args.length)
+      {
+         System.err.println("usage: WSToolsClient [-f <daemon-file>] wsconsume|wsprovide|shutdown [tool options]");
+         SystemExitHandlerFactory.getInstance().get().exit(1);
+         return;
+      }
+
+      int status;
+      try
+      {
+         WSToolsClient client = new WSToolsClient(daemonFile);
+         status = client.execute(args[pos], new File("."), Arrays.copyOfRange(args, pos + 1, args.length), System.out, System.err);
+      }
+      catch (IOException e)
+      {
+         System.err.println("Error: Could not contact daemon: " + e.getMessage());
+         status = 1;
+      }
+      SystemExitHandlerFactory.getInstance().get().exit(status);
+   }
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import gnu.getopt.Getopt;
+import gnu.getopt.LongOpt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ws.tools.ExitHandler;
+import org.jboss.ws.tools.SystemExitHandlerFactory;
+
+/**
+ * WSToolsDaemon is a long-lived process serving WSConsume and WSProvide invocations, so that repeated
+ * invocations run on an already loaded and JIT-warmed tool stack instead of a freshly started JVM.
+ * Requests are submitted through {@link WSToolsClient}.
+ * <p>
+ * The daemon only listens on the loopback interface; the port and a random authentication token are
+ * published in the daemon file, which is readable by the current user only and removed on shutdown.
+ * Each request carries the caller's working directory, against which relative paths are resolved, and
+ * the very same arguments accepted by the command line tools. A request may also carry system properties, which
+ * are applied for the duration of its run; concurrent requests setting a property to different values are served
+ * one after the other. Other JVM options (heap size, ...) are the daemon's own.
+ * </p>
+ *
+ * <pre>
+ *  usage: WSToolsDaemon [options]
+ *  options:
+ *  <table>
+ *  <tr><td>-h, --help                      </td><td>Show this help message</td></tr>
+ *  <tr><td>-p, --port=&lt;port&gt;         </td><td>The loopback port to listen on (default: any free port)</td></tr>
+ *  <tr><td>-f, --file=&lt;file&gt;         </td><td>The daemon file to publish the port and token to</td></tr>
+ *  <tr><td>-T, --threads=&lt;n&gt;         </td><td>The maximum number of requests to serve concurrently</td></tr>
+ *  </table>
+ * </pre>
+ */
+public class WSToolsDaemon
+{
+   public static final String PROGRAM_NAME = SecurityActions.getSystemProperty("program.name", WSToolsDaemon.class.getSimpleName());
+   private static final int MAX_ACCEPT_FAILURES = 10;
+   private static final long MAX_ACCEPT_DELAY = 1000;
+
+   private final File daemonFile;
+   private final String token;
+   private final ServerSocket serverSocket;
+   private final ExecutorService executor;
+   private volatile boolean running = true;
+
+   /**
+    * Creates a daemon listening on the loopback interface.
+    *
+    * @param port       the port to listen on, 0 for any free port
+    * @param daemonFile the file the port and token are published to
+    * @param threads    the maximum number of requests served concurrently
+    * @throws IOException if the server socket or the daemon file could not be created
+    */
+   public WSToolsDaemon(int port, File daemonFile, int threads) throws IOException
+   {
+      this.daemonFile = daemonFile;
+      this.token = newToken();
+      this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+      final ClassLoader loader = SecurityActions.getContextClassLoader();
+      this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "wstools-daemon-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setContextClassLoader(loader);
+            return t;
+         }
+      });
+      publish();
+   }
+
+   public static void main(String[] args)
+   {
+      ExitHandler exitHandler = SystemExitHandlerFactory.getInstance().get();
+      int port = 0;
+      int threads = Runtime.getRuntime().availableProcessors();
+      File daemonFile = WSToolsClient.DEFAULT_DAEMON_FILE;
+
+      LongOpt[] longOpts =
+      {
+         new LongOpt("help", LongOpt.NO_ARGUMENT, null, 'h'),
+         new LongOpt("port", LongOpt.REQUIRED_ARGUMENT, null, 'p'),
+         new LongOpt("file", LongOpt.REQUIRED_ARGUMENT, null, 'f'),
+         new LongOpt("threads", LongOpt.REQUIRED_ARGUMENT, null, 'T'),
+      };
+      Getopt getopt = new Getopt(PROGRAM_NAME, args, "hp:f:T:", longOpts);
+      int c;
+      while ((c = getopt.getopt()) != -1)
+      {
+         try
+         {
+            switch (c)
+            {
+               case 'p':
+                  port = Integer.parseInt(getopt.getOptarg());
+                  break;
+               case 'f':
+                  daemonFile = new File(getopt.getOptarg());
+                  break;
+               case 'T':
+                  threads = Integer.parseInt(getopt.getOptarg());
+                  break;
+               case 'h':
+                  printHelp();
+                  exitHandler.exit(0);
+               case '?':
+                  exitHandler.exit(1);
+            }
+         }
+         catch (NumberFormatException e)
+         {
+            System.err.println("Error: Invalid number: " + getopt.getOptarg());
+            exitHandler.exit(1);
+         }
+      }
+
+      final WSToolsDaemon daemon;
+      try
+      {
+         daemon = new WSToolsDaemon(port, daemonFile, Math.max(1, threads));
+      }
+      catch (IOException e)
+      {
+         System.err.println("Error: Could not start daemon: " + e.getMessage());
+         exitHandler.exit(1);
+         return;
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread()
+      {
+         public void run()
+         {
+            daemon.stop();
+         }
+      });
+      System.out.println(PROGRAM_NAME + " listening on port " + daemon.getPort() + ", daemon file: " + daemonFile);
+      try
+      {
+         daemon.run();
+      }
+      catch (IOException e)
+      {
+         System.err.println("Error: Could not accept connections: " + e.getMessage());
+         exitHandler.exit(1);
+         return;
+      }
+      exitHandler.exit(0);
+   }
+
+   /**
+    * @return the port the daemon is listening on
+    */
+   public int getPort()
+   {
+      return serverSocket.getLocalPort();
+   }
+
+   /**
+    * Accepts and serves requests until the daemon is stopped. A failure to accept a connection is retried after
+    * a delay growing with each consecutive failure; after {@value #MAX_ACCEPT_FAILURES} of them in a row,
+    * the daemon stops.
+    *
+    * @throws IOException the last failure to accept a connection, once the daemon gave up
+    */
+   public void run() throws IOException
+   {
+      int failures = 0;
+      while (running)
+      {
+         final Socket socket;
+         try
+         {
+            socket = serverSocket.accept();
+            failures = 0;
+         }
+         catch (IOException e)
+         {
+            if (!running)
+               return;
+            if (++failures >= MAX_ACCEPT_FAILURES)
+            {
+               stop();
+               throw e;
+            }
+            try
+            {
+               Thread.sleep(Math.min(MAX_ACCEPT_DELAY, 10L << failures));
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               stop();
+               return;
+            }
+            continue;
+         }
+         try
+         {
+            executor.execute(new Runnable()
+            {
+               public void run()
+               {
+                  serve(socket);
+               }
+            });
+         }
+         catch (RejectedExecutionException e)
+         {
+            // stopped in the meantime
+            try
+            {
+               socket.close();
+            }
+            catch (IOException ignored)
+            {
+               // ignore
+            }
+         }
+      }
+   }
+
+   /**
+    * Stops accepting requests and removes the daemon file.
+    */
+   public void stop()
+   {
+      if (!running)
+         return;
+      running = false;
+      daemonFile.delete();
+      try
+      {
+         serverSocket.close();
+      }
+      catch (IOException e)
+      {
+         // ignore
+      }
+      executor.shutdown();
+   }
+
+   private void serve(Socket socket)
+   {
+      try (Socket s = socket)
+      {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+         String requestToken = ToolProtocol.readToken(in);
+         if (requestToken == null)
+            return;
+
+         if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), requestToken.getBytes(StandardCharsets.UTF_8)))
+         {
+            PrintStream err = ToolProtocol.newErrStream(out);
+            err.println("Error: Invalid daemon token");
+            ToolProtocol.writeExit(out, 1);
+            return;
+         }
+         ToolProtocol.Request request = ToolProtocol.readRequest(in, requestToken);
+         if (ToolProtocol.SHUTDOWN.equals(request.tool))
+         {
+            stop();
+            ToolProtocol.writeExit(out, 0);
+            return;
+         }
+
+         PrintStream ps = ToolProtocol.newOutStream(out);
+         PrintStream err = ToolProtocol.newErrStream(out);
+         int status;
+         try
+         {
+            status = ToolProtocol.execute(request, ps, err);
+         }
+         catch (Throwable t)
+         {
+            t.printStackTrace(err);
+            status = 1;
+         }
+         ToolProtocol.writeExit(out, status);
+      }
+      catch (IOException e)
+      {
+         // client went away or sent a malformed request, which only affects that client
+      }
+   }
+
+   private void publish() throws IOException
+   {
+      File dir = daemonFile.getAbsoluteFile().getParentFile();
+      if (dir != null && !dir.exists() && !dir.mkdirs())
+         throw new IOException("Could not create directory " + dir);
+
+      Properties props = new Properties();
+      props.setProperty(WSToolsClient.PORT, String.valueOf(getPort()));
+      props.setProperty(WSToolsClient.TOKEN, token);
+      File tmp = new File(daemonFile.getPath() + ".tmp");
+      tmp.delete();
+      try
+      {
+         Files.createFile(tmp.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      }
+      catch (UnsupportedOperationException e)
+      {
+         // not a POSIX file system, rely on the user's directory permissions
+      }
+      try (OutputStream os = new FileOutputStream(tmp))
+      {
+         props.store(os, PROGRAM_NAME);
+      }
+      Files.move(tmp.toPath(), daemonFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   private static String newToken()
+   {
+      byte[] bytes = new byte[16];
+      new SecureRandom().nextBytes(bytes);
+      StringBuilder sb = new StringBuilder();
+      for (byte b : bytes)
+      {
+         sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+   }
+
+   private static void printHelp()
+   {
+      PrintStream out = System.out;
+      out.println("WSToolsDaemon serves WSConsume and WSProvide invocations from a long-lived JVM.\n");
+      out.println("usage: " + PROGRAM_NAME + " [options]\n");
+      out.println("options: ");
+      out.println("    -h, --help                  Show this help message");
+      out.println("    -p, --port=<port>           The loopback port to listen on (default: any free port)");
+      out.println("    -f, --file=<file>           The daemon file to publish the port and token to");
+      out.println("    -T, --threads=<n>           The maximum number of requests to serve concurrently");
+      out.flush();
+   }
+}
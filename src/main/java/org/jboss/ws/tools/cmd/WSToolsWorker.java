@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import org.jboss.ws.tools.SystemExitHandlerFactory;
+
+/**
+ * WSToolsWorker serves WSConsume and WSProvide invocations over its standard input and output, one at a time,
+ * until its standard input is closed or a shutdown request is received. Workers are started and fed by a pool
+ * on the caller side, see {@link WSToolsWorkerClient}, so that a forked execution does not pay for the JVM
+ * startup and the loading of the tool stack on every invocation.
+ * <p>
+ * Requests and responses use the same format as the {@link WSToolsDaemon} ones. Since the standard output
+ * carries the responses, whatever the tools or the JVM would print there goes to the standard error instead.
+ * Besides the tools, a worker answers <code>heap</code> requests with the heap occupancy after the latest garbage
+ * collections, in bytes, which the pool uses to recycle workers whose live set kept growing.
+ * </p>
+ */
+public class WSToolsWorker
+{
+   private WSToolsWorker()
+   {
+      // forbidden constructor
+   }
+
+   public static void main(String[] args)
+   {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+      // the standard output carries the responses
+      System.setOut(System.err);
+      int status = 0;
+      try
+      {
+         serve(in, out);
+      }
+      catch (IOException e)
+      {
+         System.err.println("Error: " + e.getMessage());
+         status = 1;
+      }
+      SystemExitHandlerFactory.getInstance().get().exit(status);
+   }
+
+   private static void serve(DataInputStream in, DataOutputStream out) throws IOException
+   {
+      String token;
+      while ((token = ToolProtocol.readToken(in)) != null)
+      {
+         ToolProtocol.Request request = ToolProtocol.readRequest(in, token);
+         if (ToolProtocol.SHUTDOWN.equals(request.tool))
+         {
+            ToolProtocol.writeExit(out, 0);
+            return;
+         }
+         PrintStream ps = ToolProtocol.newOutStream(out);
+         PrintStream err = ToolProtocol.newErrStream(out);
+         if (ToolProtocol.HEAP.equals(request.tool))
+         {
+            ps.print(getHeapHighWater());
+            ps.flush();
+            ToolProtocol.writeExit(out, 0);
+            continue;
+         }
+
+         int status;
+         try
+         {
+            status = ToolProtocol.execute(request, ps, err);
+         }
+         catch (Throwable t)
+         {
+            t.printStackTrace(err);
+            status = 1;
+         }
+         ps.flush();
+         err.flush();
+         ToolProtocol.writeExit(out, status);
+      }
+   }
+
+   /**
+    * @return the heap occupancy after the latest collection of each heap pool, in bytes; pools not reporting
+    *         it are accounted with their current usage
+    */
+   private static long getHeapHighWater()
+   {
+      long used = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      {
+         if (pool.getType() != MemoryType.HEAP)
+            continue;
+         MemoryUsage usage = pool.getCollectionUsage();
+         if (usage == null)
+            usage = pool.getUsage();
+         if (usage != null)
+            used += usage.getUsed();
+      }
+      return used;
+   }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.cmd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle on a {@link WSToolsWorker} process, submitting tool invocations over the process standard input
+ * and reading their output and exit status back from its standard output.
+ * <p>
+ * A worker serves a single invocation at a time, hence a handle must not be used concurrently.
+ * </p>
+ */
+public final class WSToolsWorkerClient implements AutoCloseable
+{
+   public static final String WSCONSUME = ToolProtocol.WSCONSUME;
+   public static final String WSPROVIDE = ToolProtocol.WSPROVIDE;
+
+   private static final long SHUTDOWN_TIMEOUT = 2000;
+
+   private final Process process;
+   private final DataOutputStream out;
+   private final DataInputStream in;
+   private int jobs;
+
+   private WSToolsWorkerClient(Process process)
+   {
+      this.process = process;
+      this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+   }
+
+   /**
+    * Starts a worker; its standard error is inherited from the current process.
+    *
+    * @param commandLine the command line running {@link WSToolsWorker} (java executable, JVM options,
+    *                    classpath and class name)
+    * @return the worker handle
+    * @throws IOException if the process could not be started
+    */
+   public static WSToolsWorkerClient start(List<String> commandLine) throws IOException
+   {
+      ProcessBuilder builder = new ProcessBuilder(commandLine);
+      builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      return new WSToolsWorkerClient(builder.start());
+   }
+
+   /**
+    * Invokes WSConsume on the worker.
+    *
+    * @see #execute(String, File, String[], OutputStream, OutputStream)
+    */
+   public int consume(File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(ToolProtocol.WSCONSUME, workingDir, args, out, err);
+   }
+
+   /**
+    * Invokes WSProvide on the worker.
+    *
+    * @see #execute(String, File, String[], OutputStream, OutputStream)
+    */
+   public int provide(File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      return execute(ToolProtocol.WSPROVIDE, workingDir, args, out, err);
+   }
+
+   /**
+    * Submits a tool invocation to the worker and waits for its completion.
+    *
+    * @param tool       the tool name, either <code>wsconsume</code> or <code>wsprovide</code>
+    * @param workingDir the directory relative paths in the arguments are resolved against
+    * @param args       the tool arguments, as accepted by the command line tool
+    * @param out        the stream receiving the tool standard output
+    * @param err        the stream receiving the tool error output
+    * @return the tool exit status
+    * @throws IOException if the worker died or the pipe to it was broken
+    */
+   public int execute(String tool, File workingDir, String[] args, OutputStream out, OutputStream err) throws IOException
+   {
+      jobs++;
+      ToolProtocol.writeRequest(this.out, new ToolProtocol.Request(null, tool, workingDir, args));
+      return ToolProtocol.readResponse(in, out, err);
+   }
+
+   /**
+    * @return the number of invocations submitted so far
+    */
+   public int getJobs()
+   {
+      return jobs;
+   }
+
+   /**
+    * @return the heap occupancy of the worker after its latest garbage collections, in bytes
+    */
+   public long getHeapHighWater() throws IOException
+   {
+      ByteArrayOutputStream value = new ByteArrayOutputStream();
+      ToolProtocol.writeRequest(out, new ToolProtocol.Request(null, ToolProtocol.HEAP, null, new String[0]));
+      ToolProtocol.readResponse(in, value, OutputStream.nullOutputStream());
+      try
+      {
+         return Long.parseLong(new String(value.toByteArray(), StandardCharsets.US_ASCII).trim());
+      }
+      catch (NumberFormatException e)
+      {
+         throw new IOException("Invalid heap usage: " + value);
+      }
+   }
+
+   public boolean isAlive()
+   {
+      return process.isAlive();
+   }
+
+   /**
+    * Asks the worker to shut down, killing it if it does not in a timely manner.
+    */
+   public void close()
+   {
+      try
+      {
+         if (process.isAlive())
+         {
+            OutputStream nul = OutputStream.nullOutputStream();
+            ToolProtocol.writeRequest(out, new ToolProtocol.Request(null, ToolProtocol.SHUTDOWN, null, new String[0]));
+            ToolProtocol.readResponse(in, nul, nul);
+            out.close();
+            process.waitFor(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+         }
+      }
+      catch (IOException e)
+      {
+         // already gone
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         if (process.isAlive())
+            process.destroyForcibly();
+      }
+   }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of the creation, or reuse from the cache, of the class loader endpoints are loaded from.
+ */
+@Name("jbossws.tools.ClassLoaderSetup")
+@Label("Class Loader Setup")
+@Category({"JBossWS", "Tools"})
+public class ClassLoaderSetupEvent extends Event
+{
+   @Label("Classpath")
+   public String classpath;
+
+   @Label("Classpath Entries")
+   public int entries;
+
+   @Label("Reused")
+   public boolean reused;
+}
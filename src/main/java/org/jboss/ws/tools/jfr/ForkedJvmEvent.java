@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a tool run in a forked JVM, spanning the whole process lifetime.
+ */
+@Name("jbossws.tools.ForkedJvm")
+@Label("Forked JVM")
+@Category({"JBossWS", "Tools"})
+public class ForkedJvmEvent extends Event
+{
+   @Label("Main Class")
+   public String mainClass;
+
+   @Label("Command Line")
+   public String commandLine;
+
+   @Label("Exit Code")
+   public int exitCode;
+
+   @Label("Timed Out")
+   public boolean timedOut;
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+import org.jboss.ws.tools.util.OutputSync;
+
+/**
+ * Base of the flight recorder events of a single generation run, carrying its options and outcome
+ * together with the number and size of the artifacts it wrote.
+ * <p>
+ * Output locations are often shared by several runs, hence the written artifacts are the ones the run
+ * installed from its staging directory or artifact cache entry through an {@link OutputSync}; runs generating
+ * straight into the output locations report none.
+ * </p>
+ */
+@Category({"JBossWS", "Tools"})
+public abstract class GenerationEvent extends Event
+{
+   @Label("Options")
+   public String options;
+
+   @Label("Cache Hit")
+   @Description("Whether the artifacts were restored from the artifact cache")
+   public boolean cacheHit;
+
+   @Label("Success")
+   public boolean success;
+
+   @Label("Artifacts")
+   @Description("The number of files written or modified through the output sync")
+   public int artifacts;
+
+   @Label("Bytes Written")
+   @DataAmount
+   public long bytesWritten;
+
+   /**
+    * Sets the artifact count and size from the files the given output sync of the run has written.
+    *
+    * @param outputSync the output sync, or null if the run did not use any
+    */
+   public void recordOutputs(OutputSync outputSync)
+   {
+      if (outputSync == null)
+         return;
+      artifacts = outputSync.getFilesWritten();
+      bytesWritten = outputSync.getBytesWritten();
+   }
+}
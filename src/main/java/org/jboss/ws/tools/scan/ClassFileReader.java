@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.scan;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal class file parser telling whether a class is a concrete web service endpoint implementation,
+ * by looking at its access flags and class level runtime visible annotations.
+ * Classes are never defined, hence no static initializer can run.
+ */
+final class ClassFileReader
+{
+   private static final int MAGIC = 0xCAFEBABE;
+   private static final int ACC_INTERFACE = 0x0200;
+   private static final int ACC_ABSTRACT = 0x0400;
+   private static final int ACC_ANNOTATION = 0x2000;
+
+   static final String[] WEBSERVICE_DESCRIPTORS = {"Ljakarta/jws/WebService;", "Ljavax/jws/WebService;"};
+
+   // common suffix of the descriptors above
+   private static final byte[] WEBSERVICE_SUFFIX = "/jws/WebService;".getBytes(StandardCharsets.US_ASCII);
+
+   private ClassFileReader()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * @param bytes the class file contents
+    * @return the binary name of the class if it is a concrete class annotated with @WebService, null otherwise
+    * @throws IOException if the class file is malformed
+    */
+   static String getEndpointName(byte[] bytes) throws IOException
+   {
+      // cheap pre-filter, the annotation descriptor must be in the constant pool
+      if (!containsWebService(bytes))
+         return null;
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readInt() != MAGIC)
+         throw new IOException("Not a class file");
+      in.readUnsignedShort(); // minor
+      in.readUnsignedShort(); // major
+
+      int count = in.readUnsignedShort();
+      String[] utf8 = new String[count];
+      int[] classes = new int[count];
+      for (int i = 1; i < count; i++)
+      {
+         int tag = in.readUnsignedByte();
+         switch (tag)
+         {
+            case 1: // Utf8
+               utf8[i] = in.readUTF();
+               break;
+            case 7: // Class
+               classes[i] = in.readUnsignedShort();
+               break;
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+               in.skipBytes(2);
+               break;
+            case 15: // MethodHandle
+               in.skipBytes(3);
+               break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+               in.skipBytes(4);
+               break;
+            case 5: // Long
+            case 6: // Double
+               in.skipBytes(8);
+               i++;
+               break;
+            default:
+               throw new IOException("Invalid constant pool tag " + tag);
+         }
+      }
+
+      int access = in.readUnsignedShort();
+      if ((access & (ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION)) != 0)
+         return null;
+      int thisClass = in.readUnsignedShort();
+      in.skipBytes(2); // super class
+      in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+      skipMembers(in); // fields
+      skipMembers(in); // methods
+
+      int attributes = in.readUnsignedShort();
+      for (int i = 0; i < attributes; i++)
+      {
+         String name = utf8[in.readUnsignedShort()];
+         int length = in.readInt();
+         if (!"RuntimeVisibleAnnotations".equals(name))
+         {
+            in.skipBytes(length);
+            continue;
+         }
+         int annotations = in.readUnsignedShort();
+         for (int j = 0; j < annotations; j++)
+         {
+            String type = utf8[in.readUnsignedShort()];
+            for (String descriptor : WEBSERVICE_DESCRIPTORS)
+            {
+               if (descriptor.equals(type))
+                  return utf8[classes[thisClass]].replace('/', '.');
+            }
+            skipElementValuePairs(in);
+         }
+      }
+      return null;
+   }
+
+   private static boolean containsWebService(byte[] bytes)
+   {
+      byte[] needle = WEBSERVICE_SUFFIX;
+      outer:
+      for (int i = 0, max = bytes.length - needle.length; i <= max; i++)
+      {
+         for (int j = 0; j < needle.length; j++)
+         {
+            if (bytes[i + j] != needle[j])
+               continue outer;
+         }
+         return true;
+      }
+      return false;
+   }
+
+   private static void skipMembers(DataInputStream in) throws IOException
+   {
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++)
+      {
+         in.skipBytes(6); // access, name, descriptor
+         int attributes = in.readUnsignedShort();
+         for (int j = 0; j < attributes; j++)
+         {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+         }
+      }
+   }
+
+   private static void skipElementValuePairs(DataInputStream in) throws IOException
+   {
+      int pairs = in.readUnsignedShort();
+      for (int i = 0; i < pairs; i++)
+      {
+         in.skipBytes(2);
+         skipElementValue(in);
+      }
+   }
+
+   private static void skipElementValue(DataInputStream in) throws IOException
+   {
+      int tag = in.readUnsignedByte();
+      switch (tag)
+      {
+         case 'e':
+            in.skipBytes(4);
+            break;
+         case '@':
+            in.skipBytes(2);
+            skipElementValuePairs(in);
+            break;
+         case '[':
+            int values = in.readUnsignedShort();
+            for (int i = 0; i < values; i++)
+            {
+               skipElementValue(in);
+            }
+            break;
+         default:
+            in.skipBytes(2);
+      }
+   }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Discovers web service endpoint implementations (concrete classes annotated with <code>@jakarta.jws.WebService</code>
+ * or <code>@javax.jws.WebService</code>) on a classpath by reading class files directly, without loading them.
+ * <p>
+ * Classpath entries are scanned in parallel. The endpoints found in each jar are recorded in an index file keyed
+ * by the jar path, size and modification time, so that unchanged jars are not read again on later scans.
+ * Directories are always scanned, as their contents are usually the ones being built.
+ * </p>
+ */
+public final class EndpointScanner
+{
+   /**
+    * The index file used by default: <code>${user.home}/.jbossws/endpoint-index.properties</code>
+    */
+   public static final File DEFAULT_INDEX = new File(new File(SecurityActions.getSystemProperty("user.home", "."), ".jbossws"), "endpoint-index.properties");
+
+   private final JarIndex index;
+
+   /**
+    * @param indexFile the jar index file, or null not to keep any index
+    */
+   public EndpointScanner(File indexFile)
+   {
+      this.index = new JarIndex(indexFile);
+   }
+
+   /**
+    * Scans the given classpath entries.
+    *
+    * @param classpath the jars and class directories to scan
+    * @param threads   the maximum number of entries to scan concurrently
+    * @return the sorted class names of the endpoint implementations found
+    * @throws IOException if an entry could not be read
+    */
+   public List<String> scan(List<File> classpath, int threads) throws IOException
+   {
+      Set<String> endpoints = new TreeSet<String>();
+      if (threads <= 1 || classpath.size() <= 1)
+      {
+         for (File entry : classpath)
+            endpoints.addAll(scan(entry));
+      }
+      else
+      {
+         ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, classpath.size()), new ThreadFactory()
+         {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, "endpoint-scanner-" + count.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         try
+         {
+            List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(classpath.size());
+            for (final File entry : classpath)
+            {
+               futures.add(executor.submit(new Callable<List<String>>()
+               {
+                  public List<String> call() throws IOException
+                  {
+                     return scan(entry);
+                  }
+               }));
+            }
+            for (Future<List<String>> future : futures)
+               endpoints.addAll(future.get());
+         }
+         catch (ExecutionException e)
+         {
+            if (e.getCause() instanceof IOException)
+               throw (IOException)e.getCause();
+            throw new IOException(e.getCause());
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning the classpath");
+         }
+         finally
+         {
+            executor.shutdownNow();
+         }
+      }
+      index.save();
+      return new ArrayList<String>(endpoints);
+   }
+
+   private List<String> scan(File entry) throws IOException
+   {
+      List<String> endpoints = new ArrayList<String>();
+      if (entry.isDirectory())
+         scanDirectory(entry, endpoints);
+      else if (entry.isFile())
+         scanJar(entry, endpoints);
+      return endpoints;
+   }
+
+   private static void scanDirectory(File dir, List<String> endpoints) throws IOException
+   {
+      File[] children = dir.listFiles();
+      if (children == null)
+         return;
+      for (File child : children)
+      {
+         if (child.isDirectory())
+         {
+            scanDirectory(child, endpoints);
+         }
+         else if (isClassFile(child.getName()))
+         {
+            String endpoint = ClassFileReader.getEndpointName(Files.readAllBytes(child.toPath()));
+            if (endpoint != null)
+               endpoints.add(endpoint);
+         }
+      }
+   }
+
+   private void scanJar(File jar, List<String> endpoints) throws IOException
+   {
+      String key = JarIndex.key(jar);
+      String indexed = index.get(key);
+      if (indexed == null)
+      {
+         List<String> found = new ArrayList<String>();
+         try (ZipFile zip = new ZipFile(jar))
+         {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+               ZipEntry entry = entries.nextElement();
+               // versioned entries of multi-release jars are variants of the base ones
+               if (entry.isDirectory() || !isClassFile(entry.getName()) || entry.getName().startsWith("META-INF/"))
+                  continue;
+               try (InputStream is = zip.getInputStream(entry))
+               {
+                  String endpoint = ClassFileReader.getEndpointName(is.readAllBytes());
+                  if (endpoint != null)
+                     found.add(endpoint);
+               }
+            }
+         }
+         catch (IOException e)
+         {
+            throw new IOException("Could not scan " + jar + ": " + e.getMessage(), e);
+         }
+         indexed = String.join(",", found);
+         index.put(key, indexed);
+      }
+      if (!indexed.isEmpty())
+         endpoints.addAll(Arrays.asList(indexed.split(",")));
+   }
+
+   private static boolean isClassFile(String name)
+   {
+      return name.endsWith(".class") && !name.endsWith("module-info.class") && !name.endsWith("package-info.class");
+   }
+}
@@ -0,0 +1,456 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A class loader over a list of jars and class directories that looks classes and resources up in the jars
+ * owning their package only, instead of probing every jar in turn like a plain {@link URLClassLoader} does.
+ * <p>
+ * The package index is built from the jar central directories, in parallel, when the loader is created;
+ * jars are only opened for reading once a lookup actually hits them. The packages of each jar can be recorded
+ * in an index file keyed by the jar path, size and modification time, so that unchanged jars are not read again
+ * on later runs. Directories are not indexed and are always probed, as their contents are usually the ones
+ * being built.
+ * </p>
+ * <p>
+ * When a jar extends the classpath through its manifest <code>Class-Path</code> attribute, or can not be read,
+ * lookups missing the index fall back to the plain {@link URLClassLoader} search, so that the loader never finds
+ * less than a {@link URLClassLoader} over the same entries would.
+ * </p>
+ */
+public final class IndexedClassLoader extends URLClassLoader
+{
+   static
+   {
+      ClassLoader.registerAsParallelCapable();
+   }
+
+   private static final String ROOT_PACKAGE = "/";
+   private static final String CLASS_PATH_MARKER = "+";
+   private static final String VERSIONS = "META-INF/versions/";
+   private static final int[] NONE = new int[0];
+
+   private final File[] entries;
+   private final URL[] urls;
+   private final boolean[] directories;
+   private final int[] directoryPositions;
+   private final Map<String, int[]> packages;
+   private final AtomicReferenceArray<JarFile> jars;
+   private final boolean fallback;
+
+   private IndexedClassLoader(File[] entries, URL[] urls, boolean[] directories, Map<String, int[]> packages, boolean fallback, ClassLoader parent)
+   {
+      super(urls, parent);
+      this.entries = entries;
+      this.urls = urls;
+      this.directories = directories;
+      this.packages = packages;
+      this.jars = new AtomicReferenceArray<JarFile>(entries.length);
+      this.fallback = fallback;
+      int count = 0;
+      for (boolean directory : directories)
+      {
+         if (directory)
+            count++;
+      }
+      this.directoryPositions = new int[count];
+      count = 0;
+      for (int i = 0; i < directories.length; i++)
+      {
+         if (directories[i])
+            directoryPositions[count++] = i;
+      }
+   }
+
+   /**
+    * Creates a loader over the given classpath entries.
+    *
+    * @param classpath the jars and class directories, in lookup order
+    * @param parent    the parent class loader
+    * @param indexFile the package index file, or null not to keep any index
+    * @param threads   the maximum number of jars to index concurrently
+    * @return the class loader
+    * @throws IOException if the index file could not be written
+    */
+   public static IndexedClassLoader create(List<File> classpath, ClassLoader parent, File indexFile, int threads) throws IOException
+   {
+      final JarIndex index = new JarIndex(indexFile);
+      final File[] entries = classpath.toArray(new File[0]);
+      URL[] urls = new URL[entries.length];
+      boolean[] directories = new boolean[entries.length];
+      List<Integer> jarPositions = new ArrayList<Integer>();
+      for (int i = 0; i < entries.length; i++)
+      {
+         urls[i] = entries[i].toURI().toURL();
+         directories[i] = entries[i].isDirectory();
+         if (entries[i].isFile())
+            jarPositions.add(i);
+      }
+
+      String[] indexed = new String[entries.length];
+      if (threads <= 1 || jarPositions.size() <= 1)
+      {
+         for (int i : jarPositions)
+            indexed[i] = indexJar(entries[i], index);
+      }
+      else
+      {
+         ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jarPositions.size()), new ThreadFactory()
+         {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, "classpath-indexer-" + count.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         try
+         {
+            List<Future<String>> futures = new ArrayList<Future<String>>(jarPositions.size());
+            for (final int i : jarPositions)
+            {
+               futures.add(executor.submit(new Callable<String>()
+               {
+                  public String call()
+                  {
+                     return indexJar(entries[i], index);
+                  }
+               }));
+            }
+            for (int j = 0; j < futures.size(); j++)
+               indexed[jarPositions.get(j)] = futures.get(j).get();
+         }
+         catch (ExecutionException e)
+         {
+            throw new IOException(e.getCause());
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing the classpath");
+         }
+         finally
+         {
+            executor.shutdownNow();
+         }
+      }
+      index.save();
+
+      Map<String, List<Integer>> owners = new HashMap<String, List<Integer>>();
+      boolean fallback = false;
+      for (int i : jarPositions)
+      {
+         String value = indexed[i];
+         if (value == null)
+         {
+            // unreadable, leave it to URLClassLoader
+            fallback = true;
+            continue;
+         }
+         if (value.startsWith(CLASS_PATH_MARKER))
+         {
+            fallback = true;
+            value = value.substring(CLASS_PATH_MARKER.length());
+         }
+         if (value.isEmpty())
+            continue;
+         for (String pkg : value.split(","))
+         {
+            String key = ROOT_PACKAGE.equals(pkg) ? "" : pkg;
+            List<Integer> positions = owners.get(key);
+            if (positions == null)
+            {
+               positions = new ArrayList<Integer>(1);
+               owners.put(key, positions);
+            }
+            positions.add(i);
+         }
+      }
+      Map<String, int[]> packages = new HashMap<String, int[]>(owners.size() * 2);
+      for (Map.Entry<String, List<Integer>> owner : owners.entrySet())
+      {
+         List<Integer> positions = owner.getValue();
+         int[] array = new int[positions.size()];
+         for (int j = 0; j < array.length; j++)
+            array[j] = positions.get(j);
+         packages.put(owner.getKey(), array);
+      }
+      return new IndexedClassLoader(entries, urls, directories, packages, fallback, parent);
+   }
+
+   @Override
+   protected Class<?> findClass(String name) throws ClassNotFoundException
+   {
+      String path = name.replace('.', '/').concat(".class");
+      for (int i : candidates(path))
+      {
+         try
+         {
+            Class<?> clazz = defineClass(name, path, i);
+            if (clazz != null)
+               return clazz;
+         }
+         catch (IOException e)
+         {
+            throw new ClassNotFoundException(name, e);
+         }
+      }
+      if (fallback)
+         return super.findClass(name);
+      throw new ClassNotFoundException(name);
+   }
+
+   @Override
+   public URL findResource(String name)
+   {
+      for (int i : candidates(name))
+      {
+         URL url = findResource(name, i);
+         if (url != null)
+            return url;
+      }
+      return fallback ? super.findResource(name) : null;
+   }
+
+   @Override
+   public Enumeration<URL> findResources(String name) throws IOException
+   {
+      if (fallback)
+         return super.findResources(name);
+
+      List<URL> found = new ArrayList<URL>();
+      for (int i : candidates(name))
+      {
+         URL url = findResource(name, i);
+         if (url != null)
+            found.add(url);
+      }
+      return Collections.enumeration(found);
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      for (int i = 0; i < jars.length(); i++)
+      {
+         JarFile jar = jars.getAndSet(i, null);
+         if (jar != null)
+            jar.close();
+      }
+      super.close();
+   }
+
+   /**
+    * @return the positions of the entries that might hold the given resource, in lookup order
+    */
+   private int[] candidates(String name)
+   {
+      int slash = name.lastIndexOf('/');
+      int[] owners = packages.get(slash < 0 ? "" : name.substring(0, slash));
+      if (owners == null)
+         owners = NONE;
+      if (directoryPositions.length == 0)
+         return owners;
+
+      int[] merged = new int[owners.length + directoryPositions.length];
+      int i = 0, j = 0, k = 0;
+      while (i < owners.length && j < directoryPositions.length)
+         merged[k++] = owners[i] < directoryPositions[j] ? owners[i++] : directoryPositions[j++];
+      while (i < owners.length)
+         merged[k++] = owners[i++];
+      while (j < directoryPositions.length)
+         merged[k++] = directoryPositions[j++];
+      return merged;
+   }
+
+   private Class<?> defineClass(String name, String path, int i) throws IOException
+   {
+      byte[] bytes;
+      CodeSigner[] signers = null;
+      Manifest manifest = null;
+      if (directories[i])
+      {
+         File file = new File(entries[i], path);
+         if (!file.isFile())
+            return null;
+         bytes = Files.readAllBytes(file.toPath());
+      }
+      else
+      {
+         JarFile jar = getJar(i);
+         JarEntry entry = jar.getJarEntry(path);
+         if (entry == null)
+            return null;
+         try (InputStream is = jar.getInputStream(entry))
+         {
+            bytes = is.readAllBytes();
+         }
+         // only available once the entry has been read
+         signers = entry.getCodeSigners();
+         manifest = jar.getManifest();
+      }
+      definePackageOf(name, manifest, urls[i]);
+      return defineClass(name, bytes, 0, bytes.length, new CodeSource(urls[i], signers));
+   }
+
+   private void definePackageOf(String className, Manifest manifest, URL url)
+   {
+      int dot = className.lastIndexOf('.');
+      if (dot < 0)
+         return;
+      String pkg = className.substring(0, dot);
+      if (getDefinedPackage(pkg) != null)
+         return;
+      try
+      {
+         if (manifest != null)
+            definePackage(pkg, manifest, url);
+         else
+            definePackage(pkg, null, null, null, null, null, null, null);
+      }
+      catch (IllegalArgumentException e)
+      {
+         // defined concurrently
+      }
+   }
+
+   private URL findResource(String name, int i)
+   {
+      try
+      {
+         if (directories[i])
+         {
+            // never resolve outside of the class directory
+            if (name.startsWith("/") || name.equals("..") || name.startsWith("../") || name.contains("/../") || name.endsWith("/.."))
+               return null;
+            File file = new File(entries[i], name);
+            return file.exists() ? file.toURI().toURL() : null;
+         }
+         JarEntry entry = getJar(i).getJarEntry(name);
+         if (entry == null)
+            return null;
+         // the versioned entry of a multi-release jar, as URLClassLoader does
+         return new URL("jar:" + urls[i].toExternalForm() + "!/" + new URI(null, null, entry.getRealName(), null).getRawPath());
+      }
+      catch (IOException | URISyntaxException e)
+      {
+         return null;
+      }
+   }
+
+   private JarFile getJar(int i) throws IOException
+   {
+      JarFile jar = jars.get(i);
+      if (jar == null)
+      {
+         jar = new JarFile(entries[i], true, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+         if (!jars.compareAndSet(i, null, jar))
+         {
+            // opened concurrently
+            jar.close();
+            jar = jars.get(i);
+            if (jar == null)
+               throw new IOException("Class loader closed");
+         }
+      }
+      return jar;
+   }
+
+   /**
+    * @return the packages of the jar as recorded in the index, or null if the jar could not be read
+    */
+   private static String indexJar(File jar, JarIndex index)
+   {
+      String key = JarIndex.key(jar);
+      String indexed = index.get(key);
+      if (indexed == null)
+      {
+         Set<String> packages = new TreeSet<String>();
+         boolean classPath;
+         try (JarFile zip = new JarFile(jar, false))
+         {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+               String name = entries.nextElement().getName();
+               addPackage(name, packages);
+               if (name.startsWith(VERSIONS))
+               {
+                  // versioned classes might have no base variant
+                  int slash = name.indexOf('/', VERSIONS.length());
+                  if (slash > 0)
+                     addPackage(name.substring(slash + 1), packages);
+               }
+            }
+            Manifest manifest = zip.getManifest();
+            classPath = manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null;
+         }
+         catch (IOException e)
+         {
+            return null;
+         }
+         indexed = (classPath ? CLASS_PATH_MARKER : "") + String.join(",", packages);
+         index.put(key, indexed);
+      }
+      return indexed;
+   }
+
+   private static void addPackage(String name, Set<String> packages)
+   {
+      if (name.isEmpty())
+         return;
+      int slash = name.lastIndexOf('/');
+      packages.add(slash <= 0 ? ROOT_PACKAGE : name.substring(0, slash));
+   }
+}
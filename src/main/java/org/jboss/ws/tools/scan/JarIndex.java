@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.scan;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A per-jar index kept in a properties file across runs. The entries are keyed by the jar path, size and
+ * modification time, so that a replaced jar never matches the entry of its former contents.
+ */
+final class JarIndex
+{
+   private final File indexFile;
+   private final Map<String, String> index = new ConcurrentHashMap<String, String>();
+   private final Map<String, String> used = new ConcurrentHashMap<String, String>();
+
+   /**
+    * @param indexFile the index file, or null not to keep any index
+    */
+   JarIndex(File indexFile)
+   {
+      this.indexFile = indexFile;
+      load();
+   }
+
+   /**
+    * @return the key of the current contents of the jar
+    */
+   static String key(File jar)
+   {
+      return jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified();
+   }
+
+   /**
+    * @return the value recorded for the key, or null if the jar has to be read
+    */
+   String get(String key)
+   {
+      String value = index.get(key);
+      if (value != null)
+         used.put(key, value);
+      return value;
+   }
+
+   void put(String key, String value)
+   {
+      index.put(key, value);
+      used.put(key, value);
+   }
+
+   private void load()
+   {
+      if (indexFile == null || !indexFile.isFile())
+         return;
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(indexFile))
+      {
+         props.load(is);
+      }
+      catch (IOException e)
+      {
+         // rebuilt from scratch
+         return;
+      }
+      for (String key : props.stringPropertyNames())
+         index.put(key, props.getProperty(key));
+   }
+
+   /**
+    * Writes the index file, if any jar was looked up.
+    */
+   void save() throws IOException
+   {
+      if (indexFile == null || used.isEmpty())
+         return;
+
+      // keep the entries of jars still in place, drop the ones of replaced or deleted jars
+      Properties props = new Properties();
+      for (Map.Entry<String, String> entry : index.entrySet())
+      {
+         String[] parts = entry.getKey().split("\\|");
+         if (used.containsKey(entry.getKey()) || (parts.length == 3 && key(new File(parts[0])).equals(entry.getKey())))
+            props.setProperty(entry.getKey(), entry.getValue());
+      }
+      File dir = indexFile.getAbsoluteFile().getParentFile();
+      if (dir != null)
+         dir.mkdirs();
+      File tmp = new File(indexFile.getPath() + "." + UUID.randomUUID());
+      try (OutputStream os = new FileOutputStream(tmp))
+      {
+         props.store(os, null);
+      }
+      Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+   }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Repacks the client jar written by the tools provider into a reproducible one: the entries are deflated on all
+ * cores and written in a fixed order with a fixed timestamp, so that the same WSDL always yields a byte-identical
+ * jar.
+ * <p>
+ * The contents are left to the provider, which packages the WSDL documents and points the generated
+ * <code>wsdlLocation</code> to the packaged copy, so that the jar can be used on its own.
+ * </p>
+ */
+public final class ClientJar
+{
+   private ClientJar()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * @param jar the client jar written by the provider, left alone if there is none
+    */
+   public static void repack(File jar) throws IOException
+   {
+      if (!jar.isFile())
+         return;
+
+      ParallelJarWriter writer = new ParallelJarWriter();
+      try (ZipFile zip = new ZipFile(jar))
+      {
+         Enumeration<? extends ZipEntry> entries = zip.entries();
+         while (entries.hasMoreElements())
+         {
+            ZipEntry entry = entries.nextElement();
+            // directories are added by the writer
+            if (entry.isDirectory())
+               continue;
+            try (InputStream is = zip.getInputStream(entry))
+            {
+               writer.add(entry.getName(), is.readAllBytes());
+            }
+         }
+      }
+      File tmp = new File(jar.getPath() + ".tmp");
+      try
+      {
+         writer.write(tmp);
+         Files.move(tmp.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally
+      {
+         tmp.delete();
+      }
+   }
+}
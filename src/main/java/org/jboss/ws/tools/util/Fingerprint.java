@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Accumulates a SHA-256 digest of everything feeding a generation run (documents, files and options),
+ * so that two runs with the same fingerprint are known to produce the same artifacts.
+ */
+public final class Fingerprint
+{
+   private final MessageDigest digest;
+
+   public Fingerprint()
+   {
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * Adds a string value; null values are distinguished from empty ones.
+    */
+   public Fingerprint add(String value)
+   {
+      if (value == null)
+      {
+         digest.update((byte)0);
+      }
+      else
+      {
+         byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+         digest.update((byte)1);
+         addInt(bytes.length);
+         digest.update(bytes);
+      }
+      return this;
+   }
+
+   public Fingerprint add(boolean value)
+   {
+      digest.update(value ? (byte)1 : (byte)0);
+      return this;
+   }
+
+   public Fingerprint add(long value)
+   {
+      for (int i = 56; i >= 0; i -= 8)
+      {
+         digest.update((byte)(value >>> i));
+      }
+      return this;
+   }
+
+   public Fingerprint add(byte[] bytes)
+   {
+      addInt(bytes.length);
+      digest.update(bytes);
+      return this;
+   }
+
+   /**
+    * Adds the contents of a file; a missing file is recorded as such.
+    */
+   public Fingerprint addContent(File file) throws IOException
+   {
+      if (!file.isFile())
+         return add(false);
+
+      add(true);
+      try (InputStream is = new FileInputStream(file))
+      {
+         add(is.readAllBytes());
+      }
+      return this;
+   }
+
+   /**
+    * Adds the path, size and modification time of a file, or of all the files below a directory.
+    * This is much cheaper than hashing contents and is meant for large inputs like classpath jars.
+    */
+   public Fingerprint addMetadata(File file)
+   {
+      add(file.getAbsolutePath());
+      if (file.isDirectory())
+      {
+         String[] names = file.list();
+         if (names != null)
+         {
+            Arrays.sort(names);
+            for (String name : names)
+            {
+               addMetadata(new File(file, name));
+            }
+         }
+      }
+      else
+      {
+         add(file.length());
+         add(file.lastModified());
+      }
+      return this;
+   }
+
+   /**
+    * Adds the contents of a WSDL document together with every WSDL and schema document it transitively
+    * imports or includes. Document locations are not added, so that the same contract fetched from
+    * different places yields the same fingerprint.
+    *
+    * @param wsdl the WSDL url
+    * @throws IOException if any of the documents can not be read
+    */
+   public Fingerprint addWsdl(URL wsdl) throws IOException
+   {
+      return addWsdl(wsdl, null);
+   }
+
+   /**
+    * Adds the contents of a WSDL document together with every WSDL and schema document it transitively
+    * imports or includes, resolving their locations through the given XML catalog.
+    *
+    * @param wsdl    the WSDL url
+    * @param catalog the XML catalog file, or null
+    * @throws IOException if any of the documents can not be read
+    */
+   public Fingerprint addWsdl(URL wsdl, File catalog) throws IOException
+   {
+      for (byte[] document : WsdlDocuments.read(wsdl, catalog).values())
+      {
+         add(document);
+      }
+      return this;
+   }
+
+   /**
+    * Like {@link #addWsdl(URL, File)}, except that the imported documents which can not be read, for instance
+    * without network access, only contribute their location. Only suitable for up-to-date checks, which are
+    * to keep working offline, as the contents of such documents may change unnoticed.
+    *
+    * @param wsdl    the WSDL url
+    * @param catalog the XML catalog file, or null
+    * @throws IOException if the WSDL document itself can not be read
+    */
+   public Fingerprint addAvailableWsdl(URL wsdl, File catalog) throws IOException
+   {
+      Set<URL> unavailable = new LinkedHashSet<URL>();
+      for (byte[] document : WsdlDocuments.readAvailable(wsdl, catalog, unavailable).values())
+      {
+         add(document);
+      }
+      for (URL url : unavailable)
+      {
+         add(url.toExternalForm());
+      }
+      return this;
+   }
+
+   /**
+    * @return the hex encoded fingerprint of what has been added so far
+    */
+   public String getValue()
+   {
+      byte[] hash;
+      try
+      {
+         hash = ((MessageDigest)digest.clone()).digest();
+      }
+      catch (CloneNotSupportedException e)
+      {
+         throw new IllegalStateException(e);
+      }
+      return toHex(hash);
+   }
+
+   @Override
+   public String toString()
+   {
+      return getValue();
+   }
+
+   /**
+    * Hex encodes the given bytes.
+    */
+   public static String toHex(byte[] bytes)
+   {
+      StringBuilder sb = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes)
+      {
+         sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+         sb.append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+   }
+
+   private void addInt(int value)
+   {
+      digest.update((byte)(value >>> 24));
+      digest.update((byte)(value >>> 16));
+      digest.update((byte)(value >>> 8));
+      digest.update((byte)value);
+   }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Packages the generated sources into a single srcjar, and optionally the other generated artifacts into
+ * a single jar, instead of writing thousands of small files to the output directories.
+ * <p>
+ * All the WSDLs or endpoints of a run are generated into staging directories below the local temporary
+ * directory (or the given staging directory), which are packaged once the whole run is done. Jars are
+ * written by {@link ParallelJarWriter} and are reproducible, so that the same artifacts always yield the
+ * same jar; in write-if-changed mode a jar identical to the one already in place is not replaced.
+ * </p>
+ */
+public final class JarPackager implements Closeable
+{
+   private final File sourceJar;
+   private final File outputJar;
+   private final boolean writeIfChanged;
+   private final File staging;
+
+   /**
+    * @param sourceJar      the jar to package generated sources into, or null
+    * @param outputJar      the jar to package the other generated artifacts into, or null
+    * @param writeIfChanged whether jars identical to the ones in place are left untouched
+    * @param stagingDir     the directory to create the staging directories in, or null for the temporary directory
+    */
+   public JarPackager(File sourceJar, File outputJar, boolean writeIfChanged, File stagingDir) throws IOException
+   {
+      this.sourceJar = sourceJar;
+      this.outputJar = outputJar;
+      this.writeIfChanged = writeIfChanged;
+      if (stagingDir != null)
+      {
+         stagingDir.mkdirs();
+         this.staging = Files.createTempDirectory(stagingDir.toPath(), "jbossws-jars").toFile();
+      }
+      else
+      {
+         this.staging = Files.createTempDirectory("jbossws-jars").toFile();
+      }
+   }
+
+   /**
+    * @return the directory to generate sources into, or null if sources are not packaged
+    */
+   public File getSourceDirectory()
+   {
+      return sourceJar != null ? new File(staging, "source") : null;
+   }
+
+   /**
+    * @return the directory to generate the other artifacts into, or null if they are not packaged
+    */
+   public File getOutputDirectory()
+   {
+      return outputJar != null ? new File(staging, "output") : null;
+   }
+
+   /**
+    * Packages whatever has been generated so far.
+    */
+   public void pack() throws IOException
+   {
+      if (sourceJar != null)
+         writeJar(getSourceDirectory(), sourceJar);
+      if (outputJar != null)
+         writeJar(getOutputDirectory(), outputJar);
+   }
+
+   /**
+    * Removes the staging directories.
+    */
+   public void close()
+   {
+      OutputSync.delete(staging);
+   }
+
+   private void writeJar(File root, File jar) throws IOException
+   {
+      File dir = jar.getAbsoluteFile().getParentFile();
+      dir.mkdirs();
+      File tmp = Files.createTempFile(dir.toPath(), "." + jar.getName(), ".tmp").toFile();
+      try
+      {
+         ParallelJarWriter writer = new ParallelJarWriter();
+         if (root.isDirectory())
+            writer.addTree(root, null);
+         writer.write(tmp);
+         if (writeIfChanged && OutputSync.isIdentical(tmp, jar))
+            return;
+         Files.move(tmp.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally
+      {
+         tmp.delete();
+      }
+   }
+}
@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Installs generated artifacts from a staging directory into the real output directories in a single pass,
+ * so that the generator's many small writes (and its intermediate files) only hit the staging directory,
+ * which is best placed on a fast local or memory backed file system such as <code>/dev/shm</code>.
+ * Files are written by a few threads with large buffers, each one to a temporary file renamed into place.
+ * <p>
+ * In write-if-changed mode, files identical to the ones already in place are left untouched, so that they
+ * keep their modification time and downstream incremental steps (javac, jar, war, ...) do not redo their
+ * work. The files installed by each run are then recorded in a manifest, so that files generated by a previous
+ * run with the same id but not by the current one are pruned. Output directories can be shared by several runs
+ * with different ids. Manifests are kept in a metadata directory of their own, keyed by tool, id and output
+ * directory, so that the output directories (and the jars packaged from them) only ever hold generated files.
+ * </p>
+ * <p>
+ * Incremental runs, which need to know every file a run produced, left untouched or not, may also have the
+ * manifests written without the write-if-changed behaviour; artifact cache entries installed by other means are
+ * then recorded through {@link #record(File, Map)}.
+ * </p>
+ */
+public final class OutputSync
+{
+   /**
+    * The name of the default metadata directory, relative to the project or working directory
+    */
+   public static final String METADATA_DIRECTORY = ".jbossws";
+   private static final String MANIFEST_SUFFIX = ".outputs";
+   private static final int BUFFER_SIZE = 1024 * 1024;
+   private static final int PARALLEL_THRESHOLD = 32;
+   private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>()
+   {
+      @Override
+      protected byte[] initialValue()
+      {
+         return new byte[BUFFER_SIZE];
+      }
+   };
+
+   private final String tool;
+   private final String id;
+   private final File metadataDir;
+   private final boolean writeIfChanged;
+   private final AtomicInteger filesWritten = new AtomicInteger();
+   private final AtomicLong bytesWritten = new AtomicLong();
+
+   /**
+    * Creates a write-if-changed installer.
+    *
+    * @param tool        the tool name, used as manifest name prefix
+    * @param id          identifies the generation run among the others sharing the same output directories,
+    *                    e.g. the WSDL or endpoint
+    * @param metadataDir the directory the manifests are kept in
+    */
+   public OutputSync(String tool, String id, File metadataDir)
+   {
+      this(tool, id, metadataDir, true);
+   }
+
+   /**
+    * Creates an installer recording the installed files in manifests.
+    *
+    * @param tool           the tool name, used as manifest name prefix
+    * @param id             identifies the generation run among the others sharing the same output directories,
+    *                       e.g. the WSDL or endpoint
+    * @param metadataDir    the directory the manifests are kept in
+    * @param writeIfChanged whether unchanged files are left untouched and stale ones pruned, rather than
+    *                       every staged file written
+    */
+   public OutputSync(String tool, String id, File metadataDir, boolean writeIfChanged)
+   {
+      this.tool = tool;
+      this.id = id;
+      this.metadataDir = metadataDir.getAbsoluteFile();
+      this.writeIfChanged = writeIfChanged;
+   }
+
+   /**
+    * Creates an installer writing every staged file and pruning nothing, like a run generating in place would.
+    */
+   public OutputSync()
+   {
+      this.tool = null;
+      this.id = null;
+      this.metadataDir = null;
+      this.writeIfChanged = false;
+   }
+
+   /**
+    * @return true if unchanged files are left untouched and stale ones pruned
+    */
+   public boolean isWriteIfChanged()
+   {
+      return writeIfChanged;
+   }
+
+   /**
+    * @return the number of files written so far, unchanged files left in place excluded
+    */
+   public int getFilesWritten()
+   {
+      return filesWritten.get();
+   }
+
+   /**
+    * @return the size of the files written so far
+    */
+   public long getBytesWritten()
+   {
+      return bytesWritten.get();
+   }
+
+   /**
+    * Creates a staging directory to generate into.
+    *
+    * @param outputDir  the output directory, next to which the staging directory is created by default
+    * @param stagingDir the directory to create the staging directory in instead, or null
+    */
+   public static File createStaging(File outputDir, File stagingDir) throws IOException
+   {
+      File parent = stagingDir != null ? stagingDir.getAbsoluteFile() : outputDir.getAbsoluteFile().getParentFile();
+      parent.mkdirs();
+      return Files.createTempDirectory(parent.toPath(), "." + outputDir.getName() + "-staging").toFile();
+   }
+
+   /**
+    * Removes a staging directory, if any.
+    */
+   public static void delete(File file)
+   {
+      if (file == null)
+         return;
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+
+   /**
+    * Installs the output roots of a staging directory (or of an artifact cache entry, which is left untouched)
+    * into their target directories.
+    *
+    * @param source  the directory holding one sub directory per output root
+    * @param targets the target directory of each output root
+    */
+   public void sync(File source, Map<String, File> targets) throws IOException
+   {
+      Map<File, Set<String>> installed = new LinkedHashMap<File, Set<String>>();
+      List<File[]> copies = new ArrayList<File[]>();
+      for (Map.Entry<String, File> target : targets.entrySet())
+      {
+         File root = new File(source, target.getKey());
+         File targetRoot = target.getValue().getAbsoluteFile();
+         Set<String> paths = new LinkedHashSet<String>();
+         if (root.isDirectory())
+            collect(root, targetRoot, "", paths, copies);
+         installed.put(targetRoot, paths);
+      }
+
+      flush(copies);
+
+      if (id == null)
+         return;
+      for (Map.Entry<File, Set<String>> entry : installed.entrySet())
+      {
+         File targetRoot = entry.getKey();
+         File manifest = getManifest(targetRoot);
+         if (writeIfChanged)
+         {
+            for (String path : readManifest(manifest))
+            {
+               if (!entry.getValue().contains(path))
+                  prune(targetRoot, path);
+            }
+         }
+         writeManifest(manifest, entry.getValue());
+      }
+   }
+
+   /**
+    * Records the output roots of an artifact cache entry (or staging directory) installed into their target
+    * directories by other means, e.g. hard linked.
+    *
+    * @param source  the directory holding one sub directory per output root
+    * @param targets the target directory of each output root
+    */
+   public void record(File source, Map<String, File> targets) throws IOException
+   {
+      if (id == null)
+         return;
+      for (Map.Entry<String, File> target : targets.entrySet())
+      {
+         File root = new File(source, target.getKey());
+         File targetRoot = target.getValue().getAbsoluteFile();
+         Set<String> paths = new LinkedHashSet<String>();
+         if (root.isDirectory())
+            collect(root, targetRoot, "", paths, new ArrayList<File[]>());
+         writeManifest(getManifest(targetRoot), paths);
+      }
+   }
+
+   /**
+    * Returns the files recorded by the last run with the same id.
+    *
+    * @param targets the target directory of each output root
+    * @return the recorded files, which might have been removed since
+    */
+   public List<File> getRecordedFiles(Map<String, File> targets) throws IOException
+   {
+      List<File> files = new ArrayList<File>();
+      if (id == null)
+         return files;
+      for (File target : targets.values())
+      {
+         File targetRoot = target.getAbsoluteFile();
+         for (String path : readManifest(getManifest(targetRoot)))
+         {
+            files.add(new File(targetRoot, path));
+         }
+      }
+      return files;
+   }
+
+   /**
+    * Removes the manifests of the last run with the same id, e.g. before a run that might not write them.
+    *
+    * @param targets the target directory of each output root
+    */
+   public void forget(Map<String, File> targets)
+   {
+      if (id == null)
+         return;
+      for (File target : targets.values())
+      {
+         getManifest(target.getAbsoluteFile()).delete();
+      }
+   }
+
+   private static void collect(File dir, File targetRoot, String path, Set<String> installed, List<File[]> copies)
+   {
+      String[] names = dir.list();
+      if (names == null)
+         return;
+      Arrays.sort(names);
+      for (String name : names)
+      {
+         File file = new File(dir, name);
+         if (file.isDirectory())
+         {
+            collect(file, targetRoot, path + name + "/", installed, copies);
+            continue;
+         }
+         copies.add(new File[] {file, new File(targetRoot, path + name)});
+         installed.add(path + name);
+      }
+   }
+
+   private void flush(List<File[]> copies) throws IOException
+   {
+      int threads = Math.min(Runtime.getRuntime().availableProcessors(), copies.size() / PARALLEL_THRESHOLD);
+      if (threads <= 1)
+      {
+         for (File[] copy : copies)
+         {
+            copy(copy[0], copy[1]);
+         }
+         return;
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "jbossws-output-sync");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      try
+      {
+         List<Future<Void>> futures = new ArrayList<Future<Void>>(copies.size());
+         for (final File[] copy : copies)
+         {
+            futures.add(executor.submit(new Callable<Void>()
+            {
+               public Void call() throws IOException
+               {
+                  copy(copy[0], copy[1]);
+                  return null;
+               }
+            }));
+         }
+         IOException failure = null;
+         for (Future<Void> future : futures)
+         {
+            try
+            {
+               future.get();
+            }
+            catch (ExecutionException e)
+            {
+               if (failure == null)
+                  failure = e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+            }
+         }
+         if (failure != null)
+            throw failure;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while writing generated artifacts", e);
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   private void copy(File file, File target) throws IOException
+   {
+      if (writeIfChanged && isIdentical(file, target))
+         return;
+      File dir = target.getParentFile();
+      Files.createDirectories(dir.toPath());
+      // copied (not linked) so that the modification time is the current one, then renamed into place
+      File tmp = Files.createTempFile(dir.toPath(), "." + target.getName(), ".tmp").toFile();
+      try
+      {
+         byte[] buffer = BUFFERS.get();
+         try (InputStream is = new FileInputStream(file); OutputStream os = new FileOutputStream(tmp))
+         {
+            int n;
+            while ((n = is.read(buffer)) > 0)
+            {
+               os.write(buffer, 0, n);
+            }
+         }
+         Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         filesWritten.incrementAndGet();
+         bytesWritten.addAndGet(target.length());
+      }
+      finally
+      {
+         tmp.delete();
+      }
+   }
+
+   private File getManifest(File targetRoot)
+   {
+      String key = new Fingerprint().add(id).add(targetRoot.getPath()).getValue().substring(0, 16);
+      return new File(metadataDir, tool + "-" + key + MANIFEST_SUFFIX);
+   }
+
+   static boolean isIdentical(File a, File b) throws IOException
+   {
+      if (!b.isFile() || a.length() != b.length())
+         return false;
+      try (InputStream ia = new BufferedInputStream(new FileInputStream(a));
+           InputStream ib = new BufferedInputStream(new FileInputStream(b)))
+      {
+         byte[] ba = new byte[8192];
+         byte[] bb = new byte[8192];
+         int n;
+         while ((n = ia.readNBytes(ba, 0, ba.length)) > 0)
+         {
+            if (ib.readNBytes(bb, 0, n) != n || !Arrays.equals(ba, 0, n, bb, 0, n))
+               return false;
+         }
+         return ib.read() == -1;
+      }
+   }
+
+   /**
+    * Deletes a stale file, together with the directories it leaves empty.
+    */
+   private static void prune(File targetRoot, String path)
+   {
+      File file = new File(targetRoot, path);
+      if (!file.delete())
+         return;
+      File dir = file.getParentFile();
+      while (dir != null && !dir.equals(targetRoot) && dir.delete())
+      {
+         dir = dir.getParentFile();
+      }
+   }
+
+   private static List<String> readManifest(File manifest) throws IOException
+   {
+      if (!manifest.isFile())
+         return new ArrayList<String>();
+      return Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+   }
+
+   private static void writeManifest(File manifest, Set<String> installed) throws IOException
+   {
+      List<String> lines = new ArrayList<String>(installed);
+      if (lines.equals(readManifest(manifest)))
+         return;
+      manifest.getParentFile().mkdirs();
+      Files.write(manifest.toPath(), lines, StandardCharsets.UTF_8);
+   }
+}
@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes reproducible jars, deflating the entries on as many threads as there are cores and assembling the
+ * archive from the compressed data without reading any file twice.
+ * <p>
+ * Entries are written in a fixed order (manifest first, then by name, directories included) and all carry
+ * the same timestamp, so that the same contents always yield byte-identical jars. ZIP64 is not supported,
+ * which limits jars to 65535 entries and 4 GB.
+ * </p>
+ */
+public final class ParallelJarWriter
+{
+   private static final String MANIFEST_DIR = "META-INF/";
+   private static final String MANIFEST = "META-INF/MANIFEST.MF";
+   private static final byte[] DEFAULT_MANIFEST = "Manifest-Version: 1.0\r\nCreated-By: JBossWS Tools\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+   // 1980-02-01 00:00, the first date that is safe in every time zone
+   private static final int DOS_TIME = 0;
+   private static final int DOS_DATE = (2 << 5) | 1;
+   private static final int UTF8_FLAG = 0x800;
+   private static final int PARALLEL_THRESHOLD = 16;
+   private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>()
+   {
+      @Override
+      protected Deflater initialValue()
+      {
+         return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      }
+   };
+
+   private final Map<String, Object> entries = new TreeMap<String, Object>();
+
+   /**
+    * Adds a file entry.
+    */
+   public ParallelJarWriter add(String name, File file)
+   {
+      entries.put(name, file);
+      return this;
+   }
+
+   /**
+    * Adds an entry with the given contents.
+    */
+   public ParallelJarWriter add(String name, byte[] content)
+   {
+      entries.put(name, content);
+      return this;
+   }
+
+   /**
+    * Adds the files below a directory, named after their path relative to it.
+    *
+    * @param dir    the directory
+    * @param filter the files to add, or null for all of them
+    */
+   public ParallelJarWriter addTree(File dir, FileFilter filter)
+   {
+      addTree(dir, "", filter);
+      return this;
+   }
+
+   private void addTree(File dir, String path, FileFilter filter)
+   {
+      File[] children = dir.listFiles();
+      if (children == null)
+         return;
+      for (File child : children)
+      {
+         if (child.isDirectory())
+            addTree(child, path + child.getName() + "/", filter);
+         else if (filter == null || filter.accept(child))
+            add(path + child.getName(), child);
+      }
+   }
+
+   /**
+    * Writes the jar.
+    */
+   public void write(File jar) throws IOException
+   {
+      List<String> names = getEntryNames();
+      if (names.size() > 0xFFFF)
+         throw new IOException("Too many entries for " + jar + ": " + names.size());
+
+      int threads = Math.min(Runtime.getRuntime().availableProcessors(), names.size() / PARALLEL_THRESHOLD);
+      ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "jbossws-jar-writer");
+            t.setDaemon(true);
+            return t;
+         }
+      }) : null;
+      List<Entry> written = new ArrayList<Entry>(names.size());
+      try (CountingOutputStream os = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(jar), 1 << 16)))
+      {
+         // entries are compressed ahead of the writer within a bounded window
+         int window = Math.max(1, threads * 4);
+         Deque<Future<Entry>> pending = new ArrayDeque<Future<Entry>>();
+         int next = 0;
+         for (int i = 0; i < names.size(); i++)
+         {
+            Entry entry;
+            if (executor == null)
+            {
+               entry = compress(names.get(i));
+            }
+            else
+            {
+               while (next < names.size() && next < i + window)
+               {
+                  final String name = names.get(next++);
+                  pending.add(executor.submit(new Callable<Entry>()
+                  {
+                     public Entry call() throws IOException
+                     {
+                        return compress(name);
+                     }
+                  }));
+               }
+               entry = get(pending.poll());
+            }
+            entry.offset = os.count;
+            writeLocalHeader(os, entry);
+            os.write(entry.data);
+            entry.data = null;
+            written.add(entry);
+         }
+
+         long directoryOffset = os.count;
+         for (Entry entry : written)
+         {
+            writeCentralHeader(os, entry);
+         }
+         long directorySize = os.count - directoryOffset;
+         if (os.count > 0xFFFFFFFFL)
+            throw new IOException("Too large for a jar without ZIP64: " + jar);
+
+         writeInt(os, 0x06054b50);
+         writeShort(os, 0);
+         writeShort(os, 0);
+         writeShort(os, written.size());
+         writeShort(os, written.size());
+         writeInt(os, directorySize);
+         writeInt(os, directoryOffset);
+         writeShort(os, 0);
+      }
+      finally
+      {
+         if (executor != null)
+            executor.shutdownNow();
+      }
+   }
+
+   private List<String> getEntryNames()
+   {
+      if (!entries.containsKey(MANIFEST))
+         entries.put(MANIFEST, DEFAULT_MANIFEST);
+      for (String name : new ArrayList<String>(entries.keySet()))
+      {
+         for (int i = name.indexOf('/'); i >= 0 && i < name.length() - 1; i = name.indexOf('/', i + 1))
+         {
+            entries.put(name.substring(0, i + 1), null);
+         }
+      }
+      List<String> names = new ArrayList<String>(entries.size());
+      names.add(MANIFEST_DIR);
+      names.add(MANIFEST);
+      for (String name : entries.keySet())
+      {
+         if (!MANIFEST_DIR.equals(name) && !MANIFEST.equals(name))
+            names.add(name);
+      }
+      return names;
+   }
+
+   private Entry compress(String name) throws IOException
+   {
+      Object source = entries.get(name);
+      Entry entry = new Entry(name);
+      byte[] content;
+      if (source == null)
+         content = new byte[0];
+      else if (source instanceof File)
+         content = Files.readAllBytes(((File)source).toPath());
+      else
+         content = (byte[])source;
+
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.crc = crc.getValue();
+      entry.size = content.length;
+      entry.data = content;
+      entry.compressedSize = content.length;
+      if (content.length == 0)
+         return entry;
+
+      Deflater deflater = DEFLATERS.get();
+      deflater.reset();
+      deflater.setInput(content);
+      deflater.finish();
+      byte[] buffer = new byte[Math.max(64, content.length + content.length / 8 + 64)];
+      int length = 0;
+      while (!deflater.finished())
+      {
+         if (length == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+         length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      if (length < content.length)
+      {
+         entry.method = Deflater.DEFLATED;
+         entry.data = Arrays.copyOf(buffer, length);
+      }
+      entry.compressedSize = entry.data.length;
+      return entry;
+   }
+
+   private static Entry get(Future<Entry> future) throws IOException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (ExecutionException e)
+      {
+         throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while writing jar", e);
+      }
+   }
+
+   private static void writeLocalHeader(OutputStream os, Entry entry) throws IOException
+   {
+      writeInt(os, 0x04034b50);
+      writeShort(os, 20);
+      writeCommonFields(os, entry);
+      writeShort(os, 0);
+      os.write(entry.nameBytes);
+   }
+
+   private static void writeCentralHeader(OutputStream os, Entry entry) throws IOException
+   {
+      writeInt(os, 0x02014b50);
+      writeShort(os, 20);
+      writeShort(os, 20);
+      writeCommonFields(os, entry);
+      writeShort(os, 0);
+      writeShort(os, 0);
+      writeShort(os, 0);
+      writeShort(os, 0);
+      // MS-DOS directory attribute
+      writeInt(os, entry.name.endsWith("/") ? 0x10 : 0);
+      writeInt(os, entry.offset);
+      os.write(entry.nameBytes);
+   }
+
+   /**
+    * Writes the fields shared by the local and central headers, from the flags to the file name length.
+    */
+   private static void writeCommonFields(OutputStream os, Entry entry) throws IOException
+   {
+      writeShort(os, UTF8_FLAG);
+      writeShort(os, entry.method);
+      writeShort(os, DOS_TIME);
+      writeShort(os, DOS_DATE);
+      writeInt(os, entry.crc);
+      writeInt(os, entry.compressedSize);
+      writeInt(os, entry.size);
+      writeShort(os, entry.nameBytes.length);
+   }
+
+   private static void writeShort(OutputStream os, int value) throws IOException
+   {
+      os.write(value & 0xFF);
+      os.write((value >>> 8) & 0xFF);
+   }
+
+   private static void writeInt(OutputStream os, long value) throws IOException
+   {
+      writeShort(os, (int)(value & 0xFFFF));
+      writeShort(os, (int)((value >>> 16) & 0xFFFF));
+   }
+
+   private static final class Entry
+   {
+      final String name;
+      final byte[] nameBytes;
+      int method = 0;
+      long crc;
+      long size;
+      long compressedSize;
+      long offset;
+      byte[] data;
+
+      Entry(String name)
+      {
+         this.name = name;
+         this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      }
+   }
+
+   private static final class CountingOutputStream extends FilterOutputStream
+   {
+      long count;
+
+      CountingOutputStream(OutputStream out)
+      {
+         super(out);
+      }
+
+      @Override
+      public void write(int b) throws IOException
+      {
+         out.write(b);
+         count++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         out.write(b, off, len);
+         count += len;
+      }
+   }
+}
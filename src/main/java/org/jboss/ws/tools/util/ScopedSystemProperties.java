@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Applies system properties around a tool run within a shared JVM, such as the <code>-D</code> JVM arguments
+ * of an Ant task run in-process or sent along with a daemon request, and restores the previous values afterwards.
+ * <p>
+ * System properties are global to the JVM while runs might be concurrent (tasks within <code>&lt;parallel&gt;</code>,
+ * requests served by the daemon), so each property is reference counted: runs setting a property to the same value
+ * share it, a run setting it to a different value waits until the runs using the current one are done, and the
+ * original value is only restored once the last of them is done. All the properties of a run are applied at once, hence runs never
+ * deadlock waiting on each other. Runs not setting any property are never delayed.
+ * </p>
+ */
+public final class ScopedSystemProperties
+{
+   private static final Map<String, Scope> SCOPES = new HashMap<String, Scope>();
+
+   private final Map<String, String> properties;
+
+   private static final class Scope
+   {
+      private final String value;
+      private final String original;
+      private int count;
+
+      private Scope(String value, String original)
+      {
+         this.value = value;
+         this.original = original;
+      }
+   }
+
+   private ScopedSystemProperties(Map<String, String> properties)
+   {
+      this.properties = properties;
+   }
+
+   /**
+    * Applies the given system properties, waiting for the concurrent runs setting any of them to a different
+    * value to be done.
+    *
+    * @param systemProperties the system properties
+    * @return the applied properties, to be restored once done
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public static ScopedSystemProperties apply(Map<String, String> systemProperties) throws InterruptedException
+   {
+      Map<String, String> properties = new LinkedHashMap<String, String>(systemProperties);
+      if (properties.isEmpty())
+         return new ScopedSystemProperties(properties);
+
+      synchronized (SCOPES)
+      {
+         while (conflicts(properties))
+            SCOPES.wait();
+         for (Map.Entry<String, String> property : properties.entrySet())
+         {
+            Scope scope = SCOPES.get(property.getKey());
+            if (scope == null)
+            {
+               scope = new Scope(property.getValue(), SecurityActions.getSystemProperty(property.getKey()));
+               SCOPES.put(property.getKey(), scope);
+               SecurityActions.setSystemProperty(property.getKey(), property.getValue());
+            }
+            scope.count++;
+         }
+      }
+      return new ScopedSystemProperties(properties);
+   }
+
+   /**
+    * Restores the previous values of the applied properties, unless still used by concurrent runs.
+    */
+   public void restore()
+   {
+      if (properties.isEmpty())
+         return;
+
+      synchronized (SCOPES)
+      {
+         for (String key : properties.keySet())
+         {
+            Scope scope = SCOPES.get(key);
+            if (--scope.count == 0)
+            {
+               SCOPES.remove(key);
+               SecurityActions.setSystemProperty(key, scope.original);
+            }
+         }
+         SCOPES.notifyAll();
+      }
+   }
+
+   private static boolean conflicts(Map<String, String> properties)
+   {
+      for (Map.Entry<String, String> property : properties.entrySet())
+      {
+         Scope scope = SCOPES.get(property.getKey());
+         if (scope != null && !scope.value.equals(property.getValue()))
+            return true;
+      }
+      return false;
+   }
+}
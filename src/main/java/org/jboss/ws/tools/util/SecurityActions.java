@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import org.jboss.ws.tools.security.legacy.SecurityManagerUtils;
+
+/**
+ * Security actions for this package.
+ * Keep both pre-JDK23 (with SecurityManager) and JDK23+ (without SecurityManager) approach
+ */
+class SecurityActions
+{
+   /**
+    * Get a system property
+    *
+    * @param name the property name
+    * @param defaultValue the default value
+    * @return the property value
+    */
+   static String getSystemProperty(final String name, final String defaultValue)
+   {
+      if (!SecurityManagerUtils.isSecurityManagerAvailable())
+      {
+         return System.getProperty(name, defaultValue);
+      }
+      else
+      {
+         return doPrivilegedGetSystemProperty(name, defaultValue);
+      }
+   }
+
+   /**
+    * Get a system property
+    *
+    * @param name the property name
+    * @return the property value, or null if not set
+    */
+   static String getSystemProperty(final String name)
+   {
+      return getSystemProperty(name, null);
+   }
+
+   /**
+    * Set a system property, or clear it.
+    *
+    * @param name  the property name
+    * @param value the property value, null to clear the property
+    */
+   static void setSystemProperty(final String name, final String value)
+   {
+      if (!SecurityManagerUtils.isSecurityManagerAvailable())
+      {
+         doSetSystemProperty(name, value);
+      }
+      else
+      {
+         doPrivilegedSetSystemProperty(name, value);
+      }
+   }
+
+   private static void doSetSystemProperty(final String name, final String value)
+   {
+      if (value == null)
+         System.clearProperty(name);
+      else
+         System.setProperty(name, value);
+   }
+
+   /**
+    * Separate helper method to execute privileged action for getting system property, using FQN for
+    * deprecated/removed APIs, and avoid class loading issues on JDK 23+
+    */
+   @SuppressWarnings("removal")
+   private static String doPrivilegedGetSystemProperty(final String name, final String defaultValue)
+   {
+      java.security.PrivilegedAction<String> action =
+              new java.security.PrivilegedAction<String>() {
+                 public String run()
+                 {
+                    return System.getProperty(name, defaultValue);
+                 }
+              };
+      return java.security.AccessController.doPrivileged(action);
+   }
+
+   /**
+    * Separate helper method to execute privileged action for setting system property, using FQN for
+    * deprecated/removed APIs, and avoid class loading issues on JDK 23+
+    */
+   @SuppressWarnings("removal")
+   private static void doPrivilegedSetSystemProperty(final String name, final String value)
+   {
+      java.security.PrivilegedAction<Void> action =
+              new java.security.PrivilegedAction<Void>() {
+                 public Void run()
+                 {
+                    doSetSystemProperty(name, value);
+                    return null;
+                 }
+              };
+      java.security.AccessController.doPrivileged(action);
+   }
+}
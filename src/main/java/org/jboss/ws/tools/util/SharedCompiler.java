@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles the sources generated by the jobs of a batch run in shared javac invocations, instead of letting each
+ * consumer bootstrap the compiler and load the classpath symbols again for each WSDL, and overlaps the compilation
+ * with the generation of the next WSDLs.
+ * <p>
+ * Jobs {@link #register()} when they start, which waits for one of the generation slots, and {@link #deregister()}
+ * when they are done. A job whose sources are generated calls {@link #compile(File, File, String)}, which queues
+ * them, hands the generation slot over to the next job and blocks until they are compiled. Compile workers take
+ * whatever is queued as one batch, so that generation and compilation proceed as a pipeline; the queue is bounded,
+ * and a job finding it full keeps its generation slot until there is room, which holds back generation whenever
+ * compilation falls behind. The job pool should therefore be larger than the number of generation slots, by about
+ * the queue capacity.
+ * </p>
+ * <p>
+ * The classes are written to the output directory of the job each source belongs to; jobs generating the same
+ * source file (a schema shared by several WSDLs, for instance) are compiled in separate invocations, as are jobs
+ * using different encodings. Each compile worker uses a single file manager for the whole run.
+ * </p>
+ */
+public final class SharedCompiler implements Closeable
+{
+   private final JavaCompiler compiler;
+   private final String classpath;
+   private final Semaphore generationSlots;
+   private final int capacity;
+   private final BlockingQueue<Unit> queue;
+   private final ThreadLocal<Boolean> holdingSlot = new ThreadLocal<Boolean>();
+   private final List<Worker> workers = new ArrayList<Worker>();
+
+   /**
+    * @param classpath  the classpath to compile against, or null for the classpath of the current JVM
+    * @param generators the number of jobs generating concurrently, also used as the queue capacity
+    */
+   public SharedCompiler(List<String> classpath, int generators)
+   {
+      this.compiler = ToolProvider.getSystemJavaCompiler();
+      if (compiler == null)
+         throw new IllegalStateException("No system Java compiler available");
+      this.classpath = classpath != null ? String.join(File.pathSeparator, classpath) : null;
+      this.generationSlots = new Semaphore(Math.max(1, generators), true);
+      this.capacity = Math.max(1, generators);
+      this.queue = new ArrayBlockingQueue<Unit>(capacity);
+      // javac is mostly single threaded, a few workers keep up with the generators
+      int count = Math.max(1, Math.min(generators, Runtime.getRuntime().availableProcessors() / 4));
+      for (int i = 0; i < count; i++)
+      {
+         Worker worker = new Worker(i + 1);
+         workers.add(worker);
+         worker.start();
+      }
+   }
+
+   /**
+    * @return whether a compiler is available in the current JVM, as opposed to a plain JRE
+    */
+   public static boolean isAvailable()
+   {
+      return ToolProvider.getSystemJavaCompiler() != null;
+   }
+
+   /**
+    * @return the capacity of the compile queue, by which the job pool should exceed the generation slots
+    */
+   public int getQueueCapacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * Registers a job, waiting for a generation slot.
+    */
+   public void register() throws InterruptedException
+   {
+      generationSlots.acquire();
+      holdingSlot.set(Boolean.TRUE);
+   }
+
+   /**
+    * Deregisters a job, once its sources are compiled or if it has none.
+    */
+   public void deregister()
+   {
+      releaseSlot();
+      holdingSlot.remove();
+   }
+
+   /**
+    * Compiles the Java sources below a directory, along with the ones of the other jobs queued meanwhile.
+    *
+    * @param sourceDir the directory holding the generated sources
+    * @param outputDir the directory to write the classes to
+    * @param encoding  the source encoding, or null for the platform default
+    * @throws IOException if the sources do not compile
+    */
+   public void compile(File sourceDir, File outputDir, String encoding) throws IOException
+   {
+      Unit unit = new Unit(outputDir, encoding);
+      collectSources(sourceDir, "", unit);
+      if (unit.sources.isEmpty())
+         return;
+
+      try
+      {
+         queue.put(unit);
+         releaseSlot();
+         synchronized (unit)
+         {
+            while (!unit.done)
+               unit.wait();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while compiling " + sourceDir, e);
+      }
+      if (unit.error != null)
+         throw new IOException("Could not compile generated sources: " + unit.error);
+   }
+
+   /**
+    * Deletes the Java sources below a directory, for jobs that did not ask to keep them.
+    */
+   public static void deleteSources(File dir)
+   {
+      File[] children = dir.listFiles();
+      if (children == null)
+         return;
+      for (File child : children)
+      {
+         if (child.isDirectory())
+            deleteSources(child);
+         else if (child.getName().endsWith(".java"))
+            child.delete();
+      }
+   }
+
+   /**
+    * Stops the compile workers, once all the jobs are done.
+    */
+   public void close() throws IOException
+   {
+      for (Worker worker : workers)
+      {
+         worker.interrupt();
+      }
+      for (Worker worker : workers)
+      {
+         try
+         {
+            worker.join();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+   }
+
+   private void releaseSlot()
+   {
+      if (holdingSlot.get() == Boolean.TRUE)
+      {
+         holdingSlot.set(Boolean.FALSE);
+         generationSlots.release();
+      }
+   }
+
+   /**
+    * Splits a batch so that no invocation sees the same source file twice and each uses a single encoding.
+    */
+   private static List<List<Unit>> partition(List<Unit> batch)
+   {
+      List<List<Unit>> partitions = new ArrayList<List<Unit>>();
+      List<Set<String>> paths = new ArrayList<Set<String>>();
+      for (Unit unit : batch)
+      {
+         int i = 0;
+         while (i < partitions.size() && !fits(unit, partitions.get(i), paths.get(i)))
+            i++;
+         if (i == partitions.size())
+         {
+            partitions.add(new ArrayList<Unit>());
+            paths.add(new HashSet<String>());
+         }
+         partitions.get(i).add(unit);
+         paths.get(i).addAll(unit.sources.keySet());
+      }
+      return partitions;
+   }
+
+   private static boolean fits(Unit unit, List<Unit> partition, Set<String> paths)
+   {
+      String encoding = partition.get(0).encoding;
+      if (encoding == null ? unit.encoding != null : !encoding.equals(unit.encoding))
+         return false;
+      for (String path : unit.sources.keySet())
+      {
+         if (paths.contains(path))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Compiles a partition; units with errors are failed and the others compiled again without them,
+    * since javac does not write any class once a compilation unit fails.
+    */
+   private void compilePartition(List<Unit> partition, final StandardJavaFileManager fileManager)
+   {
+      List<Unit> units = new ArrayList<Unit>(partition);
+      while (!units.isEmpty())
+      {
+         final Map<URI, Unit> owners = new HashMap<URI, Unit>();
+         List<File> files = new ArrayList<File>();
+         for (Unit unit : units)
+         {
+            for (File file : unit.sources.values())
+            {
+               owners.put(file.getAbsoluteFile().toURI().normalize(), unit);
+               files.add(file);
+            }
+         }
+
+         List<String> options = new ArrayList<String>();
+         options.add("-proc:none");
+         options.add("-nowarn");
+         if (classpath != null)
+         {
+            options.add("-classpath");
+            options.add(classpath);
+         }
+         if (units.get(0).encoding != null)
+         {
+            options.add("-encoding");
+            options.add(units.get(0).encoding);
+         }
+
+         final Unit fallback = units.get(0);
+         JavaFileManager routing = new ForwardingJavaFileManager<StandardJavaFileManager>(fileManager)
+         {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException
+            {
+               if (location != StandardLocation.CLASS_OUTPUT)
+                  return super.getJavaFileForOutput(location, className, kind, sibling);
+               Unit owner = sibling != null ? owners.get(sibling.toUri().normalize()) : null;
+               File file = new File(owner != null ? owner.outputDir : fallback.outputDir, className.replace('.', File.separatorChar) + kind.extension);
+               return fileManager.getJavaFileObjects(file).iterator().next();
+            }
+         };
+
+         DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+         Iterable<? extends JavaFileObject> sources = fileManager.getJavaFileObjectsFromFiles(files);
+         if (Boolean.TRUE.equals(compiler.getTask(null, routing, diagnostics, options, null, sources).call()))
+            return;
+
+         List<Unit> failed = new ArrayList<Unit>();
+         for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+         {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR)
+               continue;
+            Unit owner = diagnostic.getSource() != null ? owners.get(diagnostic.getSource().toUri().normalize()) : null;
+            if (owner == null)
+            {
+               // not attributable to a single job, such as an invalid classpath
+               for (Unit unit : units)
+               {
+                  if (unit.error == null)
+                     unit.error = diagnostic.getMessage(null);
+               }
+               return;
+            }
+            if (owner.error == null)
+            {
+               owner.error = diagnostic.getSource().getName() + ":" + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(null);
+               failed.add(owner);
+            }
+         }
+         if (failed.isEmpty())
+         {
+            for (Unit unit : units)
+               unit.error = "javac failed without reporting errors";
+            return;
+         }
+         units.removeAll(failed);
+      }
+   }
+
+   private static void collectSources(File dir, String path, Unit unit)
+   {
+      File[] children = dir.listFiles();
+      if (children == null)
+         return;
+      for (File child : children)
+      {
+         if (child.isDirectory())
+            collectSources(child, path + child.getName() + "/", unit);
+         else if (child.getName().endsWith(".java"))
+            unit.sources.put(path + child.getName(), child);
+      }
+   }
+
+   /**
+    * Takes the queued units as batches and compiles them, until interrupted.
+    */
+   private final class Worker extends Thread
+   {
+      Worker(int id)
+      {
+         super("jbossws-compiler-" + id);
+         setDaemon(true);
+         setContextClassLoader(SharedCompiler.class.getClassLoader());
+      }
+
+      @Override
+      public void run()
+      {
+         StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+         try
+         {
+            while (true)
+            {
+               List<Unit> batch = new ArrayList<Unit>();
+               batch.add(queue.take());
+               queue.drainTo(batch);
+               compileBatch(batch, fileManager);
+            }
+         }
+         catch (InterruptedException e)
+         {
+            // closed
+         }
+         finally
+         {
+            try
+            {
+               fileManager.close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+         }
+      }
+   }
+
+   private void compileBatch(List<Unit> batch, StandardJavaFileManager fileManager)
+   {
+      try
+      {
+         for (List<Unit> partition : partition(batch))
+         {
+            compilePartition(partition, fileManager);
+         }
+      }
+      catch (Throwable t)
+      {
+         // never leave the jobs of the batch waiting
+         for (Unit unit : batch)
+         {
+            if (unit.error == null)
+               unit.error = String.valueOf(t);
+         }
+      }
+      for (Unit unit : batch)
+      {
+         synchronized (unit)
+         {
+            unit.done = true;
+            unit.notifyAll();
+         }
+      }
+   }
+
+   private static final class Unit
+   {
+      final File outputDir;
+      final String encoding;
+      final Map<String, File> sources = new LinkedHashMap<String, File>();
+      String error;
+      boolean done;
+
+      Unit(File outputDir, String encoding)
+      {
+         this.outputDir = outputDir;
+         this.encoding = encoding;
+      }
+   }
+}
@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records how long each phase of a tool run takes, per subject (the WSDL or endpoint being processed),
+ * so that slow builds can be attributed to provider discovery, class loading, generation, caching or forking.
+ * <p>
+ * Timings can be printed as a human readable summary or written as JSON, which is also how forked
+ * tool runs hand them back to the Ant tasks. Instances are thread safe.
+ * </p>
+ */
+public final class Timings
+{
+   /** Lookup and instantiation of the consumer or provider implementation */
+   public static final String DISCOVERY = "discovery";
+   /** Class loader setup and loading of the endpoint class */
+   public static final String CLASS_LOADING = "classloading";
+   /** Scanning the classpath for endpoint implementations */
+   public static final String ENDPOINT_SCAN = "endpoint-scan";
+   /** Artifact cache key computation and lookup, including the restore on hits */
+   public static final String CACHE_LOOKUP = "cache-lookup";
+   /** The consumer or provider run proper: generation, and compilation unless left to the shared compiler */
+   public static final String GENERATION = "generation";
+   /** Compiling generated sources in the invocations shared by the jobs of a batch, waiting for the batch included */
+   public static final String COMPILATION = "compilation";
+   /** Storing and installing newly generated artifacts through the artifact cache */
+   public static final String CACHE_STORE = "cache-store";
+   /** Moving changed artifacts from the staging directory into place, in write-if-changed mode */
+   public static final String OUTPUT_SYNC = "output-sync";
+   /** Packaging the artifacts of the whole run into a srcjar or jar */
+   public static final String PACKAGING = "packaging";
+   /** A whole forked or daemon run, as seen by the Ant task */
+   public static final String FORK = "fork";
+
+   private final String tool;
+   private final long created = System.nanoTime();
+   private final Map<String, Map<String, Long>> subjects = new LinkedHashMap<String, Map<String, Long>>();
+
+   /**
+    * @param tool the tool name, e.g. wsconsume
+    */
+   public Timings(String tool)
+   {
+      this.tool = tool;
+   }
+
+   /**
+    * Records a phase which started at the given {@link System#nanoTime()} and ends now.
+    *
+    * @param subject    the WSDL or endpoint, or the empty string for tool wide phases
+    * @param phase      the phase name
+    * @param startNanos the phase start
+    */
+   public void recordSince(String subject, String phase, long startNanos)
+   {
+      record(subject, phase, System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Records a phase duration; durations of the same phase and subject add up.
+    */
+   public synchronized void record(String subject, String phase, long nanos)
+   {
+      Map<String, Long> phases = subjects.get(subject);
+      if (phases == null)
+      {
+         phases = new LinkedHashMap<String, Long>();
+         subjects.put(subject, phases);
+      }
+      Long previous = phases.get(phase);
+      phases.put(phase, previous != null ? previous + nanos : nanos);
+   }
+
+   /**
+    * Adds all the timings recorded by another run, e.g. a forked one.
+    */
+   public void addAll(Timings other)
+   {
+      for (Map.Entry<String, Map<String, Long>> subject : other.snapshot().entrySet())
+      {
+         for (Map.Entry<String, Long> phase : subject.getValue().entrySet())
+         {
+            record(subject.getKey(), phase.getKey(), phase.getValue());
+         }
+      }
+   }
+
+   /**
+    * Prints a human readable summary, in milliseconds.
+    */
+   public void print(PrintStream out)
+   {
+      Map<String, Map<String, Long>> snapshot = snapshot();
+      Map<String, Long> totals = new LinkedHashMap<String, Long>();
+      out.println(tool + " timings (ms):");
+      for (Map.Entry<String, Map<String, Long>> subject : snapshot.entrySet())
+      {
+         out.println("  " + (subject.getKey().isEmpty() ? "(" + tool + ")" : subject.getKey()));
+         for (Map.Entry<String, Long> phase : subject.getValue().entrySet())
+         {
+            out.println(String.format(Locale.ROOT, "    %-16s %10s", phase.getKey(), millis(phase.getValue())));
+            Long total = totals.get(phase.getKey());
+            totals.put(phase.getKey(), total != null ? total + phase.getValue() : phase.getValue());
+         }
+      }
+      if (snapshot.size() > 1)
+      {
+         out.println("  total");
+         for (Map.Entry<String, Long> phase : totals.entrySet())
+         {
+            out.println(String.format(Locale.ROOT, "    %-16s %10s", phase.getKey(), millis(phase.getValue())));
+         }
+      }
+      out.println(String.format(Locale.ROOT, "  %-18s %10s", "elapsed", millis(System.nanoTime() - created)));
+      out.flush();
+   }
+
+   /**
+    * Writes the timings as a JSON document of the form
+    * <code>{"tool": ..., "elapsedMillis": ..., "subjects": [{"name": ..., "phases": {"discovery": 1.5, ...}}]}</code>.
+    */
+   public void write(File file) throws IOException
+   {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\n  \"tool\": ").append(quote(tool));
+      sb.append(",\n  \"elapsedMillis\": ").append(millis(System.nanoTime() - created));
+      sb.append(",\n  \"subjects\": [");
+      boolean first = true;
+      for (Map.Entry<String, Map<String, Long>> subject : snapshot().entrySet())
+      {
+         sb.append(first ? "\n" : ",\n");
+         first = false;
+         sb.append("    {\"name\": ").append(quote(subject.getKey())).append(", \"phases\": {");
+         boolean firstPhase = true;
+         for (Map.Entry<String, Long> phase : subject.getValue().entrySet())
+         {
+            if (!firstPhase)
+               sb.append(", ");
+            firstPhase = false;
+            sb.append(quote(phase.getKey())).append(": ").append(millis(phase.getValue()));
+         }
+         sb.append("}}");
+      }
+      sb.append("\n  ]\n}\n");
+      File dir = file.getAbsoluteFile().getParentFile();
+      if (dir != null)
+         dir.mkdirs();
+      try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))
+      {
+         writer.write(sb.toString());
+      }
+   }
+
+   /**
+    * Reads timings written by {@link #write(File)}.
+    *
+    * @throws IOException if the file can not be read or is not a timings document
+    */
+   public static Timings read(File file) throws IOException
+   {
+      String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      try
+      {
+         Map<?, ?> document = (Map<?, ?>)new JsonParser(json).parse();
+         Timings timings = new Timings((String)document.get("tool"));
+         for (Object element : (List<?>)document.get("subjects"))
+         {
+            Map<?, ?> subject = (Map<?, ?>)element;
+            for (Map.Entry<?, ?> phase : ((Map<?, ?>)subject.get("phases")).entrySet())
+            {
+               long nanos = Math.round(((Double)phase.getValue()) * 1000000d);
+               timings.record((String)subject.get("name"), (String)phase.getKey(), nanos);
+            }
+         }
+         return timings;
+      }
+      catch (ClassCastException | NullPointerException | IllegalArgumentException e)
+      {
+         throw new IOException("Invalid timings file " + file, e);
+      }
+   }
+
+   private synchronized Map<String, Map<String, Long>> snapshot()
+   {
+      Map<String, Map<String, Long>> copy = new LinkedHashMap<String, Map<String, Long>>();
+      for (Map.Entry<String, Map<String, Long>> subject : subjects.entrySet())
+      {
+         copy.put(subject.getKey(), new LinkedHashMap<String, Long>(subject.getValue()));
+      }
+      return copy;
+   }
+
+   private static String millis(long nanos)
+   {
+      return String.format(Locale.ROOT, "%.3f", nanos / 1000000d);
+   }
+
+   private static String quote(String value)
+   {
+      StringBuilder sb = new StringBuilder("\"");
+      for (int i = 0; i < value.length(); i++)
+      {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\')
+            sb.append('\\').append(c);
+         else if (c < 0x20)
+            sb.append(String.format("\\u%04x", (int)c));
+         else
+            sb.append(c);
+      }
+      return sb.append('"').toString();
+   }
+
+   /**
+    * A minimal JSON parser, enough for reading back timings documents.
+    */
+   private static final class JsonParser
+   {
+      private final String json;
+      private int pos;
+
+      JsonParser(String json)
+      {
+         this.json = json;
+      }
+
+      Object parse()
+      {
+         Object value = value();
+         skipWhitespace();
+         if (pos != json.length())
+            throw error();
+         return value;
+      }
+
+      private Object value()
+      {
+         skipWhitespace();
+         if (pos >= json.length())
+            throw error();
+         char c = json.charAt(pos);
+         if (c == '{')
+            return object();
+         if (c == '[')
+            return array();
+         if (c == '"')
+            return string();
+         return number();
+      }
+
+      private Map<String, Object> object()
+      {
+         Map<String, Object> map = new LinkedHashMap<String, Object>();
+         pos++;
+         skipWhitespace();
+         if (peek() == '}')
+         {
+            pos++;
+            return map;
+         }
+         while (true)
+         {
+            skipWhitespace();
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if (peek() == '}')
+            {
+               pos++;
+               return map;
+            }
+            expect(',');
+         }
+      }
+
+      private List<Object> array()
+      {
+         List<Object> list = new ArrayList<Object>();
+         pos++;
+         skipWhitespace();
+         if (peek() == ']')
+         {
+            pos++;
+            return list;
+         }
+         while (true)
+         {
+            list.add(value());
+            skipWhitespace();
+            if (peek() == ']')
+            {
+               pos++;
+               return list;
+            }
+            expect(',');
+         }
+      }
+
+      private String string()
+      {
+         expect('"');
+         StringBuilder sb = new StringBuilder();
+         while (true)
+         {
+            char c = next();
+            if (c == '"')
+               return sb.toString();
+            if (c != '\\')
+            {
+               sb.append(c);
+               continue;
+            }
+            c = next();
+            switch (c)
+            {
+               case 'u':
+                  if (pos + 4 > json.length())
+                     throw error();
+                  sb.append((char)Integer.parseInt(json.substring(pos, pos + 4), 16));
+                  pos += 4;
+                  break;
+               case 'n':
+                  sb.append('\n');
+                  break;
+               case 't':
+                  sb.append('\t');
+                  break;
+               case 'r':
+                  sb.append('\r');
+                  break;
+               case 'b':
+                  sb.append('\b');
+                  break;
+               case 'f':
+                  sb.append('\f');
+                  break;
+               default:
+                  sb.append(c);
+            }
+         }
+      }
+
+      private Double number()
+      {
+         int start = pos;
+         while (pos < json.length() && "+-.eE0123456789".indexOf(json.charAt(pos)) >= 0)
+            pos++;
+         if (start == pos)
+            throw error();
+         return Double.valueOf(json.substring(start, pos));
+      }
+
+      private void skipWhitespace()
+      {
+         while (pos < json.length() && Character.isWhitespace(json.charAt(pos)))
+            pos++;
+      }
+
+      private char peek()
+      {
+         if (pos >= json.length())
+            throw error();
+         return json.charAt(pos);
+      }
+
+      private char next()
+      {
+         char c = peek();
+         pos++;
+         return c;
+      }
+
+      private void expect(char c)
+      {
+         if (next() != c)
+            throw error();
+      }
+
+      private IllegalArgumentException error()
+      {
+         return new IllegalArgumentException("Unexpected JSON content at offset " + pos);
+      }
+   }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+
+import org.jboss.ws.api.tools.WSContractConsumer;
+import org.jboss.ws.api.tools.WSContractConsumerFactory;
+import org.jboss.ws.api.tools.WSContractProvider;
+import org.jboss.ws.api.tools.WSContractProviderFactory;
+
+/**
+ * Creates consumers and providers like {@link WSContractConsumer#newInstance(ClassLoader)} and
+ * {@link WSContractProvider#newInstance(ClassLoader)}, but resolves the factory implementation only once per
+ * class loader, so that daemon and batch runs do not scan the <code>META-INF/services</code> resources of the
+ * whole classpath for every WSDL or endpoint.
+ * <p>
+ * The factory is looked up the way the API does: the system property named after the factory first, then the
+ * services resource. Only the class name is cached, weakly keyed by class loader, so that class loaders can
+ * still be collected. When the <code>org.jboss.ws.tools.discovery.hints</code> system property names a file,
+ * resolved class names are also recorded there, keyed by the class path of the loader (entries with their size
+ * and modification time), so that later JVMs with the same class path skip the scan as well. Whenever no factory
+ * can be resolved this way, creation is left to the API.
+ * </p>
+ */
+public final class ToolDiscovery
+{
+   private static final String CONSUMER_FACTORY = "org.jboss.ws.api.tools.ConsumerFactory";
+   private static final String PROVIDER_FACTORY = "org.jboss.ws.api.tools.ProviderFactory";
+   private static final String HINTS_PROPERTY = "org.jboss.ws.tools.discovery.hints";
+   // marks a lookup that found no services resource
+   private static final String NONE = "";
+
+   private static final Map<ClassLoader, Map<String, String>> RESOLVED = new WeakHashMap<ClassLoader, Map<String, String>>();
+
+   private ToolDiscovery()
+   {
+      // forbidden constructor
+   }
+
+   public static WSContractConsumer newConsumer(ClassLoader loader)
+   {
+      Class<?> factory = resolve(CONSUMER_FACTORY, loader);
+      if (factory == null)
+         return WSContractConsumer.newInstance(loader);
+      return ((WSContractConsumerFactory)instantiate(factory)).createConsumer();
+   }
+
+   public static WSContractProvider newProvider(ClassLoader loader)
+   {
+      Class<?> factory = resolve(PROVIDER_FACTORY, loader);
+      if (factory == null)
+         return WSContractProvider.newInstance(loader);
+      return ((WSContractProviderFactory)instantiate(factory)).createProvider(loader);
+   }
+
+   private static Class<?> resolve(String property, ClassLoader loader)
+   {
+      String className = SecurityActions.getSystemProperty(property, null);
+      if (className == null)
+      {
+         synchronized (RESOLVED)
+         {
+            Map<String, String> names = RESOLVED.get(loader);
+            className = names != null ? names.get(property) : null;
+         }
+         if (className == null)
+         {
+            className = lookup(property, loader);
+            synchronized (RESOLVED)
+            {
+               Map<String, String> names = RESOLVED.get(loader);
+               if (names == null)
+               {
+                  names = new HashMap<String, String>();
+                  RESOLVED.put(loader, names);
+               }
+               names.put(property, className);
+            }
+         }
+      }
+      if (NONE.equals(className))
+         return null;
+      try
+      {
+         return Class.forName(className, false, loader);
+      }
+      catch (ClassNotFoundException | LinkageError e)
+      {
+         // let the API report it
+         return null;
+      }
+   }
+
+   private static String lookup(String property, ClassLoader loader)
+   {
+      File hintFile = getHintFile();
+      String key = hintFile != null ? getHintKey(property, loader) : null;
+      if (key != null)
+      {
+         String hint = loadHints(hintFile).getProperty(key);
+         if (hint != null)
+            return hint;
+      }
+
+      String className = readServicesResource(property, loader);
+      if (key != null && !NONE.equals(className))
+         saveHint(hintFile, key, className);
+      return className;
+   }
+
+   private static String readServicesResource(String property, ClassLoader loader)
+   {
+      URL resource = loader.getResource("META-INF/services/" + property);
+      if (resource == null)
+         return NONE;
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8)))
+      {
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+               line = line.substring(0, comment);
+            line = line.trim();
+            if (!line.isEmpty())
+               return line;
+         }
+      }
+      catch (IOException e)
+      {
+         // let the API report it
+      }
+      return NONE;
+   }
+
+   private static Object instantiate(Class<?> factory)
+   {
+      try
+      {
+         return factory.getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException e)
+      {
+         throw new IllegalStateException("Could not instantiate " + factory.getName(), e);
+      }
+   }
+
+   private static File getHintFile()
+   {
+      String path = SecurityActions.getSystemProperty(HINTS_PROPERTY, null);
+      return path != null && !path.isEmpty() ? new File(path) : null;
+   }
+
+   /**
+    * @return a key identifying the class path of the loader, or null if it is not known
+    */
+   private static String getHintKey(String property, ClassLoader loader)
+   {
+      Fingerprint fp = new Fingerprint().add(property);
+      if (loader instanceof URLClassLoader)
+      {
+         for (URL url : ((URLClassLoader)loader).getURLs())
+         {
+            if (!"file".equals(url.getProtocol()))
+               return null;
+            try
+            {
+               addEntry(fp, new File(url.toURI()));
+            }
+            catch (URISyntaxException | IllegalArgumentException e)
+            {
+               return null;
+            }
+         }
+         ClassLoader parent = loader.getParent();
+         if (parent != null && parent != ClassLoader.getSystemClassLoader() && parent != ClassLoader.getPlatformClassLoader())
+            return null;
+      }
+      else if (loader != ClassLoader.getSystemClassLoader())
+      {
+         return null;
+      }
+      for (String entry : SecurityActions.getSystemProperty("java.class.path", "").split(File.pathSeparator))
+      {
+         if (!entry.isEmpty())
+            addEntry(fp, new File(entry));
+      }
+      return fp.getValue();
+   }
+
+   private static void addEntry(Fingerprint fp, File file)
+   {
+      // unlike Fingerprint.addMetadata, class directories are not walked
+      fp.add(file.getAbsolutePath()).add(file.length()).add(file.lastModified());
+   }
+
+   private static Properties loadHints(File hintFile)
+   {
+      Properties hints = new Properties();
+      if (hintFile.isFile())
+      {
+         try (InputStream is = new FileInputStream(hintFile))
+         {
+            hints.load(is);
+         }
+         catch (IOException e)
+         {
+            // scan instead
+         }
+      }
+      return hints;
+   }
+
+   private static void saveHint(File hintFile, String key, String className)
+   {
+      try
+      {
+         Properties hints = loadHints(hintFile);
+         hints.setProperty(key, className);
+         File dir = hintFile.getAbsoluteFile().getParentFile();
+         dir.mkdirs();
+         File tmp = Files.createTempFile(dir.toPath(), "." + hintFile.getName(), ".tmp").toFile();
+         try
+         {
+            try (OutputStream os = new FileOutputStream(tmp))
+            {
+               hints.store(os, null);
+            }
+            Files.move(tmp.toPath(), hintFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         }
+         finally
+         {
+            tmp.delete();
+         }
+      }
+      catch (IOException e)
+      {
+         // only a hint
+      }
+   }
+}
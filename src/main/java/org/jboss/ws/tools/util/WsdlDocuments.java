@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.ws.tools.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.catalog.CatalogException;
+import javax.xml.catalog.CatalogFeatures;
+import javax.xml.catalog.CatalogManager;
+import javax.xml.catalog.CatalogResolver;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads a WSDL document together with every WSDL and schema document it transitively imports or includes.
+ * When an XML catalog is given, document locations are resolved through it first, as the consumer does.
+ */
+public final class WsdlDocuments
+{
+   private static final String WSDL11_NS = "http://schemas.xmlsoap.org/wsdl/";
+   private static final String WSDL20_NS = "http://www.w3.org/ns/wsdl";
+   private static final String XSD_NS = "http://www.w3.org/2001/XMLSchema";
+
+   private WsdlDocuments()
+   {
+      // forbidden constructor
+   }
+
+   /**
+    * @param wsdl the WSDL url
+    * @return the contents of each document by url, the WSDL document first
+    * @throws IOException if any of the documents can not be read
+    */
+   public static Map<URL, byte[]> read(URL wsdl) throws IOException
+   {
+      return read(wsdl, null, null);
+   }
+
+   /**
+    * @param wsdl    the WSDL url
+    * @param catalog the XML catalog file to resolve the document locations with, or null
+    * @return the contents of each document by resolved url, the WSDL document first
+    * @throws IOException if any of the documents can not be read
+    */
+   public static Map<URL, byte[]> read(URL wsdl, File catalog) throws IOException
+   {
+      return read(wsdl, catalog, null);
+   }
+
+   /**
+    * Reads the documents which can be read, for instance without network access: the imported documents which
+    * can not be read are reported rather than failing the whole read.
+    *
+    * @param wsdl        the WSDL url
+    * @param catalog     the XML catalog file to resolve the document locations with, or null
+    * @param unavailable receives the resolved urls of the imported documents which could not be read
+    * @return the contents of each document read by resolved url, the WSDL document first
+    * @throws IOException if the WSDL document itself can not be read
+    */
+   public static Map<URL, byte[]> readAvailable(URL wsdl, File catalog, Set<URL> unavailable) throws IOException
+   {
+      return read(wsdl, catalog, unavailable);
+   }
+
+   private static Map<URL, byte[]> read(URL wsdl, File catalog, Set<URL> unavailable) throws IOException
+   {
+      CatalogResolver resolver = catalog != null ? newResolver(catalog) : null;
+      Map<URL, byte[]> documents = new LinkedHashMap<URL, byte[]>();
+      Set<String> visited = new LinkedHashSet<String>();
+      Deque<URL> queue = new ArrayDeque<URL>();
+      queue.add(wsdl);
+      while (!queue.isEmpty())
+      {
+         URL url = resolve(resolver, queue.poll());
+         if (!visited.add(url.toExternalForm()))
+            continue;
+
+         byte[] bytes;
+         try (InputStream is = url.openStream())
+         {
+            bytes = is.readAllBytes();
+         }
+         catch (IOException e)
+         {
+            if (unavailable == null || documents.isEmpty())
+               throw e;
+            unavailable.add(url);
+            continue;
+         }
+         documents.put(url, bytes);
+         for (String location : findImports(bytes))
+         {
+            try
+            {
+               queue.add(new URL(url, location));
+            }
+            catch (MalformedURLException e)
+            {
+               throw new IOException("Invalid import location " + location + " in " + url, e);
+            }
+         }
+      }
+      return documents;
+   }
+
+   private static CatalogResolver newResolver(File catalog) throws IOException
+   {
+      try
+      {
+         // locations missing from the catalog are read as they are
+         CatalogFeatures features = CatalogFeatures.builder().with(CatalogFeatures.Feature.RESOLVE, "continue").build();
+         return CatalogManager.catalogResolver(features, catalog.getAbsoluteFile().toURI());
+      }
+      catch (CatalogException | IllegalArgumentException e)
+      {
+         throw new IOException("Invalid catalog " + catalog + ": " + e.getMessage(), e);
+      }
+   }
+
+   private static URL resolve(CatalogResolver resolver, URL url) throws IOException
+   {
+      if (resolver == null)
+         return url;
+      String location = url.toExternalForm();
+      String resolved = null;
+      try
+      {
+         InputSource source = resolver.resolveEntity(null, location);
+         if (source != null)
+            resolved = source.getSystemId();
+         if (resolved == null)
+         {
+            Source uri = resolver.resolve(location, null);
+            if (uri != null)
+               resolved = uri.getSystemId();
+         }
+      }
+      catch (CatalogException e)
+      {
+         throw new IOException("Could not resolve " + location + " through the catalog: " + e.getMessage(), e);
+      }
+      return resolved != null && !resolved.equals(location) ? new URL(resolved) : url;
+   }
+
+   private static Set<String> findImports(byte[] document) throws IOException
+   {
+      final Set<String> locations = new LinkedHashSet<String>();
+      try
+      {
+         SAXParserFactory factory = SAXParserFactory.newInstance();
+         factory.setNamespaceAware(true);
+         factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+         factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+         factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+         SAXParser parser = factory.newSAXParser();
+         parser.parse(new ByteArrayInputStream(document), new DefaultHandler()
+         {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes)
+            {
+               String location = null;
+               if ((WSDL11_NS.equals(uri) || WSDL20_NS.equals(uri)) && ("import".equals(localName) || "include".equals(localName)))
+               {
+                  location = attributes.getValue("location");
+               }
+               else if (XSD_NS.equals(uri) && ("import".equals(localName) || "include".equals(localName) || "redefine".equals(localName)))
+               {
+                  location = attributes.getValue("schemaLocation");
+               }
+               if (location != null && !location.isEmpty())
+                  locations.add(location);
+            }
+         });
+      }
+      catch (ParserConfigurationException e)
+      {
+         throw new IOException(e);
+      }
+      catch (SAXException e)
+      {
+         throw new IOException("Could not parse document: " + e.getMessage(), e);
+      }
+      return locations;
+   }
+}
@@ -18,6 +18,20 @@
  */
 package org.jboss.test.ws.tools;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import gnu.getopt.Getopt;
+
+import org.jboss.ws.api.tools.WSContractConsumer;
+import org.jboss.ws.tools.ant.WSConsumeTask;
+
 /**
  * Test the WSConsumeTask.
  * This test needs to be executed in 'SPI_HOME/output/tests',
@@ -46,4 +60,301 @@ public class AntConsumeTestCase extends BuildFileTest
       assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.indexOf("consume") != -1);
    }
 
+   public void testProfiledInvocation() throws Exception
+   {
+      File dir = File.createTempFile("wsconsume-profile", "");
+      dir.delete();
+      project.setProperty("profile.dir", dir.getAbsolutePath());
+      try
+      {
+         executeTarget("profiledInvocation");
+         assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+         File[] runs = dir.listFiles();
+         assertNotNull("profiling directory not created", runs);
+         assertEquals(1, runs.length);
+         assertTrue("recording not written", new File(runs[0], "recording.jfr").isFile());
+         assertTrue("summary not written", new File(runs[0], "summary.properties").isFile());
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testIncrementalInvocation() throws Exception
+   {
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      dir.mkdirs();
+      File wsdl = new File(dir, "Service.wsdl");
+      File xsd = new File(dir, "types.xsd");
+      write(wsdl, "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'><types>"
+            + "<schema xmlns='http://www.w3.org/2001/XMLSchema'><import schemaLocation='types.xsd'/></schema>"
+            + "</types></definitions>");
+      write(xsd, "<schema xmlns='http://www.w3.org/2001/XMLSchema'/>");
+      project.setProperty("wsdl", wsdl.getAbsolutePath());
+      project.setProperty("destdir", new File(dir, "output").getAbsolutePath());
+      project.setProperty("metadata.dir", new File(dir, "metadata").getAbsolutePath());
+
+      executeTarget("incrementalInvocation");
+      assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+      CmdConsumeTracker.LAST_EVENT = "";
+      executeTarget("incrementalInvocation");
+      assertFalse("consume() invoked on unchanged wsdl", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+      // a change in an imported schema triggers the generation again
+      write(xsd, "<schema xmlns='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:changed'/>");
+      executeTarget("incrementalInvocation");
+      assertTrue("consume() not invoked on changed schema", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+   }
+
+   public void testIncrementalWriteIfChanged() throws Exception
+   {
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      dir.mkdirs();
+      File wsdl = new File(dir, "Service.wsdl");
+      write(wsdl, "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+      File output = new File(dir, "output");
+      project.setProperty("wsdl", wsdl.getAbsolutePath());
+      project.setProperty("destdir", output.getAbsolutePath());
+      project.setProperty("metadata.dir", new File(dir, "metadata").getAbsolutePath());
+      CmdConsumeTracker.GENERATE = true;
+      try
+      {
+         project.setProperty("incremental", "false");
+         executeTarget("writeIfChangedInvocation");
+         File generated = new File(output, "Generated.txt");
+         assertTrue("Generated.txt not written", generated.isFile());
+
+         // the first incremental run leaves the identical files untouched, they are outputs nonetheless
+         project.setProperty("incremental", "true");
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeTarget("writeIfChangedInvocation");
+         assertTrue("consume() not invoked without a stamp", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+         assertTrue(generated.delete());
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeTarget("writeIfChangedInvocation");
+         assertTrue("consume() not invoked on deleted output", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+         assertTrue("Generated.txt not restored", generated.isFile());
+
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeTarget("writeIfChangedInvocation");
+         assertFalse("consume() invoked on unchanged wsdl", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+      }
+      finally
+      {
+         CmdConsumeTracker.GENERATE = false;
+         delete(dir);
+      }
+   }
+
+   public void testCatalogInvocation() throws Exception
+   {
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      dir.mkdirs();
+      File wsdl = new File(dir, "Service.wsdl");
+      File xsd = new File(dir, "types.xsd");
+      File catalog = new File(dir, "catalog.xml");
+      // the first import is resolved through the catalog, the second one can not be fetched at all
+      write(wsdl, "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'><types>"
+            + "<schema xmlns='http://www.w3.org/2001/XMLSchema'><import schemaLocation='http://schemas.invalid/types.xsd'/>"
+            + "<import schemaLocation='http://schemas.invalid/unavailable.xsd'/></schema>"
+            + "</types></definitions>");
+      write(xsd, "<schema xmlns='http://www.w3.org/2001/XMLSchema'/>");
+      write(catalog, "<catalog xmlns='urn:oasis:names:tc:entity:xmlns:xml:catalog'>"
+            + "<system systemId='http://schemas.invalid/types.xsd' uri='types.xsd'/></catalog>");
+      project.setProperty("wsdl", wsdl.getAbsolutePath());
+      project.setProperty("catalog", catalog.getAbsolutePath());
+      project.setProperty("destdir", new File(dir, "output").getAbsolutePath());
+      project.setProperty("metadata.dir", new File(dir, "metadata").getAbsolutePath());
+      try
+      {
+         executeTarget("catalogInvocation");
+         assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeTarget("catalogInvocation");
+         assertFalse("consume() invoked on unchanged wsdl", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+         // the schema the catalog resolves the import to is part of the fingerprint
+         write(xsd, "<schema xmlns='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:changed'/>");
+         executeTarget("catalogInvocation");
+         assertTrue("consume() not invoked on changed schema", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+         CmdConsumeTracker.LAST_EVENT = "";
+         write(catalog, "<catalog xmlns='urn:oasis:names:tc:entity:xmlns:xml:catalog'/>");
+         executeTarget("catalogInvocation");
+         assertTrue("consume() not invoked on changed catalog", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testWsdlSetInvocation() throws Exception
+   {
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      dir.mkdirs();
+      for (String name : new String[] {"First.wsdl", "Second.wsdl", "Third.wsdl"})
+         write(new File(dir, name), "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+      project.setProperty("wsdl.dir", dir.getAbsolutePath());
+
+      executeTarget("wsdlsetInvocation");
+      assertEquals("consume() not invoked for each WSDL", 3, CmdConsumeTracker.LAST_EVENT.split("consume", -1).length - 1);
+      assertTrue("setTargetPackage() not invoked", CmdConsumeTracker.LAST_EVENT.contains("setTargetPackage"));
+   }
+
+   public void testRemoteCacheOutage() throws Exception
+   {
+      int port;
+      try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+      {
+         port = socket.getLocalPort();
+      }
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      dir.mkdirs();
+      for (String name : new String[] {"First.wsdl", "Second.wsdl", "Third.wsdl"})
+         write(new File(dir, name), "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+      project.setProperty("wsdl.dir", dir.getAbsolutePath());
+      project.setProperty("cache.dir", new File(dir, "cache").getAbsolutePath());
+      project.setProperty("remote.cache", "http://localhost:" + port + "/cache/");
+      project.setProperty("destdir", new File(dir, "output").getAbsolutePath());
+      try
+      {
+         executeTarget("remoteCacheOutage");
+         assertEquals("consume() not invoked for each WSDL", 3, CmdConsumeTracker.LAST_EVENT.split("consume", -1).length - 1);
+         // the WSDLs after the first one skip the unreachable server
+         String log = getLog();
+         assertEquals(log, 1, log.split("Could not fetch artifacts from remote cache", -1).length - 1);
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testSharedCompilation() throws Exception
+   {
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      dir.mkdirs();
+      for (String name : new String[] {"First.wsdl", "Second.wsdl"})
+         write(new File(dir, name), "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+      project.setProperty("wsdl.dir", dir.getAbsolutePath());
+      File output = new File(dir, "output");
+      project.setProperty("destdir", output.getAbsolutePath());
+
+      // like a taskdef from ANT_HOME/lib: not an AntClassLoader, and the JVM class path is the Ant launcher only
+      String classPath = System.getProperty("java.class.path");
+      System.setProperty("java.class.path", new File(dir, "ant-launcher.jar").getPath());
+      CmdConsumeTracker.GENERATE = true;
+      try
+      {
+         executeTarget("sharedCompilation");
+         assertTrue("first sources not compiled", new File(output, "first/Hello.class").isFile());
+         assertTrue("second sources not compiled", new File(output, "second/Hello.class").isFile());
+      }
+      finally
+      {
+         CmdConsumeTracker.GENERATE = false;
+         System.setProperty("java.class.path", classPath);
+         delete(dir);
+      }
+   }
+
+   public void testIsolatedInvocation() throws Exception
+   {
+      File output = executeIsolated(false);
+      try
+      {
+         assertFalse(getLog(), getLog().contains("running in-process"));
+         assertTrue("consume() not invoked", new File(output, "Generated.txt").isFile());
+         assertTrue("sources not compiled", new File(output, "org.jboss.test.isolated/Hello.class").isFile());
+         assertEquals("consume() invoked within the task class loader", "", CmdConsumeTracker.LAST_EVENT);
+      }
+      finally
+      {
+         delete(output.getParentFile());
+      }
+   }
+
+   public void testIsolatedNoCompile() throws Exception
+   {
+      File output = executeIsolated(true);
+      try
+      {
+         assertTrue("consume() not invoked", new File(output, "Generated.txt").isFile());
+         assertFalse("sources compiled despite nocompile", new File(output, "org.jboss.test.isolated/Hello.class").exists());
+      }
+      finally
+      {
+         delete(output.getParentFile());
+      }
+   }
+
+   /**
+    * Runs the isolatedInvocation target, the consumer writing a stand-in class file unless told not to compile.
+    *
+    * @return the output directory
+    */
+   private File executeIsolated(boolean nocompile) throws Exception
+   {
+      File dir = File.createTempFile("wsconsume", "");
+      dir.delete();
+      File output = new File(dir, "output");
+      project.setProperty("destdir", output.getAbsolutePath());
+      project.setProperty("nocompile", String.valueOf(nocompile));
+      Set<String> classPath = new LinkedHashSet<String>();
+      for (Class<?> type : new Class<?>[] {WSConsumeTask.class, CmdConsumeTracker.class, WSContractConsumer.class, Getopt.class})
+         classPath.add(new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+      project.setProperty("isolated.classpath", String.join(File.pathSeparator, classPath));
+      System.setProperty("org.jboss.test.ws.tools.generate", "true");
+      System.setProperty("org.jboss.test.ws.tools.compile", "true");
+      try
+      {
+         executeTarget("isolatedInvocation");
+      }
+      finally
+      {
+         System.clearProperty("org.jboss.test.ws.tools.generate");
+         System.clearProperty("org.jboss.test.ws.tools.compile");
+         project.fireBuildFinished(null);
+      }
+      return output;
+   }
+
+   public void testIsolatedFallback()
+   {
+      // the task is loaded by the JVM class path, there is no task classpath to isolate
+      executeTarget("isolatedFallback");
+      assertLogContaining("Isolated execution requires the task to be defined with its own classpath, running in-process");
+      assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+   }
+
+   private static void write(File file, String content) throws IOException
+   {
+      try (Writer w = new FileWriter(file))
+      {
+         w.write(content);
+      }
+   }
+
+   private static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+            delete(child);
+      }
+      file.delete();
+   }
+
 }
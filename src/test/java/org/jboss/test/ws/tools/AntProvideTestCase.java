@@ -18,6 +18,18 @@
  */
 package org.jboss.test.ws.tools;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
 /**
  * @author Heiko.Braun@jboss.com
  */
@@ -48,10 +60,119 @@ public class AntProvideTestCase extends BuildFileTest
       assertTrue("setGenerateWsdl() not invoked", CmdProvideTracker.LAST_EVENT.indexOf("setGenerateWsdl") != -1);
    }
 
+   public void testIncrementalInvocation() throws Exception
+   {
+      File dir = File.createTempFile("wsprovide", "");
+      dir.delete();
+      project.setProperty("destdir", dir.getAbsolutePath());
+      // kept below the output directory, which must not make the outputs look changed
+      project.setProperty("metadata.dir", new File(dir, ".jbossws").getAbsolutePath());
+
+      executeTarget("incrementalInvocation");
+      assertTrue("provide() not invoked", CmdProvideTracker.LAST_EVENT.indexOf("provide") != -1);
+
+      CmdProvideTracker.LAST_EVENT = "";
+      executeTarget("incrementalInvocation");
+      assertTrue("provide() invoked on unchanged endpoint", CmdProvideTracker.LAST_EVENT.indexOf("provide") == -1);
+   }
+
+   public void testEndpointsInvocation()
+   {
+      executeTarget("endpointsInvocation");
+      assertEquals("provide() not invoked for each endpoint", 2, CmdProvideTracker.LAST_EVENT.split("provide", -1).length - 1);
+   }
+
+   public void testJvmargInvocation()
+   {
+      // overridden by the nested jvmarg
+      System.setProperty("org.jboss.ws.api.tools.ProviderFactory", "org.jboss.test.ws.tools.MissingFactory");
+      executeTarget("jvmargInvocation");
+      assertTrue("provide() not invoked", CmdProvideTracker.LAST_EVENT.indexOf("provide") != -1);
+      assertEquals("system property not restored", "org.jboss.test.ws.tools.MissingFactory", System.getProperty("org.jboss.ws.api.tools.ProviderFactory"));
+   }
+
    public void testExtraClasspath()
    {
       executeTarget("extraClasspath");
 
    }
 
+   public void testCachedClasspath() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsprovide-loader").toFile();
+      try
+      {
+         File jar = new File(dir, "classes.jar");
+         try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar)))
+         {
+            out.putNextEntry(new ZipEntry("marker.txt"));
+            out.write("marker".getBytes(StandardCharsets.UTF_8));
+         }
+         File classes = new File(dir, "classes");
+         classes.mkdirs();
+         project.setProperty("classes.jar", jar.getAbsolutePath());
+         project.setProperty("classes.dir", classes.getAbsolutePath());
+
+         CmdProvideTracker.LAST_LOADER = null;
+         executeTarget("cachedClasspath");
+         ClassLoader first = CmdProvideTracker.LAST_LOADER;
+         assertNotNull("createProvider() not invoked", first);
+         assertNotNull("classpath not loaded from", ((URLClassLoader)first).findResource("marker.txt"));
+
+         executeTarget("cachedClasspath");
+         assertSame("loader not reused over the same classpath", first, CmdProvideTracker.LAST_LOADER);
+
+         Files.write(new File(classes, "Rebuilt.class").toPath(), new byte[] {0});
+         executeTarget("cachedClasspath");
+         ClassLoader second = CmdProvideTracker.LAST_LOADER;
+         assertNotSame("loader reused over a changed class directory", first, second);
+         assertNotNull(((URLClassLoader)second).findResource("marker.txt"));
+         boolean procFs = new File("/proc/self/fd").isDirectory();
+         if (procFs)
+            assertTrue("jar not opened", isOpen(jar));
+
+         project.fireBuildFinished(null);
+         assertNull("loader not closed once the build finished", ((URLClassLoader)first).findResource("marker.txt"));
+         assertNull("loader not closed once the build finished", ((URLClassLoader)second).findResource("marker.txt"));
+         if (procFs)
+            assertFalse("jar left open once the build finished", isOpen(jar));
+         executeTarget("cachedClasspath");
+         assertNotSame("closed loader reused", second, CmdProvideTracker.LAST_LOADER);
+         project.fireBuildFinished(null);
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   private static boolean isOpen(File file) throws IOException
+   {
+      Path path = file.toPath().toRealPath();
+      try (Stream<Path> fds = Files.list(Paths.get("/proc/self/fd")))
+      {
+         return fds.anyMatch(fd -> {
+            try
+            {
+               return Files.readSymbolicLink(fd).equals(path);
+            }
+            catch (IOException e)
+            {
+               return false;
+            }
+         });
+      }
+   }
+
+   private static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+            delete(child);
+      }
+      file.delete();
+   }
+
 }
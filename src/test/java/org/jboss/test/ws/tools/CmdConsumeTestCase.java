@@ -18,7 +18,39 @@
  */
 package org.jboss.test.ws.tools;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import org.jboss.ws.tools.cmd.WSConsume;
+import org.jboss.ws.tools.util.Timings;
+import org.jboss.ws.tools.util.ToolDiscovery;
 
 /**
  * Test the command line interface to WSConsume.
@@ -34,6 +66,7 @@ public class CmdConsumeTestCase extends CommandlineTestBase
 
       // cleanup events
       CmdConsumeTracker.LAST_EVENT = "";
+      CmdConsumeTracker.GENERATE = false;
       
       // enforce loading of the tracker implementation
       System.setProperty(
@@ -42,6 +75,13 @@ public class CmdConsumeTestCase extends CommandlineTestBase
         );
    }
 
+   protected void tearDown() throws Exception
+   {
+      // the tracker is shared with the test cases running next
+      CmdConsumeTracker.GENERATE = false;
+      super.tearDown();
+   }
+
    public void testInvalidBindingOption() throws Exception
    {
       executeCmd("-b", true);
@@ -58,6 +98,501 @@ public class CmdConsumeTestCase extends CommandlineTestBase
       executeCmd(null, true);
    }
 
+   public void testMultipleWsdls() throws Exception
+   {
+      executeCmd("-T 1 First.wsdl Second.wsdl", false);
+      assertEquals("consume() not invoked for each WSDL", 2, CmdConsumeTracker.LAST_EVENT.split("consume", -1).length - 1);
+   }
+
+   public void testBatchFile() throws Exception
+   {
+      File batch = File.createTempFile("wsconsume", ".batch");
+      try
+      {
+         try (Writer w = new FileWriter(batch))
+         {
+            w.write("# per-WSDL options\n");
+            w.write("-p org.jboss.first First.wsdl\n");
+            w.write("\n");
+            w.write("-w handEdited.wsdl Second.wsdl\n");
+         }
+         executeCmd("-T 1 -B " + batch.getAbsolutePath(), false);
+         assertTrue("setTargetPackage() not invoked", CmdConsumeTracker.LAST_EVENT.contains("setTargetPackage"));
+         assertTrue("setWsdlLocation() not invoked", CmdConsumeTracker.LAST_EVENT.contains("setWsdlLocation"));
+         assertEquals("consume() not invoked for each WSDL", 2, CmdConsumeTracker.LAST_EVENT.split("consume", -1).length - 1);
+      }
+      finally
+      {
+         batch.delete();
+      }
+   }
+
+   public void testInvalidBatchFile() throws Exception
+   {
+      executeCmd("-B missing-batch-file.txt", true);
+   }
+
+   public void testQuotedBatchFile() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-batch").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File wsdl = new File(dir, "my wsdls/Service.wsdl");
+         wsdl.getParentFile().mkdirs();
+         try (Writer w = new FileWriter(wsdl))
+         {
+            w.write("<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+         }
+         File output = new File(dir, "my output");
+         File batch = new File(dir, "wsdls.batch");
+         try (Writer w = new FileWriter(batch))
+         {
+            w.write("-p first -o \"" + output.getAbsolutePath() + "\"\t'" + wsdl.getAbsolutePath() + "'\n");
+         }
+         executeCmd("-B " + batch.getAbsolutePath(), false);
+         assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+         assertTrue("quoted output directory not used", new File(output, "first.txt").isFile());
+
+         try (Writer w = new FileWriter(batch))
+         {
+            w.write("-p first \"" + wsdl.getAbsolutePath() + "\n");
+         }
+         executeCmd("-B " + batch.getAbsolutePath(), true);
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testTimingsFile() throws Exception
+   {
+      File timings = File.createTempFile("wsconsume-timings", ".json");
+      try
+      {
+         executeCmd("-T 1 --timings-file " + timings.getAbsolutePath() + " First.wsdl Second.wsdl", false);
+         String json = new String(Files.readAllBytes(timings.toPath()), "UTF-8");
+         assertTrue("tool not recorded", json.contains("\"tool\": \"wsconsume\""));
+         assertEquals("generation not recorded for each WSDL", 2, json.split("\"generation\"", -1).length - 1);
+         assertEquals("discovery not recorded for each WSDL", 2, json.split("\"discovery\"", -1).length - 1);
+         assertTrue("timings file not readable", Timings.read(timings) != null);
+      }
+      finally
+      {
+         timings.delete();
+      }
+   }
+
+   public void testWriteIfChanged() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-write").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File output = new File(dir, "output");
+         File metadata = new File(dir, "metadata");
+         String args = "--write-if-changed --metadata-dir " + metadata.getAbsolutePath() + " -o " + output.getAbsolutePath() + " First.wsdl";
+         executeCmd("-p first " + args, false);
+         File unchanged = new File(output, "Generated.txt");
+         assertTrue("first.txt not written", new File(output, "first.txt").isFile());
+         assertTrue("Generated.txt not written", unchanged.isFile());
+         unchanged.setLastModified(1000000000L);
+
+         executeCmd("-p second " + args, false);
+         assertEquals("unchanged file rewritten", 1000000000L, unchanged.lastModified());
+         assertTrue("second.txt not written", new File(output, "second.txt").isFile());
+         assertFalse("stale file not pruned", new File(output, "first.txt").exists());
+         String[] names = output.list();
+         Arrays.sort(names);
+         assertEquals("bookkeeping written to the output directory", Arrays.asList("Generated.txt", "second.txt"), Arrays.asList(names));
+         assertEquals("manifest not written", 1, metadata.list().length);
+         assertEquals("staging directory left behind", 2, dir.list().length);
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testStagingDir() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-staging").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File staging = new File(dir, "staging");
+         File output = new File(dir, "output");
+         executeCmd("--staging-dir " + staging.getAbsolutePath() + " -p first -o " + output.getAbsolutePath() + " First.wsdl", false);
+         assertTrue("Generated.txt not flushed", new File(output, "Generated.txt").isFile());
+         assertTrue("first.txt not flushed", new File(output, "first.txt").isFile());
+         assertEquals("staging directory not cleaned up", 0, staging.list().length);
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testFlightRecorderEvents() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-jfr").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File output = new File(dir, "output");
+         String args = "--write-if-changed --metadata-dir " + new File(dir, "metadata").getAbsolutePath() + " -o " + output.getAbsolutePath() + " First.wsdl";
+
+         List<RecordedEvent> events = recordConsumeEvents(dir, "-p first " + args);
+         assertEquals("one event per run expected", 1, events.size());
+         RecordedEvent event = events.get(0);
+         assertTrue(event.getString("wsdl").endsWith("First.wsdl"));
+         assertTrue(event.getBoolean("success"));
+         assertFalse(event.getBoolean("cacheHit"));
+         assertTrue(event.getString("options").contains("package=first"));
+         // Generated.txt and first.txt
+         assertEquals(2, event.getInt("artifacts"));
+         assertEquals("generated".length() + "first".length(), event.getLong("bytesWritten"));
+
+         // files left unchanged, or generated for other WSDLs in the same directory, are not counted
+         events = recordConsumeEvents(dir, "-p second " + args);
+         assertEquals("one event per run expected", 1, events.size());
+         assertEquals(1, events.get(0).getInt("artifacts"));
+         assertEquals("second".length(), events.get(0).getLong("bytesWritten"));
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   private List<RecordedEvent> recordConsumeEvents(File dir, String args) throws Exception
+   {
+      File dump = File.createTempFile("wsconsume", ".jfr", dir);
+      try (Recording recording = new Recording())
+      {
+         recording.enable("jbossws.tools.Consume");
+         recording.start();
+         executeCmd(args, false);
+         recording.stop();
+         recording.dump(dump.toPath());
+      }
+      List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath()))
+      {
+         if ("jbossws.tools.Consume".equals(event.getEventType().getName()))
+            events.add(event);
+      }
+      return events;
+   }
+
+   public void testClientJar() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-client").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File wsdl = new File(dir, "Echo.wsdl");
+         Files.write(wsdl.toPath(), ("<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'><types>"
+               + "<schema xmlns='http://www.w3.org/2001/XMLSchema'><import schemaLocation='types/echo.xsd'/></schema>"
+               + "</types></definitions>").getBytes(StandardCharsets.UTF_8));
+         new File(dir, "types").mkdir();
+         Files.write(new File(dir, "types/echo.xsd").toPath(), "<schema xmlns='http://www.w3.org/2001/XMLSchema'/>".getBytes(StandardCharsets.UTF_8));
+         File output = new File(dir, "output");
+         String args = "-o " + output.getAbsolutePath() + " -j client.jar -p echo " + wsdl.getAbsolutePath();
+
+         executeCmd(args, false);
+         File jar = new File(output, "client.jar");
+         byte[] first = Files.readAllBytes(jar.toPath());
+         try (JarFile jarFile = new JarFile(jar))
+         {
+            assertNotNull("manifest missing", jarFile.getManifest());
+            assertNotNull("Generated.txt not packaged", jarFile.getEntry("Generated.txt"));
+            assertNotNull("wsdl not packaged", jarFile.getEntry("META-INF/wsdl/Echo.wsdl"));
+            assertNotNull("imported schema not packaged", jarFile.getEntry("META-INF/wsdl/types/echo.xsd"));
+         }
+
+         executeCmd(args, false);
+         assertTrue("client jar not reproducible", Arrays.equals(first, Files.readAllBytes(jar.toPath())));
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testClientJarWithoutWsdl() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-client").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File wsdl = new File(dir, "Echo.wsdl");
+         String content = "<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>";
+         Files.write(wsdl.toPath(), content.getBytes(StandardCharsets.UTF_8));
+         File output = new File(dir, "output");
+         executeCmd("-o " + output.getAbsolutePath() + " -j client.jar -p echo " + wsdl.getAbsolutePath(), false);
+         assertTrue("setClientJar() not invoked", CmdConsumeTracker.LAST_EVENT.contains("setClientJar"));
+         assertTrue(wsdl.delete());
+
+         // like a generated service, load the WSDL from its wsdlLocation within the jar only
+         try (URLClassLoader loader = new URLClassLoader(new URL[] {new File(output, "client.jar").toURI().toURL()}, null))
+         {
+            String location;
+            try (InputStream is = loader.getResourceAsStream("echo/wsdl-location.txt"))
+            {
+               assertNotNull("wsdlLocation not packaged", is);
+               location = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue("wsdlLocation does not point into the jar: " + location, location.startsWith("/META-INF/wsdl/"));
+            try (InputStream is = loader.getResourceAsStream(location.substring(1)))
+            {
+               assertNotNull("wsdl not found at " + location, is);
+               assertEquals(content, new String(is.readAllBytes(), StandardCharsets.UTF_8));
+            }
+         }
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testSharedCompilation() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-compile").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File output = new File(dir, "output");
+         executeCmd("-T 2 -o " + output.getAbsolutePath() + " -p shared First.wsdl Second.wsdl", false);
+         assertTrue("sources not compiled", new File(output, "shared/Hello.class").isFile());
+         assertFalse("sources not removed", new File(output, "shared/Hello.java").exists());
+         assertEquals("staging left behind", Arrays.asList("output"), Arrays.asList(dir.list()));
+
+         // the kept sources are installed next to the classes compiled into the output directory
+         executeCmd("-T 2 -k -o " + output.getAbsolutePath() + " -p kept First.wsdl Second.wsdl", false);
+         assertTrue("sources not compiled", new File(output, "kept/Hello.class").isFile());
+         assertTrue("sources not kept", new File(output, "kept/Hello.java").isFile());
+         assertEquals("staging left behind", Arrays.asList("output"), Arrays.asList(dir.list()));
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testSharedCompilationFailure() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-compile").toFile();
+      PrintStream prevErr = System.err;
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File output = new File(dir, "output");
+         File batch = new File(dir, "wsdls.batch");
+         try (Writer w = new FileWriter(batch))
+         {
+            w.write("-p first First.wsdl\n");
+            w.write("-p second.broken Second.wsdl\n");
+            w.write("-p third Third.wsdl\n");
+         }
+         System.setErr(new PrintStream(err, true));
+         executeCmd("-T 1 -o " + output.getAbsolutePath() + " -B " + batch.getAbsolutePath(), true);
+
+         // the other units are compiled, even when they shared a javac invocation with the broken one
+         assertTrue("first sources not compiled", new File(output, "first/Hello.class").isFile());
+         assertTrue("third sources not compiled", new File(output, "third/Hello.class").isFile());
+         assertFalse("broken sources installed", new File(output, "second.broken").exists());
+         String log = err.toString();
+         assertTrue(log, log.contains("Could not import " + new File("Second.wsdl").toURI().toURL()));
+         assertTrue(log, log.contains("second.broken" + File.separator + "Hello.java:1"));
+         assertFalse(log, log.contains("Could not import " + new File("First.wsdl").toURI().toURL()));
+         assertFalse(log, log.contains("Could not import " + new File("Third.wsdl").toURI().toURL()));
+         assertTrue(log, log.contains("1 of 3 WSDLs could not be imported"));
+      }
+      finally
+      {
+         System.setErr(prevErr);
+         delete(dir);
+      }
+   }
+
+   public void testDiscoveryFromServicesResource() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-discovery").toFile();
+      String factory = System.clearProperty("org.jboss.ws.api.tools.ConsumerFactory");
+      try
+      {
+         File services = new File(dir, "META-INF/services/org.jboss.ws.api.tools.ConsumerFactory");
+         services.getParentFile().mkdirs();
+         Files.write(services.toPath(), ("# test\n" + CmdConsumeTrackerFactory.class.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+         try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader()))
+         {
+            assertTrue("consumer not discovered", ToolDiscovery.newConsumer(loader) instanceof CmdConsumeTracker);
+            // resolved once per class loader
+            services.delete();
+            assertTrue("discovery not cached", ToolDiscovery.newConsumer(loader) instanceof CmdConsumeTracker);
+         }
+      }
+      finally
+      {
+         System.setProperty("org.jboss.ws.api.tools.ConsumerFactory", factory);
+         delete(dir);
+      }
+   }
+
+   public void testOutputJar() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-jar").toFile();
+      try
+      {
+         CmdConsumeTracker.GENERATE = true;
+         File jar = new File(dir, "generated.jar");
+         String args = "-T 1 --write-if-changed --output-jar " + jar.getAbsolutePath() + " -p first First.wsdl Second.wsdl";
+         executeCmd(args, false);
+         try (JarFile jarFile = new JarFile(jar))
+         {
+            assertNotNull("Generated.txt not packaged", jarFile.getEntry("Generated.txt"));
+            assertNotNull("first.txt not packaged", jarFile.getEntry("first.txt"));
+         }
+         jar.setLastModified(1000000000L);
+
+         executeCmd(args, false);
+         assertEquals("identical jar rewritten", 1000000000L, jar.lastModified());
+         assertEquals("staging files left behind", 1, dir.list().length);
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testArtifactCache() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsconsume-cache").toFile();
+      try
+      {
+         File wsdl = new File(dir, "Service.wsdl");
+         try (Writer w = new FileWriter(wsdl))
+         {
+            w.write("<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+         }
+         String args = "-C " + new File(dir, "cache").getAbsolutePath() + " -o " + new File(dir, "output").getAbsolutePath() + " " + wsdl.getAbsolutePath();
+         executeCmd(args, false);
+         assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeCmd(args, false);
+         assertFalse("consume() invoked on cache hit", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeCmd("-p org.jboss.other " + args, false);
+         assertTrue("consume() not invoked for different options", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   public void testRemoteArtifactCache() throws Exception
+   {
+      final Map<String, byte[]> store = new ConcurrentHashMap<String, byte[]>();
+      HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext("/cache/", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            String key = exchange.getRequestURI().getPath();
+            try (InputStream is = exchange.getRequestBody())
+            {
+               if ("PUT".equals(exchange.getRequestMethod()))
+               {
+                  store.put(key, is.readAllBytes());
+                  exchange.sendResponseHeaders(201, -1);
+               }
+               else if (store.containsKey(key))
+               {
+                  byte[] bytes = store.get(key);
+                  exchange.sendResponseHeaders(200, bytes.length);
+                  try (OutputStream os = exchange.getResponseBody())
+                  {
+                     os.write(bytes);
+                  }
+               }
+               else
+               {
+                  exchange.sendResponseHeaders(404, -1);
+               }
+            }
+            exchange.close();
+         }
+      });
+      server.start();
+      File dir = Files.createTempDirectory("wsconsume-remote").toFile();
+      try
+      {
+         File wsdl = new File(dir, "Service.wsdl");
+         try (Writer w = new FileWriter(wsdl))
+         {
+            w.write("<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+         }
+         String remote = "http://localhost:" + server.getAddress().getPort() + "/cache/";
+         String args = " -R " + remote + " -o " + new File(dir, "output").getAbsolutePath() + " " + wsdl.getAbsolutePath();
+         executeCmd("-C " + new File(dir, "first").getAbsolutePath() + args, false);
+         assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+         assertEquals("entry not published", 1, store.size());
+
+         // another machine, with an empty local cache
+         CmdConsumeTracker.LAST_EVENT = "";
+         executeCmd("-C " + new File(dir, "second").getAbsolutePath() + args, false);
+         assertFalse("consume() invoked on remote cache hit", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+      }
+      finally
+      {
+         server.stop(0);
+         delete(dir);
+      }
+   }
+
+   public void testRemoteArtifactCacheOutage() throws Exception
+   {
+      int port;
+      try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+      {
+         port = socket.getLocalPort();
+      }
+      File dir = Files.createTempDirectory("wsconsume-outage").toFile();
+      try
+      {
+         File wsdl = new File(dir, "Service.wsdl");
+         try (Writer w = new FileWriter(wsdl))
+         {
+            w.write("<definitions xmlns='http://schemas.xmlsoap.org/wsdl/'/>");
+         }
+         executeCmd("-C " + new File(dir, "cache").getAbsolutePath() + " -R http://localhost:" + port + "/cache/ -o "
+               + new File(dir, "output").getAbsolutePath() + " " + wsdl.getAbsolutePath(), false);
+         assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+      }
+      finally
+      {
+         delete(dir);
+      }
+   }
+
+   private static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+            delete(child);
+      }
+      file.delete();
+   }
+
    // TODO: add arbitrary combinations on a case by case basis
 
 
@@ -21,8 +21,15 @@ package org.jboss.test.ws.tools;
 import org.jboss.ws.api.tools.WSContractConsumer;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.net.URISyntaxException;
 import java.net.URL;
 
 /**
@@ -31,6 +38,29 @@ import java.net.URL;
 public class CmdConsumeTracker extends WSContractConsumer
 {
    public static String LAST_EVENT = "";
+   /**
+    * When set, consume() writes a fixed file and a file named after the target package to the output directory,
+    * plus a Java source when compilation is left to the caller; defaults to the
+    * <code>org.jboss.test.ws.tools.generate</code> system property, for the trackers loaded by another class loader
+    */
+   public static boolean GENERATE = Boolean.getBoolean("org.jboss.test.ws.tools.generate");
+   /**
+    * When set together with {@link #GENERATE}, consume() also writes a stand-in for the compiled class, unless
+    * told not to compile; defaults to the <code>org.jboss.test.ws.tools.compile</code> system property
+    */
+   public static boolean COMPILE = Boolean.getBoolean("org.jboss.test.ws.tools.compile");
+   /**
+    * The value of the <code>org.jboss.test.ws.tools.property</code> system property seen by the last consume() call
+    */
+   public static String LAST_PROPERTY;
+
+   private File outputDirectory;
+   private File sourceDirectory;
+   private String targetPackage;
+   private boolean generateSource;
+   private boolean noCompile;
+   private String wsdlLocation;
+   private File clientJar;
 
    @Override
    public void setBindingFiles(List<File> bindingFiles)
@@ -48,30 +78,35 @@ public class CmdConsumeTracker extends WSContractConsumer
    public void setOutputDirectory(File directory)
    {
       LAST_EVENT += "setOutputDirectory";
+      outputDirectory = directory;
    }
 
    @Override
    public void setSourceDirectory(File directory)
    {
       LAST_EVENT += "setSourceDirectory";
+      this.sourceDirectory = directory;
    }
 
    @Override
    public void setGenerateSource(boolean generateSource)
    {
       LAST_EVENT += "setGenerateSource";
+      this.generateSource = generateSource;
    }
 
    @Override
    public void setTargetPackage(String targetPackage)
    {
       LAST_EVENT += "setTargetPackage";
+      this.targetPackage = targetPackage;
    }
 
    @Override
    public void setWsdlLocation(String wsdlLocation)
    {
       LAST_EVENT += "setWsdlLocation";
+      this.wsdlLocation = wsdlLocation;
    }
    
    @Override
@@ -108,6 +143,37 @@ public class CmdConsumeTracker extends WSContractConsumer
    public void consume(URL wsdl)
    {
       LAST_EVENT += "consume";
+      LAST_PROPERTY = System.getProperty("org.jboss.test.ws.tools.property");
+      if (GENERATE)
+      {
+         try
+         {
+            outputDirectory.mkdirs();
+            Files.write(new File(outputDirectory, "Generated.txt").toPath(), "generated".getBytes(StandardCharsets.UTF_8));
+            Files.write(new File(outputDirectory, targetPackage + ".txt").toPath(), targetPackage.getBytes(StandardCharsets.UTF_8));
+            if (COMPILE && !noCompile)
+            {
+               File dir = new File(outputDirectory, targetPackage);
+               dir.mkdirs();
+               Files.write(new File(dir, "Hello.class").toPath(), new byte[] {(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE});
+            }
+            else if (generateSource)
+            {
+               File dir = new File(sourceDirectory != null ? sourceDirectory : outputDirectory, targetPackage);
+               dir.mkdirs();
+               // compiles against the tools classpath only, unless the package asks for a compilation failure
+               String member = targetPackage.endsWith("broken") ? "Missing missing;" : WSContractConsumer.class.getName() + " consumer;";
+               String source = "package " + targetPackage + "; public class Hello { " + member + " }";
+               Files.write(new File(dir, "Hello.java").toPath(), source.getBytes(StandardCharsets.UTF_8));
+            }
+            if (clientJar != null)
+               writeClientJar(wsdl);
+         }
+         catch (IOException | URISyntaxException e)
+         {
+            throw new IllegalStateException(e);
+         }
+      }
    }
 
    @Override
@@ -120,13 +186,62 @@ public class CmdConsumeTracker extends WSContractConsumer
    public void setNoCompile(boolean nocompile)
    {
       LAST_EVENT += "setNoCompile";
+      this.noCompile = nocompile;
    }
 
    @Override
    public void setClientJar(File clientJar)
    {
-
       LAST_EVENT += "setClientJar";
-      
+      this.clientJar = clientJar;
+   }
+
+   /**
+    * Packages the output directory and the WSDL documents like a provider does: the documents are copied below
+    * META-INF/wsdl, and the wsdlLocation a generated service would load them from is recorded in the target package.
+    */
+   private void writeClientJar(URL wsdl) throws IOException, URISyntaxException
+   {
+      File wsdlFile = new File(wsdl.toURI());
+      String location = wsdlLocation != null ? wsdlLocation : "/META-INF/wsdl/" + wsdlFile.getName();
+      try (JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(outputDirectory, clientJar.getName()))))
+      {
+         addTree(out, outputDirectory, "");
+         addDocuments(out, wsdlFile.getParentFile(), "META-INF/wsdl/");
+         out.putNextEntry(new ZipEntry(targetPackage + "/wsdl-location.txt"));
+         out.write(location.getBytes(StandardCharsets.UTF_8));
+      }
+   }
+
+   private void addTree(JarOutputStream out, File dir, String path) throws IOException
+   {
+      for (File child : dir.listFiles())
+      {
+         if (child.isDirectory())
+         {
+            addTree(out, child, path + child.getName() + "/");
+         }
+         else if (!child.getName().equals(clientJar.getName()))
+         {
+            out.putNextEntry(new ZipEntry(path + child.getName()));
+            out.write(Files.readAllBytes(child.toPath()));
+         }
+      }
+   }
+
+   private static void addDocuments(JarOutputStream out, File dir, String path) throws IOException
+   {
+      for (File child : dir.listFiles())
+      {
+         if (child.isDirectory())
+         {
+            addDocuments(out, child, path + child.getName() + "/");
+         }
+         else if (child.getName().endsWith(".wsdl") || child.getName().endsWith(".xsd"))
+         {
+            out.putNextEntry(new ZipEntry(path + child.getName()));
+            out.write(Files.readAllBytes(child.toPath()));
+         }
+      }
    }
 }
@@ -18,6 +18,14 @@
  */
 package org.jboss.test.ws.tools;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.ToolProvider;
+
 import org.jboss.ws.tools.cmd.WSProvide;
 
 /**
@@ -67,6 +75,47 @@ public class CmdProvideTestCase extends CommandlineTestBase
       assertTrue("setOutputDirectory() not invoked", CmdProvideTracker.LAST_EVENT.contains("setOutputDirectory"));
    }
 
+   public void testDiscovery() throws Exception
+   {
+      File dir = Files.createTempDirectory("wsprovide-discovery").toFile();
+      File src = new File(dir, "src");
+      File classes = new File(dir, "classes");
+      classes.mkdirs();
+      File annotation = write(new File(src, "jakarta/jws/WebService.java"),
+            "package jakarta.jws; @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME) public @interface WebService {}");
+      File sei = write(new File(src, "org/example/Echo.java"), "package org.example; @jakarta.jws.WebService public interface Echo {}");
+      File impl = write(new File(src, "org/example/EchoBean.java"), "package org.example; @Deprecated @jakarta.jws.WebService public class EchoBean implements Echo {}");
+      assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.getPath(),
+            annotation.getPath(), sei.getPath(), impl.getPath()));
+      File jar = new File(dir, "endpoints.jar");
+      try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar)))
+      {
+         for (String name : new String[] {"jakarta/jws/WebService.class", "org/example/Echo.class", "org/example/EchoBean.class"})
+         {
+            jos.putNextEntry(new ZipEntry(name));
+            jos.write(Files.readAllBytes(new File(classes, name).toPath()));
+            jos.closeEntry();
+         }
+      }
+
+      String args = "-d -i " + new File(dir, "index.properties").getAbsolutePath() + " -c " + jar.getAbsolutePath();
+      executeCmd(args, false);
+      assertEquals("provide() not invoked for the endpoint implementation only", 1, CmdProvideTracker.LAST_EVENT.split("provide", -1).length - 1);
+
+      // from the index
+      CmdProvideTracker.LAST_EVENT = "";
+      executeCmd(args, false);
+      assertEquals("provide() not invoked for the indexed endpoint", 1, CmdProvideTracker.LAST_EVENT.split("provide", -1).length - 1);
+      assertTrue("index not written", new File(dir, "index.properties").isFile());
+   }
+
+   private static File write(File file, String content) throws Exception
+   {
+      file.getParentFile().mkdirs();
+      Files.write(file.toPath(), content.getBytes("UTF-8"));
+      return file;
+   }
+
    void runDelegate(String[] args) throws Exception
    {
       // Inject TestExitHandlerFactory singleton into WSProvide
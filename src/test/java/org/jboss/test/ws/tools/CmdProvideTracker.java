@@ -30,6 +30,7 @@ public class CmdProvideTracker extends WSContractProvider
 {
 
    public static String LAST_EVENT = "";
+   public static ClassLoader LAST_LOADER;
 
    public void setGenerateWsdl(boolean generateWsdl)
    {
@@ -29,6 +29,7 @@ public class CmdProvideTrackerFactory implements WSContractProviderFactory
 
    public WSContractProvider createProvider(ClassLoader loader)
    {
+      CmdProvideTracker.LAST_LOADER = loader;
       return new CmdProvideTracker();  
    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.test.ws.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.jboss.ws.tools.scan.IndexedClassLoader;
+
+/**
+ * Test the IndexedClassLoader lookups against the ones of a plain URLClassLoader.
+ */
+public class IndexedClassLoaderTestCase extends TestCase
+{
+   private static final String CLASS = "org/jboss/test/ws/tools/CalculatorBean.class";
+
+   private File dir;
+
+   protected void setUp() throws Exception
+   {
+      dir = Files.createTempDirectory("indexed-loader").toFile();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      delete(dir);
+   }
+
+   public void testSplitPackage() throws Exception
+   {
+      byte[] bytes = readClass();
+      File first = jar("first.jar", null, CLASS, bytes, "org/jboss/test/ws/tools/Shared.txt", "first");
+      File classes = new File(dir, "classes");
+      write(new File(classes, "org/jboss/test/ws/tools/Shared.txt"), "classes");
+      write(new File(classes, "org/jboss/test/ws/tools/Classes.txt"), "classes");
+      File second = jar("second.jar", null, CLASS, bytes, "org/jboss/test/ws/tools/Shared.txt", "second",
+            "org/jboss/test/ws/tools/Second.txt", "second");
+
+      try (IndexedClassLoader loader = create(null, first, classes, second))
+      {
+         // a class of the split package comes from the first jar holding it
+         Class<?> clazz = loader.loadClass("org.jboss.test.ws.tools.CalculatorBean");
+         assertSame(loader, clazz.getClassLoader());
+         assertEquals(first.toURI().toURL(), clazz.getProtectionDomain().getCodeSource().getLocation());
+         assertEquals("first", read(loader.findResource("org/jboss/test/ws/tools/Shared.txt")));
+         // the other entries of the package are still found
+         assertEquals("classes", read(loader.findResource("org/jboss/test/ws/tools/Classes.txt")));
+         assertEquals("second", read(loader.findResource("org/jboss/test/ws/tools/Second.txt")));
+         assertNull(loader.findResource("org/jboss/test/ws/tools/Missing.txt"));
+      }
+
+      // the class directory is probed in classpath order, before the jars after it
+      try (IndexedClassLoader loader = create(null, classes, second, first))
+      {
+         Class<?> clazz = loader.loadClass("org.jboss.test.ws.tools.CalculatorBean");
+         assertEquals(second.toURI().toURL(), clazz.getProtectionDomain().getCodeSource().getLocation());
+         assertEquals("classes", read(loader.findResource("org/jboss/test/ws/tools/Shared.txt")));
+      }
+   }
+
+   public void testFindResources() throws Exception
+   {
+      String name = "META-INF/services/org.jboss.test.Service";
+      File first = jar("first.jar", null, name, "first");
+      File other = jar("other.jar", null, "META-INF/MANIFEST.txt", "other");
+      File classes = new File(dir, "classes");
+      write(new File(classes, name), "classes");
+      File second = jar("second.jar", null, name, "second");
+
+      try (IndexedClassLoader loader = create(null, first, other, classes, second))
+      {
+         List<URL> urls = Collections.list(loader.findResources(name));
+         assertEquals(urls.toString(), 3, urls.size());
+         assertEquals("first", read(urls.get(0)));
+         assertEquals("classes", read(urls.get(1)));
+         assertEquals("second", read(urls.get(2)));
+         assertFalse(loader.findResources("META-INF/services/org.jboss.test.Missing").hasMoreElements());
+      }
+   }
+
+   public void testClassPathManifest() throws Exception
+   {
+      File lib = jar("lib.jar", null, "org/jboss/test/lib/Lib.txt", "lib");
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, lib.getName());
+      File main = jar("main.jar", manifest, "org/jboss/test/main/Main.txt", "main");
+
+      // lib.jar is only reachable through the manifest of main.jar, which the index does not follow
+      try (IndexedClassLoader loader = create(null, main))
+      {
+         assertEquals("main", read(loader.findResource("org/jboss/test/main/Main.txt")));
+         assertEquals("lib", read(loader.findResource("org/jboss/test/lib/Lib.txt")));
+         List<URL> urls = Collections.list(loader.findResources("org/jboss/test/lib/Lib.txt"));
+         assertEquals(urls.toString(), 1, urls.size());
+      }
+   }
+
+   public void testMultiRelease() throws Exception
+   {
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+      File jar = jar("multi.jar", manifest,
+            "org/jboss/test/mr/Versioned.txt", "base",
+            "META-INF/versions/9/org/jboss/test/mr/Versioned.txt", "9",
+            "META-INF/versions/9/org/jboss/test/versioned/Only.txt", "only");
+
+      try (IndexedClassLoader loader = create(null, jar))
+      {
+         assertEquals("9", read(loader.findResource("org/jboss/test/mr/Versioned.txt")));
+         // a package with versioned entries only is indexed as well
+         assertEquals("only", read(loader.findResource("org/jboss/test/versioned/Only.txt")));
+      }
+   }
+
+   public void testStaleIndex() throws Exception
+   {
+      File index = new File(dir, "classpath-index.properties");
+      File jar = jar("changing.jar", null, "org/jboss/test/before/Before.txt", "before");
+      try (IndexedClassLoader loader = create(index, jar))
+      {
+         assertNotNull(loader.findResource("org/jboss/test/before/Before.txt"));
+      }
+      assertEquals(1, loadIndex(index).size());
+
+      jar("changing.jar", null, "org/jboss/test/after/After.txt", "after");
+      jar.setLastModified(jar.lastModified() + 10000);
+      try (IndexedClassLoader loader = create(index, jar))
+      {
+         assertNull("stale index entry used", loader.findResource("org/jboss/test/before/Before.txt"));
+         assertEquals("after", read(loader.findResource("org/jboss/test/after/After.txt")));
+      }
+      Properties props = loadIndex(index);
+      assertEquals("stale index entry kept", 1, props.size());
+      assertTrue(props.toString(), props.values().contains("org/jboss/test/after"));
+   }
+
+   private IndexedClassLoader create(File index, File... classpath) throws IOException
+   {
+      // keep the test classes of the JVM class path out of the lookups
+      return IndexedClassLoader.create(Arrays.asList(classpath), ClassLoader.getPlatformClassLoader(), index, 2);
+   }
+
+   private File jar(String name, Manifest manifest, Object... entries) throws IOException
+   {
+      File jar = new File(dir, name);
+      try (JarOutputStream out = manifest != null ? new JarOutputStream(new FileOutputStream(jar), manifest)
+            : new JarOutputStream(new FileOutputStream(jar)))
+      {
+         for (int i = 0; i < entries.length; i += 2)
+         {
+            out.putNextEntry(new ZipEntry((String)entries[i]));
+            Object content = entries[i + 1];
+            out.write(content instanceof byte[] ? (byte[])content : ((String)content).getBytes(StandardCharsets.UTF_8));
+         }
+      }
+      return jar;
+   }
+
+   private static byte[] readClass() throws IOException
+   {
+      try (InputStream is = IndexedClassLoaderTestCase.class.getClassLoader().getResourceAsStream(CLASS))
+      {
+         return is.readAllBytes();
+      }
+   }
+
+   private static String read(URL url) throws IOException
+   {
+      assertNotNull("resource not found", url);
+      try (InputStream is = url.openStream())
+      {
+         return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+      }
+   }
+
+   private static Properties loadIndex(File index) throws IOException
+   {
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(index))
+      {
+         props.load(is);
+      }
+      return props;
+   }
+
+   private static void write(File file, String content) throws IOException
+   {
+      file.getParentFile().mkdirs();
+      Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private static void delete(File file)
+   {
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+            delete(child);
+      }
+      file.delete();
+   }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.test.ws.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.jboss.ws.tools.cmd.ToolUnavailableException;
+import org.jboss.ws.tools.cmd.WSToolsClient;
+import org.jboss.ws.tools.cmd.WSToolsDaemon;
+
+/**
+ * Test the WSToolsDaemon and its client.
+ */
+public class WSToolsDaemonTestCase extends TestCase
+{
+   private File daemonFile;
+   private WSToolsDaemon daemon;
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+
+      // cleanup events
+      CmdConsumeTracker.LAST_EVENT = "";
+      CmdProvideTracker.LAST_EVENT = "";
+
+      // enforce loading of the tracker implementations
+      System.setProperty("org.jboss.ws.api.tools.ConsumerFactory", "org.jboss.test.ws.tools.CmdConsumeTrackerFactory");
+      System.setProperty("org.jboss.ws.api.tools.ProviderFactory", "org.jboss.test.ws.tools.CmdProvideTrackerFactory");
+
+      daemonFile = File.createTempFile("wstools", ".daemon");
+      daemon = new WSToolsDaemon(0, daemonFile, 2);
+      Thread t = new Thread(() -> {
+         try
+         {
+            daemon.run();
+         }
+         catch (IOException e)
+         {
+            throw new UncheckedIOException(e);
+         }
+      });
+      t.setDaemon(true);
+      t.start();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      daemon.stop();
+      super.tearDown();
+   }
+
+   public void testConsume() throws Exception
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      int status = new WSToolsClient(daemonFile).consume(new File("."), new String[] {"-p", "org.foo", "Service.wsdl"}, out, err);
+      assertEquals(err.toString(), 0, status);
+      assertTrue("consume() not invoked", CmdConsumeTracker.LAST_EVENT.contains("consume"));
+      assertTrue("setTargetPackage() not invoked", CmdConsumeTracker.LAST_EVENT.contains("setTargetPackage"));
+   }
+
+   public void testSystemProperties() throws Exception
+   {
+      String name = "org.jboss.test.ws.tools.property";
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      Map<String, String> properties = Collections.singletonMap(name, "daemon");
+      int status = new WSToolsClient(daemonFile).consume(new File("."), properties, new String[] {"Service.wsdl"}, out, err);
+      assertEquals(err.toString(), 0, status);
+      assertEquals("daemon", CmdConsumeTracker.LAST_PROPERTY);
+      assertNull("system property not restored", System.getProperty(name));
+
+      status = new WSToolsClient(daemonFile).consume(new File("."), new String[] {"Service.wsdl"}, out, err);
+      assertEquals(err.toString(), 0, status);
+      assertNull(CmdConsumeTracker.LAST_PROPERTY);
+   }
+
+   public void testCompileClassPath() throws Exception
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      String[] args = {"--compile-classpath", "lib.jar", "-p", "org.foo", "Service.wsdl"};
+      int status = new WSToolsClient(daemonFile).consume(new File("."), args, out, err);
+      assertEquals(err.toString(), 0, status);
+      assertTrue("setAdditionalCompilerClassPath() not invoked", CmdConsumeTracker.LAST_EVENT.contains("setAdditionalCompilerClassPath"));
+   }
+
+   public void testUnavailable() throws Exception
+   {
+      int port;
+      try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+      {
+         port = socket.getLocalPort();
+      }
+      File closedFile = File.createTempFile("wstools", ".daemon");
+      try (Writer w = new FileWriter(closedFile))
+      {
+         w.write("port=" + port + "\ntoken=none\n");
+      }
+      WSToolsClient client = new WSToolsClient(closedFile);
+      closedFile.delete();
+      try
+      {
+         client.consume(new File("."), new String[] {"Service.wsdl"}, new ByteArrayOutputStream(), new ByteArrayOutputStream());
+         fail("request submitted to a stopped daemon");
+      }
+      catch (ToolUnavailableException e)
+      {
+         // expected, the tool may be run some other way
+      }
+      try
+      {
+         new WSToolsClient(closedFile);
+         fail("missing daemon file read");
+      }
+      catch (ToolUnavailableException e)
+      {
+         // expected
+      }
+   }
+
+   public void testProvide() throws Exception
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      int status = new WSToolsClient(daemonFile).provide(new File("."), new String[] {"org.jboss.test.ws.tools.CalculatorBean"}, out, err);
+      assertEquals(err.toString(), 0, status);
+      assertTrue("provide() not invoked", CmdProvideTracker.LAST_EVENT.contains("provide"));
+   }
+
+   public void testErrorStatus() throws Exception
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      int status = new WSToolsClient(daemonFile).consume(new File("."), new String[0], out, err);
+      assertEquals(1, status);
+      assertTrue(err.toString().contains("WSDL URL was not specified"));
+   }
+
+   public void testInvalidToken() throws Exception
+   {
+      try (Socket socket = connect())
+      {
+         DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+         writeHeader(out);
+         writeString(out, "bogus");
+         // not allocated, as the token is checked first
+         out.writeInt(Integer.MAX_VALUE);
+         out.flush();
+         DataInputStream in = new DataInputStream(socket.getInputStream());
+         assertEquals(2, in.readByte());
+         byte[] message = new byte[in.readInt()];
+         in.readFully(message);
+         assertTrue(new String(message, "UTF-8").contains("Invalid daemon token"));
+         assertEquals(3, in.readByte());
+         assertEquals(1, in.readInt());
+      }
+   }
+
+   public void testOversizedToken() throws Exception
+   {
+      try (Socket socket = connect())
+      {
+         DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+         writeHeader(out);
+         out.writeInt(Integer.MAX_VALUE);
+         out.flush();
+         // the request is rejected without a response
+         assertEquals(-1, socket.getInputStream().read());
+      }
+      testConsume();
+   }
+
+   public void testNegativeArgumentCount() throws Exception
+   {
+      try (Socket socket = connect())
+      {
+         DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+         writeHeader(out);
+         writeString(out, loadDaemonFile().getProperty("token"));
+         writeString(out, "wsconsume");
+         writeString(out, "");
+         out.writeInt(-1);
+         out.flush();
+         assertEquals(-1, socket.getInputStream().read());
+      }
+      testConsume();
+   }
+
+   private Socket connect() throws Exception
+   {
+      return new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(loadDaemonFile().getProperty("port")));
+   }
+
+   private Properties loadDaemonFile() throws Exception
+   {
+      Properties props = new Properties();
+      try (InputStream is = new FileInputStream(daemonFile))
+      {
+         props.load(is);
+      }
+      return props;
+   }
+
+   private static void writeHeader(DataOutputStream out) throws Exception
+   {
+      out.writeInt(0x4A425753);
+      out.writeInt(2);
+   }
+
+   private static void writeString(DataOutputStream out, String s) throws Exception
+   {
+      byte[] bytes = s.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   public void testShutdown() throws Exception
+   {
+      new WSToolsClient(daemonFile).shutdown();
+      assertFalse("daemon file not removed", daemonFile.exists());
+   }
+}
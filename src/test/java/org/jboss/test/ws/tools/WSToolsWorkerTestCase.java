@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.test.ws.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.jboss.ws.tools.cmd.WSToolsWorker;
+import org.jboss.ws.tools.cmd.WSToolsWorkerClient;
+
+/**
+ * Test the WSToolsWorker and its client.
+ */
+public class WSToolsWorkerTestCase extends TestCase
+{
+   public void testReuse() throws Exception
+   {
+      WSToolsWorkerClient worker = WSToolsWorkerClient.start(Arrays.asList(
+            new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+            "-Dorg.jboss.ws.api.tools.ProviderFactory=org.jboss.test.ws.tools.CmdProvideTrackerFactory",
+            "-cp", System.getProperty("java.class.path"),
+            WSToolsWorker.class.getName()));
+      try
+      {
+         for (int i = 0; i < 2; i++)
+         {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int status = worker.provide(new File("."), new String[] {"org.jboss.test.ws.tools.CalculatorBean"}, out, err);
+            assertEquals(err.toString(), 0, status);
+         }
+
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         ByteArrayOutputStream err = new ByteArrayOutputStream();
+         assertEquals(1, worker.consume(new File("."), new String[0], out, err));
+         assertTrue(err.toString().contains("WSDL URL was not specified"));
+
+         assertEquals(3, worker.getJobs());
+         // zero until the worker ran a garbage collection
+         assertTrue("invalid heap usage", worker.getHeapHighWater() >= 0);
+      }
+      finally
+      {
+         worker.close();
+      }
+      assertFalse("worker still running", worker.isAlive());
+   }
+}